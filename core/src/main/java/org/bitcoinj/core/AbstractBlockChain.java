@@ -27,6 +27,7 @@ import com.google.common.util.concurrent.*;
 import org.bitcoinj.core.listeners.*;
 import org.bitcoinj.pow.AbstractPowRulesChecker;
 import org.bitcoinj.pow.AbstractRuleCheckerFactory;
+import org.bitcoinj.pow.ChainWindow;
 import org.bitcoinj.pow.factory.RuleCheckerFactory;
 import org.bitcoinj.store.*;
 import org.bitcoinj.utils.*;
@@ -96,16 +97,14 @@ public abstract class AbstractBlockChain {
      * Following this one down to the genesis block produces the story of the economy from the creation of Bitcoin
      * until the present day. The chain head can change if a new set of blocks is received that results in a chain of
      * greater work than the one obtained by following this one down. In that case a reorganize is triggered,
-     * potentially invalidating transactions in our wallet.
+     * potentially invalidating transactions in our wallet.<p>
+     *
+     * It is only written whilst holding {@link #lock} (see setChainHead), but read without any lock. A
+     * {@link StoredBlock} never changes, so a reader gets a consistent snapshot of the head even whilst the block chain
+     * is downloading and the lock is held most of the time. Read it once into a local if more than one property of it
+     * is needed.
      */
-    protected StoredBlock chainHead;
-
-    // TODO: Scrap this and use a proper read/write for all of the block chain objects.
-    // The chainHead field is read/written synchronized with this object rather than BlockChain. However writing is
-    // also guaranteed to happen whilst BlockChain is synchronized (see setChainHead). The goal of this is to let
-    // clients quickly access the chain head even whilst the block chain is downloading and thus the BlockChain is
-    // locked most of the time.
-    private final Object chainHeadLock = new Object();
+    protected volatile StoredBlock chainHead;
 
     protected final NetworkParameters params;
     protected final AbstractRuleCheckerFactory ruleCheckerFactory;
@@ -113,35 +112,24 @@ public abstract class AbstractBlockChain {
     private final CopyOnWriteArrayList<ListenerRegistration<ReorganizeListener>> reorganizeListeners;
     private final CopyOnWriteArrayList<ListenerRegistration<TransactionReceivedInBlockListener>> transactionReceivedListeners;
 
-    // Holds a block header and, optionally, a list of tx hashes or block's transactions
-    class OrphanBlock {
-        final Block block;
-        final List<Sha256Hash> filteredTxHashes;
-        final Map<Sha256Hash, Transaction> filteredTxn;
-        OrphanBlock(Block block, @Nullable List<Sha256Hash> filteredTxHashes, @Nullable Map<Sha256Hash, Transaction> filteredTxn) {
-            final boolean filtered = filteredTxHashes != null && filteredTxn != null;
-            Preconditions.checkArgument((block.transactions == null && filtered)
-                                        || (block.transactions != null && !filtered));
-            this.block = block;
-            this.filteredTxHashes = filteredTxHashes;
-            this.filteredTxn = filteredTxn;
-        }
-    }
     // Holds blocks that we have received but can't plug into the chain yet, eg because they were created whilst we
     // were downloading the block chain.
-    private final LinkedHashMap<Sha256Hash, OrphanBlock> orphanBlocks = new LinkedHashMap<Sha256Hash, OrphanBlock>();
+    private final OrphanBlockPool orphanBlocks = new OrphanBlockPool();
 
     /** False positive estimation uses a double exponential moving average. */
     public static final double FP_ESTIMATOR_ALPHA = 0.0001;
     /** False positive estimation uses a double exponential moving average. */
     public static final double FP_ESTIMATOR_BETA = 0.01;
 
-    private double falsePositiveRate;
+    private volatile double falsePositiveRate;
     private double falsePositiveTrend;
     private double previousFalsePositiveRate;
 
     private final VersionTally versionTally;
 
+    // Recent headers, so that walking down the chain doesn't need a store lookup per block.
+    private final BlockIndex blockIndex = new BlockIndex();
+
     /** See {@link #AbstractBlockChain(Context, List, BlockStore)} */
     public AbstractBlockChain(NetworkParameters params, List<? extends Wallet> transactionReceivedListeners,
                               BlockStore blockStore) throws BlockStoreException {
@@ -166,8 +154,10 @@ public abstract class AbstractBlockChain {
         for (ReorganizeListener l : wallets) addReorganizeListener(Threading.SAME_THREAD, l);
         for (TransactionReceivedInBlockListener l : wallets) addTransactionReceivedListener(Threading.SAME_THREAD, l);
 
+        // Load enough blocks for the version tally and the difficulty checks to find theirs in the index.
+        blockIndex.load(blockStore, chainHead, Math.max(params.getMajorityWindow(), params.getInterval()));
         this.versionTally = new VersionTally(context.getParams());
-        this.versionTally.initialize(blockStore, chainHead);
+        this.versionTally.initialize(blockIndex, blockStore, chainHead);
     }
 
     /**
@@ -297,6 +287,14 @@ public abstract class AbstractBlockChain {
     public BlockStore getBlockStore() {
         return blockStore;
     }
+
+    /**
+     * Returns the in-memory index of the recent headers of this chain, which can find ancestors of blocks without
+     * walking down the block store.
+     */
+    public BlockIndex getBlockIndex() {
+        return blockIndex;
+    }
     
     /**
      * Adds/updates the given {@link Block} with the block store.
@@ -402,6 +400,112 @@ public abstract class AbstractBlockChain {
         }
     }
     
+    /**
+     * <p>Adds a run of block headers to the chain, as received in a headers message during the fast catchup part of
+     * chain download. When the headers build on the chain head and on each other, which is the normal case, each one
+     * is checked against the ones before it as {@link #add(Block)} would, but they are written to the store in one go
+     * at the end, and the listeners are told about them after that. Otherwise they are added one at a time.</p>
+     *
+     * <p>If a header is not valid, the ones before it are still added before the exception is thrown. If the headers
+     * checked in one go can't be written, none of them are added.</p>
+     *
+     * @return The number of headers that were connected to the chain. If it is less than the number of headers, the
+     * next header did not connect and the ones after it were not looked at.
+     * @throws BlockStoreException if the block store couldn't write the headers.
+     */
+    public int addHeaders(List<Block> headers) throws VerificationException, PrunedException, BlockStoreException {
+        lock.lock();
+        try {
+            StoredBlock head = getChainHead();
+            if (shouldVerifyTransactions() || headers.isEmpty()
+                    || !headers.get(0).getPrevBlockHash().equals(head.getHeader().getHash()))
+                return addOneByOne(headers, 0);
+            HeaderBatch batch = new HeaderBatch(blockStore);
+            int indexSize = blockIndex.size();
+            int connected = 0;
+            try {
+                StoredBlock storedPrev = head;
+                for (Block header : headers) {
+                    if (!header.getPrevBlockHash().equals(storedPrev.getHeader().getHash()))
+                        break;
+                    storedPrev = connectHeader(header, storedPrev, batch);
+                    connected++;
+                }
+            } catch (VerificationException e) {
+                log.error("Failed to verify block: ", e);
+                log.error(headers.get(connected).getHashAsString());
+                connectHeaderBatch(batch, indexSize, headers);
+                notSettingChainHead();
+                throw new VerificationException("Could not verify block:\n" + headers.get(connected).toString(), e);
+            }
+            connectHeaderBatch(batch, indexSize, headers);
+            return connected + addOneByOne(headers, connected);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Adds the headers from the given index on with add(Block), until one doesn't connect.
+    private int addOneByOne(List<Block> headers, int from) throws VerificationException, PrunedException {
+        int connected = 0;
+        for (int i = from; i < headers.size() && add(headers.get(i)); i++)
+            connected++;
+        return connected;
+    }
+
+    // Checks a header that builds on the given block, as add and connectBlock do for a header that builds on the chain
+    // head, and puts it in the batch.
+    private StoredBlock connectHeader(Block header, StoredBlock storedPrev, HeaderBatch batch)
+            throws BlockStoreException, VerificationException {
+        checkState(lock.isHeldByCurrentThread());
+        header.verifyHeader();
+        int height = storedPrev.getHeight() + 1;
+        AbstractPowRulesChecker rulesChecker = ruleCheckerFactory.getRuleChecker(storedPrev, header);
+        rulesChecker.checkRules(storedPrev, header, batch, this);
+        if (!params.passesCheckpoint(height, header.getHash()))
+            throw new VerificationException("Block failed checkpoint lockin at " + height);
+        if (header.getVersion() == Block.BLOCK_VERSION_BIP34
+            || header.getVersion() == Block.BLOCK_VERSION_BIP66) {
+            final Integer count = versionTally.getCountAtOrAbove(header.getVersion() + 1);
+            if (count != null
+                && count >= params.getMajorityRejectBlockOutdated()) {
+                throw new VerificationException.BlockVersionOutOfDate(header.getVersion());
+            }
+        }
+        StoredBlock newStoredBlock = storedPrev.build(header.transactions == null ? header : header.cloneAsHeader());
+        batch.put(newStoredBlock);
+        batch.setChainHead(newStoredBlock);
+        blockIndex.add(newStoredBlock);
+        versionTally.add(header.getVersion());
+        return newStoredBlock;
+    }
+
+    // Writes the headers of the batch, makes the head of the batch the chain head and then runs the listeners for each
+    // of them. The batch holds the stored form of the first of the given headers, which were added to the block index
+    // after it had the given size. If they can't be written, the index and the version tally forget them again.
+    private void connectHeaderBatch(HeaderBatch batch, int indexSize, List<Block> headers) throws BlockStoreException,
+            VerificationException, PrunedException {
+        List<StoredBlock> blocks = batch.getBlocks();
+        if (blocks.isEmpty())
+            return;
+        try {
+            batch.write();
+            setChainHead(batch.getChainHead());
+        } catch (BlockStoreException e) {
+            batch.close();
+            blockIndex.truncate(indexSize);
+            versionTally.initialize(blockIndex, blockStore, chainHead);
+            throw e;
+        }
+        log.debug("Chain is now {} blocks high, running listeners", getBestChainHeight());
+        for (int i = 0; i < blocks.size(); i++)
+            informListenersForNewBlock(headers.get(i), NewBlockType.BEST_CHAIN, null, null, blocks.get(i));
+        if (orphanBlocks.size() > 0) {
+            for (StoredBlock block : blocks)
+                tryConnectingOrphans(block.getHeader().getHash());
+        }
+    }
+
     /**
      * Whether or not we are maintaining a set of unspent outputs and are verifying all transactions.
      * Also indicates that all calls to add() should provide a block containing transactions
@@ -434,15 +538,14 @@ public abstract class AbstractBlockChain {
     private boolean add(Block block, boolean tryConnecting,
                         @Nullable List<Sha256Hash> filteredTxHashList, @Nullable Map<Sha256Hash, Transaction> filteredTxn)
             throws BlockStoreException, VerificationException, PrunedException {
-        // TODO: Use read/write locks to ensure that during chain download properties are still low latency.
+        // Queries don't take the lock: the chain head and the orphan pool can be read whilst a block connects.
         lock.lock();
         try {
-            // Quick check for duplicates to avoid an expensive check further down (in findSplit). This can happen a lot
-            // when connecting orphan transactions due to the dumb brute force algorithm we use.
+            // Quick check for duplicates to avoid an expensive check further down (in findSplit).
             if (block.equals(getChainHead().getHeader())) {
                 return true;
             }
-            if (tryConnecting && orphanBlocks.containsKey(block.getHash())) {
+            if (tryConnecting && orphanBlocks.contains(block.getHash())) {
                 return false;
             }
 
@@ -489,7 +592,7 @@ public abstract class AbstractBlockChain {
                 // have more blocks.
                 checkState(tryConnecting, "bug in tryConnectingOrphans");
                 log.warn("Block does not connect: {} prev {}", block.getHashAsString(), block.getPrevBlockHash());
-                orphanBlocks.put(block.getHash(), new OrphanBlock(block, filteredTxHashList, filteredTxn));
+                orphanBlocks.add(new OrphanBlockPool.OrphanBlock(block, filteredTxHashList, filteredTxn));
                 return false;
             } else {
                 checkState(lock.isHeldByCurrentThread());
@@ -500,7 +603,7 @@ public abstract class AbstractBlockChain {
             }
 
             if (tryConnecting)
-                tryConnectingOrphans();
+                tryConnectingOrphans(block.getHash());
 
             return true;
         } finally {
@@ -516,9 +619,7 @@ public abstract class AbstractBlockChain {
     public Set<Sha256Hash> drainOrphanBlocks() {
         lock.lock();
         try {
-            Set<Sha256Hash> hashes = new HashSet<Sha256Hash>(orphanBlocks.keySet());
-            orphanBlocks.clear();
-            return hashes;
+            return orphanBlocks.clear();
         } finally {
             lock.unlock();
         }
@@ -549,7 +650,7 @@ public abstract class AbstractBlockChain {
                         block.getHashAsString(), filteredTxHashList.size(), filteredTxn.size());
                 for (Sha256Hash hash : filteredTxHashList) log.debug("  matched tx {}", hash);
             }
-            if (expensiveChecks && block.getTimeSeconds() <= getMedianTimestampOfRecentBlocks(head, blockStore))
+            if (expensiveChecks && block.getTimeSeconds() <= getMedianTimestamp(head))
                 throw new VerificationException("Block's timestamp is too early");
 
             // BIP 66 & 65: Enforce block version 3/4 once they are a supermajority of blocks
@@ -585,7 +686,7 @@ public abstract class AbstractBlockChain {
             if (haveNewBestChain) {
                 log.info("Block is causing a re-organize");
             } else {
-                StoredBlock splitPoint = findSplit(newBlock, head, blockStore);
+                StoredBlock splitPoint = blockIndex.findSplit(newBlock, head, blockStore);
                 if (splitPoint != null && splitPoint.equals(newBlock)) {
                     // newStoredBlock is a part of the same chain, there's no fork. This happens when we receive a block
                     // that we already saw and linked into the chain previously, which isn't the chain head.
@@ -601,7 +702,7 @@ public abstract class AbstractBlockChain {
                     throw new VerificationException("Block forks the chain but splitPoint is null");
                 } else {
                     // We aren't actually spending any transactions (yet) because we are on a fork
-                    addToBlockStore(storedPrev, block);
+                    blockIndex.add(addToBlockStore(storedPrev, block));
                     int splitPointHeight = splitPoint.getHeight();
                     String splitPointHash = splitPoint.getHeader().getHashAsString();
                     log.info("Block forks the chain at height {}/block {}, but it did not cause a reorganize:\n{}",
@@ -736,6 +837,13 @@ public abstract class AbstractBlockChain {
         return timestamps[unused + (11-unused)/2];
     }
     
+    // The median time past of a block, from the window of the difficulty rules if it has the block.
+    private long getMedianTimestamp(StoredBlock block) throws BlockStoreException {
+        ChainWindow chainWindow = ruleCheckerFactory.getChainWindow();
+        long time = chainWindow != null ? chainWindow.getMedianTimePast(block) : ChainWindow.UNKNOWN;
+        return time != ChainWindow.UNKNOWN ? time : blockIndex.getMedianTimestamp(block, blockStore);
+    }
+
     /**
      * Disconnect each transaction in the block (after reading it from the block store)
      * Only called if(shouldVerifyTransactions())
@@ -758,7 +866,7 @@ public abstract class AbstractBlockChain {
         // Firstly, calculate the block at which the chain diverged. We only need to examine the
         // chain from beyond this block to find differences.
         StoredBlock head = getChainHead();
-        final StoredBlock splitPoint = findSplit(newChainHead, head, blockStore);
+        final StoredBlock splitPoint = blockIndex.findSplit(newChainHead, head, blockStore);
         log.info("Re-organize after split at height {}", splitPoint.getHeight());
         log.info("Old chain head: {}", head.getHeader().getHashAsString());
         log.info("New chain head: {}", newChainHead.getHeader().getHashAsString());
@@ -781,11 +889,12 @@ public abstract class AbstractBlockChain {
                 }
             }
             StoredBlock cursor;
+            StoredBlock cursorPrev = splitPoint;
             // Walk in ascending chronological order.
-            for (Iterator<StoredBlock> it = newBlocks.descendingIterator(); it.hasNext();) {
+            for (Iterator<StoredBlock> it = newBlocks.descendingIterator(); it.hasNext(); cursorPrev = cursor) {
                 cursor = it.next();
                 Block cursorBlock = cursor.getHeader();
-                if (expensiveChecks && cursorBlock.getTimeSeconds() <= getMedianTimestampOfRecentBlocks(cursor.getPrev(blockStore), blockStore))
+                if (expensiveChecks && cursorBlock.getTimeSeconds() <= getMedianTimestamp(cursorPrev))
                     throw new VerificationException("Block's timestamp is too early during reorg");
                 TransactionOutputChanges txOutChanges;
                 if (cursor != newChainHead || block == null)
@@ -838,33 +947,6 @@ public abstract class AbstractBlockChain {
         return results;
     }
 
-    /**
-     * Locates the point in the chain at which newStoredBlock and chainHead diverge. Returns null if no split point was
-     * found (ie they are not part of the same chain). Returns newChainHead or chainHead if they don't actually diverge
-     * but are part of the same chain.
-     */
-    private static StoredBlock findSplit(StoredBlock newChainHead, StoredBlock oldChainHead,
-                                         BlockStore store) throws BlockStoreException {
-        StoredBlock currentChainCursor = oldChainHead;
-        StoredBlock newChainCursor = newChainHead;
-        // Loop until we find the block both chains have in common. Example:
-        //
-        //    A -> B -> C -> D
-        //         \--> E -> F -> G
-        //
-        // findSplit will return block B. oldChainHead = D and newChainHead = G.
-        while (!currentChainCursor.equals(newChainCursor)) {
-            if (currentChainCursor.getHeight() > newChainCursor.getHeight()) {
-                currentChainCursor = currentChainCursor.getPrev(store);
-                checkNotNull(currentChainCursor, "Attempt to follow an orphan chain");
-            } else {
-                newChainCursor = newChainCursor.getPrev(store);
-                checkNotNull(newChainCursor, "Attempt to follow an orphan chain");
-            }
-        }
-        return currentChainCursor;
-    }
-
     /**
      * @return the height of the best known chain, convenience for <tt>getChainHead().getHeight()</tt>.
      */
@@ -902,46 +984,53 @@ public abstract class AbstractBlockChain {
 
     protected void setChainHead(StoredBlock chainHead) throws BlockStoreException {
         doSetChainHead(chainHead);
-        synchronized (chainHeadLock) {
-            this.chainHead = chainHead;
-        }
+        this.chainHead = chainHead;
+        blockIndex.setChainHead(chainHead);
+    }
+
+    /**
+     * Moves the in-memory chain head back to the given block without writing to the store or telling any listeners.
+     * Used when an aborted store transaction has taken the store back to an earlier head.
+     */
+    protected void resetChainHead(StoredBlock chainHead) throws BlockStoreException {
+        this.chainHead = chainHead;
+        blockIndex.setChainHead(chainHead);
+        versionTally.initialize(blockIndex, blockStore, chainHead);
     }
 
     /**
-     * For each block in orphanBlocks, see if we can now fit it on top of the chain and if so, do so.
+     * Connects the orphan blocks that build on the given block, which was just connected, and then the ones that
+     * build on those, and so on, in one pass over the descendants.
      */
-    private void tryConnectingOrphans() throws VerificationException, BlockStoreException, PrunedException {
+    private void tryConnectingOrphans(Sha256Hash connected) throws VerificationException, BlockStoreException, PrunedException {
         checkState(lock.isHeldByCurrentThread());
-        // For each block in our orphan list, try and fit it onto the head of the chain. If we succeed remove it
-        // from the list and keep going. If we changed the head of the list at the end of the round try again until
-        // we can't fit anything else on the top.
-        //
-        // This algorithm is kind of crappy, we should do a topo-sort then just connect them in order, but for small
-        // numbers of orphan blocks it does OK.
-        int blocksConnectedThisRound;
-        do {
-            blocksConnectedThisRound = 0;
-            Iterator<OrphanBlock> iter = orphanBlocks.values().iterator();
-            while (iter.hasNext()) {
-                OrphanBlock orphanBlock = iter.next();
-                // Look up the blocks previous.
-                StoredBlock prev = getStoredBlockInCurrentScope(orphanBlock.block.getPrevBlockHash());
-                if (prev == null) {
-                    // This is still an unconnected/orphan block.
-                    log.debug("Orphan block {} is not connectable right now", orphanBlock.block.getHash());
-                    continue;
-                }
-                // Otherwise we can connect it now.
+        if (orphanBlocks.size() == 0)
+            return;
+        Stopwatch watch = Stopwatch.createStarted();
+        int blocksConnected = 0;
+        Deque<OrphanBlockPool.OrphanBlock> pending = new ArrayDeque<OrphanBlockPool.OrphanBlock>(
+                orphanBlocks.removeChildren(connected));
+        try {
+            while (!pending.isEmpty()) {
+                OrphanBlockPool.OrphanBlock orphanBlock = pending.poll();
                 // False here ensures we don't recurse infinitely downwards when connecting huge chains.
-                log.info("Connected orphan {}", orphanBlock.block.getHash());
                 add(orphanBlock.block, false, orphanBlock.filteredTxHashes, orphanBlock.filteredTxn);
-                iter.remove();
-                blocksConnectedThisRound++;
-            }
-            if (blocksConnectedThisRound > 0) {
-                log.info("Connected {} orphan blocks.", blocksConnectedThisRound);
+                log.info("Connected orphan {}", orphanBlock.block.getHash());
+                blocksConnected++;
+                // Depth first, so that a chain of orphans is connected in order.
+                List<OrphanBlockPool.OrphanBlock> children = orphanBlocks.removeChildren(orphanBlock.block.getHash());
+                for (int i = children.size() - 1; i >= 0; i--)
+                    pending.push(children.get(i));
             }
-        } while (blocksConnectedThisRound > 0);
+        } finally {
+            // If a block failed to connect, the blocks that were still to go stay orphans.
+            for (OrphanBlockPool.OrphanBlock orphanBlock : pending)
+                orphanBlocks.add(orphanBlock);
+            orphanBlocks.recordConnectAttempt(blocksConnected, watch.elapsed(TimeUnit.NANOSECONDS));
+        }
+        if (blocksConnected > 0) {
+            log.info("Connected {} orphan blocks in {}, {} left.", blocksConnected, watch, orphanBlocks.size());
+        }
     }
 
     /**
@@ -949,9 +1038,7 @@ public abstract class AbstractBlockChain {
      * amount of cumulative work done.
      */
     public StoredBlock getChainHead() {
-        synchronized (chainHeadLock) {
-            return chainHead;
-        }
+        return chainHead;
     }
 
     /**
@@ -964,29 +1051,41 @@ public abstract class AbstractBlockChain {
      */
     @Nullable
     public Block getOrphanRoot(Sha256Hash from) {
-        lock.lock();
-        try {
-            OrphanBlock cursor = orphanBlocks.get(from);
-            if (cursor == null)
-                return null;
-            OrphanBlock tmp;
-            while ((tmp = orphanBlocks.get(cursor.block.getPrevBlockHash())) != null) {
-                cursor = tmp;
-            }
-            return cursor.block;
-        } finally {
-            lock.unlock();
-        }
+        OrphanBlockPool.OrphanBlock root = orphanBlocks.getRoot(from);
+        return root != null ? root.block : null;
     }
 
     /** Returns true if the given block is currently in the orphan blocks list. */
     public boolean isOrphan(Sha256Hash block) {
-        lock.lock();
-        try {
-            return orphanBlocks.containsKey(block);
-        } finally {
-            lock.unlock();
-        }
+        return orphanBlocks.contains(block);
+    }
+
+    /**
+     * Bounds the orphan blocks kept by their number and approximate size in bytes. When a new orphan takes the pool
+     * over either bound, the oldest orphans are dropped.
+     */
+    public void setOrphanBlockLimits(int maxBlocks, long maxBytes) {
+        orphanBlocks.setLimits(maxBlocks, maxBytes);
+    }
+
+    /** Returns the number of orphan blocks currently kept. */
+    public int getOrphanBlockCount() {
+        return orphanBlocks.size();
+    }
+
+    /** Returns the approximate size in bytes of the orphan blocks currently kept. */
+    public long getOrphanBlockBytes() {
+        return orphanBlocks.getBytes();
+    }
+
+    /** Returns the number of orphan blocks dropped because the pool was full. */
+    public long getEvictedOrphanBlockCount() {
+        return orphanBlocks.getEvictedBlocks();
+    }
+
+    /** Returns the total time spent connecting orphan blocks after their parents arrived. */
+    public long getOrphanConnectTime(TimeUnit unit) {
+        return unit.convert(orphanBlocks.getConnectNanos(), TimeUnit.NANOSECONDS);
     }
 
     /**
@@ -996,21 +1095,21 @@ public abstract class AbstractBlockChain {
      * through the chain to obtain the right answer).
      */
     public Date estimateBlockTime(int height) {
-        synchronized (chainHeadLock) {
-            long offset = height - chainHead.getHeight();
-            long headTime = chainHead.getHeader().getTimeSeconds();
-            long estimated = (headTime * 1000) + (1000L * 60L * 10L * offset);
-            return new Date(estimated);
-        }
+        StoredBlock head = chainHead;
+        long offset = height - head.getHeight();
+        long headTime = head.getHeader().getTimeSeconds();
+        long estimated = (headTime * 1000) + (1000L * 60L * 10L * offset);
+        return new Date(estimated);
     }
 
     /**
      * Returns a future that completes when the block chain has reached the given height. Yields the
-     * {@link StoredBlock} of the block that reaches that height first. The future completes on a peer thread.
+     * {@link StoredBlock} of the block that reaches that height first. The future completes on a peer thread, or
+     * straight away with the block at that height on the best chain if the chain is there already.
      */
     public ListenableFuture<StoredBlock> getHeightFuture(final int height) {
         final SettableFuture<StoredBlock> result = SettableFuture.create();
-        addNewBestBlockListener(Threading.SAME_THREAD, new NewBestBlockListener() {
+        NewBestBlockListener listener = new NewBestBlockListener() {
             @Override
             public void notifyNewBestBlock(StoredBlock block) throws VerificationException {
                 if (block.getHeight() >= height) {
@@ -1018,7 +1117,18 @@ public abstract class AbstractBlockChain {
                     result.set(block);
                 }
             }
-        });
+        };
+        addNewBestBlockListener(Threading.SAME_THREAD, listener);
+        // Check the head after adding the listener, so that a block connected in between is not missed either way.
+        StoredBlock head = chainHead;
+        if (head.getHeight() >= height && ListenerRegistration.removeFromList(listener, newBestBlockListeners)) {
+            try {
+                StoredBlock block = blockIndex.getAncestor(head, height, blockStore);
+                result.set(block != null ? block : head);
+            } catch (BlockStoreException e) {
+                result.setException(e);
+            }
+        }
         return result;
     }
 
@@ -29,6 +29,8 @@ import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -96,6 +98,26 @@ public class Address extends VersionedChecksummedBytes {
         return new Address(params, base58);
     }
 
+    /**
+     * Constructs addresses from their Base58 representations, see {@link #fromBase58(NetworkParameters, String)}.
+     * @return The addresses in the given order.
+     */
+    public static List<Address> fromBase58(@Nullable NetworkParameters params, List<String> base58)
+            throws AddressFormatException {
+        List<Address> addresses = new ArrayList<Address>(base58.size());
+        for (String address : base58)
+            addresses.add(new Address(params, address));
+        return addresses;
+    }
+
+    /** Returns the Base58 representations of the given addresses, in the given order. */
+    public static List<String> toBase58(List<? extends Address> addresses) {
+        List<String> base58 = new ArrayList<String>(addresses.size());
+        for (Address address : addresses)
+            base58.add(address.toBase58());
+        return base58;
+    }
+
     /**
      * Construct an address from parameters and the hash160 form. Example:<p>
      *
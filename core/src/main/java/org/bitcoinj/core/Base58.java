@@ -42,10 +42,16 @@ import java.util.Arrays;
  * base-256 digits, convert the number to be represented using base-58 digits, preserve the exact
  * number of leading zeros (which are otherwise lost during the mathematical operations on the
  * numbers), and finally represent the resulting base-58 digits as alphanumeric ASCII characters.
+ * <p>
+ * To make the conversion faster, the number is not converted one digit at a time. Instead it is handled in
+ * limbs of 32 bits on the binary side and of five base-58 digits on the other side.
  */
 public class Base58 {
     public static final char[] ALPHABET = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
     private static final char ENCODED_ZERO = ALPHABET[0];
+    // The number of base-58 digits in a limb, and the base of the limbs: the largest power of 58 that fits in an int.
+    private static final int LIMB_DIGITS = 5;
+    private static final long LIMB_BASE = 58L * 58 * 58 * 58 * 58;
     private static final int[] INDEXES = new int[128];
     static {
         Arrays.fill(INDEXES, -1);
@@ -63,26 +69,39 @@ public class Base58 {
     public static String encode(byte[] input) {
         if (input.length == 0) {
             return "";
-        }       
+        }
         // Count leading zeros.
         int zeros = 0;
         while (zeros < input.length && input[zeros] == 0) {
             ++zeros;
         }
-        // Convert base-256 digits to base-58 digits (plus conversion to ASCII characters)
-        input = Arrays.copyOf(input, input.length); // since we modify it in-place
-        char[] encoded = new char[input.length * 2]; // upper bound
+        // Convert the rest, four bytes at a time, to limbs of five base-58 digits, least significant limb first.
+        int[] limbs = new int[(input.length - zeros) * 28 / 100 + 2]; // log(256) / log(58^5) < 0.28
+        int numLimbs = 0;
+        int i = zeros;
+        int head = (input.length - zeros) % 4;
+        if (head != 0) {
+            long word = 0;
+            for (int end = i + head; i < end; i++)
+                word = word << 8 | (input[i] & 0xFF);
+            numLimbs = multiplyAdd(limbs, numLimbs, 1L << (8 * head), word, LIMB_BASE);
+        }
+        for (; i < input.length; i += 4) {
+            long word = (input[i] & 0xFFL) << 24 | (input[i + 1] & 0xFF) << 16 | (input[i + 2] & 0xFF) << 8
+                    | (input[i + 3] & 0xFF);
+            numLimbs = multiplyAdd(limbs, numLimbs, 1L << 32, word, LIMB_BASE);
+        }
+        // Write out the digits of the limbs, and as many encoded zeros as there were leading zeros in input.
+        char[] encoded = new char[zeros + numLimbs * LIMB_DIGITS];
         int outputStart = encoded.length;
-        for (int inputStart = zeros; inputStart < input.length; ) {
-            encoded[--outputStart] = ALPHABET[divmod(input, inputStart, 256, 58)];
-            if (input[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        for (int l = 0; l < numLimbs; l++) {
+            int limb = limbs[l];
+            // The most significant limb has no leading zero digits.
+            for (int d = 0; d < LIMB_DIGITS && (limb != 0 || l < numLimbs - 1); d++) {
+                encoded[--outputStart] = ALPHABET[limb % 58];
+                limb /= 58;
             }
         }
-        // Preserve exactly as many leading encoded zeros in output as there were leading zeros in input.
-        while (outputStart < encoded.length && encoded[outputStart] == ENCODED_ZERO) {
-            ++outputStart;
-        }
         while (--zeros >= 0) {
             encoded[--outputStart] = ENCODED_ZERO;
         }
@@ -101,38 +120,44 @@ public class Base58 {
         if (input.length() == 0) {
             return new byte[0];
         }
-        // Convert the base58-encoded ASCII chars to a base58 byte sequence (base58 digits).
-        byte[] input58 = new byte[input.length()];
-        for (int i = 0; i < input.length(); ++i) {
-            char c = input.charAt(i);
-            int digit = c < 128 ? INDEXES[c] : -1;
-            if (digit < 0) {
-                throw new AddressFormatException("Illegal character " + c + " at position " + i);
-            }
-            input58[i] = (byte) digit;
-        }
         // Count leading zeros.
         int zeros = 0;
-        while (zeros < input58.length && input58[zeros] == 0) {
+        while (zeros < input.length() && input.charAt(zeros) == ENCODED_ZERO) {
             ++zeros;
         }
-        // Convert base-58 digits to base-256 digits.
-        byte[] decoded = new byte[input.length()];
-        int outputStart = decoded.length;
-        for (int inputStart = zeros; inputStart < input58.length; ) {
-            decoded[--outputStart] = divmod(input58, inputStart, 58, 256);
-            if (input58[inputStart] == 0) {
-                ++inputStart; // optimization - skip leading zeros
+        // Convert the rest, five digits at a time, to 32 bit limbs, least significant limb first.
+        int[] limbs = new int[(input.length() - zeros) * 19 / 100 + 2]; // log(58) / log(2^32) < 0.19
+        int numLimbs = 0;
+        int i = zeros;
+        int head = (input.length() - zeros) % LIMB_DIGITS;
+        if (head != 0) {
+            long multiplier = 1;
+            long chunk = 0;
+            for (int end = i + head; i < end; i++) {
+                chunk = chunk * 58 + digit(input, i);
+                multiplier *= 58;
             }
+            numLimbs = multiplyAdd(limbs, numLimbs, multiplier, chunk, 1L << 32);
         }
-        // Ignore extra leading zeroes that were added during the calculation.
-        while (outputStart < decoded.length && decoded[outputStart] == 0) {
-            ++outputStart;
+        for (; i < input.length(); i += LIMB_DIGITS) {
+            long chunk = (((digit(input, i) * 58L + digit(input, i + 1)) * 58 + digit(input, i + 2)) * 58
+                    + digit(input, i + 3)) * 58 + digit(input, i + 4);
+            numLimbs = multiplyAdd(limbs, numLimbs, LIMB_BASE, chunk, 1L << 32);
         }
-        // Return decoded data (including original number of leading zeros).
-        return Arrays.copyOfRange(decoded, outputStart - zeros, decoded.length);
+        // Write out the bytes of the limbs after the original number of leading zeros.
+        int topBytes = numLimbs == 0 ? 0 : 4 - Integer.numberOfLeadingZeros(limbs[numLimbs - 1]) / 8;
+        byte[] decoded = new byte[zeros + (numLimbs == 0 ? 0 : (numLimbs - 1) * 4 + topBytes)];
+        int outputStart = decoded.length;
+        for (int l = 0; l < numLimbs; l++) {
+            int limb = limbs[l];
+            for (int b = 0; b < (l < numLimbs - 1 ? 4 : topBytes); b++) {
+                decoded[--outputStart] = (byte) limb;
+                limb >>>= 8;
+            }
+        }
+        return decoded;
     }
-    
+
     public static BigInteger decodeToBigInteger(String input) throws AddressFormatException {
         return new BigInteger(1, decode(input));
     }
@@ -149,36 +174,46 @@ public class Base58 {
         byte[] decoded  = decode(input);
         if (decoded.length < 4)
             throw new AddressFormatException("Input too short");
-        byte[] data = Arrays.copyOfRange(decoded, 0, decoded.length - 4);
-        byte[] checksum = Arrays.copyOfRange(decoded, decoded.length - 4, decoded.length);
-        byte[] actualChecksum = Arrays.copyOfRange(Sha256Hash.hashTwice(data), 0, 4);
-        if (!Arrays.equals(checksum, actualChecksum))
-            throw new AddressFormatException("Checksum does not validate");
-        return data;
+        byte[] actualChecksum = Sha256Hash.hashTwice(decoded, 0, decoded.length - 4);
+        for (int i = 0; i < 4; i++)
+            if (decoded[decoded.length - 4 + i] != actualChecksum[i])
+                throw new AddressFormatException("Checksum does not validate");
+        return Arrays.copyOfRange(decoded, 0, decoded.length - 4);
+    }
+
+    private static int digit(String input, int i) throws AddressFormatException {
+        char c = input.charAt(i);
+        int digit = c < 128 ? INDEXES[c] : -1;
+        if (digit < 0) {
+            throw new AddressFormatException("Illegal character " + c + " at position " + i);
+        }
+        return digit;
     }
 
     /**
-     * Divides a number, represented as an array of bytes each containing a single digit
-     * in the specified base, by the given divisor. The given number is modified in-place
-     * to contain the quotient, and the return value is the remainder.
+     * Multiplies a number, represented as limbs in the given base with the least significant limb first, by the
+     * given multiplier and adds the given value to it. The limbs are modified in place, and must have room for the
+     * result.
      *
-     * @param number the number to divide
-     * @param firstDigit the index within the array of the first non-zero digit
-     *        (this is used for optimization by skipping the leading zeros)
-     * @param base the base in which the number's digits are represented (up to 256)
-     * @param divisor the number to divide by (up to 256)
-     * @return the remainder of the division operation
+     * @param limbs the limbs of the number, treated as unsigned
+     * @param numLimbs the number of limbs in use
+     * @param multiplier the multiplier, up to 2^32
+     * @param addend the value to add, less than the multiplier
+     * @param base the base of the limbs, up to 2^32
+     * @return the number of limbs in use afterwards
      */
-    private static byte divmod(byte[] number, int firstDigit, int base, int divisor) {
-        // this is just long division which accounts for the base of the input digits
-        int remainder = 0;
-        for (int i = firstDigit; i < number.length; i++) {
-            int digit = (int) number[i] & 0xFF;
-            int temp = remainder * base + digit;
-            number[i] = (byte) (temp / divisor);
-            remainder = temp % divisor;
+    private static int multiplyAdd(int[] limbs, int numLimbs, long multiplier, long addend, long base) {
+        long carry = addend;
+        for (int i = 0; i < numLimbs; i++) {
+            long temp = (limbs[i] & 0xFFFFFFFFL) * multiplier + carry;
+            limbs[i] = (int) (temp % base);
+            carry = temp / base;
+        }
+        while (carry != 0) {
+            limbs[numLimbs++] = (int) (carry % base);
+            carry /= base;
         }
-        return (byte) remainder;
+        return numLimbs;
     }
 
 }
@@ -451,6 +451,13 @@ public class Block extends Message {
         return LARGEST_HASH.divide(target.add(BigInteger.ONE));
     }
 
+    /** The same as {@link #getWork()}, as a fixed size integer. */
+    public UInt256 getWorkAsUInt256() throws VerificationException {
+        // 2^256 / (target + 1) doesn't fit in 256 bits, but it is the same as ~target / (target + 1) + 1.
+        UInt256 target = getDifficultyTargetAsUInt256();
+        return target.not().divide(target.add(UInt256.ONE)).add(UInt256.ONE);
+    }
+
     /** Returns a copy of the block, but without any transactions. */
     public Block cloneAsHeader() {
         Block block = new Block(params, BLOCK_VERSION_GENESIS);
@@ -532,6 +539,20 @@ public class Block extends Message {
         return target;
     }
 
+    /** The same as {@link #getDifficultyTargetAsInteger()}, as a fixed size integer. */
+    public UInt256 getDifficultyTargetAsUInt256() throws VerificationException {
+        UInt256 target;
+        try {
+            target = UInt256.decodeCompact(difficultyTarget);
+        } catch (ArithmeticException e) {
+            // Negative or too large, let the exception say what the target is.
+            return UInt256.fromBigInteger(getDifficultyTargetAsInteger());
+        }
+        if (target.isZero() || target.compareTo(params.getMaxTargetAsUInt256()) > 0)
+            throw new VerificationException("Difficulty target is bad: " + target.toBigInteger().toString());
+        return target;
+    }
+
     /** Returns true if the hash of the block is OK (lower than difficulty target). */
     protected boolean checkProofOfWork(boolean throwException) throws VerificationException {
         // This part is key - it is what proves the block was as difficult to make as it claims
@@ -542,14 +563,14 @@ public class Block extends Message {
         //
         // To prevent this attack from being possible, elsewhere we check that the difficultyTarget
         // field is of the right value. This requires us to have the preceeding blocks.
-        BigInteger target = getDifficultyTargetAsInteger();
+        UInt256 target = getDifficultyTargetAsUInt256();
 
-        BigInteger h = getHash().toBigInteger();
+        UInt256 h = UInt256.fromBytes(getHash().getBytes());
         if (h.compareTo(target) > 0) {
             // Proof of work check failed!
             if (throwException)
                 throw new VerificationException("Hash is higher than target: " + getHashAsString() + " vs "
-                        + target.toString(16));
+                        + target.toString());
             else
                 return false;
         }
@@ -108,12 +108,9 @@ public class BlockChain extends AbstractBlockChain {
                 return; // nothing to do
 
             // Look for the block we want to be the new chain head
-            StoredBlock newChainHead = blockStore.getChainHead();
-            while (newChainHead.getHeight() > height) {
-                newChainHead = newChainHead.getPrev(blockStore);
-                if (newChainHead == null)
-                    throw new BlockStoreException("Unreachable height");
-            }
+            StoredBlock newChainHead = getBlockIndex().getAncestor(blockStore.getChainHead(), height, blockStore);
+            if (newChainHead == null)
+                throw new BlockStoreException("Unreachable height");
 
             // Modify store directly
             blockStore.put(newChainHead);
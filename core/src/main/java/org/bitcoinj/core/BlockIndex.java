@@ -0,0 +1,451 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>An in-memory index of the recent block headers of a chain, which answers the questions the chain asks about the
+ * blocks below a block without going to the {@link BlockStore} for every block on the way down: the ancestor at a
+ * given height, the median time of the past blocks and the point at which two chains split.</p>
+ *
+ * <p>The headers are kept as entries in parallel arrays. Besides a link to its parent, each entry has a link to an
+ * ancestor further down (a skip list, as in Bitcoin Core), so finding an ancestor takes a logarithmic number of
+ * steps. For the best chain there is also an array from height to entry, which makes its ancestors a single lookup.
+ * The index only keeps the last {@link #DEFAULT_DEPTH} (or the given depth of) blocks below the chain head; questions
+ * about older blocks are answered from the store as before.</p>
+ *
+ * <p>This class is thread safe.</p>
+ */
+public class BlockIndex {
+    /** The default number of blocks below the chain head that are kept. */
+    public static final int DEFAULT_DEPTH = 10000;
+
+    private static final int NONE = -1;
+    private static final int MEDIAN_TIME_SPAN = 11;
+
+    private final int depth;
+    private int pruneAt;
+
+    // The entries, indexed by their position in these arrays.
+    private Sha256Hash[] hashes;
+    private int[] heights;
+    private int[] parents;
+    private int[] skips;
+    private long[] times;
+    private long[] versions;
+    private int size;
+    private final Map<Sha256Hash, Integer> positions = new HashMap<Sha256Hash, Integer>();
+
+    // The entries of the best chain by height, starting at mainChainBase.
+    private int[] mainChain = new int[16];
+    private int mainChainBase;
+    private int mainChainSize;
+
+    public BlockIndex() {
+        this(DEFAULT_DEPTH);
+    }
+
+    /** @param depth The number of blocks below the chain head to keep. */
+    public BlockIndex(int depth) {
+        checkArgument(depth > MEDIAN_TIME_SPAN);
+        this.depth = depth;
+        this.pruneAt = 2 * depth;
+        clear();
+    }
+
+    /** Forgets all blocks. */
+    public synchronized void clear() {
+        hashes = new Sha256Hash[16];
+        heights = new int[16];
+        parents = new int[16];
+        skips = new int[16];
+        times = new long[16];
+        versions = new long[16];
+        size = 0;
+        positions.clear();
+        mainChainBase = 0;
+        mainChainSize = 0;
+    }
+
+    /** Returns the number of blocks in the index. */
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean contains(Sha256Hash hash) {
+        return positions.containsKey(hash);
+    }
+
+    /**
+     * Fills the index with the given block and up to <tt>count</tt> blocks below it, read from the store, and makes
+     * it the chain head.
+     */
+    public void load(BlockStore store, StoredBlock chainHead, int count) throws BlockStoreException {
+        LinkedList<StoredBlock> blocks = new LinkedList<StoredBlock>();
+        StoredBlock cursor = chainHead;
+        for (int i = 0; cursor != null && i <= count && !contains(cursor.getHeader().getHash()); i++) {
+            blocks.addFirst(cursor);
+            cursor = cursor.getPrev(store);
+        }
+        synchronized (this) {
+            for (StoredBlock block : blocks)
+                add(block);
+            setChainHead(chainHead);
+        }
+    }
+
+    /**
+     * Adds a block to the index, if it isn't there already. Blocks should be added after their parent, otherwise
+     * the index cannot link them and falls back to the store for everything below them.
+     */
+    public synchronized void add(StoredBlock block) {
+        Block header = block.getHeader();
+        Sha256Hash hash = header.getHash();
+        if (positions.containsKey(hash))
+            return;
+        if (size == hashes.length)
+            grow(size * 2);
+        int height = block.getHeight();
+        int parent = find(header.getPrevBlockHash());
+        if (parent != NONE && heights[parent] != height - 1)
+            parent = NONE;
+        int pos = size++;
+        hashes[pos] = hash;
+        heights[pos] = height;
+        parents[pos] = parent;
+        skips[pos] = parent == NONE ? NONE : ancestor(parent, skipHeight(height));
+        times[pos] = header.getTimeSeconds();
+        versions[pos] = header.getVersion();
+        positions.put(hash, pos);
+    }
+
+    /**
+     * Forgets the blocks added since the index had the given size, as if they had never been added. None of them may
+     * be on the best chain, and the index must not have been pruned since, which only {@link #setChainHead(StoredBlock)}
+     * does.
+     */
+    synchronized void truncate(int size) {
+        checkArgument(size >= 0 && size <= this.size, "Bad size: %s", size);
+        // Entries only ever point to entries added before them, so the ones that stay don't point to these.
+        for (int pos = size; pos < this.size; pos++)
+            positions.remove(hashes[pos]);
+        Arrays.fill(hashes, size, this.size, null);
+        this.size = size;
+    }
+
+    /**
+     * Adds the block if needed and makes it the head of the best chain. Blocks that have fallen more than the depth
+     * of the index below the new head are forgotten.
+     */
+    public synchronized void setChainHead(StoredBlock chainHead) {
+        add(chainHead);
+        int pos = find(chainHead.getHeader().getHash());
+        int height = heights[pos];
+        if (mainChainSize == 0 || height < mainChainBase) {
+            mainChainBase = lowestIndexedHeight(pos);
+            mainChainSize = 0;
+        }
+        int newSize = height - mainChainBase + 1;
+        if (newSize > mainChain.length)
+            mainChain = Arrays.copyOf(mainChain, Math.max(newSize, mainChain.length * 2));
+        // Heights between the old head and the new one that are no longer used must not keep stale entries.
+        for (int i = mainChainSize; i < newSize; i++)
+            mainChain[i] = NONE;
+        mainChainSize = newSize;
+        // Walk down until the new chain meets the old one, which is usually right away.
+        int cursor = pos;
+        while (cursor != NONE && heights[cursor] >= mainChainBase && mainChain[heights[cursor] - mainChainBase] != cursor) {
+            mainChain[heights[cursor] - mainChainBase] = cursor;
+            cursor = parents[cursor];
+        }
+        if (cursor == NONE) {
+            // The new chain runs off the bottom of the index, so what is below isn't known to be the best chain.
+            int bottom = lowestIndexedHeight(pos);
+            System.arraycopy(mainChain, bottom - mainChainBase, mainChain, 0, height - bottom + 1);
+            mainChainSize = height - bottom + 1;
+            mainChainBase = bottom;
+        }
+        if (size > pruneAt) {
+            prune(height - depth);
+            // Many blocks on side chains can keep the index big, don't prune again right away then.
+            pruneAt = Math.max(2 * depth, 2 * size);
+        }
+    }
+
+    /** Returns the hash of the best chain block at the given height, or null if that height isn't indexed. */
+    @Nullable
+    public synchronized Sha256Hash getMainChainHash(int height) {
+        if (height < mainChainBase || height >= mainChainBase + mainChainSize)
+            return null;
+        int pos = mainChain[height - mainChainBase];
+        return pos == NONE ? null : hashes[pos];
+    }
+
+    /**
+     * Returns the hash of the ancestor of the given block at the given height, or null if the index doesn't go that
+     * far down from the block.
+     */
+    @Nullable
+    public synchronized Sha256Hash getAncestorHash(Sha256Hash hash, int height) {
+        int pos = find(hash);
+        if (pos == NONE)
+            return null;
+        int ancestor = ancestor(pos, height);
+        return ancestor == NONE ? null : hashes[ancestor];
+    }
+
+    /**
+     * Returns the ancestor of the given block at the given height, which is looked up in the index and then fetched
+     * from the store with a single read. If the index can't answer, the store is walked down from the block.
+     *
+     * @return The ancestor, or null if the store doesn't go down that far.
+     */
+    @Nullable
+    public StoredBlock getAncestor(StoredBlock block, int height, BlockStore store) throws BlockStoreException {
+        checkArgument(height <= block.getHeight(), "Ancestor above block: %s", height);
+        if (height == block.getHeight())
+            return block;
+        Sha256Hash hash = getAncestorHash(block.getHeader().getHash(), height);
+        if (hash != null) {
+            StoredBlock ancestor = store.get(hash);
+            if (ancestor != null)
+                return ancestor;
+        }
+        StoredBlock cursor = block;
+        while (cursor != null && cursor.getHeight() > height)
+            cursor = cursor.getPrev(store);
+        return cursor;
+    }
+
+    /**
+     * Returns the median timestamp of the given block and the 10 blocks before it, as
+     * {@link AbstractBlockChain#getMedianTimestampOfRecentBlocks(StoredBlock, BlockStore)} does, but without reading
+     * the store if the blocks are indexed.
+     */
+    public long getMedianTimestamp(StoredBlock block, BlockStore store) throws BlockStoreException {
+        long[] timestamps = new long[MEDIAN_TIME_SPAN];
+        int count = 0;
+        synchronized (this) {
+            int pos = find(block.getHeader().getHash());
+            while (pos != NONE && count < MEDIAN_TIME_SPAN) {
+                timestamps[count++] = times[pos];
+                pos = parents[pos];
+            }
+            // If the index ran out before the start of the chain, the store may know more.
+            if (count < MEDIAN_TIME_SPAN && count < block.getHeight() + 1)
+                count = 0;
+        }
+        if (count == 0)
+            return AbstractBlockChain.getMedianTimestampOfRecentBlocks(block, store);
+        Arrays.sort(timestamps, 0, count);
+        return timestamps[(count - 1) / 2];
+    }
+
+    /**
+     * Returns the versions of the given block and the blocks below it, newest first, or null if fewer than
+     * <tt>count</tt> of them are indexed.
+     */
+    @Nullable
+    public synchronized long[] getVersions(Sha256Hash hash, int count) {
+        long[] result = new long[count];
+        int pos = find(hash);
+        for (int i = 0; i < count; i++) {
+            if (pos == NONE)
+                return null;
+            result[i] = versions[pos];
+            pos = parents[pos];
+        }
+        return result;
+    }
+
+    /**
+     * Locates the point at which two chains diverge, as the chain does when it reorganizes. For example, the split of
+     * D and G below is B:
+     *
+     * <pre>
+     *    A -> B -> C -> D
+     *         \--> E -> F -> G
+     * </pre>
+     *
+     * Returns one of the blocks if it is an ancestor of the other. If the blocks are indexed this takes a logarithmic number of index lookups
+     * and one store read, otherwise the store is walked down from both blocks.
+     *
+     * @throws NullPointerException If the blocks are not part of the same chain.
+     */
+    public StoredBlock findSplit(StoredBlock newChainHead, StoredBlock oldChainHead, BlockStore store)
+            throws BlockStoreException {
+        Sha256Hash split = findSplitHash(newChainHead, oldChainHead);
+        if (split != null) {
+            if (split.equals(newChainHead.getHeader().getHash()))
+                return newChainHead;
+            if (split.equals(oldChainHead.getHeader().getHash()))
+                return oldChainHead;
+            StoredBlock block = store.get(split);
+            if (block != null)
+                return block;
+        }
+        StoredBlock currentChainCursor = oldChainHead;
+        StoredBlock newChainCursor = newChainHead;
+        while (!currentChainCursor.equals(newChainCursor)) {
+            if (currentChainCursor.getHeight() > newChainCursor.getHeight()) {
+                currentChainCursor = currentChainCursor.getPrev(store);
+                checkNotNull(currentChainCursor, "Attempt to follow an orphan chain");
+            } else {
+                newChainCursor = newChainCursor.getPrev(store);
+                checkNotNull(newChainCursor, "Attempt to follow an orphan chain");
+            }
+        }
+        return currentChainCursor;
+    }
+
+    @Nullable
+    private synchronized Sha256Hash findSplitHash(StoredBlock a, StoredBlock b) {
+        int posA = find(a.getHeader().getHash());
+        int posB = find(b.getHeader().getHash());
+        if (posA == NONE || posB == NONE)
+            return null;
+        int high = Math.min(heights[posA], heights[posB]);
+        posA = ancestor(posA, high);
+        posB = ancestor(posB, high);
+        if (posA == NONE || posB == NONE)
+            return null;
+        if (posA == posB)
+            return hashes[posA];
+        // Whether the ancestors at a height are the same only changes once going up, so search for that height.
+        int low = Math.max(lowestIndexedHeight(posA), lowestIndexedHeight(posB));
+        if (low > high || ancestor(posA, low) != ancestor(posB, low))
+            return null;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (ancestor(posA, mid) == ancestor(posB, mid))
+                low = mid;
+            else
+                high = mid;
+        }
+        return hashes[ancestor(posA, low)];
+    }
+
+    private int find(Sha256Hash hash) {
+        Integer pos = positions.get(hash);
+        return pos == null ? NONE : pos;
+    }
+
+    /** Returns the height of the lowest indexed ancestor of the entry. */
+    private int lowestIndexedHeight(int pos) {
+        while (parents[pos] != NONE)
+            pos = skips[pos] != NONE ? skips[pos] : parents[pos];
+        return heights[pos];
+    }
+
+    /** Returns the ancestor of the entry at the given height, or NONE if it is not indexed. */
+    private int ancestor(int pos, int height) {
+        if (height > heights[pos] || height < 0)
+            return NONE;
+        // Blocks of the best chain can be looked up by height.
+        int mainIndex = heights[pos] - mainChainBase;
+        if (mainIndex >= 0 && mainIndex < mainChainSize && mainChain[mainIndex] == pos
+                && height >= mainChainBase) {
+            return mainChain[height - mainChainBase];
+        }
+        // Otherwise follow the skip pointers, taken from CBlockIndex::GetAncestor in Bitcoin Core.
+        int walk = pos;
+        int walkHeight = heights[pos];
+        while (walkHeight > height) {
+            int skipHeight = skipHeight(walkHeight);
+            int skipHeightPrev = skipHeight(walkHeight - 1);
+            if (skips[walk] != NONE && (skipHeight == height || (skipHeight > height
+                    && !(skipHeightPrev < skipHeight - 2 && skipHeightPrev >= height)))) {
+                walk = skips[walk];
+                walkHeight = skipHeight;
+            } else {
+                walk = parents[walk];
+                if (walk == NONE)
+                    return NONE;
+                walkHeight--;
+            }
+        }
+        return walk;
+    }
+
+    /** The height the skip pointer of a block at the given height points to, as in Bitcoin Core. */
+    static int skipHeight(int height) {
+        if (height < 2)
+            return 0;
+        // Any number strictly lower than height is acceptable, but this gives the best search performance.
+        return (height & 1) != 0 ? invertLowestOne(invertLowestOne(height - 1)) + 1 : invertLowestOne(height);
+    }
+
+    private static int invertLowestOne(int n) {
+        return n & (n - 1);
+    }
+
+    private void grow(int capacity) {
+        hashes = Arrays.copyOf(hashes, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        skips = Arrays.copyOf(skips, capacity);
+        times = Arrays.copyOf(times, capacity);
+        versions = Arrays.copyOf(versions, capacity);
+    }
+
+    /** Drops the entries below the given height and packs the others to the front of the arrays. */
+    private void prune(int minHeight) {
+        int[] moved = new int[size];
+        int newSize = 0;
+        for (int pos = 0; pos < size; pos++) {
+            if (heights[pos] < minHeight) {
+                moved[pos] = NONE;
+                positions.remove(hashes[pos]);
+                continue;
+            }
+            moved[pos] = newSize;
+            hashes[newSize] = hashes[pos];
+            heights[newSize] = heights[pos];
+            parents[newSize] = parents[pos];
+            skips[newSize] = skips[pos];
+            times[newSize] = times[pos];
+            versions[newSize] = versions[pos];
+            positions.put(hashes[newSize], newSize);
+            newSize++;
+        }
+        // Entries only ever point to entries added before them, which have already been moved.
+        for (int pos = 0; pos < newSize; pos++) {
+            parents[pos] = parents[pos] == NONE ? NONE : moved[parents[pos]];
+            skips[pos] = skips[pos] == NONE ? NONE : moved[skips[pos]];
+        }
+        Arrays.fill(hashes, newSize, size, null);
+        size = newSize;
+        if (hashes.length > 4 * Math.max(size, 16))
+            grow(2 * Math.max(size, 16));
+        int drop = Math.min(Math.max(0, minHeight - mainChainBase), mainChainSize);
+        for (int i = drop; i < mainChainSize; i++)
+            mainChain[i - drop] = mainChain[i] == NONE ? NONE : moved[mainChain[i]];
+        mainChainSize -= drop;
+        mainChainBase += drop;
+    }
+}
@@ -19,6 +19,9 @@
  */
 package org.bitcoinj.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * <p>A Bitcoin Cash address looks like bitcoincash:qpk4hk3wuxe2uqtqc97n8atzrrr6r5mleczf9sur4h and is derived from
  * an elliptic curve public key plus a set of network parameters. Not to be confused with a {@link PeerAddress}
@@ -96,6 +99,14 @@ public class CashAddress extends Address {
                 CashAddressHelper.packAddressData(getHash160(), addressType.getValue()));
     }
 
+    /** Returns the cashaddr representations of the given addresses, in the given order. */
+    public static List<String> toStrings(List<? extends CashAddress> addresses) {
+        List<String> strings = new ArrayList<String>(addresses.size());
+        for (CashAddress address : addresses)
+            strings.add(address.toString());
+        return strings;
+    }
+
     @Override
     public Address clone() throws CloneNotSupportedException {
         return super.clone();
@@ -20,6 +20,8 @@ import org.bitcoinj.params.Networks;
 import org.bitcoinj.script.Script;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static org.bitcoinj.core.Address.isAcceptableVersion;
@@ -139,6 +141,31 @@ public class CashAddressFactory {
         return new CashAddress(params, type, result);
     }
 
+    /**
+     * Constructs addresses from their Base58 representations, see {@link #getFromBase58(NetworkParameters, String)}.
+     * @return The addresses in the given order.
+     */
+    public List<CashAddress> getFromBase58(@Nullable NetworkParameters params, List<String> base58)
+            throws AddressFormatException {
+        List<CashAddress> addresses = new ArrayList<CashAddress>(base58.size());
+        for (String address : base58)
+            addresses.add(getFromBase58(params, address));
+        return addresses;
+    }
+
+    /**
+     * Constructs addresses from their cashaddr representations, see
+     * {@link #getFromFormattedAddress(NetworkParameters, String)}.
+     * @return The addresses in the given order.
+     */
+    public List<CashAddress> getFromFormattedAddresses(@Nullable NetworkParameters params, List<String> addrs)
+            throws AddressFormatException {
+        List<CashAddress> addresses = new ArrayList<CashAddress>(addrs.size());
+        for (String addr : addrs)
+            addresses.add(getFromFormattedAddress(params, addr));
+        return addresses;
+    }
+
     private CashAddress.CashAddressType getAddressTypeFromVersionByte(byte versionByte)
             throws AddressFormatException {
         switch (versionByte >> 3 & 0x1f) {
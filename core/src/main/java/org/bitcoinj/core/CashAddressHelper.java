@@ -39,16 +39,6 @@ public class CashAddressHelper {
             -1, -1, 29, -1, 24, 13, 25, 9, 8, 23, -1, 18, 22, 31, 27, 19, -1, 1, 0,
             3, 16, 11, 28, 12, 14, 6, 4, 2, -1, -1, -1, -1, -1};
 
-    /**
-     * Concatenate two byte arrays.
-     */
-    static byte[] concatenateByteArrays(final byte[] x, final byte[] y) {
-        byte[] z = new byte[x.length + y.length];
-        System.arraycopy(x, 0, z, 0, x.length);
-        System.arraycopy(y, 0, z, x.length, y.length);
-        return z;
-    }
-
     /**
      * This function will compute what 8 5-bit values to XOR into the last 8 input
      * values, in order to make the checksum 0. These 8 values are packed together
@@ -114,42 +104,7 @@ public class CashAddressHelper {
              * c'(x) = (c1*x^5 + c2*x^4 + c3*x^3 + c4*x^2 + c5*x + d) + c0*k(x)
              */
 
-            // First, determine the value of c0:
-            byte c0 = (byte) (c >> 35);
-
-            // Then compute c1*x^5 + c2*x^4 + c3*x^3 + c4*x^2 + c5*x + d:
-            c = ((c & 0x07ffffffffL) << 5) ^ d;
-
-            // Finally, for each set bit n in c0, conditionally add {2^n}k(x):
-            if ((c0 & 0x01) != 0) {
-                // k(x) = {19}*x^7 + {3}*x^6 + {25}*x^5 + {11}*x^4 + {25}*x^3 +
-                //        {3}*x^2 + {19}*x + {1}
-                c ^= 0x98f2bc8e61L;
-            }
-
-            if ((c0 & 0x02) != 0) {
-                // {2}k(x) = {15}*x^7 + {6}*x^6 + {27}*x^5 + {22}*x^4 + {27}*x^3 +
-                //           {6}*x^2 + {15}*x + {2}
-                c ^= 0x79b76d99e2L;
-            }
-
-            if ((c0 & 0x04) != 0) {
-                // {4}k(x) = {30}*x^7 + {12}*x^6 + {31}*x^5 + {5}*x^4 + {31}*x^3 +
-                //           {12}*x^2 + {30}*x + {4}
-                c ^= 0xf33e5fb3c4L;
-            }
-
-            if ((c0 & 0x08) != 0) {
-                // {8}k(x) = {21}*x^7 + {24}*x^6 + {23}*x^5 + {10}*x^4 + {23}*x^3 +
-                //           {24}*x^2 + {21}*x + {8}
-                c ^= 0xae2eabe2a8L;
-            }
-
-            if ((c0 & 0x10) != 0) {
-                // {16}k(x) = {3}*x^7 + {25}*x^6 + {7}*x^5 + {20}*x^4 + {7}*x^3 +
-                //            {25}*x^2 + {3}*x + {16}
-                c ^= 0x1e4f43e470L;
-            }
+            c = polyModStep(c, d);
         }
 
         /**
@@ -162,58 +117,80 @@ public class CashAddressHelper {
         return c ^ 1;
     }
 
-    static char toLowerCase(char c) {
-        // ASCII black magic.
-        return (char) (c | 0x20);
+    /**
+     * What to add for each value of c0, that is {c0}k(x) where k(x) = x^6 mod g(x), see {@link #computePolyMod}. The
+     * entries are the sums of {2^n}k(x) for the set bits n of c0:
+     * <ul>
+     * <li>k(x) = {19}*x^7 + {3}*x^6 + {25}*x^5 + {11}*x^4 + {25}*x^3 + {3}*x^2 + {19}*x + {1}</li>
+     * <li>{2}k(x) = {15}*x^7 + {6}*x^6 + {27}*x^5 + {22}*x^4 + {27}*x^3 + {6}*x^2 + {15}*x + {2}</li>
+     * <li>{4}k(x) = {30}*x^7 + {12}*x^6 + {31}*x^5 + {5}*x^4 + {31}*x^3 + {12}*x^2 + {30}*x + {4}</li>
+     * <li>{8}k(x) = {21}*x^7 + {24}*x^6 + {23}*x^5 + {10}*x^4 + {23}*x^3 + {24}*x^2 + {21}*x + {8}</li>
+     * <li>{16}k(x) = {3}*x^7 + {25}*x^6 + {7}*x^5 + {20}*x^4 + {7}*x^3 + {25}*x^2 + {3}*x + {16}</li>
+     * </ul>
+     */
+    private static final long[] POLYMOD_TABLE = new long[32];
+    static {
+        long[] generator = {0x98f2bc8e61L, 0x79b76d99e2L, 0xf33e5fb3c4L, 0xae2eabe2a8L, 0x1e4f43e470L};
+        for (int c0 = 0; c0 < 32; c0++)
+            for (int n = 0; n < 5; n++)
+                if ((c0 & (1 << n)) != 0)
+                    POLYMOD_TABLE[c0] ^= generator[n];
     }
 
     /**
-     * Expand the address prefix for the checksum computation.
+     * Updates the checksum state c for one more value d, see {@link #computePolyMod}: computes
+     * c1*x^5 + c2*x^4 + c3*x^3 + c4*x^2 + c5*x + d and adds {c0}k(x).
      */
-    static byte[] expandPrefix(String prefix) {
-        byte[] ret = new byte[prefix.length() + 1];
-
-        byte[] prefixBytes = prefix.getBytes();
+    private static long polyModStep(long c, int d) {
+        int c0 = (int) (c >>> 35);
+        return ((c & 0x07ffffffffL) << 5) ^ d ^ POLYMOD_TABLE[c0];
+    }
 
-        for (int i = 0; i < prefix.length(); ++i) {
-            ret[i] = (byte) (prefixBytes[i] & 0x1f);
-        }
+    // The checksum state after the expanded prefix.
+    private static long prefixPolyMod(String prefix) {
+        long c = 1;
+        for (int i = 0; i < prefix.length(); ++i)
+            c = polyModStep(c, prefix.charAt(i) & 0x1f);
+        return polyModStep(c, 0);
+    }
 
-        ret[prefix.length()] = 0;
-        return ret;
+    static char toLowerCase(char c) {
+        // ASCII black magic.
+        return (char) (c | 0x20);
     }
 
     static boolean verifyChecksum(String prefix, byte[] payload) {
-        return computePolyMod(concatenateByteArrays(expandPrefix(prefix), payload)) == 0;
+        long c = prefixPolyMod(prefix);
+        for (byte d : payload)
+            c = polyModStep(c, d);
+        return (c ^ 1) == 0;
     }
 
-    static byte[] createChecksum(String prefix, final byte[] payload) {
-        byte[] enc = concatenateByteArrays(expandPrefix(prefix), payload);
-        // Append 8 zeroes.
-        byte[] enc2 = new byte[enc.length + 8];
-        System.arraycopy(enc, 0, enc2, 0, enc.length);
-        // Determine what to XOR into those 8 zeroes.
-        long mod = computePolyMod(enc2);
-        byte[] ret = new byte[8];
-        for (int i = 0; i < 8; ++i) {
-            // Convert the 5-bit groups in mod to checksum values.
-            ret[i] = (byte) ((mod >> (5 * (7 - i))) & 0x1f);
-        }
-
-        return ret;
+    // What to XOR into 8 zeroes appended to the payload, in the same form as computePolyMod returns it.
+    private static long checksumPolyMod(String prefix, final byte[] payload) {
+        long c = prefixPolyMod(prefix);
+        for (byte d : payload)
+            c = polyModStep(c, d);
+        for (int i = 0; i < 8; ++i)
+            c = polyModStep(c, 0);
+        return c ^ 1;
     }
 
     public static String encodeCashAddress(String prefix, byte[] payload) {
-        byte[] checksum = createChecksum(prefix, payload);
-        byte[] combined = concatenateByteArrays(payload, checksum);
-        StringBuilder ret = new StringBuilder(prefix + ':');
-
-        //ret.setLength(ret.length() + combined.length);
-        for (byte c : combined) {
-            ret.append(CHARSET.charAt(c));
+        long mod = checksumPolyMod(prefix, payload);
+        char[] ret = new char[prefix.length() + 1 + payload.length + 8];
+        prefix.getChars(0, prefix.length(), ret, 0);
+        int pos = prefix.length();
+        ret[pos++] = ':';
+        for (byte c : payload) {
+            ret[pos++] = CHARSET.charAt(c);
+        }
+        for (int i = 0; i < 8; ++i) {
+            // Convert the 5-bit groups in mod to checksum values.
+            ret[pos++] = CHARSET.charAt((int) (mod >> (5 * (7 - i))) & 0x1f);
         }
 
-        return ret.toString();
+        return new String(ret);
     }
 
     public static ImmutablePair<String, byte[]> decodeCashAddress(String str, String defaultPrefix) {
@@ -259,11 +236,11 @@ public class CashAddressHelper {
         }
 
         // Get the prefix.
-        StringBuilder prefix;
+        String prefix;
         if (prefixSize == 0) {
-            prefix = new StringBuilder(defaultPrefix);
+            prefix = defaultPrefix;
         } else {
-            prefix = new StringBuilder(str.substring(0, prefixSize).toLowerCase());
+            prefix = str.substring(0, prefixSize).toLowerCase();
 
             // Now add the ':' in the size.
             prefixSize++;
@@ -283,13 +260,13 @@ public class CashAddressHelper {
         }
 
         // Verify the checksum.
-        if (!verifyChecksum(prefix.toString(), values)) {
+        if (!verifyChecksum(prefix, values)) {
             throw new AddressFormatException("cashaddr:  " + str + ": Invalid Checksum ");
         }
 
         byte[] result = new byte[values.length - 8];
         System.arraycopy(values, 0, result, 0, values.length - 8);
-        return new ImmutablePair(prefix.toString(), result);
+        return new ImmutablePair<String, byte[]>(prefix, result);
     }
 
     static public byte[] packAddressData(byte[] payload, byte type) {
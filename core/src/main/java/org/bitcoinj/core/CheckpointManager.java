@@ -67,6 +67,9 @@ import static com.google.common.base.Preconditions.*;
  * <p>After the signatures come an int32 containing the number of checkpoints in the file. Then each checkpoint follows
  * one after the other. A checkpoint is 12 bytes for the total work done field, 4 bytes for the height, 80 bytes
  * for the block header and then 1 zero byte at the end (i.e. number of transactions in the block: always zero).</p>
+ *
+ * <p>A new store can also be seeded with a {@link HeaderSnapshot}, a run of recent headers that is loaded in one go,
+ * see {@link #checkpoint(NetworkParameters, InputStream, InputStream, BlockStore, long)}.</p>
  */
 public class CheckpointManager {
     private static final Logger log = LoggerFactory.getLogger(CheckpointManager.class);
@@ -111,6 +114,12 @@ public class CheckpointManager {
         return CheckpointManager.class.getResourceAsStream("/" + params.getId() + ".checkpoints.txt");
     }
 
+    /** Returns a stream of the header snapshot bundled with bitcoinj, or null if there is none for the network. */
+    @Nullable
+    public static InputStream openSnapshotStream(NetworkParameters params) {
+        return CheckpointManager.class.getResourceAsStream("/" + params.getId() + ".headers");
+    }
+
     private Sha256Hash readBinary(InputStream inputStream) throws IOException {
         DataInputStream dis = null;
         try {
@@ -202,6 +211,20 @@ public class CheckpointManager {
         }
     }
 
+    /**
+     * Checks that the given snapshot has the same blocks as the checkpoints at the heights where both have one.
+     * @throws VerificationException If the snapshot has a different block at one of them.
+     */
+    public void checkSnapshot(HeaderSnapshot snapshot) throws VerificationException {
+        for (StoredBlock checkpoint : checkpoints.values()) {
+            StoredBlock block = snapshot.get(checkpoint.getHeight());
+            if (block != null && !block.equals(checkpoint))
+                throw new VerificationException("Header snapshot does not match checkpoint at height " +
+                        checkpoint.getHeight() + ": " + block.getHeader().getHash() + " vs " +
+                        checkpoint.getHeader().getHash());
+        }
+    }
+
     /** Returns the number of checkpoints that were loaded. */
     public int numCheckpoints() {
         return checkpoints.size();
@@ -236,4 +259,56 @@ public class CheckpointManager {
         store.put(checkpoint);
         store.setChainHead(checkpoint);
     }
+
+    /**
+     * <p>Like {@link #checkpoint(NetworkParameters, InputStream, BlockStore, long)}, but seeds the store with the
+     * headers of the given snapshot up to the checkpoint that would be used otherwise, all loaded in one go, so that
+     * they don't have to be downloaded. The checkpoint is the only block the application trusts, and its hash covers
+     * all the headers below it, so the snapshot's headers above it are left out and downloaded as usual. The snapshot
+     * is only used if it contains the checkpoint and agrees with all the other checkpoints. If it doesn't, can't be
+     * read, or no snapshot is given, the store is seeded with a single checkpoint as before.</p>
+     *
+     * <p>Note that time is adjusted backwards by a week to account for possible clock drift in the block headers.</p>
+     */
+    public static void checkpoint(NetworkParameters params, InputStream checkpoints, @Nullable InputStream snapshot,
+                                  BlockStore store, long time) throws IOException, BlockStoreException {
+        if (snapshot == null) {
+            checkpoint(params, checkpoints, store, time);
+            return;
+        }
+        checkNotNull(params);
+        checkNotNull(store);
+        checkArgument(!(store instanceof FullPrunedBlockStore), "You cannot use checkpointing with a full store.");
+
+        time -= 86400 * 7;
+
+        checkArgument(time > 0);
+        log.info("Attempting to initialize a new block store with a header snapshot for time {} ({})", time, Utils.dateTimeFormat(time * 1000));
+
+        CheckpointManager manager = new CheckpointManager(params, new BufferedInputStream(checkpoints));
+        StoredBlock checkpoint = manager.getCheckpointBefore(time);
+        HeaderSnapshot headers = null;
+        try {
+            headers = HeaderSnapshot.read(params, snapshot).truncateAt(checkpoint);
+            if (headers == null) {
+                // Without the checkpoint nothing ties the snapshot to a block we trust.
+                log.info("Header snapshot does not contain the checkpoint at height {}, using the checkpoint",
+                        checkpoint.getHeight());
+            } else {
+                manager.checkSnapshot(headers);
+            }
+        } catch (IOException e) {
+            log.warn("Could not read header snapshot, using the checkpoint", e);
+            headers = null;
+        } catch (VerificationException e) {
+            log.warn("Header snapshot does not match the checkpoints, using the checkpoint", e);
+            headers = null;
+        }
+        if (headers == null) {
+            store.put(checkpoint);
+            store.setChainHead(checkpoint);
+        } else {
+            headers.load(store);
+        }
+    }
 }
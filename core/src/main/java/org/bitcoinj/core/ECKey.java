@@ -41,12 +41,10 @@ import org.spongycastle.asn1.*;
 import org.spongycastle.asn1.x9.X9ECParameters;
 import org.spongycastle.asn1.x9.X9IntegerConverter;
 import org.spongycastle.crypto.AsymmetricCipherKeyPair;
-import org.spongycastle.crypto.digests.SHA256Digest;
 import org.spongycastle.crypto.ec.CustomNamedCurves;
 import org.spongycastle.crypto.generators.ECKeyPairGenerator;
 import org.spongycastle.crypto.params.*;
 import org.spongycastle.crypto.signers.ECDSASigner;
-import org.spongycastle.crypto.signers.HMacDSAKCalculator;
 import org.spongycastle.math.ec.ECAlgorithms;
 import org.spongycastle.math.ec.ECPoint;
 import org.spongycastle.math.ec.FixedPointCombMultiplier;
@@ -134,6 +132,10 @@ public class ECKey implements EncryptableItem {
      */
     public static final BigInteger HALF_CURVE_ORDER;
 
+    // Multiplies the generator using the comb table precomputed below. It keeps no state of its own, so it is shared,
+    // including with SigningContext.
+    static final FixedPointCombMultiplier G_MULTIPLIER = new FixedPointCombMultiplier();
+
     private static final SecureRandom secureRandom;
 
     static {
@@ -471,7 +473,7 @@ public class ECKey implements EncryptableItem {
         if (privKey.bitLength() > CURVE.getN().bitLength()) {
             privKey = privKey.mod(CURVE.getN());
         }
-        return new FixedPointCombMultiplier().multiply(CURVE.getG(), privKey);
+        return G_MULTIPLIER.multiply(CURVE.getG(), privKey);
     }
 
     /** Gets the hash160 form of the public key (as seen in addresses). */
@@ -572,11 +574,71 @@ public class ECKey implements EncryptableItem {
          * of the signature, as recognized by OpenSSL and other libraries.
          */
         public byte[] encodeToDER() {
-            try {
-                return derByteStream().toByteArray();
-            } catch (IOException e) {
-                throw new RuntimeException(e);  // Cannot happen.
+            byte[] rBytes = r.toByteArray(), sBytes = s.toByteArray();
+            byte[] der = new byte[derLength(rBytes.length, sBytes.length)];
+            writeDER(rBytes, sBytes, der, 0);
+            return der;
+        }
+
+        /**
+         * Writes the DER encoding of the signature into the buffer at the given offset, see {@link #encodeToDER()}.
+         * @return The number of bytes written, at most {@link SigningContext#MAX_DER_LENGTH} for a signature made on
+         * secp256k1.
+         * @throws IllegalArgumentException if the encoding doesn't fit into the buffer.
+         */
+        public int encodeToDER(byte[] buffer, int offset) {
+            return encodeToDER(r, s, buffer, offset);
+        }
+
+        /** Returns the length of {@link #encodeToDER()}, without encoding the signature. */
+        public int getDERLength() {
+            // toByteArray() returns bitLength() / 8 + 1 bytes.
+            return derLength(r.bitLength() / 8 + 1, s.bitLength() / 8 + 1);
+        }
+
+        static int encodeToDER(BigInteger r, BigInteger s, byte[] buffer, int offset) {
+            // The two's complement bytes are exactly the contents of a DER integer.
+            byte[] rBytes = r.toByteArray(), sBytes = s.toByteArray();
+            int length = derLength(rBytes.length, sBytes.length);
+            checkArgument(buffer.length - offset >= length, "Buffer too small");
+            writeDER(rBytes, sBytes, buffer, offset);
+            return length;
+        }
+
+        private static int derLength(int rLength, int sLength) {
+            int contentLength = 2 + lengthLength(rLength) + rLength + sLength + lengthLength(sLength);
+            return 1 + lengthLength(contentLength) + contentLength;
+        }
+
+        private static void writeDER(byte[] rBytes, byte[] sBytes, byte[] buffer, int offset) {
+            int contentLength = 2 + lengthLength(rBytes.length) + rBytes.length + sBytes.length
+                    + lengthLength(sBytes.length);
+            buffer[offset++] = 0x30;  // SEQUENCE
+            offset = writeLength(contentLength, buffer, offset);
+            buffer[offset++] = 0x02;  // INTEGER
+            offset = writeLength(rBytes.length, buffer, offset);
+            System.arraycopy(rBytes, 0, buffer, offset, rBytes.length);
+            offset += rBytes.length;
+            buffer[offset++] = 0x02;
+            offset = writeLength(sBytes.length, buffer, offset);
+            System.arraycopy(sBytes, 0, buffer, offset, sBytes.length);
+        }
+
+        // The number of bytes of a DER length: one for short lengths, otherwise a count byte and the length itself.
+        private static int lengthLength(int length) {
+            return length < 0x80 ? 1 : 1 + (32 - Integer.numberOfLeadingZeros(length) + 7) / 8;
+        }
+
+        private static int writeLength(int length, byte[] buffer, int offset) {
+            if (length < 0x80) {
+                buffer[offset++] = (byte) length;
+            } else {
+                int n = lengthLength(length) - 1;
+                buffer[offset++] = (byte) (0x80 | n);
+                for (int i = n - 1; i >= 0; i--)
+                    buffer[offset++] = (byte) (length >>> (8 * i));
             }
+            return offset;
         }
 
         public static ECDSASignature decodeFromDER(byte[] bytes) {
@@ -668,26 +730,7 @@ public class ECKey implements EncryptableItem {
     }
 
     protected ECDSASignature doSign(Sha256Hash input, BigInteger privateKeyForSigning) {
-        if (Secp256k1Context.isEnabled()) {
-            try {
-                byte[] signature = NativeSecp256k1.sign(
-                        input.getBytes(),
-                        Utils.bigIntegerToBytes(privateKeyForSigning, 32)
-                );
-                return ECDSASignature.decodeFromDER(signature);
-            } catch (NativeSecp256k1Util.AssertFailException e) {
-                log.error("Caught AssertFailException inside secp256k1", e);
-                throw new RuntimeException(e);
-            }
-        }
-        if (FAKE_SIGNATURES)
-            return TransactionSignature.dummy();
-        checkNotNull(privateKeyForSigning);
-        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
-        ECPrivateKeyParameters privKey = new ECPrivateKeyParameters(privateKeyForSigning, CURVE);
-        signer.init(true, privKey);
-        BigInteger[] components = signer.generateSignature(input.getBytes());
-        return new ECDSASignature(components[0], components[1]).toCanonicalised();
+        return SigningContext.get().sign(input.getBytes(), privateKeyForSigning);
     }
 
     /**
@@ -713,11 +756,8 @@ public class ECKey implements EncryptableItem {
             }
         }
 
-        ECDSASigner signer = new ECDSASigner();
         try {
-            ECPublicKeyParameters params = new ECPublicKeyParameters(CURVE.getCurve().decodePoint(pub), CURVE);
-            signer.init(false, params);
-            return signer.verifySignature(data, signature.r, signature.s);
+            return verify(data, signature, CURVE.getCurve().decodePoint(pub));
         } catch (NullPointerException e) {
             // Bouncy Castle contains a bug that can cause NPEs given specially crafted signatures. Those signatures
             // are inherently invalid/attack sigs so we just fail them here rather than crash the thread.
@@ -730,6 +770,16 @@ public class ECKey implements EncryptableItem {
         }
     }
 
+    /**
+     * Verifies a signature against a public key that was already decoded, for callers that check several signatures
+     * of the same key. Exceptions are the same as Bouncy Castle's.
+     */
+    static boolean verify(byte[] data, ECDSASignature signature, ECPoint pub) {
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(pub, CURVE));
+        return signer.verifySignature(data, signature.r, signature.s);
+    }
+
     /**
      * Verifies the given ASN.1 encoded ECDSA signature against a hash using the public key.
      *
@@ -30,10 +30,12 @@ import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.SortedSet;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
 /**
@@ -54,6 +56,13 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
     // Whether or not to execute scriptPubKeys before accepting a transaction (i.e. check signatures).
     private boolean runScripts = true;
+    // Blocks whose scripts are not run because they lead up to a block assumed to be valid, see setAssumedValidBlocks.
+    @Nullable private Set<Sha256Hash> assumedValidBlocks;
+
+    // How many blocks to connect per store commit, and how many have been connected since the last one.
+    private int blocksPerCommit = 1;
+    private int uncommittedBlocks;
+    private StoredBlock lastCommittedHead;
 
     /**
      * Constructs a block chain connected to the given wallet and store. To obtain a {@link Wallet} you can construct
@@ -96,6 +105,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         this.blockStore = blockStore;
         // Ignore upgrading for now
         this.chainHead = blockStore.getVerifiedChainHead();
+        this.lastCommittedHead = chainHead;
     }
 
     /**
@@ -143,6 +153,87 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         this.runScripts = value;
     }
 
+    /**
+     * <p>Skips the scripts of exactly the given blocks when they are connected to the best chain, while those of all
+     * other blocks are run as {@link #setRunScripts(boolean)} says. This is meant for a trusted block and its
+     * ancestors, see {@link org.bitcoinj.utils.BlockImportPipeline#setAssumeValid}. The decision is made for each
+     * block as it is connected, so an orphan connected once its parent arrives is only skipped if it is in the set.
+     * Blocks connected by a re-org always have their scripts run.</p>
+     *
+     * <p>The set is not copied and must not change while in use. Pass null to go back to running all scripts.</p>
+     */
+    public void setAssumedValidBlocks(@Nullable Set<Sha256Hash> blocks) {
+        lock.lock();
+        try {
+            this.assumedValidBlocks = blocks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Whether to run the scripts of the given block, which is being connected to the best chain. */
+    protected boolean shouldRunScripts(Block block) {
+        return runScripts && (assumedValidBlocks == null || !assumedValidBlocks.contains(block.getHash()));
+    }
+
+    /**
+     * <p>Sets how many blocks are connected per commit of the block store, 1 by default. Committing less often lets
+     * the store write the changes of many blocks at once, which speeds up bulk imports a lot, see
+     * {@link org.bitcoinj.utils.BlockImportPipeline}.</p>
+     *
+     * <p>If a block fails verification, all blocks connected since the last commit are rolled back with it and the
+     * chain head goes back to the last committed block. Listeners have already been told about those blocks by then,
+     * so this should only be raised when no wallets are attached. Call {@link #commitPendingBlocks()} when done.</p>
+     */
+    public void setBlocksPerCommit(int blocksPerCommit) {
+        checkArgument(blocksPerCommit > 0);
+        lock.lock();
+        try {
+            this.blocksPerCommit = blocksPerCommit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Commits any blocks connected since the last commit of the block store, see {@link #setBlocksPerCommit(int)}. */
+    public void commitPendingBlocks() throws BlockStoreException {
+        lock.lock();
+        try {
+            if (uncommittedBlocks > 0) {
+                blockStore.commitDatabaseBatchWrite();
+                uncommittedBlocks = 0;
+                lastCommittedHead = chainHead;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rolls back any blocks connected since the last commit of the block store, see {@link #setBlocksPerCommit(int)},
+     * and goes back to the last committed block.
+     */
+    public void abortPendingBlocks() throws BlockStoreException {
+        lock.lock();
+        try {
+            abortDatabaseBatchWrite();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Aborts the store's batch write, going back to the last committed head if that discards connected blocks. */
+    private void abortDatabaseBatchWrite() throws BlockStoreException {
+        blockStore.abortDatabaseBatchWrite();
+        if (uncommittedBlocks == 0)
+            return;
+        log.warn("Rolled back {} uncommitted blocks to height {}", uncommittedBlocks, lastCommittedHead.getHeight());
+        uncommittedBlocks = 0;
+        blockStore.setChainHead(lastCommittedHead);
+        blockStore.setVerifiedChainHead(lastCommittedHead);
+        resetChainHead(lastCommittedHead);
+    }
+
     // TODO: Remove lots of duplicated code in the two connectTransactions
 
     // TODO: execute in order of largest transaction (by input count) first
@@ -159,24 +250,50 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
 
         public Verifier(final Transaction tx, final List<Script> prevOutScripts, final Set<VerifyFlag> verifyFlags) {
             this.tx = tx;
-            this.prevOutScripts = prevOutScripts;
+            this.prevOutScripts = new ArrayList<Script>(prevOutScripts);
             this.verifyFlags = verifyFlags;
         }
 
+        /**
+         * Runs the scripts of all inputs with their OP_CHECKSIG signatures collected in one batch, then verifies the
+         * batch. Inputs that failed either way are run again on their own, which gives the real outcome.
+         */
         @Nullable
         @Override
         public VerificationException call() throws Exception {
-            try {
-                ListIterator<Script> prevOutIt = prevOutScripts.listIterator();
-                for (int index = 0; index < tx.getInputs().size(); index++) {
-                    Coin value = tx.getInput(index).getConnectedOutput() != null ? tx.getInput(index).getConnectedOutput().getValue() : Coin.ZERO;
-                    tx.getInputs().get(index).getScriptSig().correctlySpends(tx, index, prevOutIt.next(), value, verifyFlags);
+            final int inputs = tx.getInputs().size();
+            SignatureBatch batch = new SignatureBatch();
+            int[] firstCheck = new int[inputs + 1];
+            SortedSet<Integer> recheck = new TreeSet<Integer>();
+            for (int index = 0; index < inputs; index++) {
+                firstCheck[index] = batch.size();
+                try {
+                    spend(index, batch);
+                } catch (VerificationException e) {
+                    recheck.add(index);
                 }
+            }
+            firstCheck[inputs] = batch.size();
+            for (int check : batch.verify()) {
+                int index = 0;
+                while (firstCheck[index + 1] <= check)
+                    index++;
+                recheck.add(index);
+            }
+            try {
+                for (int index : recheck)
+                    spend(index, null);
             } catch (VerificationException e) {
                 return e;
             }
             return null;
         }
+
+        private void spend(int index, @Nullable SignatureBatch batch) {
+            TransactionInput input = tx.getInput(index);
+            Coin value = input.getConnectedOutput() != null ? input.getConnectedOutput().getValue() : Coin.ZERO;
+            input.getScriptSig().correctlySpends(tx, index, prevOutScripts.get(index), value, verifyFlags, batch);
+        }
     }
 
     /**
@@ -221,6 +338,9 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         LinkedList<UTXO> txOutsSpent = new LinkedList<UTXO>();
         LinkedList<UTXO> txOutsCreated = new LinkedList<UTXO>();
         long sigOps = 0;
+        // The flags are the same for every transaction of the block.
+        final Set<VerifyFlag> verifyFlags = params.getTransactionVerificationFlags(block, getVersionTally(), height);
+        final boolean checkScripts = shouldRunScripts(block);
 
         if (scriptVerificationExecutor.isShutdown())
             scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
@@ -232,7 +352,6 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 // checkpoints list and we therefore only check non-checkpoints for duplicated transactions here. See the
                 // BIP30 document for more details on this: https://github.com/bitcoin/bips/blob/master/bip-0030.mediawiki
                 for (Transaction tx : block.transactions) {
-                    final Set<VerifyFlag> verifyFlags = params.getTransactionVerificationFlags(block, tx, getVersionTally(), height);
                     Sha256Hash hash = tx.getHash();
                     // If we already have unspent outputs for this hash, we saw the tx already. Either the block is
                     // being added twice (bug) or the block is a BIP30 violator.
@@ -249,7 +368,6 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 Coin valueIn = Coin.ZERO;
                 Coin valueOut = Coin.ZERO;
                 final List<Script> prevOutScripts = new LinkedList<Script>();
-                final Set<VerifyFlag> verifyFlags = params.getTransactionVerificationFlags(block, tx, getVersionTally(), height);
                 if (!isCoinBase) {
                     // For each input of the transaction remove the corresponding output from the set of unspent
                     // outputs.
@@ -307,7 +425,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                     totalFees = totalFees.add(valueIn.subtract(valueOut));
                 }
 
-                if (!isCoinBase && runScripts) {
+                if (!isCoinBase && checkScripts) {
                     // Because correctlySpends modifies transactions, this must come after we are done with tx
                     FutureTask<VerificationException> future = new FutureTask<VerificationException>(new Verifier(tx, prevOutScripts, verifyFlags));
                     scriptVerificationExecutor.execute(future);
@@ -331,11 +449,11 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             }
         } catch (VerificationException e) {
             scriptVerificationExecutor.shutdownNow();
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw e;
         } catch (BlockStoreException e) {
             scriptVerificationExecutor.shutdownNow();
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw e;
         }
         return new TransactionOutputChanges(txOutsCreated, txOutsSpent);
@@ -355,7 +473,7 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
         StoredUndoableBlock block = blockStore.getUndoBlock(newBlock.getHeader().getHash());
         if (block == null) {
             // We're trying to re-org too deep and the data needed has been deleted.
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw new PrunedException(newBlock.getHeader().getHash());
         }
         TransactionOutputChanges txOutChanges;
@@ -365,6 +483,8 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                 LinkedList<UTXO> txOutsSpent = new LinkedList<UTXO>();
                 LinkedList<UTXO> txOutsCreated = new LinkedList<UTXO>();
                 long sigOps = 0;
+                final Set<VerifyFlag> verifyFlags =
+                    params.getTransactionVerificationFlags(newBlock.getHeader(), getVersionTally(), Integer.SIZE);
 
                 if (!params.isCheckpoint(newBlock.getHeight())) {
                     for (Transaction tx : transactions) {
@@ -380,8 +500,6 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
                     scriptVerificationExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
                 List<Future<VerificationException>> listScriptVerificationResults = new ArrayList<Future<VerificationException>>(transactions.size());
                 for (final Transaction tx : transactions) {
-                    final Set<VerifyFlag> verifyFlags =
-                        params.getTransactionVerificationFlags(newBlock.getHeader(), tx, getVersionTally(), Integer.SIZE);
                     boolean isCoinBase = tx.isCoinBase();
                     Coin valueIn = Coin.ZERO;
                     Coin valueOut = Coin.ZERO;
@@ -477,11 +595,11 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             }
         } catch (VerificationException e) {
             scriptVerificationExecutor.shutdownNow();
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw e;
         } catch (BlockStoreException e) {
             scriptVerificationExecutor.shutdownNow();
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw e;
         }
         return txOutChanges;
@@ -504,10 +622,10 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
             for (UTXO out : txOutChanges.txOutsCreated)
                 blockStore.removeUnspentTransactionOutput(out);
         } catch (PrunedException e) {
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw e;
         } catch (BlockStoreException e) {
-            blockStore.abortDatabaseBatchWrite();
+            abortDatabaseBatchWrite();
             throw e;
         }
     }
@@ -516,12 +634,16 @@ public class FullPrunedBlockChain extends AbstractBlockChain {
     protected void doSetChainHead(StoredBlock chainHead) throws BlockStoreException {
         checkState(lock.isHeldByCurrentThread());
         blockStore.setVerifiedChainHead(chainHead);
-        blockStore.commitDatabaseBatchWrite();
+        if (++uncommittedBlocks >= blocksPerCommit) {
+            blockStore.commitDatabaseBatchWrite();
+            uncommittedBlocks = 0;
+            lastCommittedHead = chainHead;
+        }
     }
 
     @Override
     protected void notSettingChainHead() throws BlockStoreException {
-        blockStore.abortDatabaseBatchWrite();
+        abortDatabaseBatchWrite();
     }
 
     @Override
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.BulkBlockStore;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headers that have been checked by {@link AbstractBlockChain#addHeaders(List)} but not written yet. It is a
+ * {@link BlockStore} in front of the chain's store, so that the difficulty rules can find the headers of the batch
+ * below the one they check, and it writes them all to the store when the batch is done. Its chain head is the head
+ * the batch has reached, which becomes the head of the store when the batch is written.
+ */
+class HeaderBatch implements BlockStore {
+    private final BlockStore store;
+    private final List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+    private final Map<Sha256Hash, StoredBlock> blocksByHash = new HashMap<Sha256Hash, StoredBlock>();
+    @Nullable private StoredBlock chainHead;
+
+    HeaderBatch(BlockStore store) {
+        this.store = store;
+    }
+
+    @Override
+    public void put(StoredBlock block) {
+        blocks.add(block);
+        blocksByHash.put(block.getHeader().getHash(), block);
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        StoredBlock block = blocksByHash.get(hash);
+        return block != null ? block : store.get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        return chainHead != null ? chainHead : store.getChainHead();
+    }
+
+    @Override
+    public void setChainHead(StoredBlock chainHead) {
+        this.chainHead = chainHead;
+    }
+
+    /** Drops the headers that haven't been written. The store in front of which the batch sits stays open. */
+    @Override
+    public void close() {
+        blocks.clear();
+        blocksByHash.clear();
+        chainHead = null;
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return store.getParams();
+    }
+
+    /** Returns the headers of the batch, in the order they were added. */
+    List<StoredBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * Writes the headers to the store, in one go if it is a {@link BulkBlockStore}. The chain then makes the head of
+     * the batch its head, which a bulk store has done already.
+     */
+    void write() throws BlockStoreException {
+        if (blocks.isEmpty())
+            return;
+        if (store instanceof BulkBlockStore) {
+            ((BulkBlockStore) store).putAll(blocks, getChainHead());
+        } else {
+            for (StoredBlock block : blocks)
+                store.put(block);
+        }
+    }
+}
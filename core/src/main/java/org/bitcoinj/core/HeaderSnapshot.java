@@ -0,0 +1,270 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+import org.bitcoinj.store.BulkBlockStore;
+import org.bitcoinj.store.FullPrunedBlockStore;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.*;
+
+/**
+ * <p>A run of consecutive block headers, with their chain work and heights, that can be written to a file and loaded
+ * into a new {@link BlockStore} in one go. Where a checkpoint gives a new store a single block to start from, a
+ * snapshot gives it the whole recent part of the chain, so that the difficulty rules can be checked from the start
+ * and the headers in the snapshot don't have to be downloaded.</p>
+ *
+ * <p>The file format consists of the string "HEADERS 1", followed by an int32 containing the number of headers. Each
+ * header then follows, from the lowest to the highest, in the compact format of {@link StoredBlock} that checkpoints
+ * use as well. The file ends with the SHA-256 hash of everything after the string, which is the commitment to the
+ * snapshot that {@link #getDataHash()} returns and that applications can compare to a hash they trust.</p>
+ *
+ * <p>On reading, the headers are checked to connect to each other, to have valid proof of work and to add up to the
+ * chain work they claim.</p>
+ */
+public class HeaderSnapshot {
+    private static final Logger log = LoggerFactory.getLogger(HeaderSnapshot.class);
+
+    private static final String MAGIC = "HEADERS 1";
+
+    private final List<StoredBlock> blocks;
+    private final Sha256Hash dataHash;
+
+    private HeaderSnapshot(List<StoredBlock> blocks, Sha256Hash dataHash) {
+        this.blocks = blocks;
+        this.dataHash = dataHash;
+    }
+
+    /**
+     * Makes a snapshot of the given blocks, which must be consecutive and in order of height.
+     * @throws IllegalArgumentException If the blocks are not consecutive.
+     */
+    public static HeaderSnapshot of(List<StoredBlock> blocks) {
+        checkArgument(!blocks.isEmpty(), "No blocks");
+        for (int i = 1; i < blocks.size(); i++)
+            checkArgument(connects(blocks.get(i - 1), blocks.get(i)), "Block %s does not build on the one before", i);
+        ImmutableList<StoredBlock> copy = ImmutableList.copyOf(blocks);
+        return new HeaderSnapshot(copy, hash(copy));
+    }
+
+    /** Makes a snapshot of the given number of blocks of the store, ending with the given one. */
+    public static HeaderSnapshot fromStore(BlockStore store, StoredBlock last, int count) throws BlockStoreException {
+        checkArgument(count > 0);
+        List<StoredBlock> blocks = new ArrayList<StoredBlock>(count);
+        StoredBlock cursor = last;
+        while (cursor != null && blocks.size() < count) {
+            blocks.add(cursor);
+            cursor = cursor.getPrev(store);
+        }
+        Collections.reverse(blocks);
+        return of(blocks);
+    }
+
+    /**
+     * Reads a snapshot and checks it.
+     * @throws IOException If the data can't be read, is not a snapshot, or its headers are not valid.
+     */
+    public static HeaderSnapshot read(NetworkParameters params, InputStream inputStream) throws IOException {
+        return read(params, inputStream, null);
+    }
+
+    /**
+     * Reads a snapshot and checks it, and that its hash is the given one.
+     * @throws IOException If the data can't be read, is not a snapshot, its headers are not valid or it has a different
+     * hash.
+     */
+    public static HeaderSnapshot read(NetworkParameters params, InputStream inputStream,
+                                      @Nullable Sha256Hash expectedHash) throws IOException {
+        MessageDigest digest = Sha256Hash.newDigest();
+        DigestInputStream digestInputStream = new DigestInputStream(new BufferedInputStream(inputStream), digest);
+        DataInputStream dis = new DataInputStream(digestInputStream);
+        try {
+            digestInputStream.on(false);
+            byte[] header = new byte[MAGIC.length()];
+            dis.readFully(header);
+            if (!Arrays.equals(header, MAGIC.getBytes("US-ASCII")))
+                throw new IOException("Header bytes did not match expected version");
+            digestInputStream.on(true);
+            int count = dis.readInt();
+            if (count <= 0)
+                throw new IOException("Bad number of headers: " + count);
+            // Not sized by the count, which hasn't been checked against anything yet.
+            List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+            ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                dis.readFully(buffer.array());
+                StoredBlock block = StoredBlock.deserializeCompact(params, buffer);
+                check(i == 0 ? null : blocks.get(i - 1), block);
+                blocks.add(block);
+            }
+            digestInputStream.on(false);
+            Sha256Hash dataHash = Sha256Hash.wrap(digest.digest());
+            byte[] storedHash = new byte[Sha256Hash.LENGTH];
+            dis.readFully(storedHash);
+            if (!Arrays.equals(storedHash, dataHash.getBytes()))
+                throw new IOException("Snapshot data does not match its hash");
+            if (expectedHash != null && !expectedHash.equals(dataHash))
+                throw new IOException("Snapshot hash " + dataHash + " is not the expected " + expectedHash);
+            log.info("Read {} headers up to height {}, hash is {}", count, blocks.get(count - 1).getHeight(), dataHash);
+            return new HeaderSnapshot(Collections.unmodifiableList(blocks), dataHash);
+        } catch (VerificationException e) {
+            throw new IOException(e);
+        } finally {
+            dis.close();
+        }
+    }
+
+    private static void check(@Nullable StoredBlock prev, StoredBlock block) throws IOException {
+        block.getHeader().verifyHeader();
+        if (prev == null)
+            return;
+        if (!connects(prev, block))
+            throw new IOException("Header at height " + block.getHeight() + " does not build on the one before");
+        if (!prev.build(block.getHeader()).equals(block))
+            throw new IOException("Header at height " + block.getHeight() + " has the wrong chain work");
+    }
+
+    private static boolean connects(StoredBlock prev, StoredBlock block) {
+        return block.getHeight() == prev.getHeight() + 1
+                && block.getHeader().getPrevBlockHash().equals(prev.getHeader().getHash());
+    }
+
+    private static Sha256Hash hash(List<StoredBlock> blocks) {
+        try {
+            MessageDigest digest = Sha256Hash.newDigest();
+            DigestOutputStream digestOutputStream = new DigestOutputStream(ByteStreams.nullOutputStream(), digest);
+            writeData(blocks, new DataOutputStream(digestOutputStream));
+            return Sha256Hash.wrap(digest.digest());
+        } catch (IOException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    private static void writeData(List<StoredBlock> blocks, DataOutputStream dos) throws IOException {
+        dos.writeInt(blocks.size());
+        ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        for (StoredBlock block : blocks) {
+            buffer.clear();
+            block.serializeCompact(buffer);
+            dos.write(buffer.array());
+        }
+        dos.flush();
+    }
+
+    /** Writes the snapshot in the format {@link #read(NetworkParameters, InputStream)} reads. */
+    public void write(OutputStream outputStream) throws IOException {
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(outputStream));
+        dos.writeBytes(MAGIC);
+        writeData(blocks, dos);
+        dos.write(dataHash.getBytes());
+        dos.flush();
+    }
+
+    /**
+     * Puts the headers into the given store and makes the last of them the chain head. Stores that implement
+     * {@link BulkBlockStore} take them all in one write.
+     */
+    public void load(BlockStore store) throws BlockStoreException {
+        checkArgument(!(store instanceof FullPrunedBlockStore), "You cannot use a header snapshot with a full store.");
+        if (store instanceof BulkBlockStore) {
+            ((BulkBlockStore) store).putAll(blocks, getLast());
+        } else {
+            for (StoredBlock block : blocks)
+                store.put(block);
+            store.setChainHead(getLast());
+        }
+        log.info("Loaded {} headers up to height {} into the block store", blocks.size(), getLast().getHeight());
+    }
+
+    /**
+     * Returns the snapshot of the blocks up to and including the last one with a timestamp at or before the given
+     * time, or null if even the first block is later.
+     */
+    @Nullable
+    public HeaderSnapshot truncateAfter(long timeSecs) {
+        int end = blocks.size();
+        while (end > 0 && blocks.get(end - 1).getHeader().getTimeSeconds() > timeSecs)
+            end--;
+        if (end == 0)
+            return null;
+        if (end == blocks.size())
+            return this;
+        return of(blocks.subList(0, end));
+    }
+
+    /**
+     * Returns the snapshot of the blocks up to and including the given one, or null if the snapshot doesn't contain
+     * that block.
+     */
+    @Nullable
+    public HeaderSnapshot truncateAt(StoredBlock block) {
+        if (!block.equals(get(block.getHeight())))
+            return null;
+        int end = block.getHeight() - getFirst().getHeight() + 1;
+        if (end == blocks.size())
+            return this;
+        return of(blocks.subList(0, end));
+    }
+
+    /** Returns the block at the given height, or null if it isn't in the snapshot. */
+    @Nullable
+    public StoredBlock get(int height) {
+        int index = height - getFirst().getHeight();
+        if (index < 0 || index >= blocks.size())
+            return null;
+        return blocks.get(index);
+    }
+
+    /** Returns the blocks, from the lowest to the highest. */
+    public List<StoredBlock> getBlocks() {
+        return blocks;
+    }
+
+    public StoredBlock getFirst() {
+        return blocks.get(0);
+    }
+
+    public StoredBlock getLast() {
+        return blocks.get(blocks.size() - 1);
+    }
+
+    public int size() {
+        return blocks.size();
+    }
+
+    /** Returns the hash the snapshot commits to, see the class documentation. */
+    public Sha256Hash getDataHash() {
+        return dataHash;
+    }
+}
@@ -75,12 +75,15 @@ public class HeadersMessage extends Message {
         final BitcoinSerializer serializer = this.params.getSerializer(true);
 
         for (int i = 0; i < numHeaders; ++i) {
-            final Block newBlockHeader = serializer.makeBlock(payload, cursor, UNKNOWN_LENGTH);
-            if (newBlockHeader.hasTransactions()) {
+            // Each header is sent as a block with no transactions: the 80 header bytes and a zero transaction count.
+            // It is parsed from its own copy of these bytes, so that it doesn't keep the whole message alive.
+            if (cursor + Block.HEADER_SIZE >= payload.length)
+                throw new ProtocolException("Headers message is too short for " + numHeaders + " headers");
+            if (payload[cursor + Block.HEADER_SIZE] != 0)
                 throw new ProtocolException("Block header does not end with a null byte");
-            }
-            cursor += newBlockHeader.optimalEncodingMessageSize;
-            blockHeaders.add(newBlockHeader);
+            byte[] header = Arrays.copyOfRange(payload, cursor, cursor + Block.HEADER_SIZE + 1);
+            blockHeaders.add(serializer.makeBlock(header, 0, header.length));
+            cursor += Block.HEADER_SIZE + 1;
         }
 
         if (length == UNKNOWN_LENGTH) {
@@ -76,6 +76,9 @@ public abstract class NetworkParameters {
 
     protected Block genesisBlock;
     protected BigInteger maxTarget;
+    // maxTarget as a UInt256, together with the value it was derived from. Subclasses set and may change maxTarget
+    // after construction, so it is derived again whenever maxTarget is no longer the same object.
+    private transient volatile MaxTarget maxTargetAsUInt256;
     protected int port;
     protected long packetMagic;  // Indicates message origin network and is used to seek to the next message when stream state is unknown.
     protected int addressHeader;
@@ -377,6 +380,27 @@ public abstract class NetworkParameters {
         return maxTarget;
     }
 
+    /** The same as {@link #getMaxTarget()}, as a fixed size integer. */
+    public UInt256 getMaxTargetAsUInt256() {
+        BigInteger source = maxTarget;
+        MaxTarget cached = maxTargetAsUInt256;
+        if (cached == null || cached.source != source) {
+            cached = new MaxTarget(source, UInt256.fromBigInteger(source));
+            maxTargetAsUInt256 = cached;
+        }
+        return cached.value;
+    }
+
+    private static final class MaxTarget {
+        final BigInteger source;
+        final UInt256 value;
+
+        MaxTarget(BigInteger source, UInt256 value) {
+            this.source = source;
+            this.value = value;
+        }
+    }
+
     /**
      * The key used to sign {@link org.bitcoinj.core.AlertMessage}s. You can use {@link org.bitcoinj.core.ECKey#verify(byte[], byte[], byte[])} to verify
      * signatures using it.
@@ -518,18 +542,39 @@ public abstract class NetworkParameters {
      * @param transaction to determine flags for.
      * @param height height of the block, if known, null otherwise. Returned
      * tests should be a safe subset if block height is unknown.
+     * @deprecated The flags are the same for all transactions of a block, use
+     * {@link #getTransactionVerificationFlags(Block, VersionTally, Integer)} once per block.
      */
+    @Deprecated
     public EnumSet<Script.VerifyFlag> getTransactionVerificationFlags(final Block block,
             final Transaction transaction, final VersionTally tally, final Integer height) {
+        return getTransactionVerificationFlags(block, tally, height);
+    }
+
+    /**
+     * The flags indicating which script validation tests should be applied to
+     * the transactions of the given block. They depend on the block and the
+     * deployment state of the chain below it only, so they are worked out once for
+     * the whole block. Enables support for alternative blockchains which enable
+     * tests based on different criteria.
+     *
+     * @param block block to determine flags for.
+     * @param height height of the block, if known, null otherwise. Returned
+     * tests should be a safe subset if block height is unknown.
+     */
+    public EnumSet<Script.VerifyFlag> getTransactionVerificationFlags(final Block block,
+            final VersionTally tally, final Integer height) {
         final EnumSet<Script.VerifyFlag> verifyFlags = EnumSet.noneOf(Script.VerifyFlag.class);
         if (block.getTimeSeconds() >= NetworkParameters.BIP16_ENFORCE_TIME)
             verifyFlags.add(Script.VerifyFlag.P2SH);
 
         // Start enforcing CHECKLOCKTIMEVERIFY, (BIP65) for block.nVersion=4
         // blocks, when 75% of the network has upgraded:
-        if (block.getVersion() >= Block.BLOCK_VERSION_BIP65 &&
-            tally.getCountAtOrAbove(Block.BLOCK_VERSION_BIP65) > this.getMajorityEnforceBlockUpgrade()) {
-            verifyFlags.add(Script.VerifyFlag.CHECKLOCKTIMEVERIFY);
+        if (block.getVersion() >= Block.BLOCK_VERSION_BIP65) {
+            final Integer count = tally.getCountAtOrAbove(Block.BLOCK_VERSION_BIP65);
+            if (null != count && count > this.getMajorityEnforceBlockUpgrade()) {
+                verifyFlags.add(Script.VerifyFlag.CHECKLOCKTIMEVERIFY);
+            }
         }
 
         return verifyFlags;
@@ -537,17 +582,23 @@ public abstract class NetworkParameters {
 
     public void verifyDifficulty(BigInteger newTarget, Block nextBlock)
     {
-        if (newTarget.compareTo(this.getMaxTarget()) > 0) {
-            newTarget = this.getMaxTarget();
+        verifyDifficulty(UInt256.fromBigInteger(newTarget.min(getMaxTarget())), nextBlock);
+    }
+
+    public void verifyDifficulty(UInt256 newTarget, Block nextBlock)
+    {
+        if (newTarget.compareTo(this.getMaxTargetAsUInt256()) > 0) {
+            newTarget = this.getMaxTargetAsUInt256();
         }
 
         int accuracyBytes = (int) (nextBlock.getDifficultyTarget() >>> 24) - 3;
         long receivedTargetCompact = nextBlock.getDifficultyTarget();
 
         // The calculated difficulty is to a higher precision than received, so reduce here.
-        BigInteger mask = BigInteger.valueOf(0xFFFFFFL).shiftLeft(accuracyBytes * 8);
+        UInt256 mask = UInt256.valueOf(0xFFFFFFL);
+        mask = accuracyBytes >= 0 ? mask.shiftLeft(accuracyBytes * 8) : mask.shiftRight(-accuracyBytes * 8);
         newTarget = newTarget.and(mask);
-        long newTargetCompact = Utils.encodeCompactBits(newTarget);
+        long newTargetCompact = newTarget.encodeCompact();
 
         if (newTargetCompact != receivedTargetCompact)
             throw new VerificationException("Network provided difficulty bits do not match what was calculated: " +
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>The blocks a chain received but can't connect yet, indexed by their own hash and by the hash of the block they
+ * build on, so that the children of a block that just connected are found without looking at the other orphans.</p>
+ *
+ * <p>The pool is bounded both by the number of blocks and by their approximate size in bytes. When either is exceeded
+ * the oldest blocks are evicted first. They will be downloaded again if they are still needed.</p>
+ *
+ * <p>This class is thread safe. The chain changes it while holding its own lock, but queries such as
+ * {@link AbstractBlockChain#isOrphan(Sha256Hash)} only lock the pool, so they don't wait for a block to connect.</p>
+ */
+class OrphanBlockPool {
+    private static final Logger log = LoggerFactory.getLogger(OrphanBlockPool.class);
+
+    /** The default maximum number of blocks kept. */
+    public static final int DEFAULT_MAX_BLOCKS = 1000;
+    /** The default maximum size of the blocks kept, in bytes. */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+    // Holds a block header and, optionally, a list of tx hashes or block's transactions
+    static class OrphanBlock {
+        final Block block;
+        final List<Sha256Hash> filteredTxHashes;
+        final Map<Sha256Hash, Transaction> filteredTxn;
+        final long size;
+        OrphanBlock(Block block, @Nullable List<Sha256Hash> filteredTxHashes, @Nullable Map<Sha256Hash, Transaction> filteredTxn) {
+            final boolean filtered = filteredTxHashes != null && filteredTxn != null;
+            Preconditions.checkArgument((block.transactions == null && filtered)
+                                        || (block.transactions != null && !filtered));
+            this.block = block;
+            this.filteredTxHashes = filteredTxHashes;
+            this.filteredTxn = filteredTxn;
+            this.size = estimateSize();
+        }
+
+        private long estimateSize() {
+            if (filteredTxHashes == null)
+                return sizeOf(block);
+            long size = Block.HEADER_SIZE + filteredTxHashes.size() * Sha256Hash.LENGTH;
+            for (Transaction tx : filteredTxn.values())
+                size += sizeOf(tx);
+            return size;
+        }
+
+        private static long sizeOf(Message message) {
+            return message.length != Message.UNKNOWN_LENGTH ? message.length : message.unsafeBitcoinSerialize().length;
+        }
+    }
+
+    // Insertion order is the order of eviction.
+    private final LinkedHashMap<Sha256Hash, OrphanBlock> blocks = new LinkedHashMap<Sha256Hash, OrphanBlock>();
+    private final ListMultimap<Sha256Hash, OrphanBlock> blocksByPrev = ArrayListMultimap.create();
+    private int maxBlocks;
+    private long maxBytes;
+    private long bytes;
+
+    private long evictedBlocks;
+    private long connectAttempts;
+    private long connectedBlocks;
+    private long connectNanos;
+
+    OrphanBlockPool() {
+        this(DEFAULT_MAX_BLOCKS, DEFAULT_MAX_BYTES);
+    }
+
+    OrphanBlockPool(int maxBlocks, long maxBytes) {
+        setLimits(maxBlocks, maxBytes);
+    }
+
+    /** Sets the bounds of the pool, evicting blocks if it is over them now. */
+    synchronized void setLimits(int maxBlocks, long maxBytes) {
+        checkArgument(maxBlocks > 0 && maxBytes > 0);
+        this.maxBlocks = maxBlocks;
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Adds a block, unless one with the same hash is already there, and evicts the oldest blocks if the pool is now
+     * over its bounds. A block that is bigger than the whole pool is not kept at all.
+     */
+    synchronized void add(OrphanBlock orphan) {
+        Sha256Hash hash = orphan.block.getHash();
+        if (blocks.containsKey(hash))
+            return;
+        blocks.put(hash, orphan);
+        blocksByPrev.put(orphan.block.getPrevBlockHash(), orphan);
+        bytes += orphan.size;
+        evict();
+    }
+
+    private void evict() {
+        Iterator<OrphanBlock> iterator = blocks.values().iterator();
+        while ((blocks.size() > maxBlocks || bytes > maxBytes) && iterator.hasNext()) {
+            OrphanBlock oldest = iterator.next();
+            iterator.remove();
+            blocksByPrev.remove(oldest.block.getPrevBlockHash(), oldest);
+            bytes -= oldest.size;
+            evictedBlocks++;
+            log.debug("Evicted orphan block {}", oldest.block.getHash());
+        }
+    }
+
+    @Nullable
+    synchronized OrphanBlock get(Sha256Hash hash) {
+        return blocks.get(hash);
+    }
+
+    /** Returns the orphan at the bottom of the orphans that the given one builds on, or null if it isn't an orphan. */
+    @Nullable
+    synchronized OrphanBlock getRoot(Sha256Hash hash) {
+        OrphanBlock cursor = blocks.get(hash);
+        if (cursor == null)
+            return null;
+        OrphanBlock parent;
+        while ((parent = blocks.get(cursor.block.getPrevBlockHash())) != null)
+            cursor = parent;
+        return cursor;
+    }
+
+    synchronized boolean contains(Sha256Hash hash) {
+        return blocks.containsKey(hash);
+    }
+
+    /** Removes and returns the blocks that build on the given one, in the order they were added. */
+    synchronized List<OrphanBlock> removeChildren(Sha256Hash prevHash) {
+        List<OrphanBlock> children = blocksByPrev.removeAll(prevHash);
+        for (OrphanBlock child : children) {
+            blocks.remove(child.block.getHash());
+            bytes -= child.size;
+        }
+        return children;
+    }
+
+    /** Removes all blocks, returning their hashes. */
+    synchronized Set<Sha256Hash> clear() {
+        Set<Sha256Hash> hashes = new HashSet<Sha256Hash>(blocks.keySet());
+        blocks.clear();
+        blocksByPrev.clear();
+        bytes = 0;
+        return hashes;
+    }
+
+    /** Records an attempt to connect the children of a block, with the number connected and the time it took. */
+    synchronized void recordConnectAttempt(int connected, long nanos) {
+        connectAttempts++;
+        connectedBlocks += connected;
+        connectNanos += nanos;
+    }
+
+    synchronized int size() {
+        return blocks.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    synchronized long getEvictedBlocks() {
+        return evictedBlocks;
+    }
+
+    synchronized long getConnectAttempts() {
+        return connectAttempts;
+    }
+
+    synchronized long getConnectedBlocks() {
+        return connectedBlocks;
+    }
+
+    synchronized long getConnectNanos() {
+        return connectNanos;
+    }
+}
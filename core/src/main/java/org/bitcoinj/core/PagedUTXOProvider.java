@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import javax.annotation.Nullable;
+import java.util.List;
+
+/**
+ * <p>A {@link UTXOProvider} that can answer queries for many addresses at once without materialising the whole
+ * result, either by streaming outputs to a {@link Visitor} or by returning them a page at a time.</p>
+ *
+ * <p>Outputs are always returned grouped by address, in the order the addresses were given. Within one address,
+ * outputs are ordered by {@link UTXOPage#OUTPOINT_ORDER} so that a {@link UTXOPage.Cursor} can resume a query
+ * exactly where the previous page stopped.</p>
+ */
+public interface PagedUTXOProvider extends UTXOProvider {
+
+    /**
+     * Receives outputs from {@link PagedUTXOProvider#visitOpenTransactionOutputs(List, Visitor)}.
+     */
+    interface Visitor {
+        /**
+         * Called once for every unspent output paying to one of the queried addresses.
+         * @param addressIndex The position in the queried list of the address the output pays to.
+         * @param output The unspent output.
+         * @return false to stop the query early, true to continue.
+         */
+        boolean visit(int addressIndex, UTXO output) throws UTXOProviderException;
+    }
+
+    /**
+     * Streams the unspent outputs of all the given addresses to the visitor, without building a list of the
+     * whole result.
+     * @param addresses The addresses to query.
+     * @param visitor Receives each output in turn.
+     * @throws UTXOProviderException If there is an error.
+     */
+    void visitOpenTransactionOutputs(List<Address> addresses, Visitor visitor) throws UTXOProviderException;
+
+    /**
+     * Returns at most pageSize unspent outputs of the given addresses, starting after the given cursor.
+     * @param addresses The addresses to query. Must be the same list for every page of a query.
+     * @param after The cursor of the previous page, or null to start at the first output.
+     * @param pageSize The maximum number of outputs to return.
+     * @return The page, whose {@link UTXOPage#getNextCursor()} is null once there are no more outputs.
+     * @throws UTXOProviderException If there is an error.
+     */
+    UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor after, int pageSize)
+            throws UTXOProviderException;
+}
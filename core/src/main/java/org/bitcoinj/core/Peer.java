@@ -687,35 +687,42 @@ public class Peer extends PeerSocketHandler {
 
         try {
             checkState(!downloadBlockBodies, toString());
-            for (int i = 0; i < m.getBlockHeaders().size(); i++) {
-                Block header = m.getBlockHeaders().get(i);
+            List<Block> headers = m.getBlockHeaders();
+            int i = 0;
+            while (i < headers.size()) {
                 // Process headers until we pass the fast catchup time, or are about to catch up with the head
                 // of the chain - always process the last block as a full/filtered block to kick us out of the
-                // fast catchup mode (in which we ignore new blocks).
-                boolean passedTime = header.getTimeSeconds() >= fastCatchupTimeSecs;
-                boolean reachedTop = blockChain.getBestChainHeight() >= vPeerVersionMessage.bestHeight;
-                if (!passedTime && !reachedTop) {
+                // fast catchup mode (in which we ignore new blocks). The headers before that are added in one go.
+                int chainHeight = blockChain.getBestChainHeight();
+                int end = i;
+                while (end < headers.size() && headers.get(end).getTimeSeconds() < fastCatchupTimeSecs
+                        && chainHeight + (end - i) < vPeerVersionMessage.bestHeight)
+                    end++;
+                if (end > i) {
                     if (!vDownloadData) {
                         // Not download peer anymore, some other peer probably became better.
                         log.info("Lost download peer status, throwing away downloaded headers.");
                         return;
                     }
-                    if (blockChain.add(header)) {
-                        // The block was successfully linked into the chain. Notify the user of our progress.
-                        invokeOnBlocksDownloaded(header, null);
-                    } else {
+                    int connected = blockChain.addHeaders(headers.subList(i, end));
+                    // Notify the user of our progress for the blocks that were successfully linked into the chain.
+                    for (int j = i; j < i + connected; j++)
+                        invokeOnBlocksDownloaded(headers.get(j), null);
+                    if (i + connected < end) {
                         // This block is unconnected - we don't know how to get from it back to the genesis block yet.
                         // That must mean that the peer is buggy or malicious because we specifically requested for
                         // headers that are part of the best chain.
-                        throw new ProtocolException("Got unconnected header from peer: " + header.getHashAsString());
+                        throw new ProtocolException("Got unconnected header from peer: " +
+                                headers.get(i + connected).getHashAsString());
                     }
+                    i = end;
                 } else {
                     lock.lock();
                     try {
                         log.info(
                                 "Passed the fast catchup time ({}) at height {}, discarding {} headers and requesting full blocks",
                                 Utils.dateTimeFormat(fastCatchupTimeSecs * 1000), blockChain.getBestChainHeight() + 1,
-                                m.getBlockHeaders().size() - i);
+                                headers.size() - i);
                         this.downloadBlockBodies = true;
                         // Prevent this request being seen as a duplicate.
                         this.lastGetBlocksBegin = Sha256Hash.ZERO_HASH;
@@ -738,6 +745,9 @@ public class Peer extends PeerSocketHandler {
             }
         } catch (VerificationException e) {
             log.warn("Block header verification failed", e);
+        } catch (BlockStoreException e) {
+            // The chain is as it was before the headers, so they can be downloaded again.
+            log.error("Could not store block headers", e);
         } catch (PrunedException e) {
             // Unreachable when in SPV mode.
             throw new RuntimeException(e);
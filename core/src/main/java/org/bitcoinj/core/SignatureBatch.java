@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoin.Secp256k1Context;
+import org.bitcoinj.script.Script;
+import org.spongycastle.math.ec.ECPoint;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * <p>Signature checks that are collected first and verified together, for example all the checks of the inputs of a
+ * transaction (see {@link Script#correctlySpends(Transaction, long, Script, Coin, Set, SignatureBatch)}).</p>
+ *
+ * <p>ECDSA signatures only carry the x coordinate of the point R, so unlike Schnorr signatures they can't be checked
+ * all at once with a single multi-scalar multiplication. What the batch does share is the decoding of the public
+ * keys, each of which is decompressed only once however many signatures it has. Each check is still decided on its
+ * own, so {@link #verify()} tells exactly which ones failed.</p>
+ *
+ * <p>The checks are verified on the calling thread. Callers such as the script verification of
+ * {@link FullPrunedBlockChain} already verify many transactions at once on their own threads, so handing each batch
+ * to another pool and waiting for it would only add threads that compete for the same cores.</p>
+ *
+ * <p>Checks can't be added from several threads at once.</p>
+ */
+public class SignatureBatch {
+    private final List<byte[]> hashes = new ArrayList<byte[]>();
+    private final List<ECKey.ECDSASignature> signatures = new ArrayList<ECKey.ECDSASignature>();
+    private final List<byte[]> pubKeys = new ArrayList<byte[]>();
+
+    /**
+     * Adds a check that the signature of the given hash is valid for the given public key.
+     * @return The index of the check, which {@link #verify()} returns if it fails.
+     */
+    public int add(byte[] hash, ECKey.ECDSASignature signature, byte[] pubKey) {
+        hashes.add(hash);
+        signatures.add(signature);
+        pubKeys.add(pubKey);
+        return hashes.size() - 1;
+    }
+
+    /** Returns the number of checks added. */
+    public int size() {
+        return hashes.size();
+    }
+
+    /**
+     * Verifies all checks added so far.
+     * @return The indices of the checks that failed, in order, or an empty list if all signatures are valid. A public
+     * key that can't be decoded fails all of its checks.
+     */
+    public List<Integer> verify() {
+        final int size = size();
+        ECPoint[] points = null;
+        // With the native library there is nothing to share, it decodes the keys itself.
+        if (!ECKey.FAKE_SIGNATURES && !Secp256k1Context.isEnabled()) {
+            Map<ByteBuffer, ECPoint> decoded = new HashMap<ByteBuffer, ECPoint>();
+            points = new ECPoint[size];
+            for (int i = 0; i < size; i++) {
+                ByteBuffer key = ByteBuffer.wrap(pubKeys.get(i));
+                if (!decoded.containsKey(key))
+                    decoded.put(key, decode(pubKeys.get(i)));
+                points[i] = decoded.get(key);
+            }
+        }
+        List<Integer> failed = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++)
+            if (!verify(i, points))
+                failed.add(i);
+        return failed;
+    }
+
+    private static ECPoint decode(byte[] pubKey) {
+        try {
+            return ECKey.CURVE.getCurve().decodePoint(pubKey);
+        } catch (IllegalArgumentException e) {
+            return null;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private boolean verify(int i, ECPoint[] points) {
+        try {
+            if (points == null)
+                return ECKey.verify(hashes.get(i), signatures.get(i), pubKeys.get(i));
+            return points[i] != null && ECKey.verify(hashes.get(i), signatures.get(i), points[i]);
+        } catch (VerificationException e) {
+            return false;
+        } catch (NullPointerException e) {
+            // Specially crafted signatures can make Bouncy Castle throw this, see ECKey.verify.
+            return false;
+        }
+    }
+}
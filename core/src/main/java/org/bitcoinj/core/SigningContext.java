@@ -0,0 +1,144 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoin.NativeSecp256k1;
+import org.bitcoin.NativeSecp256k1Util;
+import org.bitcoin.Secp256k1Context;
+import org.bitcoinj.crypto.TransactionSignature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+import org.spongycastle.math.ec.ECPoint;
+
+import java.math.BigInteger;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Makes ECDSA signatures with deterministic nonces (<a href="https://tools.ietf.org/html/rfc6979">RFC 6979</a>),
+ * always with a low S value. This is what {@link ECKey#sign(Sha256Hash)} uses underneath; use it directly to sign
+ * with a bare private key, or to have the DER encoding written into a buffer of your own.</p>
+ *
+ * <p>Each thread has its own context, see {@link #get()}. A context keeps the HMAC and the buffers of the nonce
+ * generator from one signature to the next, and R is computed with the comb table precomputed for the generator, so
+ * a signature creates little beyond the numbers it computes with. The nonce generator state, which is derived from
+ * the private key, is overwritten as soon as a signature is done, so it doesn't linger on the thread. If the native
+ * secp256k1 library is loaded, it makes the signatures instead.</p>
+ */
+public class SigningContext {
+    private static final Logger log = LoggerFactory.getLogger(SigningContext.class);
+
+    /**
+     * The maximum length of a DER encoded signature: two integers below the curve order, each of which may need a
+     * leading zero byte, with their headers and the header of the sequence.
+     */
+    public static final int MAX_DER_LENGTH = 72;
+
+    private static final ThreadLocal<SigningContext> contexts = new ThreadLocal<SigningContext>() {
+        @Override
+        protected SigningContext initialValue() {
+            return new SigningContext();
+        }
+    };
+
+    // Used to overwrite the nonce generator state after each signature.
+    private static final byte[] CLEAR_HASH = new byte[32];
+
+    private final HMacDSAKCalculator kCalculator = new HMacDSAKCalculator(new SHA256Digest());
+
+    private SigningContext() {
+    }
+
+    /** Returns the context of the calling thread. It must not be handed to other threads. */
+    public static SigningContext get() {
+        return contexts.get();
+    }
+
+    /**
+     * Signs the given 32 byte hash with the given private key.
+     * @return The signature, with a low S value.
+     */
+    public ECKey.ECDSASignature sign(byte[] hash, BigInteger privateKey) {
+        checkArgument(hash.length == 32, "Hash must be 32 bytes");
+        checkNotNull(privateKey);
+        if (Secp256k1Context.isEnabled())
+            return ECKey.ECDSASignature.decodeFromDER(nativeSign(hash, privateKey));
+        if (ECKey.FAKE_SIGNATURES)
+            return TransactionSignature.dummy();
+        BigInteger[] rs = generateSignature(hash, privateKey);
+        return new ECKey.ECDSASignature(rs[0], rs[1]);
+    }
+
+    /**
+     * Signs the given 32 byte hash with the given private key and writes the DER encoded signature, with a low S
+     * value, into the buffer at the given offset. At most {@link #MAX_DER_LENGTH} bytes are written.
+     * @return The number of bytes written.
+     * @throws IllegalArgumentException if the signature doesn't fit into the buffer.
+     */
+    public int sign(byte[] hash, BigInteger privateKey, byte[] buffer, int offset) {
+        checkArgument(hash.length == 32, "Hash must be 32 bytes");
+        checkNotNull(privateKey);
+        if (Secp256k1Context.isEnabled()) {
+            byte[] signature = nativeSign(hash, privateKey);
+            checkArgument(buffer.length - offset >= signature.length, "Buffer too small");
+            System.arraycopy(signature, 0, buffer, offset, signature.length);
+            return signature.length;
+        }
+        if (ECKey.FAKE_SIGNATURES)
+            return TransactionSignature.dummy().encodeToDER(buffer, offset);
+        BigInteger[] rs = generateSignature(hash, privateKey);
+        return ECKey.ECDSASignature.encodeToDER(rs[0], rs[1], buffer, offset);
+    }
+
+    private static byte[] nativeSign(byte[] hash, BigInteger privateKey) {
+        try {
+            return NativeSecp256k1.sign(hash, Utils.bigIntegerToBytes(privateKey, 32));
+        } catch (NativeSecp256k1Util.AssertFailException e) {
+            log.error("Caught AssertFailException inside secp256k1", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    // The same steps as Bouncy Castle's ECDSASigner, minus the key parameter objects it needs to be initialised with.
+    private BigInteger[] generateSignature(byte[] hash, BigInteger d) {
+        BigInteger n = ECKey.CURVE.getN();
+        // The hash is as long as the order, so it needs no truncating.
+        BigInteger e = new BigInteger(1, hash);
+        kCalculator.init(n, d, hash);
+        BigInteger r, s;
+        try {
+            do {
+                BigInteger k;
+                do {
+                    k = kCalculator.nextK();
+                    ECPoint p = ECKey.G_MULTIPLIER.multiply(ECKey.CURVE.getG(), k).normalize();
+                    r = p.getAffineXCoord().toBigInteger().mod(n);
+                } while (r.signum() == 0);
+                s = k.modInverse(n).multiply(e.add(d.multiply(r))).mod(n);
+            } while (s.signum() == 0);
+        } finally {
+            // The K and V of RFC 6979 are derived from the private key. Initialising with a dummy key replaces them.
+            kCalculator.init(n, BigInteger.ONE, CLEAR_HASH);
+        }
+        if (s.compareTo(ECKey.HALF_CURVE_ORDER) > 0)
+            s = n.subtract(s);
+        return new BigInteger[] { r, s };
+    }
+}
@@ -44,10 +44,14 @@ public class StoredBlock {
     public static final int COMPACT_SERIALIZED_SIZE = Block.HEADER_SIZE + CHAIN_WORK_BYTES + 4;  // for height
 
     private Block header;
-    private BigInteger chainWork;
+    private UInt256 chainWork;
     private int height;
 
     public StoredBlock(Block header, BigInteger chainWork, int height) {
+        this(header, UInt256.fromBigInteger(chainWork), height);
+    }
+
+    public StoredBlock(Block header, UInt256 chainWork, int height) {
         this.header = header;
         this.chainWork = chainWork;
         this.height = height;
@@ -66,6 +70,11 @@ public class StoredBlock {
      * then the work represented by a block is 10.
      */
     public BigInteger getChainWork() {
+        return chainWork.toBigInteger();
+    }
+
+    /** The same as {@link #getChainWork()}, as a fixed size integer that is cheaper to add up and compare. */
+    public UInt256 getChainWorkAsUInt256() {
         return chainWork;
     }
 
@@ -100,7 +109,7 @@ public class StoredBlock {
     public StoredBlock build(Block block) throws VerificationException {
         // Stored blocks track total work done in this chain, because the canonical chain is the one that represents
         // the largest amount of work done not the tallest.
-        BigInteger chainWork = this.chainWork.add(block.getWork());
+        UInt256 chainWork = this.chainWork.add(block.getWorkAsUInt256());
         int height = this.height + 1;
         return new StoredBlock(block, chainWork, height);
     }
@@ -117,13 +126,9 @@ public class StoredBlock {
 
     /** Serializes the stored block to a custom packed format. Used by {@link CheckpointManager}. */
     public void serializeCompact(ByteBuffer buffer) {
-        byte[] chainWorkBytes = getChainWork().toByteArray();
-        checkState(chainWorkBytes.length <= CHAIN_WORK_BYTES, "Ran out of space to store chain work!");
-        if (chainWorkBytes.length < CHAIN_WORK_BYTES) {
-            // Pad to the right size.
-            buffer.put(EMPTY_BYTES, 0, CHAIN_WORK_BYTES - chainWorkBytes.length);
-        }
-        buffer.put(chainWorkBytes);
+        // The chain work is written as an unsigned number, padded to the right size.
+        checkState(chainWork.bitLength() <= CHAIN_WORK_BYTES * 8, "Ran out of space to store chain work!");
+        chainWork.write(buffer, CHAIN_WORK_BYTES);
         buffer.putInt(getHeight());
         // Using unsafeBitcoinSerialize here can give us direct access to the same bytes we read off the wire,
         // avoiding serialization round-trips.
@@ -133,9 +138,7 @@ public class StoredBlock {
 
     /** De-serializes the stored block from a custom packed format. Used by {@link CheckpointManager}. */
     public static StoredBlock deserializeCompact(NetworkParameters params, ByteBuffer buffer) throws ProtocolException {
-        byte[] chainWorkBytes = new byte[StoredBlock.CHAIN_WORK_BYTES];
-        buffer.get(chainWorkBytes);
-        BigInteger chainWork = new BigInteger(1, chainWorkBytes);
+        UInt256 chainWork = UInt256.read(buffer, CHAIN_WORK_BYTES);
         int height = buffer.getInt();  // +4 bytes
         byte[] header = new byte[Block.HEADER_SIZE + 1];    // Extra byte for the 00 transactions length.
         buffer.get(header, 0, Block.HEADER_SIZE);
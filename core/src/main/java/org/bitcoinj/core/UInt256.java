@@ -0,0 +1,359 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An immutable unsigned 256 bit integer, held in four longs. It is used for the values the block chain computes for
+ * every header: difficulty targets and chain work. Unlike {@link BigInteger} it has a fixed size, so the arithmetic
+ * only allocates the result.</p>
+ *
+ * <p>Arithmetic that would leave the range from 0 to 2<sup>256</sup>-1 throws an {@link ArithmeticException}, except
+ * for {@link #negate()}, {@link #not()} and {@link #shiftLeft(int)}, which work modulo 2<sup>256</sup> like the
+ * arith_uint256 type of Bitcoin Core.</p>
+ */
+public final class UInt256 implements Comparable<UInt256> {
+    /** The number of bytes of a serialized value. */
+    public static final int BYTES = 32;
+
+    public static final UInt256 ZERO = new UInt256(0, 0, 0, 0);
+    public static final UInt256 ONE = new UInt256(1, 0, 0, 0);
+
+    // The 64 bit words, w0 being the least significant.
+    private final long w0, w1, w2, w3;
+
+    private UInt256(long w0, long w1, long w2, long w3) {
+        this.w0 = w0;
+        this.w1 = w1;
+        this.w2 = w2;
+        this.w3 = w3;
+    }
+
+    private UInt256(long[] words) {
+        this(words[0], words[1], words[2], words[3]);
+    }
+
+    /** Returns the given non-negative value. */
+    public static UInt256 valueOf(long value) {
+        checkArgument(value >= 0, "Negative value: %s", value);
+        return value == 0 ? ZERO : value == 1 ? ONE : new UInt256(value, 0, 0, 0);
+    }
+
+    /** Converts a non-negative integer of at most 256 bits. */
+    public static UInt256 fromBigInteger(BigInteger value) {
+        checkArgument(value.signum() >= 0 && value.bitLength() <= 256, "Out of range: %s", value);
+        return new UInt256(value.longValue(), value.shiftRight(64).longValue(), value.shiftRight(128).longValue(),
+                value.shiftRight(192).longValue());
+    }
+
+    public BigInteger toBigInteger() {
+        return new BigInteger(1, toBytes());
+    }
+
+    /** Reads a big endian value of any length, which must fit into 256 bits. */
+    public static UInt256 fromBytes(byte[] bytes) {
+        long[] words = new long[4];
+        for (int i = 0; i < bytes.length; i++) {
+            int bytePos = bytes.length - 1 - i;
+            if (bytePos >= BYTES) {
+                checkArgument(bytes[i] == 0, "More than 256 bits");
+                continue;
+            }
+            words[bytePos >>> 3] |= (bytes[i] & 0xFFL) << ((bytePos & 7) << 3);
+        }
+        return new UInt256(words);
+    }
+
+    /** Returns the value as 32 big endian bytes. */
+    public byte[] toBytes() {
+        byte[] bytes = new byte[BYTES];
+        for (int i = 0; i < BYTES; i++)
+            bytes[BYTES - 1 - i] = (byte) (word(i >>> 3) >>> ((i & 7) << 3));
+        return bytes;
+    }
+
+    /** Reads a big endian value of the given number of bytes from the buffer, whatever the order of the buffer. */
+    public static UInt256 read(ByteBuffer buffer, int length) {
+        checkArgument(length >= 0 && length <= BYTES, "Bad length: %s", length);
+        long[] words = new long[4];
+        for (int bytePos = length - 1; bytePos >= 0; bytePos--)
+            words[bytePos >>> 3] |= (buffer.get() & 0xFFL) << ((bytePos & 7) << 3);
+        return new UInt256(words);
+    }
+
+    /**
+     * Writes the value to the buffer as the given number of big endian bytes, whatever the order of the buffer.
+     * @throws IllegalArgumentException If the value doesn't fit.
+     */
+    public void write(ByteBuffer buffer, int length) {
+        checkArgument(length >= 0 && length <= BYTES && bitLength() <= length * 8, "Doesn't fit in %s bytes", length);
+        for (int bytePos = length - 1; bytePos >= 0; bytePos--)
+            buffer.put((byte) (word(bytePos >>> 3) >>> ((bytePos & 7) << 3)));
+    }
+
+    /**
+     * Decodes the compact form used for difficulty targets, as {@link Utils#decodeCompactBits(long)} does.
+     * @throws ArithmeticException If the compact form is of a negative value or one of more than 256 bits.
+     */
+    public static UInt256 decodeCompact(long compact) {
+        int size = (int) (compact >> 24) & 0xFF;
+        long word = compact & 0x007FFFFFL;
+        if (word != 0 && (compact & 0x00800000L) != 0)
+            throw new ArithmeticException("Negative compact value: " + Long.toHexString(compact));
+        if (size <= 3)
+            return valueOf(word >>> (8 * (3 - size)));
+        if (word != 0 && (size > 34 || (word > 0xFF && size > 33) || (word > 0xFFFF && size > 32)))
+            throw new ArithmeticException("Compact value overflows 256 bits: " + Long.toHexString(compact));
+        return valueOf(word).shiftLeft(8 * (size - 3));
+    }
+
+    /** Encodes the value to the compact form used for difficulty targets, as {@link Utils#encodeCompactBits}. */
+    public long encodeCompact() {
+        // The length of the two's complement encoding, which includes room for the sign bit.
+        int size = bitLength() / 8 + 1;
+        long result;
+        if (size <= 3)
+            result = w0 << (8 * (3 - size));
+        else
+            result = shiftRight(8 * (size - 3)).w0;
+        // The 0x00800000 bit denotes the sign.
+        // Thus, if it is already set, divide the mantissa by 256 and increase the exponent.
+        if ((result & 0x00800000L) != 0) {
+            result >>= 8;
+            size++;
+        }
+        return result | (long) size << 24;
+    }
+
+    public UInt256 add(UInt256 other) {
+        long r0 = w0 + other.w0;
+        long carry = Long.compareUnsigned(r0, w0) < 0 ? 1 : 0;
+        long r1 = w1 + other.w1 + carry;
+        carry = carry(w1, other.w1, r1, carry);
+        long r2 = w2 + other.w2 + carry;
+        carry = carry(w2, other.w2, r2, carry);
+        long r3 = w3 + other.w3 + carry;
+        if (carry(w3, other.w3, r3, carry) != 0)
+            throw new ArithmeticException("256 bit overflow");
+        return new UInt256(r0, r1, r2, r3);
+    }
+
+    private static long carry(long a, long b, long sum, long carryIn) {
+        return (carryIn == 0 ? Long.compareUnsigned(sum, a) < 0 : Long.compareUnsigned(sum, a) <= 0) ? 1 : 0;
+    }
+
+    public UInt256 subtract(UInt256 other) {
+        if (compareTo(other) < 0)
+            throw new ArithmeticException("Negative result");
+        return add256(other.negate());
+    }
+
+    // Adds modulo 2^256.
+    private UInt256 add256(UInt256 other) {
+        long r0 = w0 + other.w0;
+        long carry = Long.compareUnsigned(r0, w0) < 0 ? 1 : 0;
+        long r1 = w1 + other.w1 + carry;
+        carry = carry(w1, other.w1, r1, carry);
+        long r2 = w2 + other.w2 + carry;
+        carry = carry(w2, other.w2, r2, carry);
+        long r3 = w3 + other.w3 + carry;
+        return new UInt256(r0, r1, r2, r3);
+    }
+
+    /** Returns 2<sup>256</sup> minus this value, modulo 2<sup>256</sup>. */
+    public UInt256 negate() {
+        return not().add256(ONE);
+    }
+
+    /** Returns the bitwise complement, which is 2<sup>256</sup>-1 minus this value. */
+    public UInt256 not() {
+        return new UInt256(~w0, ~w1, ~w2, ~w3);
+    }
+
+    public UInt256 and(UInt256 other) {
+        return new UInt256(w0 & other.w0, w1 & other.w1, w2 & other.w2, w3 & other.w3);
+    }
+
+    /** Multiplies by a non-negative long. */
+    public UInt256 multiply(long factor) {
+        checkArgument(factor >= 0, "Negative factor: %s", factor);
+        long[] result = new long[4];
+        long carry = 0;
+        for (int i = 0; i < 4; i++) {
+            long word = word(i);
+            long low = word * factor;
+            long high = multiplyHighUnsigned(word, factor);
+            result[i] = low + carry;
+            carry = high + (Long.compareUnsigned(result[i], low) < 0 ? 1 : 0);
+        }
+        if (carry != 0)
+            throw new ArithmeticException("256 bit overflow");
+        return new UInt256(result);
+    }
+
+    // The upper 64 bits of the unsigned 128 bit product.
+    private static long multiplyHighUnsigned(long a, long b) {
+        long aLow = a & 0xFFFFFFFFL, aHigh = a >>> 32;
+        long bLow = b & 0xFFFFFFFFL, bHigh = b >>> 32;
+        long lowLow = aLow * bLow;
+        long lowHigh = aLow * bHigh;
+        long highLow = aHigh * bLow;
+        long middle = (lowLow >>> 32) + (lowHigh & 0xFFFFFFFFL) + (highLow & 0xFFFFFFFFL);
+        return aHigh * bHigh + (lowHigh >>> 32) + (highLow >>> 32) + (middle >>> 32);
+    }
+
+    /** Divides by a positive long, rounding down. */
+    public UInt256 divide(long divisor) {
+        checkArgument(divisor >= 0, "Negative divisor: %s", divisor);
+        return divide(valueOf(divisor));
+    }
+
+    /** Divides, rounding down. */
+    public UInt256 divide(UInt256 divisor) {
+        int divisorBits = divisor.bitLength();
+        if (divisorBits == 0)
+            throw new ArithmeticException("Division by zero");
+        int shift = bitLength() - divisorBits;
+        if (shift < 0)
+            return ZERO;
+        // Binary long division, only over the bits in which the quotient can be non-zero.
+        long[] remainder = { w0, w1, w2, w3 };
+        long[] shifted = shiftLeft(divisor, shift);
+        long[] quotient = new long[4];
+        for (; shift >= 0; shift--) {
+            if (compare(remainder, shifted) >= 0) {
+                subtractInPlace(remainder, shifted);
+                quotient[shift >>> 6] |= 1L << (shift & 63);
+            }
+            shiftRightOneInPlace(shifted);
+        }
+        return new UInt256(quotient);
+    }
+
+    /** Shifts left, dropping the bits that go past 256. */
+    public UInt256 shiftLeft(int n) {
+        checkArgument(n >= 0, "Negative shift: %s", n);
+        return new UInt256(shiftLeft(this, n));
+    }
+
+    private static long[] shiftLeft(UInt256 value, int n) {
+        long[] result = new long[4];
+        int wordShift = n >>> 6, bitShift = n & 63;
+        for (int i = 3; i >= wordShift; i--) {
+            long word = value.word(i - wordShift) << bitShift;
+            if (bitShift != 0 && i - wordShift - 1 >= 0)
+                word |= value.word(i - wordShift - 1) >>> (64 - bitShift);
+            result[i] = word;
+        }
+        return result;
+    }
+
+    public UInt256 shiftRight(int n) {
+        checkArgument(n >= 0, "Negative shift: %s", n);
+        long[] result = new long[4];
+        int wordShift = n >>> 6, bitShift = n & 63;
+        for (int i = 0; i + wordShift < 4; i++) {
+            long word = word(i + wordShift) >>> bitShift;
+            if (bitShift != 0 && i + wordShift + 1 < 4)
+                word |= word(i + wordShift + 1) << (64 - bitShift);
+            result[i] = word;
+        }
+        return new UInt256(result);
+    }
+
+    /** Returns the number of bits up to and including the highest set one, zero for zero. */
+    public int bitLength() {
+        for (int i = 3; i >= 0; i--) {
+            long word = word(i);
+            if (word != 0)
+                return i * 64 + 64 - Long.numberOfLeadingZeros(word);
+        }
+        return 0;
+    }
+
+    public boolean isZero() {
+        return (w0 | w1 | w2 | w3) == 0;
+    }
+
+    private long word(int i) {
+        switch (i) {
+            case 0: return w0;
+            case 1: return w1;
+            case 2: return w2;
+            default: return w3;
+        }
+    }
+
+    private static int compare(long[] a, long[] b) {
+        for (int i = 3; i >= 0; i--) {
+            int c = Long.compareUnsigned(a[i], b[i]);
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    private static void subtractInPlace(long[] a, long[] b) {
+        long borrow = 0;
+        for (int i = 0; i < 4; i++) {
+            long difference = a[i] - b[i] - borrow;
+            borrow = Long.compareUnsigned(a[i], b[i]) < 0 || (borrow != 0 && a[i] == b[i]) ? 1 : 0;
+            a[i] = difference;
+        }
+    }
+
+    private static void shiftRightOneInPlace(long[] a) {
+        for (int i = 0; i < 4; i++)
+            a[i] = (a[i] >>> 1) | (i < 3 ? a[i + 1] << 63 : 0);
+    }
+
+    @Override
+    public int compareTo(UInt256 other) {
+        int c = Long.compareUnsigned(w3, other.w3);
+        if (c == 0)
+            c = Long.compareUnsigned(w2, other.w2);
+        if (c == 0)
+            c = Long.compareUnsigned(w1, other.w1);
+        if (c == 0)
+            c = Long.compareUnsigned(w0, other.w0);
+        return c;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        UInt256 other = (UInt256) o;
+        return w0 == other.w0 && w1 == other.w1 && w2 == other.w2 && w3 == other.w3;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = w0 ^ w1 ^ w2 ^ w3;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Returns the value in hex, without leading zeros, as {@link BigInteger#toString(int)} with radix 16. */
+    @Override
+    public String toString() {
+        return toBigInteger().toString(16);
+    }
+}
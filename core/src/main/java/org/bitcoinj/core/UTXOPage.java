@@ -0,0 +1,163 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import com.google.common.primitives.UnsignedBytes;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * One page of the result of {@link PagedUTXOProvider#getOpenTransactionOutputs(List, UTXOPage.Cursor, int)}.
+ */
+public class UTXOPage {
+
+    /**
+     * The order of outputs within one address: by transaction hash bytes (compared unsigned), then by output index.
+     * This is also the natural key order of the LevelDB address index.
+     */
+    public static final Comparator<UTXO> OUTPOINT_ORDER = new Comparator<UTXO>() {
+        @Override
+        public int compare(UTXO a, UTXO b) {
+            return compareOutPoints(a.getHash(), a.getIndex(), b.getHash(), b.getIndex());
+        }
+    };
+
+    private final List<UTXO> outputs;
+    @Nullable private final Cursor nextCursor;
+
+    public UTXOPage(List<UTXO> outputs, @Nullable Cursor nextCursor) {
+        this.outputs = Collections.unmodifiableList(outputs);
+        this.nextCursor = nextCursor;
+    }
+
+    /** The outputs of this page, at most the requested page size. */
+    public List<UTXO> getOutputs() {
+        return outputs;
+    }
+
+    /** The cursor to pass in to fetch the next page, or null if this is the last page. */
+    @Nullable
+    public Cursor getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * Identifies the last output returned in a page: the position of its address in the queried list, and its outpoint.
+     */
+    public static class Cursor {
+        private final int addressIndex;
+        private final Sha256Hash hash;
+        private final long index;
+
+        public Cursor(int addressIndex, Sha256Hash hash, long index) {
+            checkArgument(addressIndex >= 0);
+            this.addressIndex = addressIndex;
+            this.hash = hash;
+            this.index = index;
+        }
+
+        /** The position in the queried address list of the address of the last output returned. */
+        public int getAddressIndex() {
+            return addressIndex;
+        }
+
+        /** The transaction hash of the last output returned. */
+        public Sha256Hash getHash() {
+            return hash;
+        }
+
+        /** The output index of the last output returned. */
+        public long getIndex() {
+            return index;
+        }
+
+        /** Returns true if the given output of the given address comes after this cursor. */
+        public boolean isBefore(int addressIndex, UTXO output) {
+            if (addressIndex != this.addressIndex)
+                return addressIndex > this.addressIndex;
+            return compareOutPoints(hash, index, output.getHash(), output.getIndex()) < 0;
+        }
+
+        @Override
+        public String toString() {
+            return "UTXO cursor " + addressIndex + "/" + hash + ":" + index;
+        }
+    }
+
+    /**
+     * Builds a page from outputs offered in query order, skipping those up to the starting cursor. Implementations
+     * of {@link PagedUTXOProvider} start at {@link #getStartAddressIndex()} and offer outputs until
+     * {@link #offer(int, UTXO)} returns false.
+     */
+    public static class Collector {
+        @Nullable private final Cursor after;
+        private final int pageSize;
+        private final List<UTXO> outputs;
+        private int lastAddressIndex;
+        private boolean more;
+
+        public Collector(@Nullable Cursor after, int pageSize) {
+            checkArgument(pageSize > 0, "pageSize must be positive");
+            this.after = after;
+            this.pageSize = pageSize;
+            this.outputs = new ArrayList<UTXO>(Math.min(pageSize, 1024));
+        }
+
+        /** The position in the address list at which the query should start. */
+        public int getStartAddressIndex() {
+            return after == null ? 0 : after.getAddressIndex();
+        }
+
+        /**
+         * Offers the next output in query order.
+         * @return false once the page is full and there is at least one more output, true to keep going.
+         */
+        public boolean offer(int addressIndex, UTXO output) {
+            if (after != null && !after.isBefore(addressIndex, output))
+                return true;
+            if (outputs.size() == pageSize) {
+                more = true;
+                return false;
+            }
+            outputs.add(output);
+            lastAddressIndex = addressIndex;
+            return true;
+        }
+
+        public UTXOPage build() {
+            Cursor next = null;
+            if (more) {
+                UTXO last = outputs.get(outputs.size() - 1);
+                next = new Cursor(lastAddressIndex, last.getHash(), last.getIndex());
+            }
+            return new UTXOPage(outputs, next);
+        }
+    }
+
+    private static int compareOutPoints(Sha256Hash hashA, long indexA, Sha256Hash hashB, long indexB) {
+        int result = UnsignedBytes.lexicographicalComparator().compare(hashA.getBytes(), hashB.getBytes());
+        if (result != 0)
+            return result;
+        return indexA < indexB ? -1 : (indexA == indexB ? 0 : 1);
+    }
+}
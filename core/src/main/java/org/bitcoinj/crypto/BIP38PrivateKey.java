@@ -20,7 +20,6 @@ import org.bitcoinj.core.*;
 import com.google.common.base.Charsets;
 import com.google.common.base.Objects;
 import com.google.common.primitives.Bytes;
-import com.lambdaworks.crypto.SCrypt;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.SecretKeySpec;
@@ -31,7 +30,11 @@ import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.security.GeneralSecurityException;
 import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
@@ -114,9 +117,50 @@ public class BIP38PrivateKey extends VersionedChecksummedBytes {
         return key;
     }
 
+    /**
+     * Decrypts many keys with the same passphrase, for example to sweep them, several at a time on the common
+     * fork-join pool.
+     * @return The decrypted keys in the given order, with null for each key that the passphrase doesn't decrypt.
+     */
+    public static List<ECKey> decrypt(List<BIP38PrivateKey> keys, String passphrase) {
+        ECKey[] decrypted = new ECKey[keys.size()];
+        ForkJoinPool.commonPool().invoke(new DecryptTask(keys, passphrase, decrypted, 0, decrypted.length));
+        return new ArrayList<ECKey>(Arrays.asList(decrypted));
+    }
+
+    private static class DecryptTask extends RecursiveAction {
+        private final List<BIP38PrivateKey> keys;
+        private final String passphrase;
+        private final ECKey[] decrypted;
+        private final int from, to;
+
+        DecryptTask(List<BIP38PrivateKey> keys, String passphrase, ECKey[] decrypted, int from, int to) {
+            this.keys = keys;
+            this.passphrase = passphrase;
+            this.decrypted = decrypted;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecryptTask(keys, passphrase, decrypted, from, middle),
+                        new DecryptTask(keys, passphrase, decrypted, middle, to));
+            } else if (to > from) {
+                try {
+                    decrypted[from] = keys.get(from).decrypt(passphrase);
+                } catch (BadPassphraseException e) {
+                    decrypted[from] = null;
+                }
+            }
+        }
+    }
+
     private ECKey decryptNoEC(String normalizedPassphrase) {
         try {
-            byte[] derived = SCrypt.scrypt(normalizedPassphrase.getBytes(Charsets.UTF_8), addressHash, 16384, 8, 8, 64);
+            byte[] derived = KeyCrypterScrypt.scrypt(normalizedPassphrase.getBytes(Charsets.UTF_8), addressHash, 16384, 8, 8, 64);
             byte[] key = Arrays.copyOfRange(derived, 32, 64);
             SecretKeySpec keyspec = new SecretKeySpec(key, "AES");
 
@@ -138,7 +182,7 @@ public class BIP38PrivateKey extends VersionedChecksummedBytes {
             byte[] ownerEntropy = Arrays.copyOfRange(content, 0, 8);
             byte[] ownerSalt = hasLotAndSequence ? Arrays.copyOfRange(ownerEntropy, 0, 4) : ownerEntropy;
 
-            byte[] passFactorBytes = SCrypt.scrypt(normalizedPassphrase.getBytes(Charsets.UTF_8), ownerSalt, 16384, 8, 8, 32);
+            byte[] passFactorBytes = KeyCrypterScrypt.scrypt(normalizedPassphrase.getBytes(Charsets.UTF_8), ownerSalt, 16384, 8, 8, 32);
             if (hasLotAndSequence) {
                 byte[] hashBytes = Bytes.concat(passFactorBytes, ownerEntropy);
                 checkState(hashBytes.length == 40);
@@ -149,7 +193,7 @@ public class BIP38PrivateKey extends VersionedChecksummedBytes {
 
             byte[] salt = Bytes.concat(addressHash, ownerEntropy);
             checkState(salt.length == 12);
-            byte[] derived = SCrypt.scrypt(k.getPubKey(), salt, 1024, 1, 1, 64);
+            byte[] derived = KeyCrypterScrypt.scrypt(k.getPubKey(), salt, 1024, 1, 1, 64);
             byte[] aeskey = Arrays.copyOfRange(derived, 32, 64);
 
             SecretKeySpec keyspec = new SecretKeySpec(aeskey, "AES");
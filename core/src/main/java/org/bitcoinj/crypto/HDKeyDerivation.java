@@ -24,6 +24,7 @@ import java.math.*;
 import java.nio.*;
 import java.security.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import static com.google.common.base.Preconditions.*;
 
@@ -51,6 +52,12 @@ public final class HDKeyDerivation {
      */
     public static final int MAX_CHILD_DERIVATION_ATTEMPTS = 100;
 
+    /**
+     * The number of keys {@link #deriveChildKeys(DeterministicKey, int, int)} derives in one task. Their public keys
+     * are converted to affine coordinates together, which costs one field inversion for the whole batch.
+     */
+    private static final int DERIVATION_BATCH_SIZE = 16;
+
     /**
      * Generates a new deterministic key from the given seed, which can be any arbitrary byte array. However resist
      * the temptation to use a string as the seed - any key derived from a password is likely to be weak and easily
@@ -123,6 +130,113 @@ public final class HDKeyDerivation {
 
     }
 
+    /**
+     * Derives the given number of non-hardened children of the parent, from the given child number up. Child numbers
+     * that would give an invalid key are skipped, like {@link #deriveThisOrNextChildKey(DeterministicKey, int)} does,
+     * so the result is the same as calling that for each key in turn. The keys are derived in parallel on the common
+     * fork-join pool, and none of them are returned until all are done.
+     */
+    public static List<DeterministicKey> deriveChildKeys(DeterministicKey parent, int firstChild, int count) {
+        checkArgument(!new ChildNumber(firstChild).isHardened(), "Can't derive hardened keys in bulk: %s", firstChild);
+        checkArgument(count >= 0);
+        DeterministicKey[] keys = new DeterministicKey[count];
+        ForkJoinPool.commonPool().invoke(new DeriveTask(parent, parent.getPubKeyPoint().getEncoded(true),
+                firstChild, keys, 0, count));
+        List<DeterministicKey> result = new ArrayList<DeterministicKey>(count);
+        for (DeterministicKey key : keys)
+            if (key != null)
+                result.add(key);
+        // Make up for child numbers that gave invalid keys with the ones after the range.
+        int nextChild = firstChild + count;
+        while (result.size() < count) {
+            DeterministicKey key = deriveThisOrNextChildKey(parent, nextChild);
+            result.add(key);
+            nextChild = key.getChildNumber().num() + 1;
+        }
+        return result;
+    }
+
+    /** Derives a range of children into an array, splitting it up until it is one batch. */
+    private static class DeriveTask extends RecursiveAction {
+        private final DeterministicKey parent;
+        private final byte[] parentPublicKey;
+        private final int firstChild;
+        private final DeterministicKey[] keys;
+        private final int from, to;
+
+        DeriveTask(DeterministicKey parent, byte[] parentPublicKey, int firstChild, DeterministicKey[] keys,
+                   int from, int to) {
+            this.parent = parent;
+            this.parentPublicKey = parentPublicKey;
+            this.firstChild = firstChild;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > DERIVATION_BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DeriveTask(parent, parentPublicKey, firstChild, keys, from, middle),
+                        new DeriveTask(parent, parentPublicKey, firstChild, keys, middle, to));
+            } else {
+                deriveBatch(parent, parentPublicKey, firstChild, keys, from, to);
+            }
+        }
+    }
+
+    private static void deriveBatch(DeterministicKey parent, byte[] parentPublicKey, int firstChild,
+                                    DeterministicKey[] keys, int from, int to) {
+        final BigInteger N = ECKey.CURVE.getN();
+        final ECPoint infinity = ECKey.CURVE.getCurve().getInfinity();
+        final ECPoint parentPoint = parent.getPubKeyPoint();
+        final BigInteger parentPriv = parent.hasPrivKey() ? parent.getPrivKey() : null;
+        final int size = to - from;
+        ECPoint[] points = new ECPoint[size];
+        BigInteger[] privKeys = new BigInteger[size];
+        byte[][] chainCodes = new byte[size][];
+        int valid = 0;
+        ByteBuffer data = ByteBuffer.allocate(37);
+        for (int n = 0; n < size; n++) {
+            data.clear();
+            data.put(parentPublicKey);
+            data.putInt(firstChild + from + n);
+            byte[] i = HDUtils.hmacSha512(parent.getChainCode(), data.array());
+            BigInteger ilInt = new BigInteger(1, Arrays.copyOfRange(i, 0, 32));
+            if (ilInt.compareTo(N) > 0)
+                continue;
+            ECPoint point;
+            if (parentPriv != null) {
+                BigInteger ki = parentPriv.add(ilInt).mod(N);
+                if (ki.signum() == 0)
+                    continue;
+                privKeys[n] = ki;
+                point = ECKey.publicPointFromPrivate(ki);
+            } else {
+                point = ECKey.publicPointFromPrivate(ilInt).add(parentPoint);
+                if (point.equals(infinity))
+                    continue;
+            }
+            points[n] = point;
+            chainCodes[n] = Arrays.copyOfRange(i, 32, 64);
+            valid++;
+        }
+        // Convert all points to affine coordinates with a single inversion.
+        ECPoint[] batch = new ECPoint[valid];
+        for (int n = 0, b = 0; n < size; n++)
+            if (points[n] != null)
+                batch[b++] = points[n];
+        ECKey.CURVE.getCurve().normalizeAll(batch);
+        for (int n = 0, b = 0; n < size; n++) {
+            if (points[n] == null)
+                continue;
+            ChildNumber childNumber = new ChildNumber(firstChild + from + n, false);
+            keys[from + n] = new DeterministicKey(HDUtils.append(parent.getPath(), childNumber), chainCodes[n],
+                    batch[b++], privKeys[n], parent);
+        }
+    }
+
     /**
      * @throws HDDerivationException if private derivation is attempted for a public-only parent key, or
      * if the resulting derived key is invalid (eg. private key == 0).
@@ -20,6 +20,7 @@ package org.bitcoinj.crypto;
 import com.google.common.base.Objects;
 import com.google.common.base.Stopwatch;
 import com.google.protobuf.ByteString;
+import com.lambdaworks.crypto.PBKDF;
 import com.lambdaworks.crypto.SCrypt;
 import org.bitcoinj.core.Utils;
 import org.bitcoinj.wallet.Protos;
@@ -34,8 +35,13 @@ import org.spongycastle.crypto.paddings.PaddedBufferedBlockCipher;
 import org.spongycastle.crypto.params.KeyParameter;
 import org.spongycastle.crypto.params.ParametersWithIV;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
 import java.security.SecureRandom;
 import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -156,7 +162,7 @@ public class KeyCrypterScrypt implements KeyCrypter {
             }
 
             final Stopwatch watch = Stopwatch.createStarted();
-            byte[] keyBytes = SCrypt.scrypt(passwordBytes, salt, (int) scryptParameters.getN(), scryptParameters.getR(), scryptParameters.getP(), KEY_LENGTH);
+            byte[] keyBytes = scrypt(passwordBytes, salt, (int) scryptParameters.getN(), scryptParameters.getR(), scryptParameters.getP(), KEY_LENGTH);
             watch.stop();
             log.info("Deriving key took {} for {} scrypt iterations.", watch, scryptParameters.getN());
             return new KeyParameter(keyBytes);
@@ -170,6 +176,59 @@ public class KeyCrypterScrypt implements KeyCrypter {
         }
     }
 
+    /**
+     * Runs scrypt like {@link SCrypt#scrypt(byte[], byte[], int, int, int, int)}, except that for a parallelization
+     * parameter p greater than one the p independent mixing steps run at the same time on the common fork-join pool.
+     * Each of them needs 128 * r * N bytes of memory while it runs.
+     */
+    public static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int dkLen)
+            throws GeneralSecurityException {
+        if (p == 1 || ForkJoinPool.getCommonPoolParallelism() < 2)
+            return SCrypt.scrypt(password, salt, n, r, p, dkLen);
+        if (n < 2 || (n & (n - 1)) != 0)
+            throw new IllegalArgumentException("N must be a power of 2 greater than 1");
+        if (n > Integer.MAX_VALUE / 128 / r)
+            throw new IllegalArgumentException("Parameter N is too large");
+        if (r > Integer.MAX_VALUE / 128 / p)
+            throw new IllegalArgumentException("Parameter r is too large");
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(password, "HmacSHA256"));
+        byte[] b = new byte[128 * r * p];
+        PBKDF.pbkdf2(mac, salt, 1, b, b.length);
+        ForkJoinPool.commonPool().invoke(new MixTask(b, n, r, 0, p));
+        byte[] derived = new byte[dkLen];
+        PBKDF.pbkdf2(mac, b, 1, derived, dkLen);
+        Arrays.fill(b, (byte) 0);
+        return derived;
+    }
+
+    /** Runs the scrypt mixing step on a range of the blocks, which are independent of each other. */
+    private static class MixTask extends RecursiveAction {
+        private final byte[] b;
+        private final int n, r, from, to;
+
+        MixTask(byte[] b, int n, int r, int from, int to) {
+            this.b = b;
+            this.n = n;
+            this.r = r;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new MixTask(b, n, r, from, middle), new MixTask(b, n, r, middle, to));
+            } else {
+                byte[] v = new byte[128 * r * n];
+                byte[] xy = new byte[256 * r];
+                SCrypt.smix(b, from * 128 * r, r, n, v, xy);
+            }
+        }
+    }
+
     /**
      * Password based encryption using AES - CBC 256 bits.
      */
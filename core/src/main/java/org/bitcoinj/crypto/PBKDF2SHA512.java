@@ -23,11 +23,12 @@
 
 package org.bitcoinj.crypto;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
-import java.io.ByteArrayOutputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import com.google.common.base.Charsets;
+import org.spongycastle.crypto.digests.SHA512Digest;
+import org.spongycastle.crypto.macs.HMac;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import java.util.Arrays;
 
 /**
  * <p>This is a clean-room implementation of PBKDF2 using RFC 2898 as a reference.</p>
@@ -38,75 +39,55 @@ import java.nio.ByteOrder;
  *
  * <p>http://cryptofreek.org/2012/11/29/pbkdf2-pure-java-implementation/<br>
  * Modified to use SHA-512 - Ken Sedgwick ken@bonsai.com</p>
+ *
+ * <p>The HMAC keeps the digest states of its padded key between iterations and each block is computed in place, so
+ * the iterations don't allocate anything.</p>
  */
 public class PBKDF2SHA512 {
-    public static byte[] derive(String P, String S, int c, int dkLen) {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    private static final int H_LEN = 64;
 
-        try {
-            int hLen = 20;
-
-            if (dkLen > ((Math.pow(2, 32)) - 1) * hLen) {
-                throw new IllegalArgumentException("derived key too long");
-            } else {
-                int l = (int) Math.ceil((double) dkLen / (double) hLen);
-                // int r = dkLen - (l-1)*hLen;
+    public static byte[] derive(String P, String S, int c, int dkLen) {
+        return derive(P.getBytes(Charsets.UTF_8), S.getBytes(Charsets.UTF_8), c, dkLen);
+    }
 
-                for (int i = 1; i <= l; i++) {
-                    byte[] T = F(P, S, c, i);
-                    baos.write(T);
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public static byte[] derive(byte[] P, byte[] S, int c, int dkLen) {
+        if (dkLen > ((Math.pow(2, 32)) - 1) * H_LEN)
+            throw new IllegalArgumentException("derived key too long");
 
+        HMac mac = new HMac(new SHA512Digest());
+        mac.init(new KeyParameter(P));
+        byte[] U = new byte[H_LEN];
+        byte[] T = new byte[H_LEN];
         byte[] baDerived = new byte[dkLen];
-        System.arraycopy(baos.toByteArray(), 0, baDerived, 0, baDerived.length);
+        int l = (dkLen + H_LEN - 1) / H_LEN;
+        for (int i = 1; i <= l; i++) {
+            F(mac, S, c, i, U, T);
+            int offset = (i - 1) * H_LEN;
+            System.arraycopy(T, 0, baDerived, offset, Math.min(H_LEN, dkLen - offset));
+        }
+        Arrays.fill(U, (byte) 0);
+        Arrays.fill(T, (byte) 0);
 
         return baDerived;
     }
 
-    private static byte[] F(String P, String S, int c, int i) throws Exception {
-        byte[] U_LAST = null;
-        byte[] U_XOR = null;
-
-        SecretKeySpec key = new SecretKeySpec(P.getBytes("UTF-8"), "HmacSHA512");
-        Mac mac = Mac.getInstance(key.getAlgorithm());
-        mac.init(key);
-
-        for (int j = 0; j < c; j++) {
-            if (j == 0) {
-                byte[] baS = S.getBytes("UTF-8");
-                byte[] baI = INT(i);
-                byte[] baU = new byte[baS.length + baI.length];
-
-                System.arraycopy(baS, 0, baU, 0, baS.length);
-                System.arraycopy(baI, 0, baU, baS.length, baI.length);
-
-                U_XOR = mac.doFinal(baU);
-                U_LAST = U_XOR;
-                mac.reset();
-            } else {
-                byte[] baU = mac.doFinal(U_LAST);
-                mac.reset();
-
-                for (int k = 0; k < U_XOR.length; k++) {
-                    U_XOR[k] = (byte) (U_XOR[k] ^ baU[k]);
-                }
-
-                U_LAST = baU;
+    // Computes block i into T, using U for the intermediate values.
+    private static void F(HMac mac, byte[] S, int c, int i, byte[] U, byte[] T) {
+        mac.update(S, 0, S.length);
+        mac.update((byte) (i >>> 24));
+        mac.update((byte) (i >>> 16));
+        mac.update((byte) (i >>> 8));
+        mac.update((byte) i);
+        mac.doFinal(U, 0);
+        System.arraycopy(U, 0, T, 0, H_LEN);
+
+        for (int j = 1; j < c; j++) {
+            mac.update(U, 0, H_LEN);
+            mac.doFinal(U, 0);
+
+            for (int k = 0; k < H_LEN; k++) {
+                T[k] = (byte) (T[k] ^ U[k]);
             }
         }
-
-        return U_XOR;
-    }
-
-    private static byte[] INT(int i) {
-        ByteBuffer bb = ByteBuffer.allocate(4);
-        bb.order(ByteOrder.BIG_ENDIAN);
-        bb.putInt(i);
-
-        return bb.array();
     }
 }
@@ -21,9 +21,8 @@ import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.core.Transaction.SigHash;
 import com.google.common.base.Preconditions;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
  * A TransactionSignature wraps an {@link org.bitcoinj.core.ECKey.ECDSASignature} and adds methods for handling
@@ -178,13 +177,24 @@ public class TransactionSignature extends ECKey.ECDSASignature {
      * components into a structure, and then we append a byte to the end for the sighash flags.
      */
     public byte[] encodeToBitcoin() {
-        try {
-            ByteArrayOutputStream bos = derByteStream();
-            bos.write(sighashFlags);
-            return bos.toByteArray();
-        } catch (IOException e) {
-            throw new RuntimeException(e);  // Cannot happen.
-        }
+        byte[] der = encodeToDER();
+        byte[] encoded = Arrays.copyOf(der, der.length + 1);
+        encoded[der.length] = (byte) sighashFlags;
+        return encoded;
+    }
+
+    /**
+     * Writes the encoding of {@link #encodeToBitcoin()} into the buffer at the given offset.
+     * @return The number of bytes written, at most {@link org.bitcoinj.core.SigningContext#MAX_DER_LENGTH} + 1 for a
+     * signature made on secp256k1.
+     * @throws IllegalArgumentException if the encoding doesn't fit into the buffer.
+     */
+    public int encodeToBitcoin(byte[] buffer, int offset) {
+        // Checked up front, so that the buffer is left alone if the encoding doesn't fit.
+        Preconditions.checkArgument(buffer.length - offset > getDERLength(), "Buffer too small");
+        int length = encodeToDER(buffer, offset);
+        buffer[offset + length] = (byte) sighashFlags;
+        return length + 1;
     }
 
     @Override
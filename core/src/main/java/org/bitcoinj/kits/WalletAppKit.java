@@ -77,6 +77,7 @@ public class WalletAppKit extends AbstractIdleService {
     protected DownloadProgressTracker downloadListener;
     protected boolean autoStop = true;
     protected InputStream checkpoints;
+    protected InputStream headerSnapshot;
     protected boolean blockingStartup = true;
     protected boolean useTor = false;   // Perhaps in future we can change this to true.
     protected String userAgent, version;
@@ -155,6 +156,19 @@ public class WalletAppKit extends AbstractIdleService {
         return this;
     }
 
+    /**
+     * If set, the file is expected to contain a header snapshot calculated with BuildCheckpoints. When a new chain file
+     * is created, the headers of the snapshot up to the checkpoint for the creation time of the wallet are loaded into
+     * it, so that they don't have to be downloaded. It is only used together with checkpoints, and only if it
+     * contains that checkpoint.
+     */
+    public WalletAppKit setHeaderSnapshot(InputStream headerSnapshot) {
+        if (this.headerSnapshot != null)
+            Utils.closeUnchecked(this.headerSnapshot);
+        this.headerSnapshot = checkNotNull(headerSnapshot);
+        return this;
+    }
+
     /**
      * If true (the default) then the startup of this service won't be considered complete until the network has been
      * brought up, peer connections established and the block chain synchronised. Therefore {@link #awaitRunning()} can
@@ -278,6 +292,9 @@ public class WalletAppKit extends AbstractIdleService {
                 if (checkpoints == null && !Utils.isAndroidRuntime()) {
                     checkpoints = CheckpointManager.openStream(params);
                 }
+                if (headerSnapshot == null && !Utils.isAndroidRuntime()) {
+                    headerSnapshot = CheckpointManager.openSnapshotStream(params);
+                }
 
                 if (checkpoints != null) {
                     // Initialize the chain file with a checkpoint to speed up first-run sync.
@@ -295,7 +312,7 @@ public class WalletAppKit extends AbstractIdleService {
                         time = vWallet.getEarliestKeyCreationTime();
                     }
                     if (time > 0)
-                        CheckpointManager.checkpoint(params, checkpoints, vStore, time);
+                        CheckpointManager.checkpoint(params, checkpoints, headerSnapshot, vStore, time);
                     else
                         log.warn("Creating a new uncheckpointed block store due to a wallet with a creation time of zero: this will result in a very slow chain sync");
                 } else if (chainFileExists) {
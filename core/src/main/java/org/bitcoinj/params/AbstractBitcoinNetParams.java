@@ -87,18 +87,20 @@ public abstract class AbstractBitcoinNetParams extends NetworkParameters {
         return medianTimePast >= parameters.getMonolithActivationTime();
     }
 
-    /**
-     * The number that is one greater than the largest representable SHA-256
-     * hash.
-     */
-    private static BigInteger LARGEST_HASH = BigInteger.ONE.shiftLeft(256);
-
     /**
      * Compute the a target based on the work done between 2 blocks and the time
      * required to produce that work.
      */
      public static BigInteger ComputeTarget(StoredBlock pindexFirst,
                                    StoredBlock pindexLast) {
+         return ComputeTargetAsUInt256(pindexFirst, pindexLast).toBigInteger();
+     }
+
+    /**
+     * The same as {@link #ComputeTarget(StoredBlock, StoredBlock)}, as a fixed size integer.
+     */
+     public static UInt256 ComputeTargetAsUInt256(StoredBlock pindexFirst,
+                                   StoredBlock pindexLast) {
 
          Preconditions.checkState(pindexLast.getHeight() > pindexFirst.getHeight());
 
@@ -107,8 +109,8 @@ public abstract class AbstractBitcoinNetParams extends NetworkParameters {
          * we can deduce how much work we expect to be produced in the targeted time
          * between blocks.
          */
-        BigInteger work = pindexLast.getChainWork().subtract(pindexFirst.getChainWork());
-        work = work.multiply(BigInteger.valueOf(TARGET_SPACING));
+        UInt256 work = pindexLast.getChainWorkAsUInt256().subtract(pindexFirst.getChainWorkAsUInt256());
+        work = work.multiply(TARGET_SPACING);
 
         // In order to avoid difficulty cliffs, we bound the amplitude of the
         // adjustement we are going to do.
@@ -120,14 +122,14 @@ public abstract class AbstractBitcoinNetParams extends NetworkParameters {
             nActualTimespan = 72 * TARGET_SPACING;
         }
 
-        work = work.divide(BigInteger.valueOf(nActualTimespan));
+        work = work.divide(nActualTimespan);
 
         /*
          * We need to compute T = (2^256 / W) - 1 but 2^256 doesn't fit in 256 bits.
          * By expressing 1 as W / W, we get (2^256 - W) / W, and we can compute
          * 2^256 - W as the complement of W.
          */
-         return LARGEST_HASH.divide(work).subtract(BigInteger.ONE);//target.add(BigInteger.ONE))
+         return work.negate().divide(work);
     }
 
     @Override
@@ -20,6 +20,7 @@ import org.bitcoinj.core.*;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
+import javax.annotation.Nullable;
 import java.math.BigInteger;
 
 public abstract class AbstractPowRulesChecker {
@@ -33,6 +34,29 @@ public abstract class AbstractPowRulesChecker {
     public abstract void checkRules(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore,
                                     AbstractBlockChain blockChain) throws VerificationException, BlockStoreException;
 
+    /**
+     * Returns the ancestor of the block at the given height, found through the block index of the chain if there is
+     * one, or by walking down the store otherwise. Returns null if the store doesn't go down that far.
+     */
+    @Nullable
+    protected static StoredBlock getAncestor(StoredBlock block, int height, BlockStore blockStore,
+                                             @Nullable AbstractBlockChain blockChain) throws BlockStoreException {
+        if (blockChain != null)
+            return blockChain.getBlockIndex().getAncestor(block, height, blockStore);
+        StoredBlock ancestor = block;
+        while (ancestor != null && ancestor.getHeight() > height)
+            ancestor = ancestor.getPrev(blockStore);
+        return ancestor;
+    }
+
+    /** Returns the median timestamp of the block and the 10 before it, using the block index of the chain if given. */
+    protected static long getMedianTimestamp(StoredBlock block, BlockStore blockStore,
+                                             @Nullable AbstractBlockChain blockChain) throws BlockStoreException {
+        if (blockChain != null)
+            return blockChain.getBlockIndex().getMedianTimestamp(block, blockStore);
+        return AbstractBlockChain.getMedianTimestampOfRecentBlocks(block, blockStore);
+    }
+
     public static boolean hasEqualDifficulty(Block prevBlock, Block nextBlock) {
         return prevBlock.getDifficultyTarget() == nextBlock.getDifficultyTarget();
     }
@@ -41,4 +65,8 @@ public abstract class AbstractPowRulesChecker {
         return a == Utils.encodeCompactBits(b);
     }
 
+    public static boolean hasEqualDifficulty(long a, UInt256 b) {
+        return a == b.encodeCompact();
+    }
+
 }
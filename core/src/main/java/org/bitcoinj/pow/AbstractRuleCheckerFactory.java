@@ -20,6 +20,8 @@ import org.bitcoinj.core.Block;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.StoredBlock;
 
+import javax.annotation.Nullable;
+
 public abstract class AbstractRuleCheckerFactory {
 
     protected NetworkParameters networkParameters;
@@ -30,6 +32,15 @@ public abstract class AbstractRuleCheckerFactory {
 
     public abstract RulesPoolChecker getRuleChecker(StoredBlock storedPrev, Block nextBlock);
 
+    /**
+     * Returns the window of recent blocks the checkers of this factory keep up to date as they check blocks, or null
+     * if they don't keep one.
+     */
+    @Nullable
+    public ChainWindow getChainWindow() {
+        return null;
+    }
+
     protected boolean isTestNet() {
         return NetworkParameters.ID_TESTNET.equals(networkParameters.getId());
     }
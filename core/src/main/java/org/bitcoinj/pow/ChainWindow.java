@@ -0,0 +1,199 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.pow;
+
+import org.bitcoinj.core.AbstractBlockChain;
+import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>The last blocks of the best chain, together with the median time past of each of them, kept up to date one block
+ * at a time so that the difficulty rules don't have to gather their blocks from the store for every new block.</p>
+ *
+ * <p>The window follows the block the rules are checked against, which is normally the head of the chain: a block
+ * building on the last one is appended. When the head moves somewhere else, after a reorganize or an aborted store
+ * write, the window is rewound if the head is in it and loaded again from the store otherwise. For blocks on side
+ * chains the window is left alone and {@link #moveTo(StoredBlock, BlockStore, AbstractBlockChain)} returns false, so
+ * the rules fall back to the store.</p>
+ *
+ * <p>The median time past is kept in a sorted array of the last 11 timestamps, which takes a constant number of
+ * steps to update as the window moves.</p>
+ *
+ * <p>This class is not thread safe. The chain only uses it while holding its lock.</p>
+ */
+public class ChainWindow {
+    /** The default number of blocks kept, enough for the 144 blocks the difficulty adjustment algorithm looks at. */
+    public static final int DEFAULT_CAPACITY = 256;
+    /** Returned by {@link #getMedianTimePast(StoredBlock)} when the median time past of a block is not known. */
+    public static final long UNKNOWN = -1;
+
+    private static final int MEDIAN_TIME_SPAN = 11;
+
+    private final StoredBlock[] blocks;
+    private final long[] medianTimePasts;
+    // The window holds the blocks from lowHeight to tipHeight, tipHeight < lowHeight if it is empty.
+    private int lowHeight = 0;
+    private int tipHeight = -1;
+    // Whether the block at lowHeight has no parent in the store, so that the median time past is known from there.
+    private boolean startsAtStoreStart;
+
+    // The timestamps of the last blocks of the window, in ascending order.
+    private final long[] sortedTimes = new long[MEDIAN_TIME_SPAN];
+    private int sortedCount;
+
+    public ChainWindow() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ChainWindow(int capacity) {
+        checkArgument(capacity > MEDIAN_TIME_SPAN);
+        this.blocks = new StoredBlock[capacity];
+        this.medianTimePasts = new long[capacity];
+    }
+
+    /**
+     * Moves the window to end at the given block, if it builds on the last block of the window or is the head of the
+     * given chain.
+     *
+     * @return true if the window now ends at the block.
+     */
+    public boolean moveTo(StoredBlock block, BlockStore store, @Nullable AbstractBlockChain chain)
+            throws BlockStoreException {
+        int height = block.getHeight();
+        if (!isEmpty() && height == tipHeight + 1
+                && block.getHeader().getPrevBlockHash().equals(getTip().getHeader().getHash())) {
+            push(block);
+            return true;
+        }
+        if (!isEmpty() && block.equals(getTip()))
+            return true;
+        if (chain == null || !block.equals(chain.getChainHead()))
+            return false;
+        if (block.equals(get(height))) {
+            while (tipHeight > height)
+                pop();
+        } else {
+            load(block, store);
+        }
+        return true;
+    }
+
+    /** Returns the block at the given height, or null if it isn't in the window. */
+    @Nullable
+    public StoredBlock get(int height) {
+        if (height < lowHeight || height > tipHeight)
+            return null;
+        return blocks[height % blocks.length];
+    }
+
+    /** Returns the last block of the window, or null if it is empty. */
+    @Nullable
+    public StoredBlock getTip() {
+        return get(tipHeight);
+    }
+
+    public boolean isEmpty() {
+        return tipHeight < lowHeight;
+    }
+
+    /**
+     * Returns the median timestamp of the given block and the 10 blocks before it, as
+     * {@link AbstractBlockChain#getMedianTimestampOfRecentBlocks(StoredBlock, BlockStore)} does, or {@link #UNKNOWN}
+     * if the block isn't in the window or too few blocks below it are.
+     */
+    public long getMedianTimePast(StoredBlock block) {
+        int height = block.getHeight();
+        if (!block.equals(get(height)))
+            return UNKNOWN;
+        return medianTimePasts[height % blocks.length];
+    }
+
+    /** Forgets all blocks. */
+    public void clear() {
+        Arrays.fill(blocks, null);
+        lowHeight = 0;
+        tipHeight = -1;
+        sortedCount = 0;
+    }
+
+    private void load(StoredBlock tip, BlockStore store) throws BlockStoreException {
+        StoredBlock[] loaded = new StoredBlock[blocks.length];
+        int count = 0;
+        StoredBlock cursor = tip;
+        while (cursor != null && count < loaded.length) {
+            loaded[count++] = cursor;
+            cursor = cursor.getPrev(store);
+        }
+        clear();
+        startsAtStoreStart = cursor == null;
+        lowHeight = tip.getHeight() - count + 1;
+        tipHeight = lowHeight - 1;
+        for (int i = count - 1; i >= 0; i--)
+            push(loaded[i]);
+    }
+
+    private void push(StoredBlock block) {
+        int height = tipHeight + 1;
+        if (height - lowHeight == blocks.length) {
+            blocks[lowHeight % blocks.length] = null;
+            lowHeight++;
+            startsAtStoreStart = false;
+        }
+        // The timestamp 11 blocks down leaves the median.
+        if (height - MEDIAN_TIME_SPAN >= lowHeight)
+            removeTime(blocks[(height - MEDIAN_TIME_SPAN) % blocks.length].getHeader().getTimeSeconds());
+        blocks[height % blocks.length] = block;
+        tipHeight = height;
+        insertTime(block.getHeader().getTimeSeconds());
+        boolean known = sortedCount == MEDIAN_TIME_SPAN || startsAtStoreStart;
+        medianTimePasts[height % blocks.length] = known ? sortedTimes[(sortedCount - 1) / 2] : UNKNOWN;
+    }
+
+    private void pop() {
+        removeTime(getTip().getHeader().getTimeSeconds());
+        blocks[tipHeight % blocks.length] = null;
+        tipHeight--;
+        // The timestamp 11 blocks down from the old tip is back in the median.
+        if (tipHeight - MEDIAN_TIME_SPAN + 1 >= lowHeight)
+            insertTime(blocks[(tipHeight - MEDIAN_TIME_SPAN + 1) % blocks.length].getHeader().getTimeSeconds());
+        if (isEmpty())
+            clear();
+    }
+
+    private void insertTime(long time) {
+        int i = sortedCount++;
+        while (i > 0 && sortedTimes[i - 1] > time) {
+            sortedTimes[i] = sortedTimes[i - 1];
+            i--;
+        }
+        sortedTimes[i] = time;
+    }
+
+    private void removeTime(long time) {
+        int i = 0;
+        while (sortedTimes[i] != time)
+            i++;
+        System.arraycopy(sortedTimes, i + 1, sortedTimes, i, sortedCount - i - 1);
+        sortedCount--;
+    }
+}
@@ -21,25 +21,38 @@ import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.pow.AbstractRuleCheckerFactory;
+import org.bitcoinj.pow.ChainWindow;
 import org.bitcoinj.pow.RulesPoolChecker;
 import org.bitcoinj.pow.rule.MinimalDifficultyRuleChecker;
 import org.bitcoinj.pow.rule.NewDifficultyAdjustmentAlgorithmRulesChecker;
 
 public class DAARuleCheckerFactory extends AbstractRuleCheckerFactory {
 
+    private final RulesPoolChecker minimalDifficultyChecker;
+    private final RulesPoolChecker daaChecker;
+
     public DAARuleCheckerFactory(NetworkParameters parameters) {
+        this(parameters, new ChainWindow());
+    }
+
+    /**
+     * @param chainWindow The last blocks of the chain, shared with the other factories of the chain.
+     */
+    public DAARuleCheckerFactory(NetworkParameters parameters, ChainWindow chainWindow) {
         super(parameters);
+        this.minimalDifficultyChecker = new RulesPoolChecker(networkParameters);
+        this.minimalDifficultyChecker.addRule(new MinimalDifficultyRuleChecker(networkParameters));
+        this.daaChecker = new RulesPoolChecker(networkParameters);
+        this.daaChecker.addRule(new NewDifficultyAdjustmentAlgorithmRulesChecker(networkParameters, chainWindow));
     }
 
     @Override
     public RulesPoolChecker getRuleChecker(StoredBlock storedPrev, Block nextBlock) {
-        RulesPoolChecker rulesChecker = new RulesPoolChecker(networkParameters);
         if (isTestNet() && TestNet3Params.isValidTestnetDateBlock(nextBlock)) {
-            rulesChecker.addRule(new MinimalDifficultyRuleChecker(networkParameters));
+            return minimalDifficultyChecker;
         } else {
-            rulesChecker.addRule(new NewDifficultyAdjustmentAlgorithmRulesChecker(networkParameters));
+            return daaChecker;
         }
-        return rulesChecker;
     }
 
 }
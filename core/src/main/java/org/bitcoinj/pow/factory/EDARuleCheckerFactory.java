@@ -23,6 +23,7 @@ import org.bitcoinj.params.AbstractBitcoinNetParams;
 import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.pow.AbstractPowRulesChecker;
 import org.bitcoinj.pow.AbstractRuleCheckerFactory;
+import org.bitcoinj.pow.ChainWindow;
 import org.bitcoinj.pow.RulesPoolChecker;
 import org.bitcoinj.pow.rule.DifficultyTransitionPointRuleChecker;
 import org.bitcoinj.pow.rule.EmergencyDifficultyAdjustmentRuleChecker;
@@ -31,8 +32,29 @@ import org.bitcoinj.pow.rule.MinimalDifficultyNoChangedRuleChecker;
 
 public class EDARuleCheckerFactory extends AbstractRuleCheckerFactory {
 
+    private final RulesPoolChecker transitionPointChecker;
+    private final RulesPoolChecker lastNonMinimalDifficultyChecker;
+    private final RulesPoolChecker minimalDifficultyNoChangedChecker;
+    private final RulesPoolChecker edaChecker;
+
     public EDARuleCheckerFactory(NetworkParameters parameters) {
+        this(parameters, new ChainWindow());
+    }
+
+    /**
+     * @param chainWindow The last blocks of the chain, shared with the other factories of the chain.
+     */
+    public EDARuleCheckerFactory(NetworkParameters parameters, ChainWindow chainWindow) {
         super(parameters);
+        // The checkers don't keep state between blocks, other than the window, so they are made once.
+        this.transitionPointChecker = new RulesPoolChecker(networkParameters);
+        this.transitionPointChecker.addRule(new DifficultyTransitionPointRuleChecker(networkParameters));
+        this.lastNonMinimalDifficultyChecker = new RulesPoolChecker(networkParameters);
+        this.lastNonMinimalDifficultyChecker.addRule(new LastNonMinimalDifficultyRuleChecker(networkParameters));
+        this.minimalDifficultyNoChangedChecker = new RulesPoolChecker(networkParameters);
+        this.minimalDifficultyNoChangedChecker.addRule(new MinimalDifficultyNoChangedRuleChecker(networkParameters));
+        this.edaChecker = new RulesPoolChecker(networkParameters);
+        this.edaChecker.addRule(new EmergencyDifficultyAdjustmentRuleChecker(networkParameters, chainWindow));
     }
 
     @Override
@@ -45,24 +67,20 @@ public class EDARuleCheckerFactory extends AbstractRuleCheckerFactory {
     }
 
     private RulesPoolChecker getTransitionPointRulesChecker() {
-        RulesPoolChecker rulesChecker = new RulesPoolChecker(networkParameters);
-        rulesChecker.addRule(new DifficultyTransitionPointRuleChecker(networkParameters));
-        return rulesChecker;
+        return transitionPointChecker;
     }
 
     private RulesPoolChecker getNoTransitionPointRulesChecker(StoredBlock storedPrev, Block nextBlock) {
-        RulesPoolChecker rulesChecker = new RulesPoolChecker(networkParameters);
         if (isTestNet() && TestNet3Params.isValidTestnetDateBlock(nextBlock)) {
-            rulesChecker.addRule(new LastNonMinimalDifficultyRuleChecker(networkParameters));
+            return lastNonMinimalDifficultyChecker;
         } else {
             if (AbstractPowRulesChecker.hasEqualDifficulty(
-                    storedPrev.getHeader().getDifficultyTarget(), networkParameters.getMaxTarget())) {
-                rulesChecker.addRule(new MinimalDifficultyNoChangedRuleChecker(networkParameters));
+                    storedPrev.getHeader().getDifficultyTarget(), networkParameters.getMaxTargetAsUInt256())) {
+                return minimalDifficultyNoChangedChecker;
             } else {
-                rulesChecker.addRule(new EmergencyDifficultyAdjustmentRuleChecker(networkParameters));
+                return edaChecker;
             }
         }
-        return rulesChecker;
     }
 
 }
@@ -20,6 +20,7 @@ import org.bitcoinj.core.Block;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.pow.AbstractRuleCheckerFactory;
+import org.bitcoinj.pow.ChainWindow;
 import org.bitcoinj.pow.RulesPoolChecker;
 import org.bitcoinj.pow.rule.RegTestRuleChecker;
 
@@ -28,6 +29,7 @@ public class RuleCheckerFactory extends AbstractRuleCheckerFactory {
     private RulesPoolChecker regtestChecker;
     private AbstractRuleCheckerFactory daaRulesFactory;
     private AbstractRuleCheckerFactory edaRulesFactory;
+    private final ChainWindow chainWindow = new ChainWindow();
 
     public static RuleCheckerFactory create(NetworkParameters parameters) {
         return new RuleCheckerFactory(parameters);
@@ -39,8 +41,8 @@ public class RuleCheckerFactory extends AbstractRuleCheckerFactory {
             this.regtestChecker = new RulesPoolChecker(networkParameters);
             this.regtestChecker.addRule(new RegTestRuleChecker(networkParameters));
         } else {
-            this.daaRulesFactory = new DAARuleCheckerFactory(parameters);
-            this.edaRulesFactory = new EDARuleCheckerFactory(parameters);
+            this.daaRulesFactory = new DAARuleCheckerFactory(parameters, chainWindow);
+            this.edaRulesFactory = new EDARuleCheckerFactory(parameters, chainWindow);
         }
     }
 
@@ -55,6 +57,11 @@ public class RuleCheckerFactory extends AbstractRuleCheckerFactory {
         }
     }
 
+    @Override
+    public ChainWindow getChainWindow() {
+        return chainWindow;
+    }
+
     private boolean isNewDaaActivated(StoredBlock storedPrev, NetworkParameters parameters) {
         return storedPrev.getHeight() >= parameters.getDAAUpdateHeight();
     }
@@ -35,26 +35,25 @@ public class DifficultyTransitionPointRuleChecker extends AbstractPowRulesChecke
 
         Block prevBlock = storedPrev.getHeader();
 
-        Block lastBlockInterval = findLastBlockInterval(prevBlock, blockStore);
+        Block lastBlockInterval = findLastBlockInterval(storedPrev, blockStore, blockChain);
         int timeSpan = (int) (prevBlock.getTimeSeconds() - lastBlockInterval.getTimeSeconds());
-        BigInteger newTarget = calculateNewTarget(prevBlock, timeSpan);
+        UInt256 newTarget = calculateNewTarget(prevBlock, timeSpan);
 
         networkParameters.verifyDifficulty(newTarget, nextBlock);
     }
 
-    private Block findLastBlockInterval(Block prevBlock, BlockStore blockStore) throws BlockStoreException {
-        StoredBlock cursor = blockStore.get(prevBlock.getHash());
-        for (int i = 0; i < networkParameters.getInterval() - 1; i++) {
-            if (cursor == null) {
-                throw new VerificationException("Difficulty transition point but we did " +
-                        "not find a way back to the genesis block.");
-            }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
+    private Block findLastBlockInterval(StoredBlock storedPrev, BlockStore blockStore,
+                                        AbstractBlockChain blockChain) throws BlockStoreException {
+        int height = storedPrev.getHeight() - (networkParameters.getInterval() - 1);
+        StoredBlock cursor = getAncestor(storedPrev, height, blockStore, blockChain);
+        if (cursor == null) {
+            throw new VerificationException("Difficulty transition point but we did " +
+                    "not find a way back to the genesis block.");
         }
         return cursor.getHeader();
     }
 
-    private BigInteger calculateNewTarget(Block prevBlock, int timeSpan) {
+    private UInt256 calculateNewTarget(Block prevBlock, int timeSpan) {
         int targetTimespan = networkParameters.getTargetTimespan();
         if (timeSpan < targetTimespan / 4) {
             timeSpan = targetTimespan / 4;
@@ -62,9 +61,16 @@ public class DifficultyTransitionPointRuleChecker extends AbstractPowRulesChecke
             timeSpan = targetTimespan * 4;
         }
 
-        return Utils.decodeCompactBits(prevBlock.getDifficultyTarget())
-                .multiply(BigInteger.valueOf(timeSpan))
-                .divide(BigInteger.valueOf(targetTimespan));
+        UInt256 target = UInt256.decodeCompact(prevBlock.getDifficultyTarget());
+        try {
+            return target.multiply(timeSpan).divide(targetTimespan);
+        } catch (ArithmeticException e) {
+            // Only with a very easy maximum target, which verifyDifficulty() caps the result to anyway.
+            BigInteger newTarget = target.toBigInteger()
+                    .multiply(BigInteger.valueOf(timeSpan))
+                    .divide(BigInteger.valueOf(targetTimespan));
+            return UInt256.fromBigInteger(newTarget.min(networkParameters.getMaxTarget()));
+        }
     }
 
 }
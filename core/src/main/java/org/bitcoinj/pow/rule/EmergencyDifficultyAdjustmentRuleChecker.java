@@ -18,18 +18,31 @@ package org.bitcoinj.pow.rule;
 
 import org.bitcoinj.core.*;
 import org.bitcoinj.pow.AbstractPowRulesChecker;
+import org.bitcoinj.pow.ChainWindow;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
-import java.math.BigInteger;
+import javax.annotation.Nullable;
 
 public class EmergencyDifficultyAdjustmentRuleChecker extends AbstractPowRulesChecker {
 
     private static final long TARGET_PRODUCTION_TIME_IN_SECONDS = 12 * 60 * 60; // 12 hours
     private static final int REFERENCE_OF_BLOCKS_PRODUCED_SIZE = 6;
 
+    @Nullable private final ChainWindow chainWindow;
+
     public EmergencyDifficultyAdjustmentRuleChecker(NetworkParameters networkParameters) {
+        this(networkParameters, null);
+    }
+
+    /**
+     * @param chainWindow The last blocks of the chain, which keeps their median times so that they don't have to be
+     *                    computed from the store for every block.
+     */
+    public EmergencyDifficultyAdjustmentRuleChecker(NetworkParameters networkParameters,
+                                                    @Nullable ChainWindow chainWindow) {
         super(networkParameters);
+        this.chainWindow = chainWindow;
     }
 
     @Override
@@ -38,7 +51,7 @@ public class EmergencyDifficultyAdjustmentRuleChecker extends AbstractPowRulesCh
 
         try {
             long lastBlocksMPTinSeconds = getMedianProducingTimeInSeconds(REFERENCE_OF_BLOCKS_PRODUCED_SIZE,
-                    storedPrev, blockStore);
+                    storedPrev, blockStore, blockChain);
             checkEDARules(storedPrev, nextBlock, lastBlocksMPTinSeconds);
         } catch (NullPointerException ex) {
             // We don't have enough blocks, yet
@@ -47,29 +60,30 @@ public class EmergencyDifficultyAdjustmentRuleChecker extends AbstractPowRulesCh
         }
     }
 
-    private long getMedianProducingTimeInSeconds(int sizeOfBlocks, StoredBlock storedPrev, BlockStore blockStore) throws BlockStoreException {
-        StoredBlock cursor = blockStore.get(storedPrev.getHeader().getHash());
-        for (int i = 0; i < sizeOfBlocks; i++) {
-            if (cursor == null) {
-                throw new NullPointerException("Not enough blocks to check difficulty.");
+    private long getMedianProducingTimeInSeconds(int sizeOfBlocks, StoredBlock storedPrev, BlockStore blockStore,
+                                                 AbstractBlockChain blockChain) throws BlockStoreException {
+        if (chainWindow != null && chainWindow.moveTo(storedPrev, blockStore, blockChain)) {
+            int height = storedPrev.getHeight() - sizeOfBlocks;
+            StoredBlock windowCursor = chainWindow.get(height);
+            if (windowCursor != null && chainWindow.get(height - 10) != null) {
+                long prevTime = chainWindow.getMedianTimePast(storedPrev);
+                long cursorTime = chainWindow.getMedianTimePast(windowCursor);
+                if (prevTime != ChainWindow.UNKNOWN && cursorTime != ChainWindow.UNKNOWN)
+                    return prevTime - cursorTime;
             }
-            cursor = blockStore.get(cursor.getHeader().getPrevBlockHash());
         }
+        StoredBlock cursor = getAncestor(storedPrev, storedPrev.getHeight() - sizeOfBlocks, blockStore, blockChain);
         //Check to see if there are enough blocks before cursor to correctly calculate the median time
-        StoredBlock beforeCursor = cursor;
-        for (int i = 0; i < 10; i++) {
-            beforeCursor = blockStore.get(beforeCursor.getHeader().getPrevBlockHash());
-            if(beforeCursor == null)
-                throw new NullPointerException("Not enough blocks to check difficulty.");
-        }
-        return BlockChain.getMedianTimestampOfRecentBlocks(storedPrev, blockStore) -
-                BlockChain.getMedianTimestampOfRecentBlocks(cursor, blockStore);
+        if (cursor == null || getAncestor(cursor, cursor.getHeight() - 10, blockStore, blockChain) == null)
+            throw new NullPointerException("Not enough blocks to check difficulty.");
+        return getMedianTimestamp(storedPrev, blockStore, blockChain) -
+                getMedianTimestamp(cursor, blockStore, blockChain);
     }
 
     private void checkEDARules(StoredBlock storedPrev, Block nextBlock, long lastBlocksMPTinSeconds) {
         Block prevBlock = storedPrev.getHeader();
         if (needToReduceTheDifficulty(lastBlocksMPTinSeconds)) {
-            BigInteger nPow = calculateReducedDifficulty(prevBlock);
+            UInt256 nPow = calculateReducedDifficulty(prevBlock);
             if (!hasEqualDifficulty(nextBlock.getDifficultyTarget(), nPow)) {
                 throwUnexpectedReducedDifficultyException(storedPrev, nextBlock, nPow);
             }
@@ -84,21 +98,26 @@ public class EmergencyDifficultyAdjustmentRuleChecker extends AbstractPowRulesCh
         return lastBlocksMPTinSeconds >= TARGET_PRODUCTION_TIME_IN_SECONDS;
     }
 
-    private BigInteger calculateReducedDifficulty(Block prevBlock) {
-        BigInteger pow = prevBlock.getDifficultyTargetAsInteger();
+    private UInt256 calculateReducedDifficulty(Block prevBlock) {
+        UInt256 pow = prevBlock.getDifficultyTargetAsUInt256();
         // Divide difficulty target by 1/4 (which reduces the difficulty by 20%)
-        pow = pow.add(pow.shiftRight(2));
+        try {
+            pow = pow.add(pow.shiftRight(2));
+        } catch (ArithmeticException e) {
+            // Past 256 bits, so certainly above the maximum target.
+            return networkParameters.getMaxTargetAsUInt256();
+        }
 
-        if (pow.compareTo(networkParameters.getMaxTarget()) > 0) {
-            pow = networkParameters.getMaxTarget();
+        if (pow.compareTo(networkParameters.getMaxTargetAsUInt256()) > 0) {
+            pow = networkParameters.getMaxTargetAsUInt256();
         }
         return pow;
     }
 
-    private void throwUnexpectedReducedDifficultyException(StoredBlock storedPrev, Block nextBlock, BigInteger nPow) {
+    private void throwUnexpectedReducedDifficultyException(StoredBlock storedPrev, Block nextBlock, UInt256 nPow) {
         throw new VerificationException("Unexpected change in difficulty [6 blocks >12 hours] at height " + storedPrev.getHeight() +
                 ": " + Long.toHexString(nextBlock.getDifficultyTarget()) + " vs " +
-                Utils.encodeCompactBits(nPow));
+                nPow.encodeCompact());
     }
 
     private void throwUnexpectedDifficultyChangedException(Block prevBlock, Block nextBlock, StoredBlock storedPrev) {
@@ -21,8 +21,6 @@ import org.bitcoinj.pow.AbstractPowRulesChecker;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
-import java.math.BigInteger;
-
 /**
  * Walk backwards until we find a block that doesn't have the easiest proof of work,
  * then check that difficulty is equal to that one.
@@ -62,7 +60,7 @@ public class LastNonMinimalDifficultyRuleChecker extends AbstractPowRulesChecker
 
     private Block findLastNotEasiestPowBlock(StoredBlock storedPrev, BlockStore blockStore) throws BlockStoreException {
         StoredBlock cursor = storedPrev;
-        BigInteger easiestDifficulty = networkParameters.getMaxTarget();
+        UInt256 easiestDifficulty = networkParameters.getMaxTargetAsUInt256();
         while (!cursor.getHeader().equals(networkParameters.getGenesisBlock()) &&
                 cursor.getHeight() % networkParameters.getInterval() != 0 &&
                 hasEqualDifficulty(cursor.getHeader().getDifficultyTarget(), easiestDifficulty)) {
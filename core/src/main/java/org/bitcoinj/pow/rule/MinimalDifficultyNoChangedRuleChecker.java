@@ -21,8 +21,6 @@ import org.bitcoinj.pow.AbstractPowRulesChecker;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
-import java.math.BigInteger;
-
 public class MinimalDifficultyNoChangedRuleChecker extends AbstractPowRulesChecker {
 
     public MinimalDifficultyNoChangedRuleChecker(NetworkParameters networkParameters) {
@@ -33,7 +31,7 @@ public class MinimalDifficultyNoChangedRuleChecker extends AbstractPowRulesCheck
     public void checkRules(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore,
                            AbstractBlockChain blockChain) throws VerificationException, BlockStoreException {
         Block prevBlock = storedPrev.getHeader();
-        BigInteger minDifficulty = networkParameters.getMaxTarget();
+        UInt256 minDifficulty = networkParameters.getMaxTargetAsUInt256();
 
         if (hasEqualDifficulty(prevBlock.getDifficultyTarget(), minDifficulty)) {
             if (!hasEqualDifficulty(prevBlock, nextBlock)) {
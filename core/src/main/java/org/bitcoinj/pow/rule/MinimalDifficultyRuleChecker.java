@@ -21,8 +21,6 @@ import org.bitcoinj.pow.AbstractPowRulesChecker;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
-import java.math.BigInteger;
-
 /**
  * After 15th February 2012 the rules on the testnet change to avoid people running up the difficulty
  * and then leaving, making it too hard to mine a block. On non-difficulty transition points, easy
@@ -53,10 +51,10 @@ public class MinimalDifficultyRuleChecker extends AbstractPowRulesChecker {
     }
 
     private void checkMinimalDifficultyIsSet(Block nextBlock) {
-        BigInteger maxTarget = networkParameters.getMaxTarget();
+        UInt256 maxTarget = networkParameters.getMaxTargetAsUInt256();
         if (!hasEqualDifficulty(nextBlock.getDifficultyTarget(), maxTarget)) {
             throw new VerificationException("Testnet block transition that is not allowed: " +
-                    Long.toHexString(Utils.encodeCompactBits(maxTarget)) + " (required min difficulty) vs " +
+                    Long.toHexString(maxTarget.encodeCompact()) + " (required min difficulty) vs " +
                     Long.toHexString(nextBlock.getDifficultyTarget()));
         }
     }
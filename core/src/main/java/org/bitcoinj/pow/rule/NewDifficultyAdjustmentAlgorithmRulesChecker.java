@@ -20,10 +20,11 @@ import com.google.common.base.Preconditions;
 import org.bitcoinj.core.*;
 import org.bitcoinj.params.AbstractBitcoinNetParams;
 import org.bitcoinj.pow.AbstractPowRulesChecker;
+import org.bitcoinj.pow.ChainWindow;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
-import java.math.BigInteger;
+import javax.annotation.Nullable;
 
 /**
  * The new DAA algorithm seeks to accomplish the following objectives:
@@ -39,13 +40,24 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
 
     private static final int AVERAGE_BLOCKS_PER_DAY = 144;
 
+    @Nullable private final ChainWindow chainWindow;
+
     public NewDifficultyAdjustmentAlgorithmRulesChecker(NetworkParameters networkParameters) {
+        this(networkParameters, null);
+    }
+
+    /**
+     * @param chainWindow The last blocks of the chain, which saves gathering them from the store for every block.
+     */
+    public NewDifficultyAdjustmentAlgorithmRulesChecker(NetworkParameters networkParameters,
+                                                        @Nullable ChainWindow chainWindow) {
         super(networkParameters);
+        this.chainWindow = chainWindow;
     }
 
     @Override
     public void checkRules(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore, AbstractBlockChain blockChain) throws VerificationException, BlockStoreException {
-        checkNextCashWorkRequired(storedPrev, nextBlock, blockStore);
+        checkNextCashWorkRequired(storedPrev, nextBlock, blockStore, blockChain);
     }
 
     /**
@@ -57,15 +69,24 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
      * block. Because timestamps are the least trustworthy information we have as
      * input, this ensures the algorithm is more resistant to malicious inputs.
      */
-    private void checkNextCashWorkRequired(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore) {
+    private void checkNextCashWorkRequired(StoredBlock storedPrev, Block nextBlock, BlockStore blockStore,
+                                           AbstractBlockChain blockChain) {
         int prevHeight = storedPrev.getHeight();
         Preconditions.checkState(prevHeight >= networkParameters.getInterval());
 
         try {
-            StoredBlock last = GetMostSuitableBlock(storedPrev, blockStore);
-            StoredBlock first = getFirst(storedPrev, blockStore);
+            StoredBlock last = null;
+            StoredBlock first = null;
+            if (chainWindow != null && chainWindow.moveTo(storedPrev, blockStore, blockChain)) {
+                last = GetMostSuitableBlock(chainWindow, prevHeight);
+                first = GetMostSuitableBlock(chainWindow, prevHeight - AVERAGE_BLOCKS_PER_DAY);
+            }
+            if (last == null || first == null) {
+                last = GetMostSuitableBlock(storedPrev, blockStore);
+                first = getFirst(storedPrev, blockStore, blockChain);
+            }
 
-            BigInteger nextTarget = AbstractBitcoinNetParams.ComputeTarget(first, last);
+            UInt256 nextTarget = AbstractBitcoinNetParams.ComputeTargetAsUInt256(first, last);
             networkParameters.verifyDifficulty(nextTarget, nextBlock);
         } catch (BlockStoreException x) {
             // We don't have enough blocks, yet
@@ -90,7 +111,25 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
         blocks[0] = blocks[1].getPrev(blockStore);
         if(blocks[0] == null)
             throw new BlockStoreException("Not enough blocks in blockStore to calculate difficulty");
+        return GetMostSuitableBlock(blocks);
+    }
 
+    /**
+     * The same as {@link #GetMostSuitableBlock(StoredBlock, BlockStore)}, with the blocks taken from the window.
+     * Returns null if the window doesn't hold them.
+     */
+    @Nullable
+    private static StoredBlock GetMostSuitableBlock(ChainWindow chainWindow, int height) {
+        StoredBlock blocks[] = new StoredBlock[3];
+        for (int i = 0; i < 3; i++) {
+            blocks[i] = chainWindow.get(height - 2 + i);
+            if (blocks[i] == null)
+                return null;
+        }
+        return GetMostSuitableBlock(blocks);
+    }
+
+    private static StoredBlock GetMostSuitableBlock(StoredBlock blocks[]) {
         // Sorting network.
         if (blocks[0].getHeader().getTimeSeconds() > blocks[2].getHeader().getTimeSeconds()) {
             //std::swap(blocks[0], blocks[2]);
@@ -117,13 +156,12 @@ public class NewDifficultyAdjustmentAlgorithmRulesChecker extends AbstractPowRul
         return blocks[1];
     }
 
-    private StoredBlock getFirst(StoredBlock storedPrev, BlockStore blockStore) throws BlockStoreException {
-        StoredBlock first = storedPrev;
-        for (int i = AVERAGE_BLOCKS_PER_DAY; i > 0; --i) {
-            first = first.getPrev(blockStore);
-            if (first == null) {
-                throw new BlockStoreException("The previous block no longer exists");
-            }
+    private StoredBlock getFirst(StoredBlock storedPrev, BlockStore blockStore,
+                                 AbstractBlockChain blockChain) throws BlockStoreException {
+        StoredBlock first = getAncestor(storedPrev, storedPrev.getHeight() - AVERAGE_BLOCKS_PER_DAY, blockStore,
+                blockChain);
+        if (first == null) {
+            throw new BlockStoreException("The previous block no longer exists");
         }
         return GetMostSuitableBlock(first, blockStore);
     }
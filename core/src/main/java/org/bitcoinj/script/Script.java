@@ -976,6 +976,13 @@ public class Script {
      */
     public static void executeScript(@Nullable Transaction txContainingThis, long index,
                                      Script script, LinkedList<byte[]> stack, Coin value, Set<VerifyFlag> verifyFlags, ScriptStateListener scriptStateListener) throws ScriptException {
+        executeScript(txContainingThis, index, script, stack, value, verifyFlags, scriptStateListener, null);
+    }
+
+    private static void executeScript(@Nullable Transaction txContainingThis, long index,
+                                      Script script, LinkedList<byte[]> stack, Coin value, Set<VerifyFlag> verifyFlags,
+                                      @Nullable ScriptStateListener scriptStateListener,
+                                      @Nullable SignatureBatch deferredChecks) throws ScriptException {
         int opCount = 0;
         int lastCodeSepLocation = 0;
 
@@ -1660,7 +1667,8 @@ public class Script {
                 case OP_CHECKSIGVERIFY:
                     if (txContainingThis == null)
                         throw new IllegalStateException("Script attempted signature check but no tx was provided");
-                    executeCheckSig(txContainingThis, (int) index, script, stack, lastCodeSepLocation, opcode, value, verifyFlags);
+                    executeCheckSig(txContainingThis, (int) index, script, stack, lastCodeSepLocation, opcode, value, verifyFlags,
+                            deferredChecks);
                     break;
                 case OP_CHECKMULTISIG:
                 case OP_CHECKMULTISIGVERIFY:
@@ -1867,7 +1875,7 @@ public class Script {
 
     private static void executeCheckSig(Transaction txContainingThis, int index, Script script, LinkedList<byte[]> stack,
                                         int lastCodeSepLocation, int opcode, Coin value,
-                                        Set<VerifyFlag> verifyFlags) {
+                                        Set<VerifyFlag> verifyFlags, @Nullable SignatureBatch deferredChecks) {
         final boolean requireCanonical = verifyFlags.contains(VerifyFlag.STRICTENC)
             || verifyFlags.contains(VerifyFlag.DERSIG)
             || verifyFlags.contains(VerifyFlag.LOW_S);
@@ -1915,7 +1923,13 @@ public class Script {
                         txContainingThis.hashForSignatureWitness(index, connectedScript, value, sig.sigHashMode(), sig.anyoneCanPay(), verifyFlags) :
                         txContainingThis.hashForSignature(index, connectedScript, (byte) sig.sighashFlags);
 
-                sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+                if (deferredChecks != null) {
+                    // Taken to be valid for now, see correctlySpends.
+                    deferredChecks.add(hash.getBytes(), sig, pubKey);
+                    sigValid = true;
+                } else {
+                    sigValid = ECKey.verify(hash.getBytes(), sig, pubKey);
+                }
 
             }
 
@@ -2094,6 +2108,18 @@ public class Script {
      */
     public void correctlySpends(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
                                 Set<VerifyFlag> verifyFlags) {
+        correctlySpends(txContainingThis, scriptSigIndex, scriptPubKey, value, verifyFlags, null);
+    }
+
+    /**
+     * Like {@link #correctlySpends(Transaction, long, Script, Coin, Set)}, but the signatures checked by OP_CHECKSIG and
+     * OP_CHECKSIGVERIFY are added to the given batch and taken to be valid, rather than verified one by one. If the
+     * batch then finds any of them invalid, or if this method throws, the input must be checked again without a batch
+     * to get the real outcome: a script may go another way when a signature is invalid. Signatures checked by
+     * OP_CHECKMULTISIG are verified straight away, as which signature goes with which key depends on the results.
+     */
+    public void correctlySpends(Transaction txContainingThis, long scriptSigIndex, Script scriptPubKey, Coin value,
+                                Set<VerifyFlag> verifyFlags, @Nullable SignatureBatch deferredChecks) {
         // Clone the transaction because executing the script involves editing it, and if we die, we'll leave
         // the tx half broken (also it's not so thread safe to work on it directly.
         try {
@@ -2106,9 +2132,12 @@ public class Script {
         if (getProgram().length > 10000 || scriptPubKey.getProgram().length > 10000)
             throw new ScriptException(ScriptError.SCRIPT_ERR_SCRIPT_SIZE, "the script is too large");
 
-        // In case FORKID is enabled, then we also force the STRICTENC flag
-        if (verifyFlags.contains(VerifyFlag.SIGHASH_FORKID))
+        // In case FORKID is enabled, then we also force the STRICTENC flag. The set is copied, as the caller may share
+        // it between transactions.
+        if (verifyFlags.contains(VerifyFlag.SIGHASH_FORKID) && !verifyFlags.contains(VerifyFlag.STRICTENC)) {
+            verifyFlags = EnumSet.copyOf(verifyFlags);
             verifyFlags.add(VerifyFlag.STRICTENC);
+        }
 
         // In case the "SIGPUSHONLY" flag is enmabled, we check that the script is composed of ONLY
         // PUSH operations...
@@ -2119,13 +2148,13 @@ public class Script {
         LinkedList<byte[]> stack = new LinkedList<byte[]>();
         LinkedList<byte[]> p2shStack = null;
 
-        executeScript(txContainingThis, scriptSigIndex, this, stack, value, verifyFlags);
+        executeScript(txContainingThis, scriptSigIndex, this, stack, value, verifyFlags, null, deferredChecks);
         //executeDebugScript(txContainingThis, scriptSigIndex, this, stack, value, verifyFlags, ScriptLogManager.getListener(ScriptLogListener.ScriptType.scriptSig));
 
         if (verifyFlags.contains(VerifyFlag.P2SH))
             p2shStack = new LinkedList<byte[]>(stack);
 
-        executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags);
+        executeScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags, null, deferredChecks);
         //executeDebugScript(txContainingThis, scriptSigIndex, scriptPubKey, stack, value, verifyFlags, ScriptLogManager.getListener(ScriptLogListener.ScriptType.scriptPubKey));
 
         if (stack.isEmpty())
@@ -2156,7 +2185,8 @@ public class Script {
             byte[] scriptPubKeyBytes = p2shStack.pollLast();
             Script scriptPubKeyP2SH = new Script(scriptPubKeyBytes);
 
-            executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags);
+            executeScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags, null,
+                    deferredChecks);
             //executeDebugScript(txContainingThis, scriptSigIndex, scriptPubKeyP2SH, p2shStack, value, verifyFlags, ScriptLogManager.getListener(ScriptLogListener.ScriptType.p2sh));
 
             if (p2shStack.isEmpty())
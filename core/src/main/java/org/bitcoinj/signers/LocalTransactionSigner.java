@@ -16,7 +16,11 @@
 
 package org.bitcoinj.signers;
 
+import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import org.bitcoinj.core.*;
 import org.bitcoinj.crypto.DeterministicKey;
@@ -39,6 +43,7 @@ import org.slf4j.LoggerFactory;
  * signers to use correct signing key for P2SH inputs, because all the keys involved in a single P2SH address have
  * the same derivation path.</p>
  * <p>This signer always uses {@link org.bitcoinj.core.Transaction.SigHash#ALL} signing mode.</p>
+ * <p>The signatures of the inputs are calculated in parallel on the common fork-join pool.</p>
  */
 public class LocalTransactionSigner extends StatelessTransactionSigner {
     private static final Logger log = LoggerFactory.getLogger(LocalTransactionSigner.class);
@@ -58,6 +63,8 @@ public class LocalTransactionSigner extends StatelessTransactionSigner {
     @Override
     public boolean signInputs(ProposedTransaction propTx, KeyBag keyBag) {
         Transaction tx = propTx.partialTx;
+        // Find the inputs to sign and their hashes first, then calculate the signatures and finally put them in.
+        List<PendingSignature> pending = new ArrayList<PendingSignature>();
         int numInputs = tx.getInputs().size();
         for (int i = 0; i < numInputs; i++) {
             TransactionInput txIn = tx.getInput(i);
@@ -97,33 +104,96 @@ public class LocalTransactionSigner extends StatelessTransactionSigner {
                 continue;
             }
 
-            Script inputScript = txIn.getScriptSig();
             // script here would be either a standard CHECKSIG program for pay-to-address or pay-to-pubkey inputs or
             // a CHECKMULTISIG program for P2SH inputs
             byte[] script = redeemData.redeemScript.getProgram();
+            Sha256Hash hash = propTx.useForkId ?
+                    tx.hashForSignatureWitness(i, script, txIn.getConnectedOutput().getValue(), Transaction.SigHash.ALL, false) :
+                    tx.hashForSignature(i, script, Transaction.SigHash.ALL, false);
+            pending.add(new PendingSignature(i, key, hash, scriptPubKey));
+        }
+
+        // The signatures don't depend on each other, so they can be calculated at the same time. ECDSA signatures
+        // are deterministic (RFC 6979), so the result is the same as signing one after the other.
+        if (pending.size() > 1 && ForkJoinPool.getCommonPoolParallelism() > 1)
+            ForkJoinPool.commonPool().invoke(new SignTask(pending, 0, pending.size()));
+        else
+            for (PendingSignature p : pending)
+                p.sign();
+
+        for (PendingSignature p : pending) {
+            if (p.signature == null) {
+                log.warn("No private key in keypair for input {}", p.index);
+                continue;
+            }
+            TransactionInput txIn = tx.getInput(p.index);
+            TransactionSignature signature = new TransactionSignature(p.signature, Transaction.SigHash.ALL, false,
+                    propTx.useForkId);
+
+            // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We already
+            // have calculated the signature using the local key and now need to insert it in the correct place
+            // within inputScript. For pay-to-address and pay-to-key script there is only one signature and it always
+            // goes first in an inputScript (sigIndex = 0). In P2SH input scripts we need to figure out our relative
+            // position relative to other signers.  Since we don't have that information at this point, and since
+            // we always run first, we have to depend on the other signers rearranging the signatures as needed.
+            // Therefore, always place as first signature.
+            int sigIndex = 0;
+            Script inputScript = p.scriptPubKey.getScriptSigWithSignature(txIn.getScriptSig(), signature.encodeToBitcoin(), sigIndex);
+            txIn.setScriptSig(inputScript);
+        }
+        return true;
+    }
+
+    /** An input that is to be signed, and after {@link #sign()} its signature. */
+    private static class PendingSignature {
+        final int index;
+        final ECKey key;
+        final Sha256Hash hash;
+        final Script scriptPubKey;
+        // Null if the key turned out to have no private key.
+        ECKey.ECDSASignature signature;
+
+        PendingSignature(int index, ECKey key, Sha256Hash hash, Script scriptPubKey) {
+            this.index = index;
+            this.key = key;
+            this.hash = hash;
+            this.scriptPubKey = scriptPubKey;
+        }
+
+        void sign() {
             try {
-                TransactionSignature signature = propTx.useForkId ?
-                        tx.calculateWitnessSignature(i, key, script, tx.getInput(i).getConnectedOutput().getValue(), Transaction.SigHash.ALL, false) :
-                        tx.calculateSignature(i, key, script, Transaction.SigHash.ALL, false);
-
-                // at this point we have incomplete inputScript with OP_0 in place of one or more signatures. We already
-                // have calculated the signature using the local key and now need to insert it in the correct place
-                // within inputScript. For pay-to-address and pay-to-key script there is only one signature and it always
-                // goes first in an inputScript (sigIndex = 0). In P2SH input scripts we need to figure out our relative
-                // position relative to other signers.  Since we don't have that information at this point, and since
-                // we always run first, we have to depend on the other signers rearranging the signatures as needed.
-                // Therefore, always place as first signature.
-                int sigIndex = 0;
-                inputScript = scriptPubKey.getScriptSigWithSignature(inputScript, signature.encodeToBitcoin(), sigIndex);
-                txIn.setScriptSig(inputScript);
+                signature = key.sign(hash);
             } catch (ECKey.KeyIsEncryptedException e) {
                 throw e;
             } catch (ECKey.MissingPrivateKeyException e) {
-                log.warn("No private key in keypair for input {}", i);
+                signature = null;
             }
-
         }
-        return true;
     }
 
+    /** Signs a range of the pending inputs, splitting it up until it is small enough. */
+    private static class SignTask extends RecursiveAction {
+        // The number of inputs a task signs without splitting them up further.
+        private static final int SIGNATURES_PER_TASK = 4;
+
+        private final List<PendingSignature> pending;
+        private final int from, to;
+
+        SignTask(List<PendingSignature> pending, int from, int to) {
+            this.pending = pending;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SIGNATURES_PER_TASK) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new SignTask(pending, from, middle), new SignTask(pending, middle, to));
+            } else {
+                for (int i = from; i < to; i++)
+                    pending.get(i).sign();
+            }
+        }
+    }
 }
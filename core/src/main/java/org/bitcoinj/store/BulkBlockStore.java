@@ -0,0 +1,33 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.StoredBlock;
+
+import java.util.List;
+
+/**
+ * A {@link BlockStore} that can take many blocks at once, in a single write to its storage rather than one write per
+ * block. It is used to seed new stores with a {@link org.bitcoinj.core.HeaderSnapshot}.
+ */
+public interface BulkBlockStore extends BlockStore {
+    /**
+     * Saves the given blocks, in the given order, and then sets the chain head, as if {@link #put(StoredBlock)} had
+     * been called for each block followed by {@link #setChainHead(StoredBlock)}.
+     */
+    void putAll(List<StoredBlock> blocks, StoredBlock chainHead) throws BlockStoreException;
+}
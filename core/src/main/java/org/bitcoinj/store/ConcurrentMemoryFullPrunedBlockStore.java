@@ -0,0 +1,489 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import com.google.common.collect.Lists;
+import org.bitcoinj.core.*;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>Keeps {@link StoredBlock}s, {@link StoredUndoableBlock}s and {@link UTXO}s in memory, like
+ * {@link MemoryFullPrunedBlockStore}, but can be used from many threads at once. Meant for regtest environments and
+ * fast replays, where validation and UTXO queries run in parallel.</p>
+ *
+ * <p>Unspent outputs are kept in an {@link OutPointMap}, keyed by the raw outpoint bytes. Lookups do not take a lock:
+ * they read optimistically and only fall back to a shared read lock if a writer got in the way. Writers are
+ * serialised.</p>
+ *
+ * <p>A batch write started with {@link #beginDatabaseBatchWrite()} is private to the thread that started it. Its
+ * changes are visible to that thread straight away, and to other threads only once committed, all at the same
+ * time: a reader on another thread sees each output as it was either before or after the whole batch.</p>
+ */
+public class ConcurrentMemoryFullPrunedBlockStore implements FullPrunedBlockStore {
+
+    private static class StoredBlockAndWasUndoableFlag {
+        final StoredBlock block;
+        final boolean wasUndoable;
+
+        StoredBlockAndWasUndoableFlag(StoredBlock block, boolean wasUndoable) {
+            this.block = block;
+            this.wasUndoable = wasUndoable;
+        }
+    }
+
+    /** The uncommitted changes of one thread's batch write. */
+    private static class Batch {
+        final OutPointMap<UTXO> addedOutputs = new OutPointMap<UTXO>();
+        // The committed outputs this batch removes, by their own outpoint.
+        final OutPointMap<UTXO> removedOutputs = new OutPointMap<UTXO>();
+        final Map<Sha256Hash, StoredBlockAndWasUndoableFlag> blocks =
+                new HashMap<Sha256Hash, StoredBlockAndWasUndoableFlag>();
+        final Map<Sha256Hash, StoredBlock> undoableHeaders = new HashMap<Sha256Hash, StoredBlock>();
+        final Map<Sha256Hash, StoredUndoableBlock> undoBlocks = new HashMap<Sha256Hash, StoredUndoableBlock>();
+        final List<Integer> prunedHeights = new ArrayList<Integer>();
+    }
+
+    private final NetworkParameters params;
+    private final int fullStoreDepth;
+
+    // Guards the committed outputs. Taken for writing by every change, optimistically or for reading by lookups.
+    private final StampedLock lock = new StampedLock();
+    private final OutPointMap<UTXO> outputs = new OutPointMap<UTXO>();
+    private final Map<String, OutPointMap<UTXO>> outputsByAddress = new HashMap<String, OutPointMap<UTXO>>();
+    private final Map<Integer, List<Sha256Hash>> undoBlocksByHeight = new HashMap<Integer, List<Sha256Hash>>();
+
+    // Blocks are keyed by their own hash and only ever added, so they are not part of the output snapshots.
+    private final ConcurrentHashMap<Sha256Hash, StoredBlockAndWasUndoableFlag> blocks =
+            new ConcurrentHashMap<Sha256Hash, StoredBlockAndWasUndoableFlag>();
+    private final ConcurrentHashMap<Sha256Hash, StoredUndoableBlock> undoBlocks =
+            new ConcurrentHashMap<Sha256Hash, StoredUndoableBlock>();
+
+    private final ThreadLocal<Batch> batch = new ThreadLocal<Batch>();
+    private volatile StoredBlock chainHead;
+    private volatile StoredBlock verifiedChainHead;
+    private volatile boolean closed;
+
+    /**
+     * Set up the ConcurrentMemoryFullPrunedBlockStore
+     * @param params The network parameters of this block store - used to get genesis block
+     * @param fullStoreDepth The depth of blocks to keep FullStoredBlocks instead of StoredBlocks
+     */
+    public ConcurrentMemoryFullPrunedBlockStore(NetworkParameters params, int fullStoreDepth) {
+        this.params = params;
+        this.fullStoreDepth = fullStoreDepth > 0 ? fullStoreDepth : 1;
+        // Insert the genesis block.
+        try {
+            StoredBlock storedGenesisHeader = new StoredBlock(params.getGenesisBlock().cloneAsHeader(), params.getGenesisBlock().getWork(), 0);
+            // The coinbase in the genesis block is not spendable
+            List<Transaction> genesisTransactions = Lists.newLinkedList();
+            StoredUndoableBlock storedGenesis = new StoredUndoableBlock(params.getGenesisBlock().getHash(), genesisTransactions);
+            put(storedGenesisHeader, storedGenesis);
+            setChainHead(storedGenesisHeader);
+            setVerifiedChainHead(storedGenesisHeader);
+        } catch (BlockStoreException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        } catch (VerificationException e) {
+            throw new RuntimeException(e);  // Cannot happen.
+        }
+    }
+
+    @Override
+    public void put(StoredBlock block) throws BlockStoreException {
+        checkOpen();
+        Sha256Hash hash = block.getHeader().getHash();
+        StoredBlockAndWasUndoableFlag value = new StoredBlockAndWasUndoableFlag(block, false);
+        Batch current = batch.get();
+        if (current != null)
+            current.blocks.put(hash, value);
+        else
+            blocks.put(hash, value);
+    }
+
+    @Override
+    public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
+        checkOpen();
+        Sha256Hash hash = storedBlock.getHeader().getHash();
+        StoredBlockAndWasUndoableFlag value = new StoredBlockAndWasUndoableFlag(storedBlock, true);
+        Batch current = batch.get();
+        if (current != null) {
+            current.blocks.put(hash, value);
+            current.undoableHeaders.put(hash, storedBlock);
+            current.undoBlocks.put(hash, undoableBlock);
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            putUndoBlock(storedBlock, undoableBlock);
+            blocks.put(hash, value);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+        StoredBlockAndWasUndoableFlag storedBlock = getBlock(hash);
+        return storedBlock == null ? null : storedBlock.block;
+    }
+
+    @Override
+    @Nullable
+    public StoredBlock getOnceUndoableStoredBlock(Sha256Hash hash) throws BlockStoreException {
+        StoredBlockAndWasUndoableFlag storedBlock = getBlock(hash);
+        return (storedBlock != null && storedBlock.wasUndoable) ? storedBlock.block : null;
+    }
+
+    @Nullable
+    private StoredBlockAndWasUndoableFlag getBlock(Sha256Hash hash) {
+        checkOpen();
+        Batch current = batch.get();
+        if (current != null) {
+            StoredBlockAndWasUndoableFlag storedBlock = current.blocks.get(hash);
+            if (storedBlock != null)
+                return storedBlock;
+        }
+        return blocks.get(hash);
+    }
+
+    @Override
+    @Nullable
+    public StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
+        checkOpen();
+        Batch current = batch.get();
+        if (current != null) {
+            StoredUndoableBlock undoBlock = current.undoBlocks.get(hash);
+            if (undoBlock != null)
+                return undoBlock;
+        }
+        return undoBlocks.get(hash);
+    }
+
+    @Override
+    public StoredBlock getChainHead() throws BlockStoreException {
+        checkOpen();
+        return chainHead;
+    }
+
+    @Override
+    public final void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+        checkOpen();
+        this.chainHead = chainHead;
+    }
+
+    @Override
+    public StoredBlock getVerifiedChainHead() throws BlockStoreException {
+        checkOpen();
+        return verifiedChainHead;
+    }
+
+    @Override
+    public final void setVerifiedChainHead(StoredBlock chainHead) throws BlockStoreException {
+        checkOpen();
+        this.verifiedChainHead = chainHead;
+        if (this.chainHead == null || this.chainHead.getHeight() < chainHead.getHeight())
+            setChainHead(chainHead);
+        // As in MemoryFullPrunedBlockStore, only the undo blocks at exactly the pruning height are dropped.
+        int prunedHeight = chainHead.getHeight() - fullStoreDepth;
+        Batch current = batch.get();
+        if (current != null) {
+            current.prunedHeights.add(prunedHeight);
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            pruneUndoBlocks(prunedHeight);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void close() {
+        long stamp = lock.writeLock();
+        try {
+            closed = true;
+            outputs.clear();
+            outputsByAddress.clear();
+            undoBlocksByHeight.clear();
+            blocks.clear();
+            undoBlocks.clear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    @Nullable
+    public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
+        checkOpen();
+        byte[] hashBytes = hash.getBytes();
+        Batch current = batch.get();
+        if (current != null) {
+            UTXO added = current.addedOutputs.get(hashBytes, index);
+            if (added != null)
+                return added;
+            if (current.removedOutputs.get(hashBytes, index) != null)
+                return null;
+        }
+        return getCommittedOutput(hashBytes, index);
+    }
+
+    @Nullable
+    private UTXO getCommittedOutput(byte[] hashBytes, long index) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            UTXO output = outputs.get(hashBytes, index);
+            if (lock.validate(stamp))
+                return output;
+        }
+        stamp = lock.readLock();
+        try {
+            return outputs.get(hashBytes, index);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        checkOpen();
+        byte[] hashBytes = out.getHash().getBytes();
+        Batch current = batch.get();
+        if (current != null) {
+            current.removedOutputs.remove(hashBytes, out.getIndex());
+            current.addedOutputs.put(hashBytes, out.getIndex(), out);
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            putCommittedOutput(out);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
+        checkOpen();
+        byte[] hashBytes = out.getHash().getBytes();
+        Batch current = batch.get();
+        if (current != null) {
+            boolean removed = current.addedOutputs.remove(hashBytes, out.getIndex()) != null;
+            UTXO committed = getCommittedOutput(hashBytes, out.getIndex());
+            if (committed != null)
+                removed |= current.removedOutputs.put(hashBytes, out.getIndex(), committed) == null;
+            if (!removed)
+                throw new BlockStoreException("Tried to remove a UTXO from ConcurrentMemoryFullPrunedBlockStore that it didn't have!");
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            if (removeCommittedOutput(hashBytes, out.getIndex()) == null)
+                throw new BlockStoreException("Tried to remove a UTXO from ConcurrentMemoryFullPrunedBlockStore that it didn't have!");
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void beginDatabaseBatchWrite() throws BlockStoreException {
+        checkOpen();
+        // During a reorg the chain begins once per block disconnected or connected, and commits only at the end.
+        if (batch.get() == null)
+            batch.set(new Batch());
+    }
+
+    @Override
+    public void commitDatabaseBatchWrite() throws BlockStoreException {
+        checkOpen();
+        Batch current = batch.get();
+        if (current == null)
+            return;
+        batch.remove();
+        List<UTXO> removed = new ArrayList<UTXO>(current.removedOutputs.size());
+        current.removedOutputs.addValuesTo(removed);
+        List<UTXO> added = new ArrayList<UTXO>(current.addedOutputs.size());
+        current.addedOutputs.addValuesTo(added);
+        long stamp = lock.writeLock();
+        try {
+            // Removals first, as TransactionalHashMap does.
+            for (UTXO out : removed)
+                removeCommittedOutput(out.getHash().getBytes(), out.getIndex());
+            for (UTXO out : added)
+                putCommittedOutput(out);
+            for (Map.Entry<Sha256Hash, StoredUndoableBlock> entry : current.undoBlocks.entrySet())
+                putUndoBlock(current.undoableHeaders.get(entry.getKey()), entry.getValue());
+            blocks.putAll(current.blocks);
+            for (int height : current.prunedHeights)
+                pruneUndoBlocks(height);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    @Override
+    public void abortDatabaseBatchWrite() throws BlockStoreException {
+        batch.remove();
+    }
+
+    @Override
+    public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
+        for (int i = 0; i < numOutputs; i++)
+            if (getTransactionOutput(hash, i) != null)
+                return true;
+        return false;
+    }
+
+    @Override
+    public NetworkParameters getParams() {
+        return params;
+    }
+
+    @Override
+    public int getChainHeadHeight() throws UTXOProviderException {
+        try {
+            return getVerifiedChainHead().getHeight();
+        } catch (BlockStoreException e) {
+            throw new UTXOProviderException(e);
+        }
+    }
+
+    @Override
+    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        final List<UTXO> foundOutputs = new ArrayList<UTXO>();
+        visitOpenTransactionOutputs(addresses, 0, new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                foundOutputs.add(output);
+                return true;
+            }
+        });
+        return foundOutputs;
+    }
+
+    @Override
+    public void visitOpenTransactionOutputs(List<Address> addresses, Visitor visitor) throws UTXOProviderException {
+        visitOpenTransactionOutputs(addresses, 0, visitor);
+    }
+
+    @Override
+    public UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor after,
+                                             int pageSize) throws UTXOProviderException {
+        final UTXOPage.Collector collector = new UTXOPage.Collector(after, pageSize);
+        visitOpenTransactionOutputs(addresses, collector.getStartAddressIndex(), new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                return collector.offer(addressIndex, output);
+            }
+        });
+        return collector.build();
+    }
+
+    /**
+     * Visits the committed outputs of each address. The outputs of one address are copied under the read lock and
+     * visited outside it, so the visitor may use the store, and each address is seen as of a single point in time.
+     */
+    private void visitOpenTransactionOutputs(List<Address> addresses, int startIndex, Visitor visitor)
+            throws UTXOProviderException {
+        checkOpen();
+        List<UTXO> addressOutputs = new ArrayList<UTXO>();
+        for (int i = startIndex; i < addresses.size(); i++) {
+            addressOutputs.clear();
+            long stamp = lock.readLock();
+            try {
+                OutPointMap<UTXO> map = outputsByAddress.get(addresses.get(i).toString());
+                if (map != null)
+                    map.addValuesTo(addressOutputs);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            Collections.sort(addressOutputs, UTXOPage.OUTPOINT_ORDER);
+            for (UTXO output : addressOutputs)
+                if (!visitor.visit(i, output))
+                    return;
+        }
+    }
+
+    // The following must be called with the write lock held.
+
+    private void putCommittedOutput(UTXO out) {
+        byte[] hashBytes = out.getHash().getBytes();
+        UTXO previous = outputs.put(hashBytes, out.getIndex(), out);
+        if (previous != null)
+            unindexAddress(previous);
+        String address = out.getAddress();
+        if (address == null || address.isEmpty())
+            return;
+        OutPointMap<UTXO> map = outputsByAddress.get(address);
+        if (map == null) {
+            map = new OutPointMap<UTXO>();
+            outputsByAddress.put(address, map);
+        }
+        map.put(hashBytes, out.getIndex(), out);
+    }
+
+    @Nullable
+    private UTXO removeCommittedOutput(byte[] hashBytes, long index) {
+        UTXO removed = outputs.remove(hashBytes, index);
+        if (removed != null)
+            unindexAddress(removed);
+        return removed;
+    }
+
+    private void unindexAddress(UTXO out) {
+        String address = out.getAddress();
+        if (address == null || address.isEmpty())
+            return;
+        OutPointMap<UTXO> map = outputsByAddress.get(address);
+        if (map != null && map.remove(out.getHash().getBytes(), out.getIndex()) != null && map.isEmpty())
+            outputsByAddress.remove(address);
+    }
+
+    private void putUndoBlock(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) {
+        Sha256Hash hash = storedBlock.getHeader().getHash();
+        if (undoBlocks.put(hash, undoableBlock) != null)
+            return;
+        List<Sha256Hash> atHeight = undoBlocksByHeight.get(storedBlock.getHeight());
+        if (atHeight == null) {
+            atHeight = new ArrayList<Sha256Hash>(1);
+            undoBlocksByHeight.put(storedBlock.getHeight(), atHeight);
+        }
+        atHeight.add(hash);
+    }
+
+    private void pruneUndoBlocks(int height) {
+        List<Sha256Hash> pruned = undoBlocksByHeight.remove(height);
+        if (pruned != null)
+            for (Sha256Hash hash : pruned)
+                undoBlocks.remove(hash);
+    }
+
+    private void checkOpen() {
+        checkState(!closed, "ConcurrentMemoryFullPrunedBlockStore is closed");
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>A bounded pool of JDBC connections for {@link DatabaseFullPrunedBlockStore}, with a cache of prepared statements
+ * per connection.</p>
+ *
+ * <p>A connection is used by one thread at a time, between {@link #borrow(long)} and {@link #release(Connection)}, so
+ * its statement cache needs no locking of its own. Cached statements must not be closed by the caller.</p>
+ */
+class DatabaseConnectionPool {
+    private static final Logger log = LoggerFactory.getLogger(DatabaseConnectionPool.class);
+
+    /** Opens new connections for the pool. */
+    interface ConnectionFactory {
+        Connection newConnection() throws SQLException;
+    }
+
+    private final ConnectionFactory factory;
+    private final boolean readOnly;
+    private final int statementCacheSize;
+
+    // All guarded by this.
+    private final Deque<Connection> idle = new ArrayDeque<Connection>();
+    private final Map<Connection, Map<String, PreparedStatement>> statements =
+            new IdentityHashMap<Connection, Map<String, PreparedStatement>>();
+    private int maxConnections;
+    private int opening; // Slots reserved by borrowers that are opening a connection outside the lock.
+    private boolean closed;
+
+    /**
+     * @param factory Opens the pooled connections.
+     * @param maxConnections The maximum number of connections open at once.
+     * @param readOnly Whether the connections are marked read only, as a hint to the database.
+     * @param statementCacheSize The number of prepared statements to keep open per connection.
+     */
+    DatabaseConnectionPool(ConnectionFactory factory, int maxConnections, boolean readOnly, int statementCacheSize) {
+        checkArgument(maxConnections > 0);
+        this.factory = factory;
+        this.maxConnections = maxConnections;
+        this.readOnly = readOnly;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Takes an idle connection, opening a new one if fewer than the maximum are open, or otherwise waiting up to the
+     * given time for one to be released. New connections are opened without holding the pool's lock, so a slow
+     * connect doesn't hold up other threads borrowing or releasing connections.
+     * @throws BlockStoreException If no connection became free in time, or the pool is closed.
+     */
+    Connection borrow(long timeoutMillis) throws SQLException, BlockStoreException {
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                if (closed)
+                    throw new BlockStoreException("Database connection pool is closed");
+                Connection connection = idle.pollFirst();
+                if (connection != null) {
+                    if (!connection.isClosed())
+                        return connection;
+                    discard(connection);
+                    continue;
+                }
+                if (statements.size() + opening < maxConnections) {
+                    opening++;
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                    throw new BlockStoreException("Timed out waiting for one of " + maxConnections + " database connections");
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new BlockStoreException("Interrupted waiting for a database connection", e);
+                }
+            }
+        }
+        Connection connection = null;
+        boolean opened = false, kept = false;
+        try {
+            connection = factory.newConnection();
+            if (readOnly)
+                connection.setReadOnly(true);
+            opened = true;
+        } finally {
+            synchronized (this) {
+                opening--;
+                if (opened && !closed) {
+                    statements.put(connection, new StatementCache(statementCacheSize));
+                    kept = true;
+                }
+                notifyAll();
+            }
+            if (connection != null && !kept)
+                closeQuietly(connection);
+        }
+        if (!kept)
+            throw new BlockStoreException("Database connection pool is closed");
+        return connection;
+    }
+
+    /** Returns a connection taken with {@link #borrow(long)} to the pool. */
+    synchronized void release(Connection connection) {
+        if (closed || statements.size() > maxConnections) {
+            discard(connection);
+            closeQuietly(connection);
+        } else {
+            // Reusing the most recently released connection keeps its statement cache warm.
+            idle.addFirst(connection);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the cached prepared statement for the given SQL on a connection borrowed from this pool, preparing it
+     * on first use.
+     */
+    PreparedStatement prepareStatement(Connection connection, String sql) throws SQLException {
+        Map<String, PreparedStatement> cache;
+        synchronized (this) {
+            cache = statements.get(connection);
+        }
+        if (cache == null)
+            return connection.prepareStatement(sql); // Not one of ours, so nothing to cache it in.
+        PreparedStatement statement = cache.get(sql);
+        if (statement == null || statement.isClosed()) {
+            statement = connection.prepareStatement(sql);
+            cache.put(sql, statement);
+        }
+        return statement;
+    }
+
+    /** Changes the maximum number of connections. Connections over the new limit are closed as they are released. */
+    synchronized void setMaxConnections(int maxConnections) {
+        checkArgument(maxConnections > 0);
+        this.maxConnections = maxConnections;
+        while (!idle.isEmpty() && statements.size() > maxConnections) {
+            Connection connection = idle.pollLast();
+            discard(connection);
+            closeQuietly(connection);
+        }
+        notifyAll();
+    }
+
+    /** Returns the number of connections currently open, whether idle or in use. */
+    synchronized int getOpenConnections() {
+        return statements.size();
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones. Connections still in use are closed when released.
+     * @return The connections that were still in use.
+     */
+    synchronized List<Connection> close() {
+        closed = true;
+        for (Connection connection : idle) {
+            discard(connection);
+            closeQuietly(connection);
+        }
+        idle.clear();
+        notifyAll();
+        return new ArrayList<Connection>(statements.keySet());
+    }
+
+    private void discard(Connection connection) {
+        Map<String, PreparedStatement> cache = statements.remove(connection);
+        if (cache != null)
+            for (PreparedStatement statement : cache.values())
+                closeQuietly(statement);
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            log.warn("Failed to close {}", closeable, e);
+        }
+    }
+
+    /** A least recently used cache of prepared statements, closing those it evicts. */
+    private static class StatementCache extends LinkedHashMap<String, PreparedStatement> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+
+        StatementCache(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= capacity)
+                return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    }
+}
@@ -125,6 +125,17 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     private static final String SELECT_DUMP_OPENOUTPUTS_SQL                     = "SELECT value, scriptbytes FROM openoutputs";
 
     private static final String SELECT_TRANSACTION_OUTPUTS_SQL                  = "SELECT hash, value, scriptbytes, height, index, coinbase, toaddress, addresstargetable FROM openoutputs where toaddress = ?";
+    private static final String SELECT_TRANSACTION_OUTPUTS_BATCH_SQL            = "SELECT hash, value, scriptbytes, height, index, coinbase, toaddress, addresstargetable FROM openoutputs where toaddress IN ";
+
+    // The number of addresses looked up per query by the multi-address UTXO queries.
+    private static final int TRANSACTION_OUTPUTS_BATCH_SIZE                     = 100;
+
+    /** The default maximum number of connections in each of the read-write and the read-only pool. */
+    public static final int DEFAULT_MAX_CONNECTIONS                             = 10;
+    // How long to wait for a free connection when all of them are in use.
+    private static final long CONNECTION_TIMEOUT_MILLIS                         = 60000;
+    // Enough for every statement this class prepares, with room for subclasses.
+    private static final int STATEMENT_CACHE_SIZE                               = 32;
 
     // Select the balance of an address SQL.
     private static final String SELECT_BALANCE_SQL                              = "select sum(value) from openoutputs where toaddress = ?";
@@ -140,8 +151,11 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     protected Sha256Hash verifiedChainHeadHash;
     protected StoredBlock verifiedChainHeadBlock;
     protected NetworkParameters params;
+    /** The connection currently bound to each thread, taken from one of the pools by {@link #maybeConnect()}. */
     protected ThreadLocal<Connection> conn;
-    protected List<Connection> allConnections;
+    private ThreadLocal<ConnectionBinding> binding;
+    private DatabaseConnectionPool connectionPool;
+    private DatabaseConnectionPool readConnectionPool;
     protected String connectionURL;
     protected int fullStoreDepth;
     protected String username;
@@ -169,7 +183,11 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         this.username = username;
         this.password = password;
         this.conn = new ThreadLocal<Connection>();
-        this.allConnections = new LinkedList<Connection>();
+        this.binding = new ThreadLocal<ConnectionBinding>();
+        this.connectionPool = new DatabaseConnectionPool(newConnectionFactory(), DEFAULT_MAX_CONNECTIONS, false,
+                STATEMENT_CACHE_SIZE);
+        this.readConnectionPool = new DatabaseConnectionPool(newConnectionFactory(), DEFAULT_MAX_CONNECTIONS, true,
+                STATEMENT_CACHE_SIZE);
 
         try {
             Class.forName(getDatabaseDriverClass());
@@ -179,7 +197,6 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         }
 
         maybeConnect();
-
         try {
             // Create tables if needed
             if (!tablesExists()) {
@@ -190,6 +207,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             initFromDatabase();
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -259,6 +278,15 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         return SELECT_TRANSACTION_OUTPUTS_SQL;
     }
 
+    /**
+     * Get the SQL to select the transaction outputs for a number of addresses at once.
+     * <p>This is the statement up to and including "IN", the parameter list is appended to it.</p>
+     * @return The SQL prepared statement prefix.
+     */
+    protected String getTransactionOutputsBatchSelectSQL() {
+        return SELECT_TRANSACTION_OUTPUTS_BATCH_SQL;
+    }
+
     /**
      * Get the SQL to drop all the tables (DDL).
      * @return The SQL drop statements.
@@ -417,54 +445,149 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
     }
 
     /**
-     * <p>If there isn't a connection on the {@link ThreadLocal} then create and store it.</p>
-     * <p>This will also automatically set up the schema if it does not exist within the DB.</p>
+     * <p>If there isn't a connection on the {@link ThreadLocal} then take one from the read-write pool and store it.</p>
+     * <p>Every call must be paired with a call to {@link #releaseConnection()} once the caller is done with the
+     * connection, normally in a finally block. Calls may nest.</p>
      * @throws BlockStoreException if successful connection to the DB couldn't be made.
      */
-    protected synchronized final void maybeConnect() throws BlockStoreException {
-        try {
-            if (conn.get() != null && !conn.get().isClosed())
-                return;
+    protected final void maybeConnect() throws BlockStoreException {
+        maybeConnect(connectionPool);
+    }
 
-            if (username == null || password == null) {
-                conn.set(DriverManager.getConnection(connectionURL));
-            } else {
-                Properties props = new Properties();
-                props.setProperty("user", this.username);
-                props.setProperty("password", this.password);
-                conn.set(DriverManager.getConnection(connectionURL, props));
-            }
-            allConnections.add(conn.get());
-            Connection connection = conn.get();
-            // set the schema if one is needed
-            if (schemaName != null) {
-                Statement s = connection.createStatement();
-                for (String sql : getCreateSchemeSQL()) {
-                    s.execute(sql);
+    /**
+     * <p>Like {@link #maybeConnect()}, but a thread that does not already have a connection takes a read-only one.
+     * Used for the query paths, so that readers do not compete with the writer for connections. A thread holding a
+     * read-only connection can't call {@link #maybeConnect()} until it has released it.</p>
+     * @throws BlockStoreException if successful connection to the DB couldn't be made.
+     */
+    protected final void maybeConnectForRead() throws BlockStoreException {
+        maybeConnect(readConnectionPool);
+    }
+
+    private void maybeConnect(DatabaseConnectionPool pool) throws BlockStoreException {
+        ConnectionBinding current = binding.get();
+        try {
+            if (current != null) {
+                if (current.pool == readConnectionPool && pool != readConnectionPool)
+                    throw new BlockStoreException("Can't write through the read-only connection bound to this thread");
+                if (!current.connection.isClosed()) {
+                    current.depth++;
+                    return;
                 }
+                unbind(current);
             }
-            log.info("Made a new connection to database " + connectionURL);
+            current = new ConnectionBinding(pool.borrow(CONNECTION_TIMEOUT_MILLIS), pool);
+            binding.set(current);
+            conn.set(current.connection);
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         }
     }
 
+    /**
+     * <p>Undoes one call to {@link #maybeConnect()}. When the outermost call is undone the connection goes back to its
+     * pool, unless a batch write is in progress, in which case the thread keeps it until the batch is committed or
+     * aborted.</p>
+     */
+    protected final void releaseConnection() {
+        ConnectionBinding current = binding.get();
+        if (current == null)
+            return;
+        if (current.depth > 0)
+            current.depth--;
+        if (current.depth > 0)
+            return;
+        try {
+            if (!current.connection.isClosed() && !current.connection.getAutoCommit())
+                return;
+        } catch (SQLException e) {
+            log.warn("Could not check connection state, returning it to the pool", e);
+        }
+        unbind(current);
+    }
+
+    private void unbind(ConnectionBinding current) {
+        binding.remove();
+        conn.remove();
+        current.pool.release(current.connection);
+    }
+
+    /**
+     * <p>Returns the prepared statement for the given SQL on the current thread's connection, from the connection's
+     * statement cache. Unlike statements from {@link Connection#prepareStatement(String)}, the caller must not close
+     * it, but should close any {@link ResultSet} it returns.</p>
+     */
+    protected PreparedStatement prepareCachedStatement(String sql) throws SQLException {
+        return binding.get().pool.prepareStatement(conn.get(), sql);
+    }
+
+    /**
+     * Sets the maximum number of connections in each of the read-write and the read-only pool.
+     * The default is {@link #DEFAULT_MAX_CONNECTIONS}.
+     */
+    public void setMaxConnections(int maxConnections) {
+        connectionPool.setMaxConnections(maxConnections);
+        readConnectionPool.setMaxConnections(maxConnections);
+    }
+
+    private DatabaseConnectionPool.ConnectionFactory newConnectionFactory() {
+        return new DatabaseConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection newConnection() throws SQLException {
+                Connection connection;
+                if (username == null || password == null) {
+                    connection = DriverManager.getConnection(connectionURL);
+                } else {
+                    Properties props = new Properties();
+                    props.setProperty("user", username);
+                    props.setProperty("password", password);
+                    connection = DriverManager.getConnection(connectionURL, props);
+                }
+                // set the schema if one is needed
+                if (schemaName != null) {
+                    Statement s = connection.createStatement();
+                    for (String sql : getCreateSchemeSQL()) {
+                        s.execute(sql);
+                    }
+                    s.close();
+                }
+                log.info("Made a new connection to database " + connectionURL);
+                return connection;
+            }
+        };
+    }
+
+    /** The connection bound to a thread, the pool it came from and how many nested users it has. */
+    private static class ConnectionBinding {
+        final Connection connection;
+        final DatabaseConnectionPool pool;
+        int depth = 1;
+
+        ConnectionBinding(Connection connection, DatabaseConnectionPool pool) {
+            this.connection = connection;
+            this.pool = pool;
+        }
+    }
+
     @Override
     public synchronized void close() {
-        for (Connection conn : allConnections) {
+        List<Connection> inUse = new ArrayList<Connection>();
+        inUse.addAll(connectionPool.close());
+        inUse.addAll(readConnectionPool.close());
+        for (Connection conn : inUse) {
             try {
+                if (conn.isClosed())
+                    continue;
                 if (!conn.getAutoCommit()) {
                     conn.rollback();
                 }
                 conn.close();
-                if (conn == this.conn.get()) {
-                    this.conn.set(null);
-                }
             } catch (SQLException ex) {
                 throw new RuntimeException(ex);
             }
         }
-        allConnections.clear();
+        binding.remove();
+        conn.remove();
     }
 
     /**
@@ -612,8 +735,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
 
     protected void putUpdateStoredBlock(StoredBlock storedBlock, boolean wasUndoable) throws SQLException {
         try {
-            PreparedStatement s =
-                    conn.get().prepareStatement(getInsertHeadersSQL());
+            PreparedStatement s = prepareCachedStatement(getInsertHeadersSQL());
             // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
             byte[] hashBytes = new byte[28];
             System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
@@ -623,7 +745,6 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             s.setBytes(4, storedBlock.getHeader().cloneAsHeader().unsafeBitcoinSerialize());
             s.setBoolean(5, wasUndoable);
             s.executeUpdate();
-            s.close();
         } catch (SQLException e) {
             // It is possible we try to add a duplicate StoredBlock if we upgraded
             // In that case, we just update the entry to mark it wasUndoable
@@ -648,13 +769,14 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             putUpdateStoredBlock(storedBlock, false);
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
 
     @Override
     public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
-        maybeConnect();
         // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
         byte[] hashBytes = new byte[28];
         System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
@@ -681,10 +803,10 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             throw new BlockStoreException(e);
         }
 
+        maybeConnect();
         try {
             try {
-                PreparedStatement s =
-                        conn.get().prepareStatement(getInsertUndoableBlocksSQL());
+                PreparedStatement s = prepareCachedStatement(getInsertUndoableBlocksSQL());
                 s.setBytes(1, hashBytes);
                 s.setInt(2, height);
                 if (transactions == null) {
@@ -695,7 +817,6 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                     s.setBytes(4, transactions);
                 }
                 s.executeUpdate();
-                s.close();
                 try {
                     putUpdateStoredBlock(storedBlock, true);
                 } catch (SQLException e) {
@@ -721,6 +842,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             }
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -730,16 +853,15 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             return chainHeadBlock;
         if (verifiedChainHeadHash != null && verifiedChainHeadHash.equals(hash))
             return verifiedChainHeadBlock;
-        maybeConnect();
-        PreparedStatement s = null;
+        maybeConnectForRead();
+        ResultSet results = null;
         try {
-            s = conn.get()
-                    .prepareStatement(getSelectHeadersSQL());
+            PreparedStatement s = prepareCachedStatement(getSelectHeadersSQL());
             // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
             byte[] hashBytes = new byte[28];
             System.arraycopy(hash.getBytes(), 4, hashBytes, 0, 28);
             s.setBytes(1, hashBytes);
-            ResultSet results = s.executeQuery();
+            results = s.executeQuery();
             if (!results.next()) {
                 return null;
             }
@@ -750,7 +872,10 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
 
             BigInteger chainWork = new BigInteger(results.getBytes(1));
             int height = results.getInt(2);
-            Block b = params.getDefaultSerializer().makeBlock(results.getBytes(3));
+            byte[] header = results.getBytes(3);
+            closeResults(results);
+            results = null;
+            Block b = params.getDefaultSerializer().makeBlock(header);
             b.verifyHeader();
             StoredBlock stored = new StoredBlock(b, chainWork, height);
             return stored;
@@ -764,13 +889,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             // blocks.
             throw new BlockStoreException(e);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            closeResults(results);
+            releaseConnection();
         }
     }
 
@@ -786,23 +906,24 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
 
     @Override
     public StoredUndoableBlock getUndoBlock(Sha256Hash hash) throws BlockStoreException {
-        maybeConnect();
-        PreparedStatement s = null;
+        maybeConnectForRead();
+        ResultSet results = null;
         try {
-            s = conn.get()
-                    .prepareStatement(getSelectUndoableBlocksSQL());
+            PreparedStatement s = prepareCachedStatement(getSelectUndoableBlocksSQL());
             // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
 
             byte[] hashBytes = new byte[28];
             System.arraycopy(hash.getBytes(), 4, hashBytes, 0, 28);
             s.setBytes(1, hashBytes);
-            ResultSet results = s.executeQuery();
+            results = s.executeQuery();
             if (!results.next()) {
                 return null;
             }
             // Parse it.
             byte[] txOutChanges = results.getBytes(1);
             byte[] transactions = results.getBytes(2);
+            closeResults(results);
+            results = null;
             StoredUndoableBlock block;
             if (txOutChanges == null) {
                 int offset = 0;
@@ -838,13 +959,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             // Corrupted database.
             throw new BlockStoreException(e);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            closeResults(results);
+            releaseConnection();
         }
     }
 
@@ -860,14 +976,14 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         this.chainHeadBlock = chainHead;
         maybeConnect();
         try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getUpdateSettingsSLQ());
+            PreparedStatement s = prepareCachedStatement(getUpdateSettingsSLQ());
             s.setString(2, CHAIN_HEAD_SETTING);
             s.setBytes(1, hash.getBytes());
             s.executeUpdate();
-            s.close();
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -883,45 +999,38 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         this.verifiedChainHeadBlock = chainHead;
         maybeConnect();
         try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getUpdateSettingsSLQ());
+            PreparedStatement s = prepareCachedStatement(getUpdateSettingsSLQ());
             s.setString(2, VERIFIED_CHAIN_HEAD_SETTING);
             s.setBytes(1, hash.getBytes());
             s.executeUpdate();
-            s.close();
+            if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
+                setChainHead(chainHead);
+            removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
+        } finally {
+            releaseConnection();
         }
-        if (this.chainHeadBlock.getHeight() < chainHead.getHeight())
-            setChainHead(chainHead);
-        removeUndoableBlocksWhereHeightIsLessThan(chainHead.getHeight() - fullStoreDepth);
     }
 
-    private void removeUndoableBlocksWhereHeightIsLessThan(int height) throws BlockStoreException {
-        try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getDeleteUndoableBlocksSQL());
-            s.setInt(1, height);
-            if (log.isDebugEnabled())
-                log.debug("Deleting undoable undoable block with height <= " + height);
-            s.executeUpdate();
-            s.close();
-        } catch (SQLException ex) {
-            throw new BlockStoreException(ex);
-        }
+    private void removeUndoableBlocksWhereHeightIsLessThan(int height) throws SQLException {
+        PreparedStatement s = prepareCachedStatement(getDeleteUndoableBlocksSQL());
+        s.setInt(1, height);
+        if (log.isDebugEnabled())
+            log.debug("Deleting undoable undoable block with height <= " + height);
+        s.executeUpdate();
     }
 
     @Override
     public UTXO getTransactionOutput(Sha256Hash hash, long index) throws BlockStoreException {
-        maybeConnect();
-        PreparedStatement s = null;
+        maybeConnectForRead();
+        ResultSet results = null;
         try {
-            s = conn.get()
-                    .prepareStatement(getSelectOpenoutputsSQL());
+            PreparedStatement s = prepareCachedStatement(getSelectOpenoutputsSQL());
             s.setBytes(1, hash.getBytes());
             // index is actually an unsigned int
             s.setInt(2, (int) index);
-            ResultSet results = s.executeQuery();
+            results = s.executeQuery();
             if (!results.next()) {
                 return null;
             }
@@ -942,22 +1051,16 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
-            }
+            closeResults(results);
+            releaseConnection();
         }
     }
 
     @Override
     public void addUnspentTransactionOutput(UTXO out) throws BlockStoreException {
         maybeConnect();
-        PreparedStatement s = null;
         try {
-            s = conn.get().prepareStatement(getInsertOpenoutputsSQL());
+            PreparedStatement s = prepareCachedStatement(getInsertOpenoutputsSQL());
             s.setBytes(1, out.getHash().getBytes());
             // index is actually an unsigned int
             s.setInt(2, (int) out.getIndex());
@@ -968,37 +1071,30 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             s.setInt(7, out.getScript().getScriptType().ordinal());
             s.setBoolean(8, out.isCoinbase());
             s.executeUpdate();
-            s.close();
         } catch (SQLException e) {
             if (!(e.getSQLState().equals(getDuplicateKeyErrorCode())))
                 throw new BlockStoreException(e);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException(e);
-                }
-            }
+            releaseConnection();
         }
     }
 
     @Override
     public void removeUnspentTransactionOutput(UTXO out) throws BlockStoreException {
         maybeConnect();
-        // TODO: This should only need one query (maybe a stored procedure)
-        if (getTransactionOutput(out.getHash(), out.getIndex()) == null)
-            throw new BlockStoreException("Tried to remove a UTXO from DatabaseFullPrunedBlockStore that it didn't have!");
         try {
-            PreparedStatement s = conn.get()
-                    .prepareStatement(getDeleteOpenoutputsSQL());
+            // TODO: This should only need one query (maybe a stored procedure)
+            if (getTransactionOutput(out.getHash(), out.getIndex()) == null)
+                throw new BlockStoreException("Tried to remove a UTXO from DatabaseFullPrunedBlockStore that it didn't have!");
+            PreparedStatement s = prepareCachedStatement(getDeleteOpenoutputsSQL());
             s.setBytes(1, out.getHash().getBytes());
             // index is actually an unsigned int
             s.setInt(2, (int)out.getIndex());
             s.executeUpdate();
-            s.close();
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -1011,6 +1107,9 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             conn.get().setAutoCommit(false);
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            // Stays bound to this thread until the batch is committed or aborted.
+            releaseConnection();
         }
     }
 
@@ -1024,6 +1123,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             conn.get().setAutoCommit(true);
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -1041,17 +1142,19 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             }
         } catch (SQLException e) {
             throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
     }
 
     @Override
     public boolean hasUnspentOutputs(Sha256Hash hash, int numOutputs) throws BlockStoreException {
-        maybeConnect();
-        PreparedStatement s = null;
+        maybeConnectForRead();
+        ResultSet results = null;
         try {
-            s = conn.get().prepareStatement(getSelectOpenoutputsCountSQL());
+            PreparedStatement s = prepareCachedStatement(getSelectOpenoutputsCountSQL());
             s.setBytes(1, hash.getBytes());
-            ResultSet results = s.executeQuery();
+            results = s.executeQuery();
             if (!results.next()) {
                 throw new BlockStoreException("Got no results from a COUNT(*) query");
             }
@@ -1060,12 +1163,17 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
         } catch (SQLException ex) {
             throw new BlockStoreException(ex);
         } finally {
-            if (s != null) {
-                try {
-                    s.close();
-                } catch (SQLException e) {
-                    throw new BlockStoreException("Failed to close PreparedStatement");
-                }
+            closeResults(results);
+            releaseConnection();
+        }
+    }
+
+    private static void closeResults(@Nullable ResultSet results) {
+        if (results != null) {
+            try {
+                results.close();
+            } catch (SQLException e) {
+                log.warn("Failed to close ResultSet", e);
             }
         }
     }
@@ -1096,6 +1204,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             initFromDatabase();
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -1113,6 +1223,8 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
             s.close();
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
+        } finally {
+            releaseConnection();
         }
     }
 
@@ -1131,7 +1243,7 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
      * @throws BlockStoreException If there is an error getting the balance.
      */
     public BigInteger calculateBalanceForAddress(Address address) throws BlockStoreException {
-        maybeConnect();
+        maybeConnectForRead();
         PreparedStatement s = null;
         try {
             s = conn.get().prepareStatement(getBalanceSelectSQL());
@@ -1152,18 +1264,63 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                     throw new BlockStoreException("Could not close statement");
                 }
             }
+            releaseConnection();
         }
     }
 
     @Override
     public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        final List<UTXO> outputs = new ArrayList<UTXO>();
+        visitOpenTransactionOutputs(addresses, new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                outputs.add(output);
+                return true;
+            }
+        });
+        return outputs;
+    }
+
+    @Override
+    public void visitOpenTransactionOutputs(List<Address> addresses, Visitor visitor) throws UTXOProviderException {
+        queryTransactionOutputs(addresses, 0, visitor);
+    }
+
+    @Override
+    public UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor after, int pageSize)
+            throws UTXOProviderException {
+        final UTXOPage.Collector collector = new UTXOPage.Collector(after, pageSize);
+        queryTransactionOutputs(addresses, collector.getStartAddressIndex(), new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                return collector.offer(addressIndex, output);
+            }
+        });
+        return collector.build();
+    }
+
+    /**
+     * Looks up the outputs of a batch of addresses per query, then hands them to
+     * the visitor grouped by address in list order and sorted by {@link UTXOPage#OUTPOINT_ORDER}. Only one batch is
+     * held in memory at a time.
+     */
+    private void queryTransactionOutputs(List<Address> addresses, int startIndex, Visitor visitor)
+            throws UTXOProviderException {
         PreparedStatement s = null;
-        List<UTXO> outputs = new ArrayList<UTXO>();
         try {
-            maybeConnect();
-            s = conn.get().prepareStatement(getTrasactionOutputSelectSQL());
-            for (Address address : addresses) {
-                s.setString(1, address.toString());
+            maybeConnectForRead();
+            for (int batchStart = startIndex; batchStart < addresses.size(); batchStart += TRANSACTION_OUTPUTS_BATCH_SIZE) {
+                int batchEnd = Math.min(batchStart + TRANSACTION_OUTPUTS_BATCH_SIZE, addresses.size());
+                Map<String, List<UTXO>> outputsByAddress = new HashMap<String, List<UTXO>>();
+                for (int i = batchStart; i < batchEnd; i++)
+                    outputsByAddress.put(addresses.get(i).toString(), new ArrayList<UTXO>());
+                if (s == null || batchEnd - batchStart != TRANSACTION_OUTPUTS_BATCH_SIZE) {
+                    if (s != null)
+                        s.close();
+                    s = conn.get().prepareStatement(buildTransactionOutputsBatchSelectSQL(batchEnd - batchStart));
+                }
+                for (int i = batchStart; i < batchEnd; i++)
+                    s.setString(i - batchStart + 1, addresses.get(i).toString());
                 ResultSet rs = s.executeQuery();
                 while (rs.next()) {
                     Sha256Hash hash = Sha256Hash.wrap(rs.getBytes(1));
@@ -1180,24 +1337,47 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
                             coinbase,
                             new Script(scriptBytes),
                             toAddress);
-                    outputs.add(output);
+                    List<UTXO> addressOutputs = outputsByAddress.get(toAddress);
+                    if (addressOutputs != null)
+                        addressOutputs.add(output);
+                }
+                rs.close();
+                for (int i = batchStart; i < batchEnd; i++) {
+                    // Remove as we go so an address listed twice is only returned once.
+                    List<UTXO> addressOutputs = outputsByAddress.remove(addresses.get(i).toString());
+                    if (addressOutputs == null)
+                        continue;
+                    Collections.sort(addressOutputs, UTXOPage.OUTPOINT_ORDER);
+                    for (UTXO output : addressOutputs)
+                        if (!visitor.visit(i, output))
+                            return;
                 }
             }
-            return outputs;
         } catch (SQLException ex) {
             throw new UTXOProviderException(ex);
         } catch (BlockStoreException bse) {
             throw new UTXOProviderException(bse);
         } finally {
-            if (s != null)
-                try {
+            try {
+                if (s != null)
                     s.close();
-                } catch (SQLException e) {
-                    throw new UTXOProviderException("Could not close statement", e);
-                }
+            } catch (SQLException e) {
+                throw new UTXOProviderException("Could not close statement", e);
+            } finally {
+                releaseConnection();
+            }
         }
     }
 
+    private String buildTransactionOutputsBatchSelectSQL(int addressCount) {
+        StringBuilder sql = new StringBuilder(getTransactionOutputsBatchSelectSQL());
+        sql.append('(');
+        for (int i = 0; i < addressCount; i++)
+            sql.append(i == 0 ? "?" : ", ?");
+        sql.append(')');
+        return sql.toString();
+    }
+
     /**
      * Dumps information about the size of actual data in the database to standard output
      * The only truly useless data counted is printed in the form "N in id indexes"
@@ -1205,67 +1385,75 @@ public abstract class DatabaseFullPrunedBlockStore implements FullPrunedBlockSto
      */
     public void dumpSizes() throws SQLException, BlockStoreException {
         maybeConnect();
-        Statement s = conn.get().createStatement();
-        long size = 0;
-        long totalSize = 0;
-        int count = 0;
-        ResultSet rs = s.executeQuery(getSelectSettingsDumpSQL());
-        while (rs.next()) {
-            size += rs.getString(1).length();
-            size += rs.getBytes(2).length;
-            count++;
-        }
-        rs.close();
-        System.out.printf(Locale.US, "Settings size: %d, count: %d, average size: %f%n", size, count, (double)size/count);
-
-        totalSize += size; size = 0; count = 0;
-        rs = s.executeQuery(getSelectHeadersDumpSQL());
-        while (rs.next()) {
-            size += 28; // hash
-            size += rs.getBytes(1).length;
-            size += 4; // height
-            size += rs.getBytes(2).length;
-            count++;
-        }
-        rs.close();
-        System.out.printf(Locale.US, "Headers size: %d, count: %d, average size: %f%n", size, count, (double)size/count);
-
-        totalSize += size; size = 0; count = 0;
-        rs = s.executeQuery(getSelectUndoableblocksDumpSQL());
-        while (rs.next()) {
-            size += 28; // hash
-            size += 4; // height
-            byte[] txOutChanges = rs.getBytes(1);
-            byte[] transactions = rs.getBytes(2);
-            if (txOutChanges == null)
-                size += transactions.length;
-            else
-                size += txOutChanges.length;
-            // size += the space to represent NULL
-            count++;
-        }
-        rs.close();
-        System.out.printf(Locale.US, "Undoable Blocks size: %d, count: %d, average size: %f%n", size, count, (double)size/count);
-
-        totalSize += size; size = 0; count = 0;
-        long scriptSize = 0;
-        rs = s.executeQuery(getSelectopenoutputsDumpSQL());
-        while (rs.next()) {
-            size += 32; // hash
-            size += 4; // index
-            size += 4; // height
-            size += rs.getBytes(1).length;
-            size += rs.getBytes(2).length;
-            scriptSize += rs.getBytes(2).length;
-            count++;
-        }
-        rs.close();
-        System.out.printf(Locale.US, "Open Outputs size: %d, count: %d, average size: %f, average script size: %f (%d in id indexes)%n",
-                size, count, (double)size/count, (double)scriptSize/count, count * 8);
-
-        totalSize += size;
-        System.out.println("Total Size: " + totalSize);
+        Statement s = null;
+        try {
+            s = conn.get().createStatement();
+            long size = 0;
+            long totalSize = 0;
+            int count = 0;
+            ResultSet rs = s.executeQuery(getSelectSettingsDumpSQL());
+            while (rs.next()) {
+                size += rs.getString(1).length();
+                size += rs.getBytes(2).length;
+                count++;
+            }
+            rs.close();
+            System.out.printf(Locale.US, "Settings size: %d, count: %d, average size: %f%n", size, count, (double)size/count);
+
+            totalSize += size; size = 0; count = 0;
+            rs = s.executeQuery(getSelectHeadersDumpSQL());
+            while (rs.next()) {
+                size += 28; // hash
+                size += rs.getBytes(1).length;
+                size += 4; // height
+                size += rs.getBytes(2).length;
+                count++;
+            }
+            rs.close();
+            System.out.printf(Locale.US, "Headers size: %d, count: %d, average size: %f%n", size, count, (double)size/count);
+
+            totalSize += size; size = 0; count = 0;
+            rs = s.executeQuery(getSelectUndoableblocksDumpSQL());
+            while (rs.next()) {
+                size += 28; // hash
+                size += 4; // height
+                byte[] txOutChanges = rs.getBytes(1);
+                byte[] transactions = rs.getBytes(2);
+                if (txOutChanges == null)
+                    size += transactions.length;
+                else
+                    size += txOutChanges.length;
+                // size += the space to represent NULL
+                count++;
+            }
+            rs.close();
+            System.out.printf(Locale.US, "Undoable Blocks size: %d, count: %d, average size: %f%n", size, count, (double)size/count);
+
+            totalSize += size; size = 0; count = 0;
+            long scriptSize = 0;
+            rs = s.executeQuery(getSelectopenoutputsDumpSQL());
+            while (rs.next()) {
+                size += 32; // hash
+                size += 4; // index
+                size += 4; // height
+                size += rs.getBytes(1).length;
+                size += rs.getBytes(2).length;
+                scriptSize += rs.getBytes(2).length;
+                count++;
+            }
+            rs.close();
+            System.out.printf(Locale.US, "Open Outputs size: %d, count: %d, average size: %f, average script size: %f (%d in id indexes)%n",
+                    size, count, (double)size/count, (double)scriptSize/count, count * 8);
 
-        s.close();
+            totalSize += size;
+            System.out.println("Total Size: " + totalSize);
+        } finally {
+            try {
+                if (s != null)
+                    s.close();
+            } finally {
+                releaseConnection();
+            }
+        }
     }
 }
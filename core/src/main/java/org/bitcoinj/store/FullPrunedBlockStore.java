@@ -44,9 +44,13 @@ import org.bitcoinj.core.*;
  * <p>A FullPrunedBlockStore also contains a map of hash+index to UTXO.  Again, the hash is
  * a standard Bitcoin double-SHA256 hash of the transaction.</p>
  *
+ * <p>A FullPrunedBlockStore also keeps an index from address to the outpoints of its unspent outputs, maintained by
+ * {@link #addUnspentTransactionOutput(UTXO)} and {@link #removeUnspentTransactionOutput(UTXO)} as blocks are
+ * connected and disconnected, which it uses to answer {@link PagedUTXOProvider} queries.</p>
+ *
  * <p>FullPrunedBlockStores are thread safe.</p>
  */
-public interface FullPrunedBlockStore extends BlockStore, UTXOProvider {
+public interface FullPrunedBlockStore extends BlockStore, PagedUTXOProvider {
     /**
      * <p>Saves the given {@link StoredUndoableBlock} and {@link StoredBlock}. Calculates keys from the {@link StoredBlock}</p>
      * 
@@ -21,6 +21,7 @@ import org.iq80.leveldb.*;
 import javax.annotation.*;
 import java.io.*;
 import java.nio.*;
+import java.util.List;
 
 /**
  * An SPV block store that writes every header it sees to a <a href="https://github.com/fusesource/leveldbjni">LevelDB</a>.
@@ -28,7 +29,7 @@ import java.nio.*;
  * usage than the {@link SPVBlockStore}. If all you want is a regular wallet you don't need this class: it exists for
  * specialised applications where you need to quickly verify a standalone SPV proof.
  */
-public class LevelDBBlockStore implements BlockStore {
+public class LevelDBBlockStore implements BulkBlockStore {
     private static final byte[] CHAIN_HEAD_KEY = "chainhead".getBytes();
 
     private final Context context;
@@ -81,6 +82,28 @@ public class LevelDBBlockStore implements BlockStore {
         db.put(block.getHeader().getHash().getBytes(), buffer.array());
     }
 
+    /** Writes the blocks and the new chain head in a single LevelDB write batch. */
+    @Override
+    public synchronized void putAll(List<StoredBlock> blocks, StoredBlock chainHead) throws BlockStoreException {
+        try {
+            WriteBatch batch = db.createWriteBatch();
+            try {
+                for (StoredBlock block : blocks) {
+                    // A buffer per block, as the batch may keep the array rather than copy it.
+                    ByteBuffer blockBuffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+                    block.serializeCompact(blockBuffer);
+                    batch.put(block.getHeader().getHash().getBytes(), blockBuffer.array());
+                }
+                batch.put(CHAIN_HEAD_KEY, chainHead.getHeader().getHash().getBytes());
+                db.write(batch);
+            } finally {
+                batch.close();
+            }
+        } catch (IOException e) {
+            throw new BlockStoreException(e);
+        }
+    }
+
     @Override @Nullable
     public synchronized StoredBlock get(Sha256Hash hash) throws BlockStoreException {
         byte[] bits = db.get(hash.getBytes());
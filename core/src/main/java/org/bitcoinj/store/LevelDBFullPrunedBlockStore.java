@@ -38,6 +38,7 @@ import org.bitcoinj.core.StoredUndoableBlock;
 import org.bitcoinj.core.Transaction;
 import org.bitcoinj.core.TransactionOutputChanges;
 import org.bitcoinj.core.UTXO;
+import org.bitcoinj.core.UTXOPage;
 import org.bitcoinj.core.UTXOProviderException;
 import org.bitcoinj.core.VerificationException;
 import org.bitcoinj.script.Script;
@@ -45,6 +46,8 @@ import org.iq80.leveldb.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+
 import static org.fusesource.leveldbjni.JniDBFactory.*;
 
 import com.google.common.base.Stopwatch;
@@ -420,61 +423,127 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
     @Override
     public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
-        // Run this on a snapshot of database so internally consistent result
-        // This is critical or if one address paid another could get incorrect
-        // results
-
-        List<UTXO> results = new LinkedList<UTXO>();
-        for (Address a : addresses) {
-            ByteBuffer bb = ByteBuffer.allocate(21);
-            bb.put((byte) KeyType.ADDRESS_HASHINDEX.ordinal());
-            bb.put(a.getHash160());
+        final List<UTXO> results = new LinkedList<UTXO>();
+        scanAddressIndex(addresses, 0, null, new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                results.add(output);
+                return true;
+            }
+        });
+        return results;
+    }
 
-            ReadOptions ro = new ReadOptions();
-            Snapshot sn = db.getSnapshot();
-            ro.snapshot(sn);
+    @Override
+    public void visitOpenTransactionOutputs(List<Address> addresses, Visitor visitor) throws UTXOProviderException {
+        scanAddressIndex(addresses, 0, null, visitor);
+    }
 
-            // Scanning over iterator very fast
+    @Override
+    public UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor after, int pageSize)
+            throws UTXOProviderException {
+        final UTXOPage.Collector collector = new UTXOPage.Collector(after, pageSize);
+        scanAddressIndex(addresses, collector.getStartAddressIndex(), after, new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                return collector.offer(addressIndex, output);
+            }
+        });
+        return collector.build();
+    }
 
-            DBIterator iterator = db.iterator(ro);
-            for (iterator.seek(bb.array()); iterator.hasNext(); iterator.next()) {
-                ByteBuffer bbKey = ByteBuffer.wrap(iterator.peekNext().getKey());
-                bbKey.get(); // remove the address_hashindex byte.
-                byte[] addressKey = new byte[20];
-                bbKey.get(addressKey);
-                if (!Arrays.equals(addressKey, a.getHash160())) {
-                    break;
-                }
-                byte[] hashBytes = new byte[32];
-                bbKey.get(hashBytes);
-                int index = bbKey.getInt();
-                Sha256Hash hash = Sha256Hash.wrap(hashBytes);
-                UTXO txout;
-                try {
-                    // TODO this should be on the SNAPSHOT too......
-                    // this is really a BUG.
-                    txout = getTransactionOutput(hash, index);
-                } catch (BlockStoreException e) {
-                    throw new UTXOProviderException("block store execption", e);
-                }
-                if (txout != null) {
-                    Script sc = txout.getScript();
-                    Address address = sc.getToAddress(params, true);
+    // Walks the ADDRESS_HASHINDEX entries of each address in turn, reading the outputs themselves from the same
+    // snapshot. Running the whole query on one snapshot keeps the result internally consistent: if one address
+    // paid another while we were scanning we could otherwise see the output twice or not at all. The index keys
+    // are ordered by hash then big endian index, which is UTXOPage.OUTPOINT_ORDER, so a page can seek straight
+    // to its cursor.
+    private void scanAddressIndex(List<Address> addresses, int startIndex, @Nullable UTXOPage.Cursor after,
+            Visitor visitor) throws UTXOProviderException {
+        Snapshot sn = db.getSnapshot();
+        ReadOptions ro = new ReadOptions().snapshot(sn);
+        DBIterator iterator = db.iterator(ro);
+        try {
+            for (int i = startIndex; i < addresses.size(); i++) {
+                Address a = addresses.get(i);
+                byte[] hash160 = a.getHash160();
+                byte[] seekKey;
+                if (after != null && i == after.getAddressIndex())
+                    seekKey = getAddressIndexKey(hash160, after.getHash(), after.getIndex());
+                else
+                    seekKey = getAddressIndexKey(hash160);
+                String address = a.toString();
+                for (iterator.seek(seekKey); iterator.hasNext(); iterator.next()) {
+                    byte[] key = iterator.peekNext().getKey();
+                    if (!hasAddressIndexPrefix(key, hash160))
+                        break;
+                    ByteBuffer bbKey = ByteBuffer.wrap(key, 21, 36);
+                    byte[] hashBytes = new byte[32];
+                    bbKey.get(hashBytes);
+                    int index = bbKey.getInt();
+                    byte[] value = db.get(getTxKey(KeyType.OPENOUT_ALL, Sha256Hash.wrap(hashBytes), index), ro);
+                    if (value == null)
+                        continue; // Index entry outlived its output, nothing to return.
+                    UTXO txout = new UTXO(new ByteArrayInputStream(value));
                     UTXO output = new UTXO(txout.getHash(), txout.getIndex(), txout.getValue(), txout.getHeight(),
-                            txout.isCoinbase(), txout.getScript(), address.toString());
-                    results.add(output);
+                            txout.isCoinbase(), txout.getScript(), address);
+                    if (!visitor.visit(i, output))
+                        return;
                 }
             }
+        } catch (IOException e) {
+            throw new UTXOProviderException("Corrupt unspent output in block store", e);
+        } catch (DBException e) {
+            throw new UTXOProviderException("block store exception", e);
+        } finally {
             try {
                 iterator.close();
-                ro = null;
                 sn.close();
-                sn = null;
             } catch (IOException e) {
                 log.error("Error closing snapshot/iterator?", e);
             }
         }
-        return results;
+    }
+
+    private byte[] getAddressIndexKey(byte[] hash160) {
+        byte[] key = new byte[21];
+        key[0] = (byte) KeyType.ADDRESS_HASHINDEX.ordinal();
+        System.arraycopy(hash160, 0, key, 1, 20);
+        return key;
+    }
+
+    private byte[] getAddressIndexKey(byte[] hash160, Sha256Hash hash, long index) {
+        ByteBuffer bb = ByteBuffer.allocate(57);
+        bb.put((byte) KeyType.ADDRESS_HASHINDEX.ordinal());
+        bb.put(hash160);
+        bb.put(hash.getBytes());
+        bb.putInt((int) index);
+        return bb.array();
+    }
+
+    private static boolean hasAddressIndexPrefix(byte[] key, byte[] hash160) {
+        if (key.length != 57 || key[0] != (byte) KeyType.ADDRESS_HASHINDEX.ordinal())
+            return false;
+        for (int i = 0; i < 20; i++)
+            if (key[i + 1] != hash160[i])
+                return false;
+        return true;
+    }
+
+    // The hash160 an output is filed under in the ADDRESS_HASHINDEX, or null if it does not pay to an address.
+    // Adding and removing must agree on this, or removals leave stale index entries behind (UTXOs read back from
+    // the store have no address string, so we fall back to the script, forcing pay-to-pubkey like the chain does).
+    @Nullable
+    private byte[] getAddressHash160(UTXO out) {
+        try {
+            String address = out.getAddress();
+            if (address == null || address.equals(""))
+                return out.getScript().getToAddress(params, true).getHash160();
+            return Address.fromBase58(params, address).getHash160();
+        } catch (AddressFormatException e) {
+            return null;
+        } catch (ScriptException e) {
+            return null;
+        }
     }
 
     @Override
@@ -789,27 +858,9 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
         // Could run this in parallel with above too.
         // Should update instrumentation to see if worth while.
-        Address a;
-        if (out.getAddress() == null || out.getAddress().equals("")) {
-            if (instrument)
-                endMethod("addUnspentTransactionOutput");
-            return;
-        } else {
-            try {
-                a = Address.fromBase58(params, out.getAddress());
-            } catch (AddressFormatException e) {
-                if (instrument)
-                    endMethod("addUnspentTransactionOutput");
-                return;
-            }
-        }
-        ByteBuffer bb = ByteBuffer.allocate(57);
-        bb.put((byte) KeyType.ADDRESS_HASHINDEX.ordinal());
-        bb.put(a.getHash160());
-        bb.put(out.getHash().getBytes());
-        bb.putInt((int) out.getIndex());
-        byte[] value = new byte[0];
-        batchPut(bb.array(), value);
+        byte[] hash160 = getAddressHash160(out);
+        if (hash160 != null)
+            batchPut(getAddressIndexKey(hash160, out.getHash(), out.getIndex()), new byte[0]);
         if (instrument)
             endMethod("addUnspentTransactionOutput");
     }
@@ -882,33 +933,9 @@ public class LevelDBFullPrunedBlockStore implements FullPrunedBlockStore {
 
         // TODO storing as byte[] hash to save space. But think should just
         // store as String of address. Might be faster. Need to test.
-        ByteBuffer bb = ByteBuffer.allocate(57);
-        Address a;
-        byte[] hashBytes = null;
-        try {
-            String address = out.getAddress();
-            if (address == null || address.equals("")) {
-                Script sc = out.getScript();
-                a = sc.getToAddress(params);
-                hashBytes = a.getHash160();
-            } else {
-                a = Address.fromBase58(params, out.getAddress());
-                hashBytes = a.getHash160();
-            }
-        } catch (AddressFormatException e) {
-            if (instrument)
-                endMethod("removeUnspentTransactionOutput");
-            return;
-        } catch (ScriptException e) {
-            if (instrument)
-                endMethod("removeUnspentTransactionOutput");
-            return;
-        }
-        bb.put((byte) KeyType.ADDRESS_HASHINDEX.ordinal());
-        bb.put(hashBytes);
-        bb.put(out.getHash().getBytes());
-        bb.putInt((int) out.getIndex());
-        batchDelete(bb.array());
+        byte[] hash160 = getAddressHash160(out);
+        if (hash160 != null)
+            batchDelete(getAddressIndexKey(hash160, out.getHash(), out.getIndex()));
 
         if (instrument)
             endMethod("removeUnspentTransactionOutput");
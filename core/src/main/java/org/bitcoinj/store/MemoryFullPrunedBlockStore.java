@@ -103,10 +103,10 @@ class TransactionalHashMap<KeyType, ValueType> {
     public void commitDatabaseBatchWrite() {
         if (tempSetRemoved.get() != null)
             for(KeyType key : tempSetRemoved.get())
-                map.remove(key);
+                removeCommitted(key);
         if (tempMap.get() != null)
             for (Map.Entry<KeyType, ValueType> entry : tempMap.get().entrySet())
-                map.put(entry.getKey(), entry.getValue());
+                putCommitted(entry.getKey(), entry.getValue());
         abortDatabaseBatchWrite();
     }
 
@@ -146,7 +146,7 @@ class TransactionalHashMap<KeyType, ValueType> {
                 tempMap.set(new HashMap<KeyType, ValueType>());
             tempMap.get().put(key, value);
         }else{
-            map.put(key, value);
+            putCommitted(key, value);
         }
     }
     
@@ -166,9 +166,78 @@ class TransactionalHashMap<KeyType, ValueType> {
             }
             return retVal;
         }else{
-            return map.remove(key);
+            return removeCommitted(key);
         }
     }
+
+    private void putCommitted(KeyType key, ValueType value) {
+        map.put(key, value);
+        onCommittedPut(key, value);
+    }
+
+    @Nullable
+    private ValueType removeCommitted(KeyType key) {
+        ValueType value = map.remove(key);
+        if (value != null)
+            onCommittedRemove(key, value);
+        return value;
+    }
+
+    /** Called after a value becomes visible to all threads, either directly or at commit. */
+    protected void onCommittedPut(KeyType key, ValueType value) {
+    }
+
+    /** Called after a value stops being visible to all threads, either directly or at commit. */
+    protected void onCommittedRemove(KeyType key, ValueType value) {
+    }
+}
+
+/**
+ * A {@link TransactionalHashMap} of unspent outputs which also indexes the committed outputs by address, so that
+ * the outputs of an address can be found without scanning every output.
+ * This class is not thread-safe.
+ */
+class AddressIndexedOutputMap extends TransactionalHashMap<StoredTransactionOutPoint, UTXO> {
+    private final HashMap<String, Set<StoredTransactionOutPoint>> addressIndex =
+            new HashMap<String, Set<StoredTransactionOutPoint>>();
+
+    @Override
+    protected void onCommittedPut(StoredTransactionOutPoint key, UTXO value) {
+        String address = value.getAddress();
+        if (address == null || address.isEmpty())
+            return;
+        Set<StoredTransactionOutPoint> set = addressIndex.get(address);
+        if (set == null) {
+            set = new HashSet<StoredTransactionOutPoint>();
+            addressIndex.put(address, set);
+        }
+        set.add(key);
+    }
+
+    @Override
+    protected void onCommittedRemove(StoredTransactionOutPoint key, UTXO value) {
+        String address = value.getAddress();
+        if (address == null || address.isEmpty())
+            return;
+        Set<StoredTransactionOutPoint> set = addressIndex.get(address);
+        if (set != null && set.remove(key) && set.isEmpty())
+            addressIndex.remove(address);
+    }
+
+    /** Returns the outputs paying to the given address, sorted by {@link UTXOPage#OUTPOINT_ORDER}. */
+    public List<UTXO> getByAddress(String address) {
+        Set<StoredTransactionOutPoint> set = addressIndex.get(address);
+        if (set == null)
+            return Collections.emptyList();
+        List<UTXO> outputs = new ArrayList<UTXO>(set.size());
+        for (StoredTransactionOutPoint key : set) {
+            UTXO output = get(key);
+            if (output != null)
+                outputs.add(output);
+        }
+        Collections.sort(outputs, UTXOPage.OUTPOINT_ORDER);
+        return outputs;
+    }
 }
 
 /**
@@ -241,7 +310,7 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     private TransactionalHashMap<Sha256Hash, StoredBlockAndWasUndoableFlag> blockMap;
     private TransactionalMultiKeyHashMap<Sha256Hash, Integer, StoredUndoableBlock> fullBlockMap;
     //TODO: Use something more suited to remove-heavy use?
-    private TransactionalHashMap<StoredTransactionOutPoint, UTXO> transactionOutputMap;
+    private AddressIndexedOutputMap transactionOutputMap;
     private StoredBlock chainHead;
     private StoredBlock verifiedChainHead;
     private int fullStoreDepth;
@@ -255,7 +324,7 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     public MemoryFullPrunedBlockStore(NetworkParameters params, int fullStoreDepth) {
         blockMap = new TransactionalHashMap<Sha256Hash, StoredBlockAndWasUndoableFlag>();
         fullBlockMap = new TransactionalMultiKeyHashMap<Sha256Hash, Integer, StoredUndoableBlock>();
-        transactionOutputMap = new TransactionalHashMap<StoredTransactionOutPoint, UTXO>();
+        transactionOutputMap = new AddressIndexedOutputMap();
         this.fullStoreDepth = fullStoreDepth > 0 ? fullStoreDepth : 1;
         // Insert the genesis block.
         try {
@@ -412,18 +481,43 @@ public class MemoryFullPrunedBlockStore implements FullPrunedBlockStore {
     }
 
     @Override
-    public List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
-        // This is *NOT* optimal: We go through all the outputs and select the ones we are looking for.
-        // If someone uses this store for production then they have a lot more to worry about than an inefficient impl :)
-        List<UTXO> foundOutputs = new ArrayList<UTXO>();
-        List<UTXO> outputsList = transactionOutputMap.values();
-        for (UTXO output : outputsList) {
-            for (Address address : addresses) {
-                if (output.getAddress().equals(address.toString())) {
-                    foundOutputs.add(output);
-                }
+    public synchronized List<UTXO> getOpenTransactionOutputs(List<Address> addresses) throws UTXOProviderException {
+        final List<UTXO> foundOutputs = new ArrayList<UTXO>();
+        visitOpenTransactionOutputs(addresses, new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                foundOutputs.add(output);
+                return true;
             }
-        }
+        });
         return foundOutputs;
     }
+
+    @Override
+    public synchronized void visitOpenTransactionOutputs(List<Address> addresses, Visitor visitor)
+            throws UTXOProviderException {
+        visitOpenTransactionOutputs(addresses, 0, visitor);
+    }
+
+    @Override
+    public synchronized UTXOPage getOpenTransactionOutputs(List<Address> addresses, @Nullable UTXOPage.Cursor after,
+                                                           int pageSize) throws UTXOProviderException {
+        final UTXOPage.Collector collector = new UTXOPage.Collector(after, pageSize);
+        visitOpenTransactionOutputs(addresses, collector.getStartAddressIndex(), new Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                return collector.offer(addressIndex, output);
+            }
+        });
+        return collector.build();
+    }
+
+    private void visitOpenTransactionOutputs(List<Address> addresses, int startIndex, Visitor visitor)
+            throws UTXOProviderException {
+        Preconditions.checkNotNull(transactionOutputMap, "MemoryFullPrunedBlockStore is closed");
+        for (int i = startIndex; i < addresses.size(); i++)
+            for (UTXO output : transactionOutputMap.getByAddress(addresses.get(i).toString()))
+                if (!visitor.visit(i, output))
+                    return;
+    }
 }
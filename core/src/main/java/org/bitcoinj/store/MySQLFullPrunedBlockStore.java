@@ -81,6 +81,7 @@ public class MySQLFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
     private static final String DELETE_OPENOUTPUTS_SQL                          = "DELETE FROM openoutputs WHERE hash = ? AND `index`= ?";
 
     private static final String SELECT_TRANSACTION_OUTPUTS_SQL                  = "SELECT hash, value, scriptbytes, height, `index`, coinbase, toaddress, addresstargetable FROM openoutputs where toaddress = ?";
+    private static final String SELECT_TRANSACTION_OUTPUTS_BATCH_SQL            = "SELECT hash, value, scriptbytes, height, `index`, coinbase, toaddress, addresstargetable FROM openoutputs where toaddress IN ";
 
     /**
      * Creates a new MySQLFullPrunedBlockStore.
@@ -123,6 +124,11 @@ public class MySQLFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
         return SELECT_TRANSACTION_OUTPUTS_SQL;
     }
 
+    @Override
+    protected String getTransactionOutputsBatchSelectSQL() {
+        return SELECT_TRANSACTION_OUTPUTS_BATCH_SQL;
+    }
+
     @Override
     protected List<String> getCreateTablesSQL() {
         List<String> sqlStatements = new ArrayList<String>();
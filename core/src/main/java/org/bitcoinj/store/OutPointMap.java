@@ -0,0 +1,235 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>An open addressing hash map keyed by outpoint, that is a 32 byte transaction hash and a 32 bit output index.
+ * Keys are stored inline in one flat byte array, so there is no key object per entry and lookups allocate
+ * nothing. Collisions are resolved by linear probing, and removal shifts later entries back instead of leaving
+ * tombstones, so the table never needs cleaning up.</p>
+ *
+ * <p>This class is not thread-safe for writers. {@link #get(byte[], long)} may however race with a writer without
+ * failing or looping forever; its result is then meaningless and must be discarded, which is what
+ * {@link ConcurrentMemoryFullPrunedBlockStore} does with an optimistic read stamp.</p>
+ */
+class OutPointMap<V> {
+    static final int KEY_LENGTH = 36;
+    private static final int MIN_CAPACITY = 16;
+
+    // The key of slot i is keys[i * KEY_LENGTH ..], the hash followed by the index in little endian.
+    // A slot is empty if its value is null.
+    private byte[] keys;
+    private Object[] values;
+    private int size;
+
+    OutPointMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /** Creates a map that can hold the given number of entries without resizing. */
+    OutPointMap(int expectedSize) {
+        checkArgument(expectedSize >= 0);
+        int capacity = MIN_CAPACITY;
+        while (capacity * 2 < expectedSize * 3)
+            capacity <<= 1;
+        keys = new byte[capacity * KEY_LENGTH];
+        values = new Object[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the value for the given outpoint, or null if there is none. */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(byte[] hash, long index) {
+        // Read the arrays once, they are replaced when the table is resized.
+        byte[] keys = this.keys;
+        Object[] values = this.values;
+        if (keys.length != values.length * KEY_LENGTH)
+            return null; // Caught half way through a resize.
+        int mask = values.length - 1;
+        int slot = slotOf(hash, index) & mask;
+        for (int probes = 0; probes < values.length; probes++) {
+            Object value = values[slot];
+            if (value == null)
+                return null;
+            if (keyEquals(keys, slot, hash, index))
+                return (V) value;
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Sets the value for the given outpoint.
+     * @return The previous value, or null if there was none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V put(byte[] hash, long index, V value) {
+        checkNotNull(value);
+        int slot = find(hash, index);
+        if (slot >= 0) {
+            Object previous = values[slot];
+            values[slot] = value;
+            return (V) previous;
+        }
+        if ((size + 1) * 3 > values.length * 2) {
+            resize(values.length * 2);
+            slot = find(hash, index);
+        }
+        slot = -slot - 1;
+        System.arraycopy(hash, 0, keys, slot * KEY_LENGTH, 32);
+        writeIndex(keys, slot * KEY_LENGTH + 32, index);
+        values[slot] = value;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the value for the given outpoint.
+     * @return The removed value, or null if there was none.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V remove(byte[] hash, long index) {
+        int slot = find(hash, index);
+        if (slot < 0)
+            return null;
+        Object removed = values[slot];
+        int mask = values.length - 1;
+        // Shift back any following entries whose probe sequence passes through the freed slot.
+        int free = slot;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            if (values[next] == null)
+                break;
+            int ideal = slotOf(keys, next) & mask;
+            if (((next - ideal) & mask) >= ((next - free) & mask)) {
+                System.arraycopy(keys, next * KEY_LENGTH, keys, free * KEY_LENGTH, KEY_LENGTH);
+                values[free] = values[next];
+                free = next;
+            }
+        }
+        values[free] = null;
+        size--;
+        return (V) removed;
+    }
+
+    /** Adds all the values to the given collection, in no particular order. */
+    @SuppressWarnings("unchecked")
+    void addValuesTo(Collection<? super V> collection) {
+        for (Object value : values)
+            if (value != null)
+                collection.add((V) value);
+    }
+
+    void clear() {
+        keys = new byte[MIN_CAPACITY * KEY_LENGTH];
+        values = new Object[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /** Returns the slot holding the outpoint, or if absent -(slot + 1) for the empty slot where it would go. */
+    private int find(byte[] hash, long index) {
+        checkArgument(hash.length == 32);
+        int mask = values.length - 1;
+        int slot = slotOf(hash, index) & mask;
+        while (values[slot] != null) {
+            if (keyEquals(keys, slot, hash, index))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -slot - 1;
+    }
+
+    private void resize(int capacity) {
+        byte[] oldKeys = keys;
+        Object[] oldValues = values;
+        byte[] newKeys = new byte[capacity * KEY_LENGTH];
+        Object[] newValues = new Object[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+            int slot = slotOf(oldKeys, i) & mask;
+            while (newValues[slot] != null)
+                slot = (slot + 1) & mask;
+            System.arraycopy(oldKeys, i * KEY_LENGTH, newKeys, slot * KEY_LENGTH, KEY_LENGTH);
+            newValues[slot] = oldValues[i];
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private static boolean keyEquals(byte[] keys, int slot, byte[] hash, long index) {
+        int offset = slot * KEY_LENGTH;
+        if (readIndex(keys, offset + 32) != index)
+            return false;
+        for (int i = 0; i < 32; i++)
+            if (keys[offset + i] != hash[i])
+                return false;
+        return true;
+    }
+
+    private static int slotOf(byte[] hash, long index) {
+        return mix(readLong(hash, 0), index);
+    }
+
+    private static int slotOf(byte[] keys, int slot) {
+        int offset = slot * KEY_LENGTH;
+        return mix(readLong(keys, offset), readIndex(keys, offset + 32));
+    }
+
+    private static int mix(long hashBits, long index) {
+        // Transaction hashes are already uniformly distributed, the index only needs spreading over the bits.
+        long h = hashBits ^ (index * 0x9E3779B97F4A7C15L);
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long readLong(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xffL) | (bytes[offset + 1] & 0xffL) << 8 | (bytes[offset + 2] & 0xffL) << 16
+                | (bytes[offset + 3] & 0xffL) << 24 | (bytes[offset + 4] & 0xffL) << 32
+                | (bytes[offset + 5] & 0xffL) << 40 | (bytes[offset + 6] & 0xffL) << 48
+                | (bytes[offset + 7] & 0xffL) << 56;
+    }
+
+    private static long readIndex(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xffL) | (bytes[offset + 1] & 0xffL) << 8 | (bytes[offset + 2] & 0xffL) << 16
+                | (bytes[offset + 3] & 0xffL) << 24;
+    }
+
+    private static void writeIndex(byte[] bytes, int offset, long index) {
+        bytes[offset] = (byte) index;
+        bytes[offset + 1] = (byte) (index >>> 8);
+        bytes[offset + 2] = (byte) (index >>> 16);
+        bytes[offset + 3] = (byte) (index >>> 24);
+    }
+}
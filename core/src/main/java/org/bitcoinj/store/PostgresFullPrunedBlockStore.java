@@ -167,7 +167,6 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
 
     @Override
     public void put(StoredBlock storedBlock, StoredUndoableBlock undoableBlock) throws BlockStoreException {
-        maybeConnect();
         // We skip the first 4 bytes because (on mainnet) the minimum target has 4 0-bytes
         byte[] hashBytes = new byte[28];
         System.arraycopy(storedBlock.getHeader().getHash().getBytes(), 4, hashBytes, 0, 28);
@@ -195,6 +194,7 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
         }
 
 
+        maybeConnect();
         try {
             if (log.isDebugEnabled())
                 log.debug("Looking for undoable block with hash: " + Utils.HEX.encode(hashBytes));
@@ -255,6 +255,8 @@ public class PostgresFullPrunedBlockStore extends DatabaseFullPrunedBlockStore {
         } catch (SQLException e) {
             if (!e.getSQLState().equals(POSTGRES_DUPLICATE_KEY_ERROR_CODE))
                 throw new BlockStoreException(e);
+        } finally {
+            releaseConnection();
         }
 
     }
@@ -25,6 +25,8 @@ import java.io.*;
 import java.nio.*;
 import java.nio.channels.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 
 import static com.google.common.base.Preconditions.*;
@@ -35,8 +37,15 @@ import static com.google.common.base.Preconditions.*;
  * An SPVBlockStore holds a limited number of block headers in a memory mapped ring buffer. With such a store, you
  * may not be able to process very deep re-orgs and could be disconnected from the chain (requiring a replay),
  * but as they are virtually unheard of this is not a significant risk.
+ *
+ * <p>Writers are serialised by {@link #lock}. Readers don't take it: they share a {@link StampedLock} that writers
+ * only hold while changing the ring, so lookups go on in parallel with each other and aren't held up by a writer that
+ * is waiting for the disk. Writes go to the mapped memory and reach the disk whenever the operating system decides,
+ * or when the store is closed. {@link #setForcePolicy(int, long, Executor)} bounds how much can be lost if the
+ * machine crashes, by forcing the file to disk every so many headers or milliseconds, optionally on another thread
+ * so that syncing the chain doesn't wait for it.</p>
  */
-public class SPVBlockStore implements BlockStore {
+public class SPVBlockStore implements BulkBlockStore {
     private static final Logger log = LoggerFactory.getLogger(SPVBlockStore.class);
 
     /** The default number of headers that will be stored in the ring buffer. */
@@ -48,6 +57,8 @@ public class SPVBlockStore implements BlockStore {
     protected NetworkParameters params;
 
     protected ReentrantLock lock = Threading.lock("SPVBlockStore");
+    // Held for writing while the ring and the caches below change, for reading while they are looked at.
+    private final StampedLock ringLock = new StampedLock();
 
     // The entire ring-buffer is mmapped and accessing it should be as fast as accessing regular memory once it's
     // faulted in. Unfortunately, in theory practice and theory are the same. In practice they aren't.
@@ -75,6 +86,19 @@ public class SPVBlockStore implements BlockStore {
             return size() > 100;  // This was chosen arbitrarily.
         }
     };
+    // When to force the file to disk, see setForcePolicy. Zero means never.
+    private volatile int forceEveryHeaders;
+    private volatile long forceEveryMillis;
+    @Nullable private volatile Executor forceExecutor;
+    // The writes since the last force, guarded by lock.
+    private int unforcedHeaders;
+    private long unforcedSinceMillis;
+    private boolean unforced;
+    private final AtomicBoolean forceScheduled = new AtomicBoolean();
+    private final AtomicLong forceCount = new AtomicLong();
+    // Held while forcing, so that the buffer isn't released from under a force on another thread.
+    private final Object forceLock = new Object();
+
     // Used to stop other applications/processes from opening the store.
     protected FileLock fileLock = null;
     protected RandomAccessFile randomAccessFile = null;
@@ -154,6 +178,45 @@ public class SPVBlockStore implements BlockStore {
         return RECORD_SIZE * numHeaders + FILE_PROLOGUE_BYTES /* extra kilobyte for stuff */;
     }
 
+    /**
+     * Sets when the store forces its writes to disk. By default it only does so when closed and otherwise leaves it to
+     * the operating system, which is fastest but means a crash of the machine (not just of the app) may lose recent
+     * headers or leave a chain head that isn't in the file. With this set, the file is forced once the given number of
+     * headers have been written since the last time, or once the oldest unforced write is the given number of
+     * milliseconds old. Both are checked as the store is written to, so an idle store is forced by {@link #flush()} or
+     * {@link #close()}.
+     *
+     * @param everyHeaders The number of headers to force after, or zero.
+     * @param everyMillis The time to force after, or zero.
+     * @param executor Where to force, or null to force on the thread that is writing. Readers never wait for a
+     *                 force, but with no executor the next writer does.
+     */
+    public void setForcePolicy(int everyHeaders, long everyMillis, @Nullable Executor executor) {
+        checkArgument(everyHeaders >= 0 && everyMillis >= 0);
+        lock.lock();
+        try {
+            this.forceEveryHeaders = everyHeaders;
+            this.forceEveryMillis = everyMillis;
+            this.forceExecutor = executor;
+        } finally { lock.unlock(); }
+    }
+
+    /** Forces all writes so far to disk, on the calling thread. */
+    public void flush() throws BlockStoreException {
+        if (this.buffer == null) throw new BlockStoreException("Store closed");
+        lock.lock();
+        try {
+            unforced = false;
+            unforcedHeaders = 0;
+        } finally { lock.unlock(); }
+        force();
+    }
+
+    /** Returns how many times the store was forced to disk by its force policy or {@link #flush()}. */
+    public long getForceCount() {
+        return forceCount.get();
+    }
+
     @Override
     public void put(StoredBlock block) throws BlockStoreException {
         final MappedByteBuffer buffer = this.buffer;
@@ -161,28 +224,110 @@ public class SPVBlockStore implements BlockStore {
 
         lock.lock();
         try {
-            int cursor = getRingCursor(buffer);
-            if (cursor == getFileSize()) {
-                // Wrapped around.
-                cursor = FILE_PROLOGUE_BYTES;
-            }
-            buffer.position(cursor);
-            Sha256Hash hash = block.getHeader().getHash();
-            notFoundCache.remove(hash);
-            buffer.put(hash.getBytes());
-            block.serializeCompact(buffer);
-            setRingCursor(buffer, buffer.position());
-            blockCache.put(hash, block);
+            long stamp = ringLock.writeLock();
+            try {
+                int cursor = getRingCursor(buffer);
+                if (cursor == getFileSize()) {
+                    // Wrapped around.
+                    cursor = FILE_PROLOGUE_BYTES;
+                }
+                setRingCursor(buffer, writeRecord(buffer, cursor, block));
+            } finally { ringLock.unlockWrite(stamp); }
+            written(1);
+        } finally { lock.unlock(); }
+    }
+
+    /**
+     * Writes the blocks one after the other into the ring and then moves the cursor once, so that the store doesn't
+     * see a partial write. If there are more blocks than the ring holds, only the last ones are written.
+     */
+    @Override
+    public void putAll(List<StoredBlock> blocks, StoredBlock chainHead) throws BlockStoreException {
+        final MappedByteBuffer buffer = this.buffer;
+        if (buffer == null) throw new BlockStoreException("Store closed");
+
+        lock.lock();
+        try {
+            if (blocks.size() > numHeaders)
+                blocks = blocks.subList(blocks.size() - numHeaders, blocks.size());
+            long stamp = ringLock.writeLock();
+            try {
+                final int fileSize = getFileSize();
+                int cursor = getRingCursor(buffer);
+                for (StoredBlock block : blocks) {
+                    if (cursor == fileSize) {
+                        // Wrapped around.
+                        cursor = FILE_PROLOGUE_BYTES;
+                    }
+                    cursor = writeRecord(buffer, cursor, block);
+                }
+                setRingCursor(buffer, cursor);
+                writeChainHead(buffer, chainHead);
+            } finally { ringLock.unlockWrite(stamp); }
+            written(blocks.size());
         } finally { lock.unlock(); }
     }
 
+    // Writes the block at the given offset and returns the offset after it. Must hold the ring lock for writing.
+    private int writeRecord(MappedByteBuffer buffer, int cursor, StoredBlock block) {
+        buffer.position(cursor);
+        Sha256Hash hash = block.getHeader().getHash();
+        notFoundCache.remove(hash);
+        buffer.put(hash.getBytes());
+        block.serializeCompact(buffer);
+        blockCache.put(hash, block);
+        return buffer.position();
+    }
+
+    // Called with the lock held after every write, to apply the force policy.
+    private void written(int headers) {
+        final int everyHeaders = forceEveryHeaders;
+        final long everyMillis = forceEveryMillis;
+        if (everyHeaders == 0 && everyMillis == 0)
+            return;
+        long now = Utils.currentTimeMillis();
+        if (!unforced) {
+            unforced = true;
+            unforcedSinceMillis = now;
+        }
+        unforcedHeaders += headers;
+        if ((everyHeaders == 0 || unforcedHeaders < everyHeaders)
+                && (everyMillis == 0 || now - unforcedSinceMillis < everyMillis))
+            return;
+        unforced = false;
+        unforcedHeaders = 0;
+        final Executor executor = forceExecutor;
+        if (executor == null) {
+            force();
+        } else if (forceScheduled.compareAndSet(false, true)) {
+            // Writes made while this one is queued are covered by it. Writes made while it is running trigger another.
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    forceScheduled.set(false);
+                    force();
+                }
+            });
+        }
+    }
+
+    private void force() {
+        synchronized (forceLock) {
+            final MappedByteBuffer buffer = this.buffer;
+            if (buffer == null)
+                return;  // Closed in the meantime, which forced it.
+            buffer.force();
+            forceCount.incrementAndGet();
+        }
+    }
+
     @Override
     @Nullable
     public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
         final MappedByteBuffer buffer = this.buffer;
         if (buffer == null) throw new BlockStoreException("Store closed");
 
-        lock.lock();
+        long stamp = ringLock.readLock();
         try {
             StoredBlock cacheHit = blockCache.get(hash);
             if (cacheHit != null)
@@ -191,12 +336,14 @@ public class SPVBlockStore implements BlockStore {
                 return null;
 
             // Starting from the current tip of the ring work backwards until we have either found the block or
-            // wrapped around.
-            int cursor = getRingCursor(buffer);
+            // wrapped around. Other readers may be doing the same, so use a view of the buffer with its own position.
+            final ByteBuffer ring = buffer.duplicate();
+            int cursor = getRingCursor(ring);
             final int startingPoint = cursor;
             final int fileSize = getFileSize();
             final byte[] targetHashBytes = hash.getBytes();
             byte[] scratch = new byte[32];
+            StoredBlock storedBlock = null;
             do {
                 cursor -= RECORD_SIZE;
                 if (cursor < FILE_PROLOGUE_BYTES) {
@@ -204,36 +351,50 @@ public class SPVBlockStore implements BlockStore {
                     cursor = fileSize - RECORD_SIZE;
                 }
                 // Cursor is now at the start of the next record to check, so read the hash and compare it.
-                buffer.position(cursor);
-                buffer.get(scratch);
+                ring.position(cursor);
+                ring.get(scratch);
                 if (Arrays.equals(scratch, targetHashBytes)) {
                     // Found the target.
-                    StoredBlock storedBlock = StoredBlock.deserializeCompact(params, buffer);
-                    blockCache.put(hash, storedBlock);
-                    return storedBlock;
+                    storedBlock = StoredBlock.deserializeCompact(params, ring);
+                    break;
                 }
             } while (cursor != startingPoint);
-            // Not found.
-            notFoundCache.put(hash, notFoundMarker);
-            return null;
+            // The caches can only change with the lock held for writing. If other readers are in, it's not worth
+            // waiting for them: the next lookup can fill the cache instead.
+            long writeStamp = ringLock.tryConvertToWriteLock(stamp);
+            if (writeStamp != 0) {
+                stamp = writeStamp;
+                if (storedBlock != null)
+                    blockCache.put(hash, storedBlock);
+                else
+                    notFoundCache.put(hash, notFoundMarker);
+            }
+            return storedBlock;
         } catch (ProtocolException e) {
             throw new RuntimeException(e);  // Cannot happen.
-        } finally { lock.unlock(); }
+        } finally { ringLock.unlock(stamp); }
     }
 
-    protected StoredBlock lastChainHead = null;
+    protected volatile StoredBlock lastChainHead = null;
 
     @Override
     public StoredBlock getChainHead() throws BlockStoreException {
         final MappedByteBuffer buffer = this.buffer;
         if (buffer == null) throw new BlockStoreException("Store closed");
 
+        StoredBlock chainHead = lastChainHead;
+        if (chainHead != null)
+            return chainHead;
         lock.lock();
         try {
             if (lastChainHead == null) {
                 byte[] headHash = new byte[32];
-                buffer.position(8);
-                buffer.get(headHash);
+                long stamp = ringLock.readLock();
+                try {
+                    ByteBuffer prologue = buffer.duplicate();
+                    prologue.position(8);
+                    prologue.get(headHash);
+                } finally { ringLock.unlockRead(stamp); }
                 Sha256Hash hash = Sha256Hash.wrap(headHash);
                 StoredBlock block = get(hash);
                 if (block == null)
@@ -251,25 +412,42 @@ public class SPVBlockStore implements BlockStore {
 
         lock.lock();
         try {
-            lastChainHead = chainHead;
-            byte[] headHash = chainHead.getHeader().getHash().getBytes();
-            buffer.position(8);
-            buffer.put(headHash);
+            long stamp = ringLock.writeLock();
+            try {
+                writeChainHead(buffer, chainHead);
+            } finally { ringLock.unlockWrite(stamp); }
+            written(0);
         } finally { lock.unlock(); }
     }
 
+    // Must hold the ring lock for writing.
+    private void writeChainHead(MappedByteBuffer buffer, StoredBlock chainHead) {
+        lastChainHead = chainHead;
+        byte[] headHash = chainHead.getHeader().getHash().getBytes();
+        buffer.position(8);
+        buffer.put(headHash);
+    }
+
     @Override
     public void close() throws BlockStoreException {
+        lock.lock();
+        // Wait for readers that are still in the buffer.
+        long stamp = ringLock.writeLock();
         try {
-            buffer.force();
-            if (System.getProperty("os.name").toLowerCase().contains("win")) {
-                log.info("Windows mmap hack: Forcing buffer cleaning");
-                WindowsMMapHack.forceRelease(buffer);
+            synchronized (forceLock) {
+                buffer.force();
+                if (System.getProperty("os.name").toLowerCase().contains("win")) {
+                    log.info("Windows mmap hack: Forcing buffer cleaning");
+                    WindowsMMapHack.forceRelease(buffer);
+                }
+                buffer = null;  // Allow it to be GCd and the underlying file mapping to go away.
             }
-            buffer = null;  // Allow it to be GCd and the underlying file mapping to go away.
             randomAccessFile.close();
         } catch (IOException e) {
             throw new BlockStoreException(e);
+        } finally {
+            ringLock.unlockWrite(stamp);
+            lock.unlock();
         }
     }
 
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An index of where each block is in a set of Bitcoin Core block files, built by reading only the 80 byte header
+ * of every block. Bitcoin Core writes blocks in the order it downloads them, which is not height order, so reading
+ * the files front to back hands the chain many blocks before their parents. With the index, a
+ * {@link BlockFileLoader} can instead read the blocks of the best chain in chain order, see
+ * {@link BlockFileLoader#BlockFileLoader(NetworkParameters, BlockFileIndex, Sha256Hash)}.</p>
+ *
+ * <p>The index can be saved and loaded again later. Block files are only ever appended to, so loading rescans just
+ * the part of each file written since the index was saved.</p>
+ */
+public class BlockFileIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(BlockFileIndex.class);
+
+    private static final int FILE_MAGIC = 0x42464958; // "BFIX"
+    private static final int FILE_VERSION = 1;
+    private static final int HEADER_SIZE = 80;
+    private static final BigInteger LARGEST_HASH = BigInteger.ONE.shiftLeft(256);
+
+    /** Where one block is stored, and the parts of its header needed to order it. */
+    public static class Entry {
+        private final int fileIndex;
+        private final long offset;
+        private final int size;
+        private final Sha256Hash hash;
+        private final Sha256Hash prevHash;
+        private final long difficultyTarget;
+
+        Entry(int fileIndex, long offset, int size, Sha256Hash hash, Sha256Hash prevHash, long difficultyTarget) {
+            this.fileIndex = fileIndex;
+            this.offset = offset;
+            this.size = size;
+            this.hash = hash;
+            this.prevHash = prevHash;
+            this.difficultyTarget = difficultyTarget;
+        }
+
+        /** The position of the block's file in the list the index was built from. */
+        public int getFileIndex() {
+            return fileIndex;
+        }
+
+        /** The offset of the serialized block within its file, just after the magic and length. */
+        public long getOffset() {
+            return offset;
+        }
+
+        /** The length of the serialized block. */
+        public int getSize() {
+            return size;
+        }
+
+        public Sha256Hash getHash() {
+            return hash;
+        }
+
+        public Sha256Hash getPrevHash() {
+            return prevHash;
+        }
+
+        /** The difficulty target in compact form, see {@link Block#getDifficultyTarget()}. */
+        public long getDifficultyTarget() {
+            return difficultyTarget;
+        }
+
+        /** The work represented by the block, see {@link Block#getWork()}. */
+        public BigInteger getWork() {
+            BigInteger target = Utils.decodeCompactBits(difficultyTarget);
+            if (target.signum() <= 0)
+                return BigInteger.ZERO;
+            return LARGEST_HASH.divide(target.add(BigInteger.ONE));
+        }
+
+        @Override
+        public String toString() {
+            return hash + " in file " + fileIndex + " at " + offset;
+        }
+    }
+
+    private final NetworkParameters params;
+    private final List<File> files;
+    // The end of the last complete block indexed in each file. Bitcoin Core preallocates the files with zeros, so this
+    // is usually less than the length of the file.
+    private final long[] indexedLengths;
+    private final Map<Sha256Hash, Entry> entries = new LinkedHashMap<Sha256Hash, Entry>();
+    private final FileChannel[] channels;
+
+    private BlockFileIndex(NetworkParameters params, List<File> files) {
+        this.params = params;
+        this.files = new ArrayList<File>(files);
+        this.indexedLengths = new long[files.size()];
+        this.channels = new FileChannel[files.size()];
+    }
+
+    /** Builds an index of the given block files by reading every block header in them. */
+    public static BlockFileIndex build(NetworkParameters params, List<File> files) {
+        BlockFileIndex index = new BlockFileIndex(params, files);
+        for (int i = 0; i < files.size(); i++)
+            index.scan(i, 0);
+        log.info("Indexed {} blocks in {} files", index.size(), files.size());
+        return index;
+    }
+
+    /**
+     * Loads an index saved with {@link #save(File)}, then indexes whatever was written to the block files since.
+     * Files that are no longer in the list are dropped from the index, and new ones are indexed. The last file is
+     * always scanned from the end of its last indexed block, as Bitcoin Core writes new blocks into the zeros it
+     * preallocated there without the file getting any longer.
+     * @throws IOException If the index file can't be read, or was saved for another network.
+     */
+    public static BlockFileIndex load(NetworkParameters params, List<File> files, File indexFile) throws IOException {
+        BlockFileIndex index = new BlockFileIndex(params, files);
+        Map<String, Integer> fileIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < files.size(); i++)
+            fileIndexes.put(files.get(i).getAbsolutePath(), i);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+        try {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION)
+                throw new IOException("Not a block file index: " + indexFile);
+            if (in.readLong() != params.getPacketMagic())
+                throw new IOException("Block file index is for another network: " + indexFile);
+            int savedFileCount = in.readInt();
+            // Maps the file positions in the saved index to those in the given list, -1 if the file is gone.
+            int[] fileMapping = new int[savedFileCount];
+            for (int i = 0; i < savedFileCount; i++) {
+                Integer fileIndex = fileIndexes.get(in.readUTF());
+                long indexedLength = in.readLong();
+                fileMapping[i] = -1;
+                if (fileIndex != null && files.get(fileIndex).length() >= indexedLength) {
+                    fileMapping[i] = fileIndex;
+                    index.indexedLengths[fileIndex] = indexedLength;
+                }
+            }
+            int entryCount = in.readInt();
+            byte[] hashBytes = new byte[Sha256Hash.LENGTH];
+            for (int i = 0; i < entryCount; i++) {
+                int savedFileIndex = in.readInt();
+                long offset = in.readLong();
+                int size = in.readInt();
+                in.readFully(hashBytes);
+                Sha256Hash hash = Sha256Hash.wrap(hashBytes.clone());
+                in.readFully(hashBytes);
+                Sha256Hash prevHash = Sha256Hash.wrap(hashBytes.clone());
+                long difficultyTarget = in.readInt() & 0xFFFFFFFFL;
+                if (savedFileIndex < 0 || savedFileIndex >= savedFileCount)
+                    throw new IOException("Corrupt block file index: " + indexFile);
+                int fileIndex = fileMapping[savedFileIndex];
+                if (fileIndex >= 0)
+                    index.add(new Entry(fileIndex, offset, size, hash, prevHash, difficultyTarget));
+            }
+        } finally {
+            in.close();
+        }
+        int loaded = index.size();
+        for (int i = 0; i < files.size(); i++)
+            if (i == files.size() - 1 || files.get(i).length() > index.indexedLengths[i])
+                index.scan(i, index.indexedLengths[i]);
+        log.info("Loaded {} blocks from {}, indexed {} new ones", loaded, indexFile, index.size() - loaded);
+        return index;
+    }
+
+    /** Saves the index so that it can be loaded with {@link #load(NetworkParameters, List, File)}. */
+    public void save(File indexFile) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)));
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(FILE_VERSION);
+            out.writeLong(params.getPacketMagic());
+            out.writeInt(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                out.writeUTF(files.get(i).getAbsolutePath());
+                out.writeLong(indexedLengths[i]);
+            }
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeInt(entry.fileIndex);
+                out.writeLong(entry.offset);
+                out.writeInt(entry.size);
+                out.write(entry.hash.getBytes());
+                out.write(entry.prevHash.getBytes());
+                out.writeInt((int) entry.difficultyTarget);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** The number of blocks in the index. */
+    public int size() {
+        return entries.size();
+    }
+
+    /** Returns where the given block is stored, or null if it is not in the files. */
+    @Nullable
+    public Entry get(Sha256Hash hash) {
+        return entries.get(hash);
+    }
+
+    /**
+     * Returns the blocks that build on the given one in the chain with the most work, in chain order. Blocks of
+     * other branches are left out. The given block itself need not be in the files, it is typically the head of the
+     * chain being imported into.
+     */
+    public List<Entry> getBestChainAfter(Sha256Hash from) {
+        Map<Sha256Hash, List<Entry>> children = new HashMap<Sha256Hash, List<Entry>>();
+        for (Entry entry : entries.values()) {
+            List<Entry> siblings = children.get(entry.prevHash);
+            if (siblings == null) {
+                siblings = new ArrayList<Entry>(1);
+                children.put(entry.prevHash, siblings);
+            }
+            siblings.add(entry);
+        }
+        // Walk the tree of descendants, keeping the one with the most work. Chains are long, so no recursion.
+        Map<Sha256Hash, BigInteger> work = new HashMap<Sha256Hash, BigInteger>();
+        Deque<Sha256Hash> pending = new ArrayDeque<Sha256Hash>();
+        work.put(from, BigInteger.ZERO);
+        pending.push(from);
+        Sha256Hash best = from;
+        BigInteger bestWork = BigInteger.ZERO;
+        while (!pending.isEmpty()) {
+            Sha256Hash parent = pending.pop();
+            List<Entry> next = children.get(parent);
+            if (next == null)
+                continue;
+            BigInteger parentWork = work.get(parent);
+            for (Entry child : next) {
+                if (work.containsKey(child.hash))
+                    continue; // Only possible with a hash cycle, which would mean broken files.
+                BigInteger childWork = parentWork.add(child.getWork());
+                work.put(child.hash, childWork);
+                if (childWork.compareTo(bestWork) > 0) {
+                    best = child.hash;
+                    bestWork = childWork;
+                }
+                pending.push(child.hash);
+            }
+        }
+        LinkedList<Entry> chain = new LinkedList<Entry>();
+        for (Sha256Hash hash = best; !hash.equals(from); ) {
+            Entry entry = entries.get(hash);
+            chain.addFirst(entry);
+            hash = entry.prevHash;
+        }
+        return chain;
+    }
+
+    /** Reads the serialized block at the given entry. Can be called from any thread. */
+    public byte[] read(Entry entry) throws IOException {
+        FileChannel channel = getChannel(entry.fileIndex);
+        ByteBuffer buffer = ByteBuffer.allocate(entry.size);
+        long position = entry.offset;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new EOFException("Block file truncated: " + files.get(entry.fileIndex));
+            position += read;
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (int i = 0; i < channels.length; i++) {
+            if (channels[i] != null) {
+                channels[i].close();
+                channels[i] = null;
+            }
+        }
+    }
+
+    private synchronized FileChannel getChannel(int fileIndex) throws IOException {
+        if (channels[fileIndex] == null)
+            channels[fileIndex] = new RandomAccessFile(files.get(fileIndex), "r").getChannel();
+        return channels[fileIndex];
+    }
+
+    private void scan(int fileIndex, long from) {
+        ByteBuffer buffer = BlockFileLoader.mapFile(files.get(fileIndex));
+        if (buffer == null)
+            return;
+        checkArgument(from <= buffer.limit());
+        buffer.position((int) from);
+        long end = from;
+        byte[] header = new byte[HEADER_SIZE];
+        while (BlockFileLoader.skipToMagic(buffer, params.getPacketMagic())) {
+            if (buffer.remaining() < 4) {
+                buffer.position(buffer.position() - 4);
+                break;
+            }
+            long size = buffer.getInt() & 0xFFFFFFFFL;
+            if (size > Block.MAX_BLOCK_SIZE * 2 || size < HEADER_SIZE)
+                continue;
+            int offset = buffer.position();
+            if (buffer.remaining() < size) {
+                // Truncated, the rest of the block has not been written yet. Index it next time.
+                buffer.position(offset - 8);
+                break;
+            }
+            buffer.get(header);
+            Sha256Hash hash = Sha256Hash.wrapReversed(Sha256Hash.hashTwice(header));
+            Sha256Hash prevHash = Sha256Hash.wrapReversed(Arrays.copyOfRange(header, 4, 36));
+            long difficultyTarget = Utils.readUint32(header, 72);
+            add(new Entry(fileIndex, offset, (int) size, hash, prevHash, difficultyTarget));
+            buffer.position(offset + (int) size);
+            end = offset + size;
+        }
+        indexedLengths[fileIndex] = end;
+    }
+
+    private void add(Entry entry) {
+        // The same block may have been written twice, for example after a crash. The first copy will do.
+        if (!entries.containsKey(entry.hash))
+            entries.put(entry.hash, entry);
+    }
+}
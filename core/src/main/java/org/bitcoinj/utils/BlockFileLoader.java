@@ -19,12 +19,18 @@ package org.bitcoinj.utils;
 import org.bitcoinj.core.Block;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.ProtocolException;
-import org.bitcoinj.core.Utils;
+import org.bitcoinj.core.Sha256Hash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -38,6 +44,10 @@ import java.util.NoSuchElementException;
  * 
  * <p>In order to comply with Iterator&lt;Block>, this class swallows a lot of IOExceptions, which may result in a few
  * blocks being missed followed by a huge set of orphan blocks.</p>
+ *
+ * <p>Files are memory mapped one at a time. To parse blocks in parallel, use {@link #nextBlockBytes()} or
+ * {@link BlockImportPipeline}. To read the blocks in chain order rather than file order, use a
+ * {@link BlockFileIndex}.</p>
  * 
  * <p>To blindly import all files which can be found in Bitcoin Core (version >= 0.8) datadir automatically,
  * try this code fragment:<br>
@@ -71,15 +81,33 @@ public class BlockFileLoader implements Iterable<Block>, Iterator<Block> {
         return list;
     }
     
+    private static final Logger log = LoggerFactory.getLogger(BlockFileLoader.class);
+
     private Iterator<File> fileIt;
-    private FileInputStream currentFileStream = null;
+    @Nullable private ByteBuffer currentFile = null;
     private Block nextBlock = null;
     private NetworkParameters params;
+    // Set when reading in chain order through an index rather than front to back.
+    @Nullable private BlockFileIndex index = null;
+    @Nullable private Iterator<BlockFileIndex.Entry> chainIt = null;
     
     public BlockFileLoader(NetworkParameters params, List<File> files) {
         fileIt = files.iterator();
         this.params = params;
     }
+
+    /**
+     * Creates a loader that returns the blocks of the best chain in the index that build on the given block, in
+     * chain order, reading each one from where the index says it is. Unlike reading the files front to back, this
+     * never hands the chain a block before its parent.
+     * @param from The block to start after, usually the head of the chain being imported into.
+     */
+    public BlockFileLoader(NetworkParameters params, BlockFileIndex index, Sha256Hash from) {
+        this.fileIt = Collections.<File>emptyIterator();
+        this.params = params;
+        this.index = index;
+        this.chainIt = index.getBestChainAfter(from).iterator();
+    }
     
     @Override
     public boolean hasNext() {
@@ -98,68 +126,109 @@ public class BlockFileLoader implements Iterable<Block>, Iterator<Block> {
     }
     
     private void loadNextBlock() {
-        while (true) {
+        byte[] bytes;
+        while ((bytes = nextBlockBytes()) != null) {
             try {
-                if (!fileIt.hasNext() && (currentFileStream == null || currentFileStream.available() < 1))
-                    break;
-            } catch (IOException e) {
-                currentFileStream = null;
-                if (!fileIt.hasNext())
-                    break;
+                nextBlock = params.getDefaultSerializer().makeBlock(bytes);
+                return;
+            } catch (ProtocolException e) {
+                nextBlock = null;
             }
-            while (true) {
+        }
+    }
+
+    /**
+     * <p>Returns the serialized form of the next block in the files without parsing it, or null once the last file
+     * is exhausted. This lets the caller parse blocks on other threads, see {@link BlockImportPipeline}.</p>
+     *
+     * <p>This reads from the same position as the {@link Iterator} methods, so the two should not be mixed.</p>
+     */
+    @Nullable
+    public byte[] nextBlockBytes() {
+        if (chainIt != null) {
+            while (chainIt.hasNext()) {
+                BlockFileIndex.Entry entry = chainIt.next();
                 try {
-                    if (currentFileStream != null && currentFileStream.available() > 0)
-                        break;
-                } catch (IOException e1) {
-                    currentFileStream = null;
+                    return index.read(entry);
+                } catch (IOException e) {
+                    log.warn("Could not read block {}: {}", entry, e.toString());
                 }
+            }
+            return null;
+        }
+        while (true) {
+            while (currentFile == null || !currentFile.hasRemaining()) {
                 if (!fileIt.hasNext()) {
-                    nextBlock = null;
-                    currentFileStream = null;
-                    return;
-                }
-                try {
-                    currentFileStream = new FileInputStream(fileIt.next());
-                } catch (FileNotFoundException e) {
-                    currentFileStream = null;
+                    currentFile = null;
+                    return null;
                 }
+                currentFile = mapFile(fileIt.next());
             }
-            try {
-                int nextChar = currentFileStream.read();
-                while (nextChar != -1) {
-                    if (nextChar != ((params.getPacketMagic() >>> 24) & 0xff)) {
-                        nextChar = currentFileStream.read();
-                        continue;
-                    }
-                    nextChar = currentFileStream.read();
-                    if (nextChar != ((params.getPacketMagic() >>> 16) & 0xff))
-                        continue;
-                    nextChar = currentFileStream.read();
-                    if (nextChar != ((params.getPacketMagic() >>> 8) & 0xff))
-                        continue;
-                    nextChar = currentFileStream.read();
-                    if (nextChar == (params.getPacketMagic() & 0xff))
-                        break;
-                }
-                byte[] bytes = new byte[4];
-                currentFileStream.read(bytes, 0, 4);
-                long size = Utils.readUint32BE(Utils.reverseBytes(bytes), 0);
-                // We allow larger than MAX_BLOCK_SIZE because test code uses this as well.
-                if (size > Block.MAX_BLOCK_SIZE*2 || size <= 0)
-                    continue;
-                bytes = new byte[(int) size];
-                currentFileStream.read(bytes, 0, (int) size);
+            if (!skipToMagic(currentFile, params.getPacketMagic()))
+                continue;
+            if (currentFile.remaining() < 4) {
+                currentFile = null;
+                continue;
+            }
+            long size = currentFile.getInt() & 0xFFFFFFFFL;
+            // We allow larger than MAX_BLOCK_SIZE because test code uses this as well.
+            if (size > Block.MAX_BLOCK_SIZE*2 || size <= 0)
+                continue;
+            if (currentFile.remaining() < size) {
+                // Truncated, as happens at the end of a file that is still being written.
+                currentFile = null;
+                continue;
+            }
+            byte[] bytes = new byte[(int) size];
+            currentFile.get(bytes);
+            return bytes;
+        }
+    }
+
+    /** Advances the buffer past the next occurrence of the network magic, returning false if there is none. */
+    static boolean skipToMagic(ByteBuffer buffer, long magic) {
+        byte magic0 = (byte) (magic >>> 24), magic1 = (byte) (magic >>> 16), magic2 = (byte) (magic >>> 8), magic3 = (byte) magic;
+        while (buffer.remaining() >= 4) {
+            int position = buffer.position();
+            if (buffer.get(position) == magic0 && buffer.get(position + 1) == magic1
+                    && buffer.get(position + 2) == magic2 && buffer.get(position + 3) == magic3) {
+                buffer.position(position + 4);
+                return true;
+            }
+            buffer.position(position + 1);
+        }
+        buffer.position(buffer.limit());
+        return false;
+    }
+
+    /**
+     * Maps the whole file into memory, which avoids a system call per read. Returns null if the file can't be read,
+     * in keeping with the rest of this class.
+     */
+    @Nullable
+    static ByteBuffer mapFile(File file) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                log.warn("Skipping block file {} as it is too large to map", file);
+                return null;
+            }
+            // The mapping stays valid after the channel is closed.
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } catch (IOException e) {
+            log.warn("Could not read block file {}: {}", file, e.toString());
+            return null;
+        } finally {
+            if (raf != null) {
                 try {
-                    nextBlock = params.getDefaultSerializer().makeBlock(bytes);
-                } catch (ProtocolException e) {
-                    nextBlock = null;
-                    continue;
+                    raf.close();
+                } catch (IOException e) {
+                    // Ignore.
                 }
-                break;
-            } catch (IOException e) {
-                currentFileStream = null;
-                continue;
             }
         }
     }
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import org.bitcoinj.core.*;
+import org.bitcoinj.store.BlockStoreException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * <p>Imports blocks from Bitcoin Core block files into a block chain much faster than adding the blocks of a
+ * {@link BlockFileLoader} one by one. The work is split into stages that run at the same time:</p>
+ *
+ * <ol>
+ *     <li>One thread reads the raw blocks from the memory mapped files.</li>
+ *     <li>A pool of threads parses them and computes the block and transaction hashes.</li>
+ *     <li>The thread that called {@link #run()} adds the parsed blocks to the chain in file order.</li>
+ * </ol>
+ *
+ * <p>The stages are linked by a bounded queue, so at most {@link #setMaxBlocksInFlight(int)} blocks are held in memory
+ * at once. If the chain is a {@link FullPrunedBlockChain}, the store changes of many blocks can be committed together
+ * with {@link #setBlocksPerCommit(int)}, and script checks can be skipped up to a trusted block with
+ * {@link #setAssumeValid(Sha256Hash, BlockFileIndex)}. The pipeline is meant for chains with no wallets attached.</p>
+ *
+ * <p>{@link #getProgress()} can be called from any thread while the import runs.</p>
+ */
+public class BlockImportPipeline {
+    private static final Logger log = LoggerFactory.getLogger(BlockImportPipeline.class);
+
+    private static final long PROGRESS_LOG_INTERVAL_MILLIS = 10000;
+    // Marks the end of the files in the queue.
+    private static final Future<Block> END = Futures.immediateFuture(null);
+
+    private final AbstractBlockChain chain;
+    private final BlockFileLoader loader;
+    private final MessageSerializer serializer;
+
+    private int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int maxBlocksInFlight = 64;
+    private int blocksPerCommit = 1;
+    @Nullable private Sha256Hash assumeValid;
+    @Nullable private BlockFileIndex assumeValidIndex;
+    // The assumed valid block and its ancestors above the chain head, whose scripts are skipped.
+    @Nullable private Set<Sha256Hash> assumedValidBlocks;
+
+    private final AtomicLong blocksRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong blocksParsed = new AtomicLong();
+    private final AtomicLong blocksAdded = new AtomicLong();
+    private final AtomicLong orphanBlocks = new AtomicLong();
+    private final AtomicLong unparseableBlocks = new AtomicLong();
+    private final AtomicLong uncheckedBlocks = new AtomicLong();
+    private volatile AssumeValidStatus assumeValidStatus = AssumeValidStatus.NOT_SET;
+    private volatile long startTime;
+    private volatile boolean started;
+    private volatile boolean stopped;
+
+    /**
+     * @param params The network the blocks belong to.
+     * @param chain The chain to add the blocks to.
+     * @param loader The block files to read, which must not be read from by anything else.
+     */
+    public BlockImportPipeline(NetworkParameters params, AbstractBlockChain chain, BlockFileLoader loader) {
+        this.chain = chain;
+        this.loader = loader;
+        this.serializer = params.getDefaultSerializer();
+    }
+
+    /** Sets the number of threads parsing blocks. Defaults to one less than the number of processors. */
+    public void setParserThreads(int parserThreads) {
+        checkArgument(parserThreads > 0);
+        checkState(!started);
+        this.parserThreads = parserThreads;
+    }
+
+    /** Sets the maximum number of blocks read but not yet added to the chain. Defaults to 64. */
+    public void setMaxBlocksInFlight(int maxBlocksInFlight) {
+        checkArgument(maxBlocksInFlight > 0);
+        checkState(!started);
+        this.maxBlocksInFlight = maxBlocksInFlight;
+    }
+
+    /**
+     * Sets how many blocks are connected per commit of the block store, see
+     * {@link FullPrunedBlockChain#setBlocksPerCommit(int)}. Defaults to 1. Has no effect on other chains.
+     */
+    public void setBlocksPerCommit(int blocksPerCommit) {
+        checkArgument(blocksPerCommit > 0);
+        checkState(!started);
+        this.blocksPerCommit = blocksPerCommit;
+    }
+
+    /**
+     * Trusts the scripts of the given block and of its ancestors, which saves most of the verification work of a
+     * {@link FullPrunedBlockChain}. Everything else is still checked, and the scripts of all other blocks are checked
+     * whenever they arrive. Only use the hash of a block you know to be in the valid chain.
+     *
+     * <p>The ancestors are taken from the best chain in the index of the block files being imported, after the head
+     * of the chain. If the block is not on it, all scripts are checked and {@link Progress#getAssumeValidStatus()}
+     * tells why.</p>
+     */
+    public void setAssumeValid(@Nullable Sha256Hash assumeValid, BlockFileIndex index) {
+        checkState(!started);
+        this.assumeValid = assumeValid;
+        this.assumeValidIndex = checkNotNull(index);
+    }
+
+    /**
+     * Runs the import until the end of the last file, on the calling thread. Can only be called once.
+     * <p>When it ends, also with an exception, the blocks added so far are committed. The exception is a failure
+     * while adding a block, which rolls back the blocks added since the last commit.</p>
+     * @return The final progress.
+     * @throws VerificationException If a block failed verification. With more than one block per commit, the chain
+     *         goes back to the last committed block.
+     */
+    public Progress run() throws VerificationException, PrunedException, BlockStoreException, InterruptedException {
+        checkState(!started, "Already run");
+        started = true;
+        startTime = System.currentTimeMillis();
+        final FullPrunedBlockChain fullChain = chain instanceof FullPrunedBlockChain ? (FullPrunedBlockChain) chain : null;
+        if (fullChain != null) {
+            fullChain.setBlocksPerCommit(blocksPerCommit);
+            if (assumeValid != null)
+                startAssumeValid(fullChain);
+        }
+        final BlockingQueue<Future<Block>> queue = new ArrayBlockingQueue<Future<Block>>(maxBlocksInFlight);
+        final ExecutorService parsers = Executors.newFixedThreadPool(parserThreads,
+                new ContextPropagatingThreadFactory("Block parser"));
+        Thread reader = new ContextPropagatingThreadFactory("Block file reader").newThread(new Runnable() {
+            @Override
+            public void run() {
+                read(queue, parsers);
+            }
+        });
+        reader.start();
+        // Set while a block is being added, so that if that fails its partial changes are rolled back, not committed.
+        boolean adding = false;
+        try {
+            long lastLog = startTime;
+            while (!stopped) {
+                Future<Block> future = queue.take();
+                if (future == END)
+                    break;
+                Block block = getParsed(future);
+                if (block == null) {
+                    unparseableBlocks.incrementAndGet();
+                    continue;
+                }
+                adding = true;
+                if (!chain.add(block))
+                    orphanBlocks.incrementAndGet();
+                adding = false;
+                blocksAdded.incrementAndGet();
+                if (assumedValidBlocks != null && assumedValidBlocks.contains(block.getHash())) {
+                    uncheckedBlocks.incrementAndGet();
+                    if (block.getHash().equals(assumeValid)) {
+                        log.info("Reached assumed valid block {}", assumeValid);
+                        assumeValidStatus = AssumeValidStatus.REACHED;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastLog >= PROGRESS_LOG_INTERVAL_MILLIS) {
+                    log.info(getProgress().toString());
+                    lastLog = now;
+                }
+            }
+        } finally {
+            stopped = true;
+            reader.interrupt();
+            parsers.shutdownNow();
+            if (fullChain != null) {
+                try {
+                    // Leave the store and the chain head in step however the loop ended.
+                    if (adding)
+                        fullChain.abortPendingBlocks();
+                    else
+                        fullChain.commitPendingBlocks();
+                } finally {
+                    fullChain.setBlocksPerCommit(1);
+                    fullChain.setAssumedValidBlocks(null);
+                }
+            }
+            if (assumeValidStatus == AssumeValidStatus.SKIPPING) {
+                assumeValidStatus = AssumeValidStatus.MISSED;
+                log.error("Import ended before assumed valid block {}, {} blocks were added without checking their scripts",
+                        assumeValid, uncheckedBlocks.get());
+            }
+        }
+        Progress progress = getProgress();
+        log.info("Import finished: {}", progress);
+        return progress;
+    }
+
+    private void startAssumeValid(FullPrunedBlockChain fullChain) throws BlockStoreException {
+        if (chain.getBlockStore().get(assumeValid) != null) {
+            log.info("Assumed valid block {} is already in the chain, checking all scripts", assumeValid);
+            assumeValidStatus = AssumeValidStatus.REACHED;
+            return;
+        }
+        List<BlockFileIndex.Entry> bestChain =
+                assumeValidIndex.getBestChainAfter(chain.getChainHead().getHeader().getHash());
+        Set<Sha256Hash> ancestors = new HashSet<Sha256Hash>();
+        for (BlockFileIndex.Entry entry : bestChain) {
+            ancestors.add(entry.getHash());
+            if (entry.getHash().equals(assumeValid)) {
+                log.info("Skipping script checks of {} blocks up to assumed valid block {}", ancestors.size(),
+                        assumeValid);
+                assumedValidBlocks = ancestors;
+                fullChain.setAssumedValidBlocks(ancestors);
+                assumeValidStatus = AssumeValidStatus.SKIPPING;
+                return;
+            }
+        }
+        log.error("Assumed valid block {} is not on the best chain in the block files, checking all scripts",
+                assumeValid);
+        assumeValidStatus = AssumeValidStatus.NOT_FOUND;
+    }
+
+    /** Makes {@link #run()} return after the block it is adding, committing what was added so far. */
+    public void stop() {
+        stopped = true;
+    }
+
+    /** Returns a snapshot of the import progress so far. */
+    public Progress getProgress() {
+        long elapsed = started ? System.currentTimeMillis() - startTime : 0;
+        return new Progress(blocksRead.get(), bytesRead.get(), blocksParsed.get(), blocksAdded.get(),
+                orphanBlocks.get(), unparseableBlocks.get(), chain.getBestChainHeight(), elapsed,
+                assumeValidStatus, uncheckedBlocks.get());
+    }
+
+    private void read(BlockingQueue<Future<Block>> queue, ExecutorService parsers) {
+        try {
+            try {
+                byte[] bytes;
+                while (!stopped && (bytes = loader.nextBlockBytes()) != null) {
+                    blocksRead.incrementAndGet();
+                    bytesRead.addAndGet(bytes.length);
+                    queue.put(parsers.submit(new ParseTask(bytes)));
+                }
+            } catch (RuntimeException e) {
+                queue.put(Futures.<Block>immediateFailedFuture(e));
+            }
+            queue.put(END);
+        } catch (InterruptedException e) {
+            // The import was stopped, nobody is waiting on the queue any more.
+        }
+    }
+
+    @Nullable
+    private static Block getParsed(Future<Block> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /** Parses a block and computes its hashes, so that the chain thread does not have to. */
+    private class ParseTask implements Callable<Block> {
+        private final byte[] bytes;
+
+        ParseTask(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Nullable
+        @Override
+        public Block call() {
+            try {
+                Block block = serializer.makeBlock(bytes);
+                block.getHash();
+                for (Transaction tx : block.getTransactions())
+                    tx.getHash();
+                blocksParsed.incrementAndGet();
+                return block;
+            } catch (ProtocolException e) {
+                log.warn("Skipping unparseable block: {}", e.toString());
+                return null;
+            }
+        }
+    }
+
+    /** What became of the block given to {@link #setAssumeValid(Sha256Hash, BlockFileIndex)}. */
+    public enum AssumeValidStatus {
+        /** No block was given, or the chain doesn't check scripts anyway. */
+        NOT_SET,
+        /** The block is not on the best chain in the files, so all scripts are checked. */
+        NOT_FOUND,
+        /** The scripts of the block and its ancestors are skipped, and the block was not added yet. */
+        SKIPPING,
+        /** The block was added, or was in the chain already. */
+        REACHED,
+        /** The import ended before the block was added, so scripts were skipped for nothing. */
+        MISSED
+    }
+
+    /** A snapshot of the counters of an import. */
+    public static class Progress {
+        private final long blocksRead;
+        private final long bytesRead;
+        private final long blocksParsed;
+        private final long blocksAdded;
+        private final long orphanBlocks;
+        private final long unparseableBlocks;
+        private final int chainHeight;
+        private final long elapsedMillis;
+        private final AssumeValidStatus assumeValidStatus;
+        private final long uncheckedBlocks;
+
+        Progress(long blocksRead, long bytesRead, long blocksParsed, long blocksAdded, long orphanBlocks,
+                 long unparseableBlocks, int chainHeight, long elapsedMillis, AssumeValidStatus assumeValidStatus,
+                 long uncheckedBlocks) {
+            this.blocksRead = blocksRead;
+            this.bytesRead = bytesRead;
+            this.blocksParsed = blocksParsed;
+            this.blocksAdded = blocksAdded;
+            this.orphanBlocks = orphanBlocks;
+            this.unparseableBlocks = unparseableBlocks;
+            this.chainHeight = chainHeight;
+            this.elapsedMillis = elapsedMillis;
+            this.assumeValidStatus = assumeValidStatus;
+            this.uncheckedBlocks = uncheckedBlocks;
+        }
+
+        /** The number of blocks read from the files. */
+        public long getBlocksRead() {
+            return blocksRead;
+        }
+
+        /** The number of bytes of blocks read from the files. */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        /** The number of blocks parsed, which may run ahead of those added. */
+        public long getBlocksParsed() {
+            return blocksParsed;
+        }
+
+        /** The number of blocks handed to the chain, including orphans. */
+        public long getBlocksAdded() {
+            return blocksAdded;
+        }
+
+        /** The number of blocks the chain could not connect yet when they were added, as their parent was missing. */
+        public long getOrphanBlocks() {
+            return orphanBlocks;
+        }
+
+        /** The number of blocks skipped because they could not be parsed. */
+        public long getUnparseableBlocks() {
+            return unparseableBlocks;
+        }
+
+        /** The height of the best chain. */
+        public int getChainHeight() {
+            return chainHeight;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+
+        /** Whether scripts are being skipped up to the assumed valid block, and whether it was reached. */
+        public AssumeValidStatus getAssumeValidStatus() {
+            return assumeValidStatus;
+        }
+
+        /** The number of blocks added that are the assumed valid block or its ancestors, whose scripts are skipped. */
+        public long getUncheckedBlocks() {
+            return uncheckedBlocks;
+        }
+
+        /** The average number of blocks added to the chain per second. */
+        public double getBlocksPerSecond() {
+            return elapsedMillis == 0 ? 0 : blocksAdded * 1000.0 / elapsedMillis;
+        }
+
+        /** The average number of megabytes read from the files per second. */
+        public double getMegabytesPerSecond() {
+            return elapsedMillis == 0 ? 0 : bytesRead * 1000.0 / elapsedMillis / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            String progress = String.format(Locale.US,
+                    "height %d, %d blocks added (%d orphans, %d unparseable), %d read, %d parsed, %.1f blocks/s, %.2f MB/s",
+                    chainHeight, blocksAdded, orphanBlocks, unparseableBlocks, blocksRead, blocksParsed,
+                    getBlocksPerSecond(), getMegabytesPerSecond());
+            if (assumeValidStatus != AssumeValidStatus.NOT_SET)
+                progress += String.format(Locale.US, ", assume valid %s (%d blocks unchecked)", assumeValidStatus,
+                        uncheckedBlocks);
+            return progress;
+        }
+    }
+}
@@ -16,14 +16,22 @@
 
 package org.bitcoinj.utils;
 
+import java.util.Map;
 import java.util.Stack;
+import java.util.TreeMap;
+
+import org.bitcoinj.core.BlockIndex;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.StoredBlock;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.BlockStoreException;
 
 /**
- * Caching counter for the block versions within a moving window. This class
+ * Caching counter for the block versions within a moving window. Besides the
+ * window itself it keeps the number of blocks of each version in it, which is
+ * updated as blocks are added, so a count doesn't look at every block of the
+ * window. There are usually only a few different versions in a window, so counting
+ * the blocks at or above a version is quick enough to do for every block. This class
  * is NOT thread safe (as if two threads are trying to use it concurrently,
  * there's risk of getting versions out of sequence).
  *
@@ -49,6 +57,11 @@ public class VersionTally {
      */
     private int versionsStored = 0;
 
+    /**
+     * Number of blocks of each version within the window.
+     */
+    private final TreeMap<Long, Integer> versionCounts = new TreeMap<Long, Integer>();
+
     public VersionTally(final NetworkParameters params) {
         versionWindow = new long[params.getMajorityWindow()];
     }
@@ -60,6 +73,17 @@ public class VersionTally {
      * @param version the block version to add.
      */
     public void add(final long version) {
+        if (versionsStored >= versionWindow.length) {
+            final long evicted = versionWindow[versionWriteHead];
+            final int count = versionCounts.get(evicted);
+            if (count == 1) {
+                versionCounts.remove(evicted);
+            } else {
+                versionCounts.put(evicted, count - 1);
+            }
+        }
+        final Integer count = versionCounts.get(version);
+        versionCounts.put(version, count == null ? 1 : count + 1);
         versionWindow[versionWriteHead++] = version;
         if (versionWriteHead == versionWindow.length) {
             versionWriteHead = 0;
@@ -79,25 +103,34 @@ public class VersionTally {
             return null;
         }
         int count = 0;
-        for (int versionIdx = 0; versionIdx < versionWindow.length; versionIdx++) {
-            if (versionWindow[versionIdx] >= version) {
-                count++;
-            }
+        for (final Map.Entry<Long, Integer> entry : versionCounts.tailMap(version, true).entrySet()) {
+            count += entry.getValue();
         }
 
         return count;
     }
 
+    /**
+     * Empties the tally, as before any versions were added.
+     */
+    public void clear() {
+        versionWriteHead = 0;
+        versionsStored = 0;
+        versionCounts.clear();
+    }
+
     /**
      * Initialize the version tally from the block store. Note this does not
      * search backwards past the start of the block store, so if starting from
-     * a checkpoint this may not fill the window.
+     * a checkpoint this may not fill the window. Any versions added before are
+     * discarded.
      *
      * @param blockStore block store to load blocks from.
      * @param chainHead current chain tip.
      */
     public void initialize(final BlockStore blockStore, final StoredBlock chainHead)
         throws BlockStoreException {
+        clear();
         StoredBlock versionBlock = chainHead;
         final Stack<Long> versions = new Stack<Long>();
 
@@ -117,6 +150,30 @@ public class VersionTally {
         }
     }
 
+    /**
+     * Initialize the version tally from the block index, falling back to the
+     * block store if the index doesn't hold enough blocks. Any versions added
+     * before are discarded.
+     *
+     * @param blockIndex index to read the versions from.
+     * @param blockStore block store to load blocks from.
+     * @param chainHead current chain tip.
+     */
+    public void initialize(final BlockIndex blockIndex, final BlockStore blockStore,
+        final StoredBlock chainHead) throws BlockStoreException {
+        final long[] versions = blockIndex.getVersions(chainHead.getHeader().getHash(), versionWindow.length + 1);
+        if (null == versions) {
+            initialize(blockStore, chainHead);
+            return;
+        }
+        clear();
+
+        // Replay the versions into the tally, oldest first
+        for (int versionIdx = versions.length - 1; versionIdx >= 0; versionIdx--) {
+            add(versions[versionIdx]);
+        }
+    }
+
     /**
      * Get the size of the version window.
      */
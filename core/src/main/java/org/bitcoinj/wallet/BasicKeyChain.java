@@ -44,9 +44,11 @@ import static com.google.common.base.Preconditions.*;
 public class BasicKeyChain implements EncryptableKeyChain {
     private final ReentrantLock lock = Threading.lock("BasicKeyChain");
 
-    // Maps used to let us quickly look up a key given data we find in transcations or the block chain.
+    // All keys in the order they were added.
     private final LinkedHashMap<ByteString, ECKey> hashToKeys;
-    private final LinkedHashMap<ByteString, ECKey> pubkeyToKeys;
+    // Indexes used to let us quickly look up a key given data we find in transcations or the block chain.
+    private final KeyIndex hashIndex;
+    private final KeyIndex pubkeyIndex;
     @Nullable private final KeyCrypter keyCrypter;
     private boolean isWatching;
 
@@ -59,7 +61,8 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public BasicKeyChain(@Nullable KeyCrypter crypter) {
         this.keyCrypter = crypter;
         hashToKeys = new LinkedHashMap<ByteString, ECKey>();
-        pubkeyToKeys = new LinkedHashMap<ByteString, ECKey>();
+        hashIndex = new KeyIndex();
+        pubkeyIndex = new KeyIndex();
         listeners = new CopyOnWriteArrayList<ListenerRegistration<KeyChainEventListener>>();
     }
 
@@ -177,7 +180,8 @@ public class BasicKeyChain implements EncryptableKeyChain {
             if (!key.isWatching() && isWatching)
                 throw new IllegalArgumentException("Key is not watching but chain is");
         }
-        ECKey previousKey = pubkeyToKeys.put(ByteString.copyFrom(key.getPubKey()), key);
+        ECKey previousKey = pubkeyIndex.put(key.getPubKey(), key);
+        hashIndex.put(key.getPubKeyHash(), key);
         hashToKeys.put(ByteString.copyFrom(key.getPubKeyHash()), key);
         checkState(previousKey == null);
     }
@@ -206,7 +210,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public ECKey findKeyFromPubHash(byte[] pubkeyHash) {
         lock.lock();
         try {
-            return hashToKeys.get(ByteString.copyFrom(pubkeyHash));
+            return hashIndex.get(pubkeyHash);
         } finally {
             lock.unlock();
         }
@@ -215,7 +219,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
     public ECKey findKeyFromPubKey(byte[] pubkey) {
         lock.lock();
         try {
-            return pubkeyToKeys.get(ByteString.copyFrom(pubkey));
+            return pubkeyIndex.get(pubkey);
         } finally {
             lock.unlock();
         }
@@ -228,7 +232,7 @@ public class BasicKeyChain implements EncryptableKeyChain {
 
     @Override
     public int numKeys() {
-        return pubkeyToKeys.size();
+        return pubkeyIndex.size();
     }
 
     /** Whether this basic key chain is empty, full of regular (usable for signing) keys, or full of watching keys. */
@@ -262,7 +266,8 @@ public class BasicKeyChain implements EncryptableKeyChain {
         lock.lock();
         try {
             boolean a = hashToKeys.remove(ByteString.copyFrom(key.getPubKeyHash())) != null;
-            boolean b = pubkeyToKeys.remove(ByteString.copyFrom(key.getPubKey())) != null;
+            boolean b = pubkeyIndex.remove(key.getPubKey()) != null;
+            hashIndex.remove(key.getPubKeyHash());
             checkState(a == b);   // Should be in both maps or neither.
             return a;
         } finally {
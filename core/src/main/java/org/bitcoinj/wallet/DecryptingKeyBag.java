@@ -41,7 +41,7 @@ public class DecryptingKeyBag implements KeyBag {
     }
 
     @Nullable
-    private ECKey maybeDecrypt(ECKey key) {
+    protected ECKey maybeDecrypt(ECKey key) {
         if (key == null)
             return null;
         else if (key.isEncrypted()) {
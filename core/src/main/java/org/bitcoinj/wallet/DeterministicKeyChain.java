@@ -1163,14 +1163,11 @@ public class DeterministicKeyChain implements EncryptableKeyChain {
 
         List<DeterministicKey> result  = new ArrayList<DeterministicKey>(needed);
         final Stopwatch watch = Stopwatch.createStarted();
-        int nextChild = numChildren;
-        for (int i = 0; i < needed; i++) {
-            DeterministicKey key = HDKeyDerivation.deriveThisOrNextChildKey(parent, nextChild);
-            key = key.dropPrivateBytes();
+        // Derive them all in parallel first, so the hierarchy only ever sees the whole lookahead zone.
+        for (DeterministicKey key : HDKeyDerivation.deriveChildKeys(parent, numChildren, needed))
+            result.add(key.dropPrivateBytes());
+        for (DeterministicKey key : result)
             hierarchy.putKey(key);
-            result.add(key);
-            nextChild = key.getChildNumber().num() + 1;
-        }
         watch.stop();
         log.info("Took {}", watch);
         return result;
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.ECKey;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * <p>A hash table from the bytes of a public key or public key hash to the key, used by {@link BasicKeyChain} to find
+ * keys for the data in transactions. Lookups take the raw bytes, so unlike a map keyed by wrapped bytes they don't
+ * allocate anything.</p>
+ *
+ * <p>Hashes and the x coordinates of public keys are effectively random, so the last four bytes are used as the hash
+ * code as they are. Collisions are resolved by linear probing in a table that is kept at most half full.</p>
+ *
+ * <p>Not thread safe.</p>
+ */
+class KeyIndex {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private byte[][] keys = new byte[INITIAL_CAPACITY][];
+    private ECKey[] values = new ECKey[INITIAL_CAPACITY];
+    private int size;
+
+    /** Returns the key stored under the given bytes, or null if there is none. */
+    @Nullable
+    public ECKey get(byte[] bytes) {
+        int i = find(bytes);
+        return i < 0 ? null : values[i];
+    }
+
+    /**
+     * Stores the key under a copy of the given bytes.
+     * @return The key that was stored under the bytes before, or null if there was none.
+     */
+    @Nullable
+    public ECKey put(byte[] bytes, ECKey key) {
+        int i = find(bytes);
+        if (i >= 0) {
+            ECKey previous = values[i];
+            values[i] = key;
+            return previous;
+        }
+        if (2 * (size + 1) > keys.length)
+            resize(2 * keys.length);
+        i = slot(bytes, keys.length);
+        while (keys[i] != null)
+            i = (i + 1) & (keys.length - 1);
+        keys[i] = Arrays.copyOf(bytes, bytes.length);
+        values[i] = key;
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the key stored under the given bytes.
+     * @return The removed key, or null if there was none.
+     */
+    @Nullable
+    public ECKey remove(byte[] bytes) {
+        int i = find(bytes);
+        if (i < 0)
+            return null;
+        ECKey removed = values[i];
+        // Move later entries of the same run back into the gap, so that lookups don't stop there.
+        int mask = keys.length - 1;
+        int j = i;
+        while (true) {
+            j = (j + 1) & mask;
+            if (keys[j] == null)
+                break;
+            int k = slot(keys[j], keys.length);
+            boolean inPlace = i <= j ? (i < k && k <= j) : (i < k || k <= j);
+            if (!inPlace) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        values[i] = null;
+        size--;
+        return removed;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private int find(byte[] bytes) {
+        int mask = keys.length - 1;
+        for (int i = slot(bytes, keys.length); keys[i] != null; i = (i + 1) & mask)
+            if (Arrays.equals(keys[i], bytes))
+                return i;
+        return -1;
+    }
+
+    private void resize(int capacity) {
+        byte[][] oldKeys = keys;
+        ECKey[] oldValues = values;
+        keys = new byte[capacity][];
+        values = new ECKey[capacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null)
+                continue;
+            int j = slot(oldKeys[i], capacity);
+            while (keys[j] != null)
+                j = (j + 1) & (capacity - 1);
+            keys[j] = oldKeys[i];
+            values[j] = oldValues[i];
+        }
+    }
+
+    private static int slot(byte[] bytes, int capacity) {
+        int hash;
+        int n = bytes.length;
+        if (n >= 4)
+            hash = (bytes[n - 4] & 0xff) << 24 | (bytes[n - 3] & 0xff) << 16 | (bytes[n - 2] & 0xff) << 8 | (bytes[n - 1] & 0xff);
+        else
+            hash = Arrays.hashCode(bytes);
+        return hash & (capacity - 1);
+    }
+}
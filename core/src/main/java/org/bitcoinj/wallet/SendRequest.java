@@ -108,6 +108,12 @@ public class SendRequest {
      */
     public KeyParameter aesKey = null;
 
+    /**
+     * An unlocked {@link SigningSession} to decrypt the private keys before signing, used instead of {@link #aesKey}.
+     * A session decrypts each key only once, which makes it the better choice for signing many transactions.
+     */
+    public SigningSession signingSession = null;
+
     /**
      * If not null, the {@link org.bitcoinj.wallet.CoinSelector} to use instead of the wallets default. Coin selectors are
      * responsible for choosing which transaction outputs (coins) in a wallet to use given the desired send value
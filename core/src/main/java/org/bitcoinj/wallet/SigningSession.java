@@ -0,0 +1,126 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.Utils;
+import org.spongycastle.crypto.params.KeyParameter;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * <p>An encrypted wallet unlocked for a limited time, see {@link Wallet#unlock(CharSequence, long, TimeUnit)}. The AES
+ * key is derived from the password only once, and each private key is decrypted only the first time it is needed, so
+ * a session signs many transactions (set {@link SendRequest#signingSession}) much faster than passing the AES key with
+ * every request.</p>
+ *
+ * <p>Once the session has expired or was closed, its copy of the AES key is overwritten with zeros and the decrypted
+ * keys are dropped. This happens at the expiry time even if the session isn't used any more. Signing then fails with {@link ECKey.KeyIsEncryptedException}, just as if no key was given. The
+ * private keys themselves are immutable big integers that can't be wiped, so they stay in memory until they are
+ * garbage collected.</p>
+ */
+public class SigningSession implements Closeable {
+    // Closes sessions when they expire, so that their keys are wiped even if nobody uses the session again.
+    private static final Timer expiryTimer = new Timer("SigningSession expiry", true);
+
+    private final KeyParameter aesKey;
+    private final long expiryTimeMillis;
+    private final TimerTask expiryTask;
+
+    @GuardedBy("this") private final Map<ByteBuffer, ECKey> decryptedKeys = new HashMap<ByteBuffer, ECKey>();
+    @GuardedBy("this") private boolean closed;
+
+    /**
+     * Creates a session for the given AES key, which must be known to be correct. The session keeps its own copy of
+     * the key.
+     */
+    SigningSession(KeyParameter aesKey, long timeout, TimeUnit unit) {
+        checkArgument(timeout > 0, "Timeout must be positive");
+        this.aesKey = new KeyParameter(aesKey.getKey());
+        // Capped so that the times below can't overflow; that is still practically forever.
+        long timeoutMillis = Math.min(unit.toMillis(timeout), Long.MAX_VALUE / 4);
+        this.expiryTimeMillis = Utils.currentTimeMillis() + timeoutMillis;
+        this.expiryTask = new TimerTask() {
+            @Override
+            public void run() {
+                close();
+            }
+        };
+        expiryTimer.schedule(expiryTask, timeoutMillis);
+    }
+
+    /** Returns the time at which the session expires. */
+    public Date getExpiryTime() {
+        return new Date(expiryTimeMillis);
+    }
+
+    /** Returns true if the session can still sign, that is if it has neither expired nor been closed. */
+    public synchronized boolean isActive() {
+        if (!closed && Utils.currentTimeMillis() >= expiryTimeMillis)
+            close();
+        return !closed;
+    }
+
+    /** Ends the session before it expires. Closing a session more than once has no effect. */
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        closed = true;
+        Arrays.fill(aesKey.getKey(), (byte) 0);
+        decryptedKeys.clear();
+        if (expiryTask.cancel())
+            expiryTimer.purge();
+    }
+
+    /** Returns a key bag that finds keys in the given bag and decrypts them through this session. */
+    KeyBag getKeyBag(KeyBag target) {
+        return new DecryptingKeyBag(target, null) {
+            @Nullable
+            @Override
+            protected ECKey maybeDecrypt(ECKey key) {
+                if (key == null || !key.isEncrypted())
+                    return key;
+                return decrypt(key);
+            }
+        };
+    }
+
+    private synchronized ECKey decrypt(ECKey key) {
+        if (!isActive())
+            throw new ECKey.KeyIsEncryptedException();
+        ByteBuffer pubKey = ByteBuffer.wrap(key.getPubKey());
+        ECKey decrypted = decryptedKeys.get(pubKey);
+        if (decrypted == null) {
+            decrypted = key.decrypt(aesKey);
+            decryptedKeys.put(pubKey, decrypted);
+        }
+        return decrypted;
+    }
+}
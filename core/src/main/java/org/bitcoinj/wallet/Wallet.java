@@ -1183,6 +1183,47 @@ public class Wallet extends BaseTaggableObject
         saveNow();
     }
 
+    /**
+     * Unlocks the encrypted wallet for signing until the given timeout has passed, deriving the AES key from the
+     * password only once. See {@link SigningSession}.
+     *
+     * @throws KeyCrypterException Thrown if the password is incorrect.
+     */
+    public SigningSession unlock(CharSequence password, long timeout, TimeUnit unit) {
+        keyChainGroupLock.lock();
+        try {
+            final KeyCrypter crypter = keyChainGroup.getKeyCrypter();
+            checkState(crypter != null, "Not encrypted");
+            final KeyParameter aesKey = crypter.deriveKey(password);
+            try {
+                return unlock(aesKey, timeout, unit);
+            } finally {
+                // The session has its own copy.
+                Arrays.fill(aesKey.getKey(), (byte) 0);
+            }
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+    }
+
+    /**
+     * Unlocks the encrypted wallet for signing with the given AES key until the given timeout has passed. See
+     * {@link SigningSession}.
+     *
+     * @throws KeyCrypterException Thrown if the AES key is incorrect.
+     */
+    public SigningSession unlock(KeyParameter aesKey, long timeout, TimeUnit unit) {
+        keyChainGroupLock.lock();
+        try {
+            checkState(keyChainGroup.isEncrypted(), "Not encrypted");
+            if (!keyChainGroup.checkAESKey(aesKey))
+                throw new KeyCrypterException("Password/key was incorrect.");
+            return new SigningSession(aesKey, timeout, unit);
+        } finally {
+            keyChainGroupLock.unlock();
+        }
+    }
+
     /**
      *  Check whether the password can decrypt the first key in the wallet.
      *  This can be used to check the validity of an entered password.
@@ -1898,7 +1939,8 @@ public class Wallet extends BaseTaggableObject
         // Runs in a peer thread.
         checkState(lock.isHeldByCurrentThread());
 
-        Coin prevBalance = getBalance();
+        // The balance is only needed for the events below, which aren't sent during a re-org.
+        Coin prevBalance = insideReorg ? null : getBalance();
         Sha256Hash txHash = tx.getHash();
         boolean bestChain = blockType == BlockChain.NewBlockType.BEST_CHAIN;
         boolean sideChain = blockType == BlockChain.NewBlockType.SIDE_CHAIN;
@@ -2028,7 +2070,9 @@ public class Wallet extends BaseTaggableObject
         }
 
         informConfidenceListenersIfNotReorganizing();
-        isConsistentOrThrow();
+        // A re-org checks once, after all its transactions.
+        if (!insideReorg)
+            isConsistentOrThrow();
         // Optimization for the case where a block has tons of relevant transactions.
         saveLater();
         hardSaveOnNextBlock = true;
@@ -4060,7 +4104,8 @@ public class Wallet extends BaseTaggableObject
             checkState(inputs.size() > 0);
             checkState(outputs.size() > 0);
 
-            KeyBag maybeDecryptingKeyBag = new DecryptingKeyBag(this, req.aesKey);
+            KeyBag maybeDecryptingKeyBag = req.signingSession != null ? req.signingSession.getKeyBag(this)
+                    : new DecryptingKeyBag(this, req.aesKey);
 
             int numInputs = tx.getInputs().size();
             for (int i = 0; i < numInputs; i++) {
@@ -4507,24 +4552,17 @@ public class Wallet extends BaseTaggableObject
             // doesn't matter - the miners deleted T1 from their mempool, will resurrect T2 and put that into the
             // mempool and so T1 is still seen as a losing double spend.
 
-            // The old blocks have contributed to the depth for all the transactions in the
-            // wallet that are in blocks up to and including the chain split block.
-            // The total depth is calculated here and then subtracted from the appropriate transactions.
-            int depthToSubtract = oldBlocks.size();
-            log.info("depthToSubtract = " + depthToSubtract);
-            // Remove depthToSubtract from all transactions in the wallet except for pending.
-            subtractDepth(depthToSubtract, spent.values());
-            subtractDepth(depthToSubtract, unspent.values());
-            subtractDepth(depthToSubtract, dead.values());
-
             // The effective last seen block is now the split point so set the lastSeenBlockHash.
             setLastBlockSeenHash(splitPoint.getHeader().getHash());
 
-            // For each block in the new chain, work forwards calling receive() and notifyNewBestBlock().
-            // This will pull them back out of the pending pool, or if the tx didn't appear in the old chain and
-            // does appear in the new chain, will treat it as such and possibly kill pending transactions that
-            // conflict.
-            for (StoredBlock block : newBlocks) {
+            // For each block in the new chain, work forwards calling receive(). This will pull them back out of the
+            // pending pool, or if the tx didn't appear in the old chain and does appear in the new chain, will treat
+            // it as such and possibly kill pending transactions that conflict. Rather than calling notifyNewBestBlock()
+            // after each block, which goes over every transaction in the wallet, the depths and the last seen block
+            // are brought up to date once all blocks are replayed.
+            Map<Sha256Hash, Integer> receivedDepths = new HashMap<Sha256Hash, Integer>();
+            for (int i = 0; i < newBlocks.size(); i++) {
+                StoredBlock block = newBlocks.get(i);
                 log.info("Replaying block {}", block.getHeader().getHashAsString());
                 for (TxOffsetPair pair : mapBlockTx.get(block.getHeader().getHash())) {
                     log.info("  tx {}", pair.tx.getHash());
@@ -4533,8 +4571,16 @@ public class Wallet extends BaseTaggableObject
                     } catch (ScriptException e) {
                         throw new RuntimeException(e);  // Cannot happen as these blocks were already verified.
                     }
+                    receivedDepths.put(pair.tx.getHash(), newBlocks.size() - i);
                 }
-                notifyNewBestBlock(block);
+            }
+            ignoreNextNewBlock.removeAll(receivedDepths.keySet());
+            updateDepthsAfterReorganize(oldBlocks.size(), newBlocks.size(), receivedDepths);
+            if (!newBlocks.isEmpty()) {
+                StoredBlock newHead = newBlocks.get(newBlocks.size() - 1);
+                setLastBlockSeenHash(newHead.getHeader().getHash());
+                setLastBlockSeenHeight(newHead.getHeight());
+                setLastBlockSeenTimeSecs(newHead.getHeader().getTimeSeconds());
             }
             isConsistentOrThrow();
             final Coin balance = getBalance();
@@ -4546,21 +4592,35 @@ public class Wallet extends BaseTaggableObject
             maybeQueueOnWalletChanged();
             checkBalanceFuturesLocked(balance);
             informConfidenceListenersIfNotReorganizing();
-            saveLater();
+            if (hardSaveOnNextBlock) {
+                saveNow();
+                hardSaveOnNextBlock = false;
+            } else {
+                saveLater();
+            }
         } finally {
             lock.unlock();
         }
     }
 
     /**
-     * Subtract the supplied depth from the given transactions.
+     * Sets the depths of the transactions in the best chain after a re-org, in one pass. The ones that were received
+     * again in the new part of the chain are as deep as their block is below the new head. The others were below the
+     * split point, so they lose the depth of the old part of the chain and gain that of the new part.
      */
-    private void subtractDepth(int depthToSubtract, Collection<Transaction> transactions) {
-        for (Transaction tx : transactions) {
-            if (tx.getConfidence().getConfidenceType() == ConfidenceType.BUILDING) {
-                tx.getConfidence().setDepthInBlocks(tx.getConfidence().getDepthInBlocks() - depthToSubtract);
+    private void updateDepthsAfterReorganize(int oldLength, int newLength, Map<Sha256Hash, Integer> receivedDepths) {
+        for (Transaction tx : getTransactions(true)) {
+            TransactionConfidence confidence = tx.getConfidence();
+            if (confidence.getConfidenceType() != ConfidenceType.BUILDING)
+                continue;
+            Integer receivedDepth = receivedDepths.get(tx.getHash());
+            int depth = receivedDepth != null ? receivedDepth : confidence.getDepthInBlocks() - oldLength + newLength;
+            confidence.setDepthInBlocks(depth);
+            if (depth > context.getEventHorizon())
+                confidence.clearBroadcastBy();
+            // Transactions in the new head keep the type change they got when they were received.
+            if (depth > 1)
                 confidenceChanged.put(tx, TransactionConfidence.Listener.ChangeReason.DEPTH);
-            }
         }
     }
 
@@ -18,12 +18,15 @@
 package org.bitcoinj.core;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.Files;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.UnitTestParams;
 import org.bitcoinj.script.Script;
 import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.FullPrunedBlockStore;
+import org.bitcoinj.utils.BlockFileIndex;
 import org.bitcoinj.utils.BlockFileLoader;
+import org.bitcoinj.utils.BlockImportPipeline;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.wallet.SendRequest;
 import org.bitcoinj.wallet.Wallet;
@@ -34,7 +37,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -234,6 +241,55 @@ public abstract class AbstractFullPrunedBlockChainIT {
         } catch (Exception e) {}
     }
 
+    @Test
+    public void testFirst100KBlocksPipelined() throws Exception {
+        NetworkParameters params = MainNetParams.get();
+        Context context = new Context(params);
+        File blockFile = withPacketMagic(params, new File(getClass().getResource("first-100k-blocks.dat").getFile()));
+        List<Sha256Hash> hashes = new ArrayList<Sha256Hash>();
+        for (Block block : new BlockFileLoader(params, Arrays.asList(blockFile)))
+            hashes.add(block.getHash());
+
+        store = createStore(params, 10);
+        resetStore(store);
+        chain = new FullPrunedBlockChain(context, store);
+        BlockImportPipeline pipeline = new BlockImportPipeline(params, chain,
+                new BlockFileLoader(params, Arrays.asList(blockFile)));
+        pipeline.setParserThreads(2);
+        pipeline.setMaxBlocksInFlight(8);
+        pipeline.setBlocksPerCommit(50);
+        BlockFileIndex index = BlockFileIndex.build(params, Arrays.asList(blockFile));
+        pipeline.setAssumeValid(hashes.get(hashes.size() / 2), index);
+        BlockImportPipeline.Progress progress = pipeline.run();
+        index.close();
+
+        assertEquals(hashes.size(), progress.getBlocksRead());
+        assertEquals(hashes.size(), progress.getBlocksAdded());
+        assertEquals(0, progress.getOrphanBlocks());
+        assertEquals(BlockImportPipeline.AssumeValidStatus.REACHED, progress.getAssumeValidStatus());
+        // The genesis block is in the file too, so the chain is one block shorter than the file.
+        assertEquals(hashes.size() - 1, chain.getBestChainHeight());
+        assertEquals(hashes.get(hashes.size() - 1), store.getVerifiedChainHead().getHeader().getHash());
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
+    /** Copies a block file written with the Bitcoin Core magic, replacing it with that of the given network. */
+    private static File withPacketMagic(NetworkParameters params, File blockFile) throws IOException {
+        byte[] bytes = Files.toByteArray(blockFile);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= 8) {
+            buffer.putInt(buffer.position(), Integer.reverseBytes((int) params.getPacketMagic()));
+            int size = buffer.getInt(buffer.position() + 4);
+            buffer.position(buffer.position() + 8 + size);
+        }
+        File file = File.createTempFile("blocks", ".dat");
+        file.deleteOnExit();
+        Files.write(bytes, file);
+        return file;
+    }
+
     @Test
     public void testGetOpenTransactionOutputs() throws Exception {
         final int UNDOABLE_BLOCKS_STORED = 10;
@@ -285,6 +341,70 @@ public abstract class AbstractFullPrunedBlockChainIT {
         } catch (Exception e) {}
     }
 
+    @Test
+    public void testGetOpenTransactionOutputsPaged() throws Exception {
+        final int UNDOABLE_BLOCKS_STORED = 10;
+        store = createStore(PARAMS, UNDOABLE_BLOCKS_STORED);
+        chain = new FullPrunedBlockChain(PARAMS, store);
+
+        ECKey outKey = new ECKey();
+        int height = 1;
+
+        // Build some blocks on genesis block to create a spendable output
+        Block rollingBlock = PARAMS.getGenesisBlock().createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+        chain.add(rollingBlock);
+        Transaction transaction = rollingBlock.getTransactions().get(0);
+        TransactionOutPoint spendableOutput = new TransactionOutPoint(PARAMS, 0, transaction.getHash());
+        byte[] spendableOutputScriptPubKey = transaction.getOutputs().get(0).getScriptBytes();
+        for (int i = 1; i < PARAMS.getSpendableCoinbaseDepth(); i++) {
+            rollingBlock = rollingBlock.createNextBlockWithCoinbase(Block.BLOCK_VERSION_GENESIS, outKey.getPubKey(), height++);
+            chain.add(rollingBlock);
+        }
+        rollingBlock = rollingBlock.createNextBlock(null);
+
+        // Pay three outputs to the first key, none to the second and two to the third.
+        ECKey key1 = new ECKey(), key2 = new ECKey(), key3 = new ECKey();
+        List<Address> addresses = Lists.newArrayList(key1.toAddress(PARAMS), key2.toAddress(PARAMS), key3.toAddress(PARAMS));
+        Transaction t = new Transaction(PARAMS);
+        for (ECKey key : new ECKey[] { key1, key1, key3, key1, key3 })
+            t.addOutput(Coin.CENT, key.toAddress(PARAMS));
+        t.addSignedInput(spendableOutput, new Script(spendableOutputScriptPubKey), outKey);
+        rollingBlock.addTransaction(t);
+        rollingBlock.solve();
+        chain.add(rollingBlock);
+
+        final List<UTXO> visited = Lists.newArrayList();
+        final List<Integer> visitedAddresses = Lists.newArrayList();
+        store.visitOpenTransactionOutputs(addresses, new PagedUTXOProvider.Visitor() {
+            @Override
+            public boolean visit(int addressIndex, UTXO output) {
+                visited.add(output);
+                visitedAddresses.add(addressIndex);
+                return true;
+            }
+        });
+        assertEquals(Arrays.asList(0, 0, 0, 2, 2), visitedAddresses);
+        assertEquals(Arrays.asList(0L, 1L, 3L, 2L, 4L), Arrays.asList(visited.get(0).getIndex(),
+                visited.get(1).getIndex(), visited.get(2).getIndex(), visited.get(3).getIndex(), visited.get(4).getIndex()));
+
+        List<UTXO> paged = Lists.newArrayList();
+        UTXOPage page = store.getOpenTransactionOutputs(addresses, null, 2);
+        int pages = 1;
+        while (page.getNextCursor() != null) {
+            assertEquals(2, page.getOutputs().size());
+            paged.addAll(page.getOutputs());
+            page = store.getOpenTransactionOutputs(addresses, page.getNextCursor(), 2);
+            pages++;
+        }
+        paged.addAll(page.getOutputs());
+        assertEquals(3, pages);
+        assertEquals(visited, paged);
+        assertEquals(visited, store.getOpenTransactionOutputs(addresses));
+        try {
+            store.close();
+        } catch (Exception e) {}
+    }
+
     @Test
     public void testUTXOProviderWithWallet() throws Exception {
         final int UNDOABLE_BLOCKS_STORED = 10;
@@ -21,6 +21,7 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.Random;
 
 public class Base58Test extends TestCase {
     @Test
@@ -88,4 +89,33 @@ public class Base58Test extends TestCase {
         byte[] input = Base58.decode("129");
         assertEquals(new BigInteger(1, input), Base58.decodeToBigInteger("129"));
     }
+
+    @Test
+    public void testAgreesWithBigInteger() {
+        Random random = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            byte[] bytes = new byte[random.nextInt(80)];
+            random.nextBytes(bytes);
+            // Leading zeros are encoded separately, so test them on their own and in front of other data.
+            int zeros = Math.min(random.nextInt(4), bytes.length);
+            Arrays.fill(bytes, 0, zeros, (byte) 0);
+            String encoded = referenceEncode(bytes);
+            assertEquals(encoded, Base58.encode(bytes));
+            assertTrue(Arrays.equals(bytes, Base58.decode(encoded)));
+        }
+    }
+
+    private static String referenceEncode(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        BigInteger value = new BigInteger(1, bytes);
+        BigInteger base = BigInteger.valueOf(58);
+        while (value.signum() > 0) {
+            BigInteger[] divmod = value.divideAndRemainder(base);
+            builder.append(Base58.ALPHABET[divmod[1].intValue()]);
+            value = divmod[0];
+        }
+        for (int i = 0; i < bytes.length && bytes[i] == 0; i++)
+            builder.append(Base58.ALPHABET[0]);
+        return builder.reverse().toString();
+    }
 }
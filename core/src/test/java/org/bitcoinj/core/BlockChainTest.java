@@ -21,13 +21,16 @@
 
 package org.bitcoinj.core;
 
+import org.bitcoinj.core.listeners.NewBestBlockListener;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.TestNet2Params;
 import org.bitcoinj.params.UnitTestParams;
 import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.MemoryBlockStore;
 import org.bitcoinj.testing.FakeTxBuilder;
 import org.bitcoinj.utils.BriefLogFormatter;
+import org.bitcoinj.utils.Threading;
 import org.bitcoinj.wallet.Wallet;
 import org.bitcoinj.wallet.Wallet.BalanceType;
 
@@ -39,8 +42,12 @@ import org.junit.Test;
 
 import java.math.BigInteger;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.bitcoinj.core.Coin.*;
 import static org.bitcoinj.testing.FakeTxBuilder.createFakeBlock;
@@ -156,6 +163,58 @@ public class BlockChainTest {
         assertEquals(chain.getChainHead().getHeader(), b3.cloneAsHeader());
     }
 
+    @Test
+    public void heightFutureForReachedHeight() throws Exception {
+        Block b1 = PARAMS.getGenesisBlock().createNextBlock(coinbaseTo);
+        Block b2 = b1.createNextBlock(coinbaseTo);
+        assertTrue(chain.add(b1));
+        assertTrue(chain.add(b2));
+        ListenableFuture<StoredBlock> future = chain.getHeightFuture(1);
+        assertTrue(future.isDone());
+        assertEquals(b1.getHash(), future.get().getHeader().getHash());
+        assertTrue(chain.getHeightFuture(2).isDone());
+        assertFalse(chain.getHeightFuture(3).isDone());
+    }
+
+    @Test
+    public void queriesDontWaitForLock() throws Exception {
+        Block b1 = PARAMS.getGenesisBlock().createNextBlock(coinbaseTo);
+        Block b2 = b1.createNextBlock(coinbaseTo);
+        assertTrue(chain.add(b1));
+        assertFalse(chain.add(b2.createNextBlock(coinbaseTo)));
+        // Hold the chain lock on another thread, as happens whilst a block is connected.
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                chain.lock.lock();
+                try {
+                    locked.countDown();
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                } finally {
+                    chain.lock.unlock();
+                }
+            }
+        };
+        thread.start();
+        try {
+            assertTrue(locked.await(5, TimeUnit.SECONDS));
+            assertEquals(1, chain.getBestChainHeight());
+            assertEquals(b1.getHash(), chain.getChainHead().getHeader().getHash());
+            assertNotNull(chain.estimateBlockTime(10));
+            assertEquals(1, chain.getOrphanBlockCount());
+            assertFalse(chain.isOrphan(b2.getHash()));
+            assertNull(chain.getOrphanRoot(b2.getHash()));
+            assertTrue(chain.getHeightFuture(1).isDone());
+        } finally {
+            release.countDown();
+            thread.join();
+        }
+    }
+
     @Test
     public void difficultyTransitions() throws Exception {
         // Add a bunch of blocks in a loop until we reach a difficulty transition point. The unit test params have an
@@ -487,4 +546,136 @@ public class BlockChainTest {
         assertEquals(2, chain.getBestChainHeight());
         assertEquals(2, wallet.getLastBlockSeenHeight());
     }
+
+    // Makes headers on top of the genesis block that go past the first difficulty transition, with the right
+    // difficulty after it if fixTransition is set. They are parsed from a headers message, like the ones from a peer.
+    private List<Block> createHeaders(int count, boolean fixTransition) throws Exception {
+        Utils.setMockClock(System.currentTimeMillis()/1000);
+        List<Block> headers = new ArrayList<Block>();
+        Block prev = PARAMS.getGenesisBlock();
+        for (int height = 1; height <= count; height++) {
+            Block next = prev.createNextBlock(coinbaseTo, 1, Utils.currentTimeSeconds(), height);
+            if (height == PARAMS.getInterval() && fixTransition) {
+                next.setDifficultyTarget(0x201fFFFFL);
+                next.solve();
+            }
+            headers.add(next.cloneAsHeader());
+            prev = next;
+            Utils.rollMockClock(2);
+        }
+        return new HeadersMessage(PARAMS, new HeadersMessage(PARAMS, headers).bitcoinSerialize()).getBlockHeaders();
+    }
+
+    @Test
+    public void addHeaders() throws Exception {
+        List<Block> headers = createHeaders(PARAMS.getInterval() + 5, true);
+        final List<StoredBlock> bestBlocks = new ArrayList<StoredBlock>();
+        chain.addNewBestBlockListener(Threading.SAME_THREAD, new NewBestBlockListener() {
+            @Override
+            public void notifyNewBestBlock(StoredBlock block) throws VerificationException {
+                bestBlocks.add(block);
+            }
+        });
+        assertEquals(headers.size(), chain.addHeaders(headers));
+        assertEquals(headers.size(), chain.getBestChainHeight());
+        assertEquals(headers.size(), wallet.getLastBlockSeenHeight());
+        assertEquals(headers.size(), bestBlocks.size());
+
+        // The same as adding them one by one.
+        BlockChain other = new BlockChain(PARAMS, new MemoryBlockStore(PARAMS));
+        for (Block header : headers)
+            assertTrue(other.add(header));
+        assertEquals(other.getChainHead(), chain.getChainHead());
+        for (int i = 0; i < headers.size(); i++) {
+            StoredBlock stored = blockStore.get(headers.get(i).getHash());
+            assertEquals(other.getBlockStore().get(headers.get(i).getHash()), stored);
+            assertEquals(stored, bestBlocks.get(i));
+        }
+
+        // Headers that are already in the chain are added one by one, and don't change anything.
+        assertEquals(3, chain.addHeaders(headers.subList(5, 8)));
+        assertEquals(other.getChainHead(), chain.getChainHead());
+    }
+
+    @Test
+    public void addHeadersWithBadDifficulty() throws Exception {
+        List<Block> headers = createHeaders(PARAMS.getInterval() + 5, false);
+        try {
+            chain.addHeaders(headers);
+            fail();
+        } catch (VerificationException e) {
+        }
+        // The headers before the bad one are kept.
+        assertEquals(PARAMS.getInterval() - 1, chain.getBestChainHeight());
+        assertEquals(headers.get(PARAMS.getInterval() - 2), chain.getChainHead().getHeader());
+        assertEquals(PARAMS.getInterval() - 1, wallet.getLastBlockSeenHeight());
+    }
+
+    @Test
+    public void addUnconnectedHeaders() throws Exception {
+        List<Block> headers = createHeaders(10, true);
+        assertEquals(2, chain.addHeaders(headers.subList(0, 2)));
+        assertEquals(0, chain.addHeaders(headers.subList(3, 10)));
+        assertEquals(2, chain.getBestChainHeight());
+        // The headers after a gap are not connected.
+        List<Block> gap = new ArrayList<Block>(headers.subList(2, 6));
+        gap.remove(2);
+        assertEquals(2, chain.addHeaders(gap));
+        assertEquals(4, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void addHeadersWhenStoreFails() throws Exception {
+        final MemoryBlockStore memoryStore = new MemoryBlockStore(PARAMS);
+        final boolean[] failing = { true };
+        BlockStore store = new BlockStore() {
+            @Override
+            public void put(StoredBlock block) throws BlockStoreException {
+                if (failing[0])
+                    throw new BlockStoreException("Disk full");
+                memoryStore.put(block);
+            }
+
+            @Override
+            public StoredBlock get(Sha256Hash hash) throws BlockStoreException {
+                return memoryStore.get(hash);
+            }
+
+            @Override
+            public StoredBlock getChainHead() throws BlockStoreException {
+                return memoryStore.getChainHead();
+            }
+
+            @Override
+            public void setChainHead(StoredBlock chainHead) throws BlockStoreException {
+                memoryStore.setChainHead(chainHead);
+            }
+
+            @Override
+            public void close() throws BlockStoreException {
+                memoryStore.close();
+            }
+
+            @Override
+            public NetworkParameters getParams() {
+                return PARAMS;
+            }
+        };
+        BlockChain chain = new BlockChain(PARAMS, store);
+        List<Block> headers = createHeaders(10, true);
+        try {
+            chain.addHeaders(headers);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        // Nothing of the batch is left behind.
+        assertEquals(0, chain.getBestChainHeight());
+        assertFalse(chain.getBlockIndex().contains(headers.get(0).getHash()));
+        assertNull(chain.getVersionTally().getCountAtOrAbove(1));
+
+        failing[0] = false;
+        assertEquals(headers.size(), chain.addHeaders(headers));
+        assertEquals(headers.size(), chain.getBestChainHeight());
+    }
 }
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockIndexTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    // Some blocks are older than their parent, so that the median time is not the time of the middle block.
+    private static final long START_TIME = 1500000000;
+
+    private BlockStore store;
+    private Address address;
+    private List<StoredBlock> mainChain;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        store = new MemoryBlockStore(PARAMS);
+        address = new ECKey().toAddress(PARAMS);
+        mainChain = extend(store.getChainHead(), 300, 0);
+    }
+
+    // Returns the given block followed by count new blocks on top of it, which are put in the store.
+    private List<StoredBlock> extend(StoredBlock from, int count, int salt) throws Exception {
+        List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+        blocks.add(from);
+        StoredBlock prev = from;
+        for (int i = 0; i < count; i++) {
+            Block header = prev.getHeader().createNextBlock(address, Block.BLOCK_VERSION_GENESIS + (i % 3),
+                    START_TIME + prev.getHeight() * 600 - (i % 7) * 100 + salt, prev.getHeight() + 1)
+                    .cloneAsHeader();
+            prev = prev.build(header);
+            store.put(prev);
+            blocks.add(prev);
+        }
+        return blocks;
+    }
+
+    private static BlockIndex index(List<StoredBlock> blocks, int depth) {
+        BlockIndex index = new BlockIndex(depth);
+        for (StoredBlock block : blocks)
+            index.setChainHead(block);
+        return index;
+    }
+
+    @Test
+    public void ancestors() throws Exception {
+        List<StoredBlock> fork = extend(mainChain.get(150), 30, 1);
+        BlockIndex index = index(mainChain, 1000);
+        for (StoredBlock block : fork)
+            index.add(block);
+        assertEquals(mainChain.size() + fork.size() - 1, index.size());
+
+        Random random = new Random(7);
+        for (int i = 0; i < 1000; i++) {
+            StoredBlock block = mainChain.get(random.nextInt(mainChain.size()));
+            int height = random.nextInt(block.getHeight() + 1);
+            assertEquals(mainChain.get(height).getHeader().getHash(),
+                    index.getAncestorHash(block.getHeader().getHash(), height));
+            StoredBlock forkBlock = fork.get(random.nextInt(fork.size()));
+            height = random.nextInt(forkBlock.getHeight() + 1);
+            StoredBlock expected = height <= 150 ? mainChain.get(height) : fork.get(height - 150);
+            assertEquals(expected, index.getAncestor(forkBlock, height, store));
+        }
+        assertNull(index.getAncestorHash(mainChain.get(10).getHeader().getHash(), 11));
+        assertEquals(mainChain.get(300).getHeader().getHash(), index.getMainChainHash(300));
+        assertNull(index.getMainChainHash(301));
+    }
+
+    @Test
+    public void splitsAndReorgs() throws Exception {
+        List<StoredBlock> fork = extend(mainChain.get(150), 200, 1);
+        BlockIndex index = index(mainChain, 1000);
+        for (StoredBlock block : fork)
+            index.add(block);
+        StoredBlock forkTip = fork.get(fork.size() - 1);
+        StoredBlock head = mainChain.get(300);
+        assertEquals(mainChain.get(150), index.findSplit(forkTip, head, store));
+        assertEquals(mainChain.get(150), index.findSplit(fork.get(1), head, store));
+        assertEquals(mainChain.get(120), index.findSplit(mainChain.get(120), head, store));
+        assertEquals(head, index.findSplit(head, head, store));
+
+        // Reorganize onto the fork and back again.
+        index.setChainHead(forkTip);
+        assertEquals(fork.get(50).getHeader().getHash(), index.getMainChainHash(200));
+        assertEquals(mainChain.get(150).getHeader().getHash(), index.getMainChainHash(150));
+        assertEquals(fork.get(200).getHeader().getHash(), index.getMainChainHash(350));
+        index.setChainHead(head);
+        assertEquals(mainChain.get(200).getHeader().getHash(), index.getMainChainHash(200));
+        assertNull(index.getMainChainHash(301));
+    }
+
+    @Test
+    public void medianTimestampAndVersions() throws Exception {
+        BlockIndex index = index(mainChain, 1000);
+        for (StoredBlock block : mainChain)
+            assertEquals(AbstractBlockChain.getMedianTimestampOfRecentBlocks(block, store),
+                    index.getMedianTimestamp(block, store));
+        long[] versions = index.getVersions(mainChain.get(100).getHeader().getHash(), 5);
+        for (int i = 0; i < versions.length; i++)
+            assertEquals(mainChain.get(100 - i).getHeader().getVersion(), versions[i]);
+        assertNull(index.getVersions(mainChain.get(3).getHeader().getHash(), 5));
+    }
+
+    @Test
+    public void forgetsOldBlocks() throws Exception {
+        BlockIndex index = index(mainChain, 20);
+        assertTrue(index.size() < 50);
+        assertFalse(index.contains(mainChain.get(100).getHeader().getHash()));
+        StoredBlock head = mainChain.get(300);
+        assertNull(index.getAncestorHash(head.getHeader().getHash(), 100));
+        assertNull(index.getMainChainHash(100));
+        assertEquals(mainChain.get(290).getHeader().getHash(), index.getMainChainHash(290));
+        // Older blocks are still found through the store.
+        assertEquals(mainChain.get(100), index.getAncestor(head, 100, store));
+        assertEquals(mainChain.get(100), index.findSplit(mainChain.get(100), head, store));
+        assertEquals(AbstractBlockChain.getMedianTimestampOfRecentBlocks(mainChain.get(270), store),
+                index.getMedianTimestamp(mainChain.get(270), store));
+    }
+
+    @Test
+    public void load() throws Exception {
+        store.setChainHead(mainChain.get(300));
+        BlockIndex index = new BlockIndex();
+        index.load(store, store.getChainHead(), 50);
+        assertEquals(51, index.size());
+        assertEquals(mainChain.get(250).getHeader().getHash(), index.getMainChainHash(250));
+        assertNull(index.getMainChainHash(249));
+    }
+}
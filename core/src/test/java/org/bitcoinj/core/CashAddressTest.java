@@ -25,10 +25,13 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
@@ -240,5 +243,42 @@ public class CashAddressTest {
         }
     }
 
+    @Test
+    public void testBulkConversion() {
+        NetworkParameters params = MainNetParams.get();
+        List<String> legacy = new ArrayList<String>(CASH_ADDRESS_BY_LEGACY_FORMAT.keySet());
+        List<String> cash = new ArrayList<String>();
+        for (String address : legacy)
+            cash.add(CASH_ADDRESS_BY_LEGACY_FORMAT.get(address));
 
+        List<CashAddress> fromLegacy = cashAddressFactory.getFromBase58(params, legacy);
+        assertEquals(cash, CashAddress.toStrings(fromLegacy));
+        List<CashAddress> fromCash = cashAddressFactory.getFromFormattedAddresses(params, cash);
+        assertEquals(legacy, Address.toBase58(fromCash));
+        assertEquals(legacy, Address.toBase58(Address.fromBase58(params, legacy)));
+    }
+
+    @Test
+    public void testRandomPayloadRoundTrip() {
+        Random random = new Random(1);
+        for (int i = 0; i < 500; i++) {
+            byte[] payload = new byte[1 + random.nextInt(60)];
+            for (int j = 0; j < payload.length; j++)
+                payload[j] = (byte) random.nextInt(32);
+            String prefix = random.nextBoolean() ? "bitcoincash" : "bchtest";
+            String encoded = CashAddressHelper.encodeCashAddress(prefix, payload);
+            assertEquals(prefix, CashAddressHelper.decodeCashAddress(encoded, prefix).getKey());
+            assertArrayEquals(payload, CashAddressHelper.decodeCashAddress(encoded, prefix).getValue());
+
+            // Any single changed character is caught by the checksum.
+            char[] corrupted = encoded.toCharArray();
+            int position = prefix.length() + 1 + random.nextInt(encoded.length() - prefix.length() - 1);
+            corrupted[position] = corrupted[position] == 'q' ? 'p' : 'q';
+            try {
+                CashAddressHelper.decodeCashAddress(new String(corrupted), prefix);
+                fail();
+            } catch (AddressFormatException expected) {
+            }
+        }
+    }
 }
@@ -686,4 +686,74 @@ public class ChainSplitTest {
         assertTrue(!wallet.poolContainsTxHash(WalletTransaction.Pool.SPENT, coinbase.getHash()));
         assertTrue(wallet.poolContainsTxHash(WalletTransaction.Pool.DEAD, coinbase.getHash()));
     }
+
+    @Test
+    public void deepReorganizeUpdatesDepthsOnce() throws Exception {
+        final AtomicInteger reorgs = new AtomicInteger();
+        final AtomicInteger walletChanged = new AtomicInteger();
+        wallet.addReorganizeEventListener(new WalletReorganizeEventListener() {
+            @Override
+            public void onReorganize(Wallet wallet) {
+                reorgs.incrementAndGet();
+            }
+        });
+        wallet.addChangeEventListener(new WalletChangeEventListener() {
+            @Override
+            public void onWalletChanged(Wallet wallet) {
+                walletChanged.incrementAndGet();
+            }
+        });
+        // A payment to us is in the fifth block of the chain and in the seventh block of a longer fork that splits
+        // off after the second block. Each block of the chain pays us as well. Both stay below the first
+        // difficulty transition.
+        Transaction t = FakeTxBuilder.createFakeTx(PARAMS, COIN, coinsTo);
+        Block[] chainA = new Block[9];
+        chainA[0] = PARAMS.getGenesisBlock();
+        for (int i = 1; i <= 8; i++) {
+            chainA[i] = chainA[i - 1].createNextBlock(coinsTo);
+            if (i == 5) {
+                chainA[i].addTransaction(t);
+                chainA[i].solve();
+            }
+            assertTrue(chain.add(chainA[i]));
+        }
+        Block prev = chainA[2];
+        Block[] chainB = new Block[10];
+        for (int i = 3; i <= 9; i++) {
+            chainB[i] = prev.createNextBlock(someOtherGuy);
+            if (i == 7) {
+                chainB[i].addTransaction(FakeTxBuilder.roundTripTransaction(PARAMS, t));
+                chainB[i].solve();
+            }
+            prev = chainB[i];
+        }
+        for (int i = 3; i <= 8; i++)
+            assertTrue(chain.add(chainB[i]));
+        Threading.waitForUserCode();
+        assertEquals(0, reorgs.get());
+        int walletChangedBefore = walletChanged.get();
+
+        // The ninth block of the fork makes it the best chain.
+        assertTrue(chain.add(chainB[9]));
+        Threading.waitForUserCode();
+        assertEquals(1, reorgs.get());
+        assertEquals(9, wallet.getLastBlockSeenHeight());
+        assertEquals(chainB[9].getHash(), wallet.getLastBlockSeenHash());
+        Transaction received = wallet.getTransaction(t.getHash());
+        assertEquals(ConfidenceType.BUILDING, received.getConfidence().getConfidenceType());
+        assertEquals(7, received.getConfidence().getAppearedAtChainHeight());
+        assertEquals(3, received.getConfidence().getDepthInBlocks());
+        // The payments of the blocks below the split point are deeper, the ones above it are pending again.
+        Transaction payment1 = wallet.getTransaction(chainA[1].getTransactions().get(1).getHash());
+        assertEquals(9, payment1.getConfidence().getDepthInBlocks());
+        Transaction payment2 = wallet.getTransaction(chainA[2].getTransactions().get(1).getHash());
+        assertEquals(8, payment2.getConfidence().getDepthInBlocks());
+        for (int i = 3; i <= 8; i++) {
+            Transaction payment = wallet.getTransaction(chainA[i].getTransactions().get(1).getHash());
+            assertEquals(ConfidenceType.PENDING, payment.getConfidence().getConfidenceType());
+        }
+        assertEquals(valueOf(100, 0).add(COIN), wallet.getBalance());
+        // The re-org changed the wallet once.
+        assertEquals(walletChangedBefore + 1, walletChanged.get());
+    }
 }
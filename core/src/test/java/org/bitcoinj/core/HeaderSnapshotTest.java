@@ -0,0 +1,252 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.LevelDBBlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.store.SPVBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class HeaderSnapshotTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Address address;
+    private List<StoredBlock> blocks;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        // The genesis block of the unit test network is from when the class was loaded, so move the clock after the
+        // blocks below.
+        Utils.setMockClock(PARAMS.getGenesisBlock().getTimeSeconds() + 86400 * 30);
+        address = new ECKey().toAddress(PARAMS);
+        blocks = new ArrayList<StoredBlock>();
+        Block genesis = PARAMS.getGenesisBlock().cloneAsHeader();
+        blocks.add(new StoredBlock(genesis, genesis.getWork(), 0));
+        for (int i = 1; i <= 300; i++) {
+            StoredBlock prev = blocks.get(i - 1);
+            Block header = prev.getHeader().createNextBlock(address, Block.BLOCK_VERSION_GENESIS,
+                    genesis.getTimeSeconds() + i * 600, i).cloneAsHeader();
+            blocks.add(prev.build(header));
+        }
+    }
+
+    private static byte[] write(HeaderSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        snapshot.write(bytes);
+        return bytes.toByteArray();
+    }
+
+    private static HeaderSnapshot read(byte[] bytes) throws IOException {
+        return HeaderSnapshot.read(PARAMS, new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        HeaderSnapshot snapshot = HeaderSnapshot.of(blocks.subList(100, 301));
+        HeaderSnapshot read = HeaderSnapshot.read(PARAMS, new ByteArrayInputStream(write(snapshot)),
+                snapshot.getDataHash());
+        assertEquals(snapshot.getBlocks(), read.getBlocks());
+        assertEquals(snapshot.getDataHash(), read.getDataHash());
+        assertEquals(blocks.get(150), read.get(150));
+        assertNull(read.get(99));
+        assertNull(read.get(301));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notConsecutive() throws Exception {
+        List<StoredBlock> gap = new ArrayList<StoredBlock>(blocks.subList(0, 10));
+        gap.remove(5);
+        HeaderSnapshot.of(gap);
+    }
+
+    @Test
+    public void rejectsBadData() throws Exception {
+        HeaderSnapshot snapshot = HeaderSnapshot.of(blocks.subList(0, 50));
+        byte[] bytes = write(snapshot);
+        try {
+            HeaderSnapshot.read(PARAMS, new ByteArrayInputStream(bytes), Sha256Hash.ZERO_HASH);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("expected"));
+        }
+        byte[] truncated = new byte[bytes.length - 1];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        try {
+            read(truncated);
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+        // Change the chain work of the second block, leaving the hash at the end as it was.
+        byte[] changedWork = bytes.clone();
+        changedWork[9 + 4 + StoredBlock.COMPACT_SERIALIZED_SIZE + StoredBlock.CHAIN_WORK_BYTES - 1]++;
+        try {
+            read(changedWork);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("chain work"));
+        }
+    }
+
+    @Test
+    public void truncate() throws Exception {
+        HeaderSnapshot snapshot = HeaderSnapshot.of(blocks.subList(100, 301));
+        assertSame(snapshot, snapshot.truncateAfter(blocks.get(300).getHeader().getTimeSeconds()));
+        HeaderSnapshot truncated = snapshot.truncateAfter(blocks.get(200).getHeader().getTimeSeconds() + 1);
+        assertEquals(blocks.get(200), truncated.getLast());
+        assertEquals(101, truncated.size());
+        assertNull(snapshot.truncateAfter(blocks.get(99).getHeader().getTimeSeconds()));
+
+        assertSame(snapshot, snapshot.truncateAt(blocks.get(300)));
+        truncated = snapshot.truncateAt(blocks.get(200));
+        assertEquals(blocks.get(200), truncated.getLast());
+        assertEquals(101, truncated.size());
+        assertNull(snapshot.truncateAt(blocks.get(99)));
+    }
+
+    private void assertLoaded(BlockStore store, HeaderSnapshot snapshot) throws Exception {
+        snapshot.load(store);
+        assertEquals(snapshot.getLast(), store.getChainHead());
+        for (StoredBlock block : snapshot.getBlocks())
+            assertEquals(block, store.get(block.getHeader().getHash()));
+    }
+
+    @Test
+    public void loadIntoStores() throws Exception {
+        HeaderSnapshot snapshot = HeaderSnapshot.of(blocks.subList(50, 301));
+        assertLoaded(new MemoryBlockStore(PARAMS), snapshot);
+
+        File file = File.createTempFile("headersnapshot", null);
+        file.delete();
+        SPVBlockStore spvStore = new SPVBlockStore(PARAMS, file);
+        try {
+            assertLoaded(spvStore, snapshot);
+        } finally {
+            spvStore.close();
+        }
+        // The ring cursor was moved past all of them, so they are still there when the store is opened again.
+        spvStore = new SPVBlockStore(PARAMS, file);
+        try {
+            assertEquals(snapshot.getLast(), spvStore.getChainHead());
+            assertEquals(snapshot.getFirst(), spvStore.get(snapshot.getFirst().getHeader().getHash()));
+        } finally {
+            spvStore.close();
+            file.delete();
+        }
+
+        File directory = File.createTempFile("headersnapshot", null);
+        directory.delete();
+        LevelDBBlockStore levelDBStore = new LevelDBBlockStore(new Context(PARAMS), directory);
+        try {
+            assertLoaded(levelDBStore, snapshot);
+        } finally {
+            levelDBStore.close();
+            levelDBStore.destroy();
+        }
+    }
+
+    private static byte[] checkpoints(StoredBlock... checkpoints) {
+        StringBuilder text = new StringBuilder("TXT CHECKPOINTS 1\n0\n").append(checkpoints.length).append('\n');
+        ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+        for (StoredBlock checkpoint : checkpoints) {
+            buffer.clear();
+            checkpoint.serializeCompact(buffer);
+            text.append(CheckpointManager.BASE64.encode(buffer.array())).append('\n');
+        }
+        return text.toString().getBytes();
+    }
+
+    @Test
+    public void checkpointWithSnapshot() throws Exception {
+        byte[] snapshot = write(HeaderSnapshot.of(blocks.subList(100, 301)));
+        // A wallet made a week after block 250 gets the headers up to the checkpoint before it. Nothing vouches for
+        // the ones above the checkpoint, so they are downloaded.
+        long time = blocks.get(250).getHeader().getTimeSeconds() + 86400 * 7;
+        MemoryBlockStore store = new MemoryBlockStore(PARAMS);
+        CheckpointManager.checkpoint(PARAMS, new ByteArrayInputStream(checkpoints(blocks.get(100), blocks.get(200))),
+                new ByteArrayInputStream(snapshot), store, time);
+        assertEquals(blocks.get(200), store.getChainHead());
+        assertEquals(blocks.get(100), store.get(blocks.get(100).getHeader().getHash()));
+        assertNull(store.get(blocks.get(201).getHeader().getHash()));
+
+        // A wallet older than the snapshot gets the checkpoint.
+        time = blocks.get(60).getHeader().getTimeSeconds() + 86400 * 7;
+        store = new MemoryBlockStore(PARAMS);
+        CheckpointManager.checkpoint(PARAMS, new ByteArrayInputStream(checkpoints(blocks.get(50))),
+                new ByteArrayInputStream(snapshot), store, time);
+        assertEquals(blocks.get(50), store.getChainHead());
+    }
+
+    @Test
+    public void snapshotMustContainCheckpoint() throws Exception {
+        // The snapshot starts above the checkpoint, so nothing ties its headers to a trusted block.
+        byte[] snapshot = write(HeaderSnapshot.of(blocks.subList(150, 301)));
+        long time = blocks.get(250).getHeader().getTimeSeconds() + 86400 * 7;
+        MemoryBlockStore store = new MemoryBlockStore(PARAMS);
+        CheckpointManager.checkpoint(PARAMS, new ByteArrayInputStream(checkpoints(blocks.get(100))),
+                new ByteArrayInputStream(snapshot), store, time);
+        assertEquals(blocks.get(100), store.getChainHead());
+        assertNull(store.get(blocks.get(150).getHeader().getHash()));
+    }
+
+    @Test
+    public void badSnapshotFallsBackToCheckpoint() throws Exception {
+        long time = blocks.get(250).getHeader().getTimeSeconds() + 86400 * 7;
+        byte[] checkpoints = checkpoints(blocks.get(100), blocks.get(200));
+
+        byte[] corrupt = write(HeaderSnapshot.of(blocks.subList(100, 301)));
+        corrupt[corrupt.length - 1]++;
+        MemoryBlockStore store = new MemoryBlockStore(PARAMS);
+        CheckpointManager.checkpoint(PARAMS, new ByteArrayInputStream(checkpoints), new ByteArrayInputStream(corrupt),
+                store, time);
+        assertEquals(blocks.get(200), store.getChainHead());
+
+        // A snapshot of another chain that only shares the checkpoint at 100.
+        List<StoredBlock> fork = new ArrayList<StoredBlock>(blocks.subList(100, 151));
+        for (int i = 151; i <= 300; i++) {
+            StoredBlock prev = fork.get(fork.size() - 1);
+            fork.add(prev.build(prev.getHeader().createNextBlock(address, Block.BLOCK_VERSION_GENESIS,
+                    blocks.get(i).getHeader().getTimeSeconds() + 1, i).cloneAsHeader()));
+        }
+        store = new MemoryBlockStore(PARAMS);
+        CheckpointManager.checkpoint(PARAMS, new ByteArrayInputStream(checkpoints(blocks.get(100), blocks.get(120),
+                blocks.get(200))), new ByteArrayInputStream(write(HeaderSnapshot.of(fork))), store, time);
+        assertEquals(blocks.get(200), store.getChainHead());
+    }
+
+    @Test(expected = VerificationException.class)
+    public void snapshotMustMatchCheckpoints() throws Exception {
+        StoredBlock other = blocks.get(149).build(blocks.get(149).getHeader().createNextBlock(address,
+                Block.BLOCK_VERSION_GENESIS, blocks.get(150).getHeader().getTimeSeconds() + 1, 150).cloneAsHeader());
+        CheckpointManager manager = new CheckpointManager(PARAMS, new ByteArrayInputStream(checkpoints(other)));
+        manager.checkSnapshot(HeaderSnapshot.of(blocks.subList(100, 301)));
+    }
+}
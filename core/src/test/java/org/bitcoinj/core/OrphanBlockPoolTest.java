@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class OrphanBlockPoolTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private Address address;
+    private BlockChain chain;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        Utils.setMockClock();
+        address = new ECKey().toAddress(PARAMS);
+        chain = new BlockChain(PARAMS, new MemoryBlockStore(PARAMS));
+    }
+
+    // Makes count blocks on top of the given one, staying below the first difficulty transition.
+    private List<Block> extend(Block from, int count) {
+        List<Block> blocks = new ArrayList<Block>();
+        Block prev = from;
+        for (int i = 0; i < count; i++) {
+            Utils.rollMockClock(600);
+            prev = prev.createNextBlock(address, Block.BLOCK_VERSION_GENESIS, Utils.currentTimeSeconds(), i + 1);
+            blocks.add(prev);
+        }
+        return blocks;
+    }
+
+    private static OrphanBlockPool.OrphanBlock orphan(Block block) {
+        return new OrphanBlockPool.OrphanBlock(block, null, null);
+    }
+
+    @Test
+    public void indexesByParent() throws Exception {
+        List<Block> blocks = extend(PARAMS.getGenesisBlock(), 3);
+        Block sibling = blocks.get(0).createNextBlock(address, Block.BLOCK_VERSION_GENESIS,
+                Utils.currentTimeSeconds() + 1, 2);
+        OrphanBlockPool pool = new OrphanBlockPool();
+        pool.add(orphan(blocks.get(1)));
+        pool.add(orphan(blocks.get(2)));
+        pool.add(orphan(sibling));
+        pool.add(orphan(sibling));
+        assertEquals(3, pool.size());
+        assertTrue(pool.contains(sibling.getHash()));
+
+        List<OrphanBlockPool.OrphanBlock> children = pool.removeChildren(blocks.get(0).getHash());
+        assertEquals(2, children.size());
+        assertEquals(blocks.get(1), children.get(0).block);
+        assertEquals(sibling, children.get(1).block);
+        assertEquals(1, pool.size());
+        assertEquals(orphan(blocks.get(2)).size, pool.getBytes());
+        assertTrue(pool.removeChildren(blocks.get(0).getHash()).isEmpty());
+        assertEquals(1, pool.clear().size());
+        assertEquals(0, pool.getBytes());
+    }
+
+    @Test
+    public void evictsOldestBlocks() throws Exception {
+        List<Block> blocks = extend(PARAMS.getGenesisBlock(), 6);
+        long size = orphan(blocks.get(0)).size;
+        OrphanBlockPool pool = new OrphanBlockPool(3, Long.MAX_VALUE);
+        for (Block block : blocks)
+            pool.add(orphan(block));
+        assertEquals(3, pool.size());
+        assertEquals(3, pool.getEvictedBlocks());
+        assertFalse(pool.contains(blocks.get(2).getHash()));
+        assertTrue(pool.contains(blocks.get(3).getHash()));
+        assertTrue(pool.removeChildren(blocks.get(1).getHash()).isEmpty());
+
+        // A byte bound of just over two blocks keeps two of them.
+        pool.setLimits(10, 2 * size + size / 2);
+        assertEquals(2, pool.size());
+        assertTrue(pool.contains(blocks.get(5).getHash()));
+        assertTrue(pool.getBytes() <= 2 * size + size / 2);
+    }
+
+    @Test
+    public void connectsDescendantsInOnePass() throws Exception {
+        List<Block> blocks = extend(PARAMS.getGenesisBlock(), 8);
+        // A side branch off the orphans.
+        Block side = blocks.get(3).createNextBlock(address, Block.BLOCK_VERSION_GENESIS,
+                Utils.currentTimeSeconds() + 1, 5);
+        for (int i = blocks.size() - 1; i > 0; i--)
+            assertFalse(chain.add(blocks.get(i)));
+        assertFalse(chain.add(side));
+        assertEquals(8, chain.getOrphanBlockCount());
+        assertTrue(chain.getOrphanBlockBytes() > 0);
+        assertEquals(blocks.get(1), chain.getOrphanRoot(blocks.get(7).getHash()));
+
+        assertTrue(chain.add(blocks.get(0)));
+        assertEquals(blocks.get(7), chain.getChainHead().getHeader());
+        assertEquals(0, chain.getOrphanBlockCount());
+        assertEquals(0, chain.getOrphanBlockBytes());
+        assertNotNull(chain.getBlockStore().get(side.getHash()));
+        assertTrue(chain.getOrphanConnectTime(TimeUnit.NANOSECONDS) > 0);
+    }
+
+    @Test
+    public void boundedInChain() throws Exception {
+        List<Block> blocks = extend(PARAMS.getGenesisBlock(), 8);
+        chain.setOrphanBlockLimits(4, Long.MAX_VALUE);
+        for (int i = 1; i < blocks.size(); i++)
+            assertFalse(chain.add(blocks.get(i)));
+        assertEquals(4, chain.getOrphanBlockCount());
+        assertEquals(3, chain.getEvictedOrphanBlockCount());
+        // The blocks left can't connect until the evicted ones come again.
+        assertTrue(chain.add(blocks.get(0)));
+        assertEquals(blocks.get(0), chain.getChainHead().getHeader());
+        for (int i = 1; i < 4; i++)
+            assertTrue(chain.add(blocks.get(i)));
+        assertEquals(blocks.get(7), chain.getChainHead().getHeader());
+        assertEquals(0, chain.getOrphanBlockCount());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.crypto.TransactionSignature;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SignatureBatchTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    @Test
+    public void findsFailedChecks() throws Exception {
+        Random random = new Random(1);
+        List<ECKey> keys = new ArrayList<ECKey>();
+        for (int i = 0; i < 5; i++)
+            keys.add(new ECKey());
+        SignatureBatch batch = new SignatureBatch();
+        List<Integer> expected = new ArrayList<Integer>();
+        for (int i = 0; i < 40; i++) {
+            // Keys are used more than once, so their decoding is shared.
+            ECKey key = keys.get(i % keys.size());
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            ECKey.ECDSASignature signature = key.sign(Sha256Hash.wrap(hash));
+            if (i % 7 == 3) {
+                hash[0] ^= 1;
+                expected.add(i);
+            }
+            assertEquals(i, batch.add(hash, signature, key.getPubKey()));
+        }
+        assertEquals(40, batch.size());
+        assertEquals(expected, batch.verify());
+
+        // A key that can't be decoded fails its check.
+        ECKey key = new ECKey();
+        ECKey.ECDSASignature signature = key.sign(Sha256Hash.ZERO_HASH);
+        byte[] badKey = key.getPubKey();
+        badKey[0] = 7;
+        expected.add(batch.add(Sha256Hash.ZERO_HASH.getBytes(), signature, badKey));
+        assertEquals(expected, batch.verify());
+
+        assertTrue(new SignatureBatch().verify().isEmpty());
+    }
+
+    @Test
+    public void deferredScriptChecks() throws Exception {
+        ECKey key = new ECKey();
+        Script scriptPubKey = ScriptBuilder.createOutputScript(key.toAddress(PARAMS));
+        Transaction tx = new Transaction(PARAMS);
+        tx.addInput(Sha256Hash.ZERO_HASH, 0, new Script(new byte[0]));
+        tx.addOutput(Coin.COIN, new ECKey().toAddress(PARAMS));
+        Set<Script.VerifyFlag> flags = EnumSet.of(Script.VerifyFlag.P2SH);
+
+        TransactionSignature signature = tx.calculateSignature(0, key, scriptPubKey, Transaction.SigHash.ALL, false);
+        tx.getInput(0).setScriptSig(ScriptBuilder.createInputScript(signature, key));
+        SignatureBatch batch = new SignatureBatch();
+        tx.getInput(0).getScriptSig().correctlySpends(tx, 0, scriptPubKey, Coin.ZERO, flags, batch);
+        assertEquals(1, batch.size());
+        assertTrue(batch.verify().isEmpty());
+
+        // A signature by another key passes the script while it is deferred, but not the batch or a normal check.
+        TransactionSignature otherSignature = tx.calculateSignature(0, new ECKey(), scriptPubKey,
+                Transaction.SigHash.ALL, false);
+        tx.getInput(0).setScriptSig(ScriptBuilder.createInputScript(otherSignature, key));
+        batch = new SignatureBatch();
+        tx.getInput(0).getScriptSig().correctlySpends(tx, 0, scriptPubKey, Coin.ZERO, flags, batch);
+        assertEquals(Arrays.asList(0), batch.verify());
+        try {
+            tx.getInput(0).getScriptSig().correctlySpends(tx, 0, scriptPubKey, Coin.ZERO, flags);
+            fail();
+        } catch (ScriptException e) {
+            // Expected.
+        }
+    }
+}
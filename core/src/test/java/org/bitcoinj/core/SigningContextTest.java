@@ -0,0 +1,115 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.crypto.TransactionSignature;
+import org.junit.Test;
+import org.spongycastle.crypto.digests.SHA256Digest;
+import org.spongycastle.crypto.params.ECPrivateKeyParameters;
+import org.spongycastle.crypto.signers.ECDSASigner;
+import org.spongycastle.crypto.signers.HMacDSAKCalculator;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class SigningContextTest {
+    @Test
+    public void agreesWithBouncyCastle() throws Exception {
+        Random random = new Random(1);
+        byte[] buffer = new byte[SigningContext.MAX_DER_LENGTH + 10];
+        for (int i = 0; i < 50; i++) {
+            ECKey key = new ECKey();
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+
+            ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+            signer.init(true, new ECPrivateKeyParameters(key.getPrivKey(), ECKey.CURVE));
+            BigInteger[] components = signer.generateSignature(hash);
+            ECKey.ECDSASignature expected = new ECKey.ECDSASignature(components[0], components[1]).toCanonicalised();
+
+            ECKey.ECDSASignature signature = SigningContext.get().sign(hash, key.getPrivKey());
+            assertEquals(expected, signature);
+            assertTrue(signature.isCanonical());
+            assertEquals(expected, key.sign(Sha256Hash.wrap(hash)));
+
+            int offset = random.nextInt(10);
+            int length = SigningContext.get().sign(hash, key.getPrivKey(), buffer, offset);
+            assertTrue(length <= SigningContext.MAX_DER_LENGTH);
+            byte[] der = expected.derByteStream().toByteArray();
+            assertArrayEquals(der, Arrays.copyOfRange(buffer, offset, offset + length));
+            assertArrayEquals(der, expected.encodeToDER());
+        }
+    }
+
+    @Test
+    public void encodesLikeBouncyCastle() throws Exception {
+        // Small values, values with the top bit set and values whose encoding needs a long form length.
+        BigInteger[] values = { BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(0x80), ECKey.HALF_CURVE_ORDER,
+                ECKey.CURVE.getN().subtract(BigInteger.ONE), BigInteger.ONE.shiftLeft(2000).subtract(BigInteger.ONE),
+                BigInteger.valueOf(-1) };
+        for (BigInteger r : values) {
+            for (BigInteger s : values) {
+                ECKey.ECDSASignature signature = new ECKey.ECDSASignature(r, s);
+                byte[] der = signature.derByteStream().toByteArray();
+                assertArrayEquals(der, signature.encodeToDER());
+                assertEquals(der.length, signature.getDERLength());
+                byte[] buffer = new byte[der.length + 1];
+                assertEquals(der.length, signature.encodeToDER(buffer, 1));
+                assertArrayEquals(der, Arrays.copyOfRange(buffer, 1, buffer.length));
+            }
+        }
+
+        TransactionSignature signature = new TransactionSignature(ECKey.HALF_CURVE_ORDER, BigInteger.ONE,
+                Transaction.SigHash.ALL.value | Transaction.SigHash.FORKID.value);
+        byte[] encoded = signature.encodeToBitcoin();
+        assertEquals(signature.sighashFlags, encoded[encoded.length - 1]);
+        byte[] buffer = new byte[encoded.length];
+        assertEquals(encoded.length, signature.encodeToBitcoin(buffer, 0));
+        assertArrayEquals(encoded, buffer);
+        byte[] small = new byte[encoded.length - 1];
+        try {
+            signature.encodeToBitcoin(small, 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // Expected, and nothing was written.
+            assertArrayEquals(new byte[small.length], small);
+        }
+    }
+
+    @Test
+    public void contextPerThread() throws Exception {
+        final SigningContext context = SigningContext.get();
+        assertSame(context, SigningContext.get());
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertNotSame(context, executor.submit(new Callable<SigningContext>() {
+                @Override
+                public SigningContext call() {
+                    return SigningContext.get();
+                }
+            }).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
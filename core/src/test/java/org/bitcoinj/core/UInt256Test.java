@@ -0,0 +1,148 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.core;
+
+import org.bitcoinj.params.MainNetParams;
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class UInt256Test {
+    private static final BigInteger TWO_TO_256 = BigInteger.ONE.shiftLeft(256);
+
+    private final Random random = new Random(42);
+
+    // Random values of random bit lengths, so that short values and carries across words both come up.
+    private BigInteger randomValue() {
+        int bits = random.nextInt(257);
+        BigInteger value = new BigInteger(bits, random);
+        if (random.nextInt(8) == 0)
+            value = BigInteger.ONE.shiftLeft(bits).subtract(BigInteger.ONE).min(TWO_TO_256.subtract(BigInteger.ONE));
+        return value;
+    }
+
+    private static UInt256 u(BigInteger value) {
+        return UInt256.fromBigInteger(value);
+    }
+
+    @Test
+    public void arithmeticMatchesBigInteger() {
+        for (int i = 0; i < 5000; i++) {
+            BigInteger a = randomValue(), b = randomValue();
+            assertEquals(a, u(a).toBigInteger());
+            assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(u(a).compareTo(u(b))));
+            assertEquals(a.bitLength(), u(a).bitLength());
+            assertEquals(a.and(b), u(a).and(u(b)).toBigInteger());
+            assertEquals(TWO_TO_256.subtract(a).mod(TWO_TO_256), u(a).negate().toBigInteger());
+
+            BigInteger sum = a.add(b);
+            if (sum.bitLength() <= 256)
+                assertEquals(sum, u(a).add(u(b)).toBigInteger());
+            BigInteger max = a.max(b), min = a.min(b);
+            assertEquals(max.subtract(min), u(max).subtract(u(min)).toBigInteger());
+            if (b.signum() > 0) {
+                assertEquals(a.divide(b), u(a).divide(u(b)).toBigInteger());
+                BigInteger small = b.shiftRight(Math.max(0, b.bitLength() - 1 - random.nextInt(63)));
+                assertEquals(a.divide(small), u(a).divide(small.longValue()).toBigInteger());
+            }
+            long factor = random.nextLong() >>> (1 + random.nextInt(63));
+            BigInteger product = a.multiply(BigInteger.valueOf(factor));
+            if (product.bitLength() <= 256)
+                assertEquals(product, u(a).multiply(factor).toBigInteger());
+            int shift = random.nextInt(300);
+            assertEquals(a.shiftLeft(shift).mod(TWO_TO_256), u(a).shiftLeft(shift).toBigInteger());
+            assertEquals(a.shiftRight(shift), u(a).shiftRight(shift).toBigInteger());
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void addOverflow() {
+        u(TWO_TO_256.subtract(BigInteger.ONE)).add(UInt256.ONE);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void subtractUnderflow() {
+        UInt256.ONE.subtract(UInt256.valueOf(2));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void divideByZero() {
+        UInt256.ONE.divide(UInt256.ZERO);
+    }
+
+    @Test
+    public void compactMatchesUtils() {
+        for (int i = 0; i < 5000; i++) {
+            BigInteger value = randomValue();
+            assertEquals(Utils.encodeCompactBits(value), u(value).encodeCompact());
+            long compact = Utils.encodeCompactBits(value);
+            assertEquals(Utils.decodeCompactBits(compact), UInt256.decodeCompact(compact).toBigInteger());
+        }
+        assertEquals(Utils.encodeCompactBits(BigInteger.ZERO), UInt256.ZERO.encodeCompact());
+        for (int i = 0; i < 5000; i++) {
+            long compact = random.nextInt(35) << 24 | random.nextInt(0x800000);
+            BigInteger expected = Utils.decodeCompactBits(compact);
+            try {
+                assertEquals(expected, UInt256.decodeCompact(compact).toBigInteger());
+            } catch (ArithmeticException e) {
+                assertTrue(expected.bitLength() > 256);
+            }
+        }
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void negativeCompact() {
+        UInt256.decodeCompact(0x04923456L);
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void overflowingCompact() {
+        UInt256.decodeCompact(0x23123456L);
+    }
+
+    @Test
+    public void bytes() {
+        for (int i = 0; i < 1000; i++) {
+            BigInteger value = randomValue();
+            byte[] bytes = u(value).toBytes();
+            assertEquals(UInt256.BYTES, bytes.length);
+            assertEquals(value, new BigInteger(1, bytes));
+            assertEquals(u(value), UInt256.fromBytes(value.toByteArray()));
+
+            int length = (value.bitLength() + 7) / 8 + random.nextInt(3);
+            if (length > UInt256.BYTES)
+                continue;
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            u(value).write(buffer, length);
+            buffer.flip();
+            assertEquals(u(value), UInt256.read(buffer, length));
+        }
+    }
+
+    @Test
+    public void blockWorkAndTarget() {
+        Context.propagate(new Context(MainNetParams.get()));
+        Block genesis = MainNetParams.get().getGenesisBlock();
+        assertEquals(genesis.getWork(), genesis.getWorkAsUInt256().toBigInteger());
+        assertEquals(genesis.getDifficultyTargetAsInteger(), genesis.getDifficultyTargetAsUInt256().toBigInteger());
+        genesis.verifyHeader();
+    }
+}
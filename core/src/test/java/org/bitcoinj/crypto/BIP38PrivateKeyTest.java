@@ -26,9 +26,12 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
 
 public class BIP38PrivateKeyTest {
 
@@ -183,4 +186,16 @@ public class BIP38PrivateKeyTest {
         String base58 = "6PfMmVHn153N3x83Yiy4Nf76dHUkXufe2Adr9Fw5bewrunGNeaw2QCpifb";
         assertEquals(base58, BIP38PrivateKey.fromBase58(MAINNET, base58).toBase58());
     }
+
+    @Test
+    public void bulkDecryption() throws Exception {
+        List<BIP38PrivateKey> keys = Arrays.asList(
+                BIP38PrivateKey.fromBase58(MAINNET, "6PRVWUbkzzsbcVac2qwfssoUJAN1Xhrg6bNk8J7Nzm5H7kxEbn2Nh2ZoGg"),
+                BIP38PrivateKey.fromBase58(MAINNET, "6PRNFFkZc2NZ6dJqFfhRoFNMR9Lnyj7dYGrzdgXXVMXcxoKTePPX1dWByq"));
+        List<ECKey> decrypted = BIP38PrivateKey.decrypt(keys, "TestingOneTwoThree");
+        assertEquals(2, decrypted.size());
+        assertEquals("5KN7MzqK5wt2TP1fQCYyHBtDrXdJuXbUzm4A9rKAteGu3Qi5CVR",
+                decrypted.get(0).getPrivateKeyEncoded(MAINNET).toString());
+        assertNull(decrypted.get(1));
+    }
 }
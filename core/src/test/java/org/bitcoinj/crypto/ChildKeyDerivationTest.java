@@ -22,6 +22,8 @@ import org.bitcoinj.params.*;
 import org.junit.*;
 import org.spongycastle.crypto.params.*;
 
+import java.util.List;
+
 import static org.bitcoinj.core.Utils.*;
 import static org.junit.Assert.*;
 
@@ -185,6 +187,27 @@ public class ChildKeyDerivationTest {
         assertEquals(key3.getPubKeyPoint(), pubkey3.getPubKeyPoint());
     }
 
+    @Test
+    public void bulkDerivation() throws Exception {
+        DeterministicKey master = HDKeyDerivation.createMasterPrivateKey("satoshi lives!".getBytes());
+        DeterministicKey parent = HDKeyDerivation.deriveChildKey(master, ChildNumber.ZERO_HARDENED);
+        DeterministicKey pubParent = parent.dropPrivateBytes().dropParent();
+        List<DeterministicKey> keys = HDKeyDerivation.deriveChildKeys(parent, 5, 50);
+        List<DeterministicKey> pubKeys = HDKeyDerivation.deriveChildKeys(pubParent, 5, 50);
+        assertEquals(50, keys.size());
+        assertEquals(50, pubKeys.size());
+        for (int i = 0; i < 50; i++) {
+            DeterministicKey expected = HDKeyDerivation.deriveThisOrNextChildKey(parent, 5 + i);
+            assertEquals(expected, keys.get(i));
+            assertEquals(expected.getPath(), keys.get(i).getPath());
+            assertEquals(expected.getPrivKey(), keys.get(i).getPrivKey());
+            assertArrayEquals(expected.getPubKey(), pubKeys.get(i).getPubKey());
+            assertArrayEquals(expected.getChainCode(), pubKeys.get(i).getChainCode());
+            assertTrue(pubKeys.get(i).isPubKeyOnly());
+        }
+        assertTrue(HDKeyDerivation.deriveChildKeys(parent, 0, 0).isEmpty());
+    }
+
     @Test
     public void testSerializationMainAndTestNetworks() {
         DeterministicKey key1 = HDKeyDerivation.createMasterPrivateKey("satoshi lives!".getBytes());
@@ -71,6 +71,17 @@ public class KeyCrypterScryptTest {
         assertEquals(Utils.HEX.encode(TEST_BYTES1), Utils.HEX.encode(reborn));
     }
 
+    @Test
+    public void parallelScrypt() throws Exception {
+        byte[] password = "password".getBytes("UTF-8");
+        byte[] salt = "NaCl".getBytes("UTF-8");
+        // Test vector from the scrypt paper.
+        assertEquals("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b3731622eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640",
+                Utils.HEX.encode(KeyCrypterScrypt.scrypt(password, salt, 1024, 8, 16, 64)));
+        assertArrayEquals(com.lambdaworks.crypto.SCrypt.scryptJ(password, salt, 16, 2, 5, 40),
+                KeyCrypterScrypt.scrypt(password, salt, 16, 2, 5, 40));
+    }
+
     /**
      * Test with random plain text strings and random passwords.
      * UUIDs are used and hence will only cover hex characters (and the separator hyphen).
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.pow;
+
+import org.bitcoinj.core.*;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.store.BlockStore;
+import org.bitcoinj.store.MemoryBlockStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChainWindowTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+    private static final long START_TIME = 1500000000;
+
+    private BlockStore store;
+    private Address address;
+    private List<StoredBlock> blocks;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        store = new MemoryBlockStore(PARAMS);
+        address = new ECKey().toAddress(PARAMS);
+        blocks = new ArrayList<StoredBlock>();
+        blocks.add(store.getChainHead());
+        for (int i = 0; i < 400; i++)
+            blocks.add(next(blocks.get(i), 0));
+    }
+
+    // Makes a block on top of the given one, with timestamps that are not in order.
+    private StoredBlock next(StoredBlock prev, int salt) throws Exception {
+        int height = prev.getHeight() + 1;
+        Block header = prev.getHeader().createNextBlock(address, Block.BLOCK_VERSION_GENESIS,
+                START_TIME + height * 600 - (height % 7) * 300 + salt, height).cloneAsHeader();
+        StoredBlock block = prev.build(header);
+        store.put(block);
+        return block;
+    }
+
+    private BlockChain chainWithHead(StoredBlock head) throws Exception {
+        store.setChainHead(head);
+        return new BlockChain(PARAMS, store);
+    }
+
+    private void assertMedianTimePast(ChainWindow window, StoredBlock block) throws Exception {
+        assertEquals(AbstractBlockChain.getMedianTimestampOfRecentBlocks(block, store), window.getMedianTimePast(block));
+    }
+
+    @Test
+    public void followsChain() throws Exception {
+        ChainWindow window = new ChainWindow();
+        assertFalse(window.moveTo(blocks.get(0), store, null));
+        assertTrue(window.moveTo(blocks.get(0), store, chainWithHead(blocks.get(0))));
+        for (StoredBlock block : blocks) {
+            assertTrue(window.moveTo(block, store, null));
+            assertEquals(block, window.getTip());
+            assertMedianTimePast(window, block);
+        }
+        assertEquals(blocks.get(400 - 144), window.get(400 - 144));
+        assertNull(window.get(400 - ChainWindow.DEFAULT_CAPACITY));
+        assertNull(window.get(401));
+        // The median of blocks that already left the window is not known any more.
+        assertEquals(ChainWindow.UNKNOWN, window.getMedianTimePast(blocks.get(100)));
+    }
+
+    @Test
+    public void rewindsToChainHead() throws Exception {
+        ChainWindow window = new ChainWindow();
+        BlockChain chain = chainWithHead(blocks.get(300));
+        assertTrue(window.moveTo(blocks.get(300), store, chain));
+        for (int i = 301; i <= 400; i++)
+            assertTrue(window.moveTo(blocks.get(i), store, null));
+
+        // A block below the tip is only followed if it is the chain head.
+        assertFalse(window.moveTo(blocks.get(350), store, chain));
+        assertEquals(blocks.get(400), window.getTip());
+        chain = chainWithHead(blocks.get(350));
+        assertTrue(window.moveTo(blocks.get(350), store, chain));
+        assertEquals(blocks.get(350), window.getTip());
+        assertNull(window.get(351));
+        assertMedianTimePast(window, blocks.get(350));
+
+        // Another chain from there gets the right medians, as the rewind put the older timestamps back.
+        StoredBlock fork = blocks.get(350);
+        for (int i = 0; i < 20; i++) {
+            fork = next(fork, 1);
+            assertTrue(window.moveTo(fork, store, null));
+            assertMedianTimePast(window, fork);
+        }
+    }
+
+    @Test
+    public void loadsChainHead() throws Exception {
+        ChainWindow window = new ChainWindow();
+        assertTrue(window.moveTo(blocks.get(400), store, chainWithHead(blocks.get(400))));
+        int low = 400 - ChainWindow.DEFAULT_CAPACITY + 1;
+        assertEquals(blocks.get(low), window.get(low));
+        assertNull(window.get(low - 1));
+        // The first blocks of the window don't have enough blocks below them in the window.
+        assertEquals(ChainWindow.UNKNOWN, window.getMedianTimePast(blocks.get(low)));
+        for (int i = low + 10; i <= 400; i++)
+            assertMedianTimePast(window, blocks.get(i));
+
+        // Near the start of the store all blocks are there.
+        window = new ChainWindow();
+        assertTrue(window.moveTo(blocks.get(5), store, chainWithHead(blocks.get(5))));
+        for (int i = 0; i <= 5; i++)
+            assertMedianTimePast(window, blocks.get(i));
+    }
+
+    @Test
+    public void sideChainsLeaveWindowAlone() throws Exception {
+        ChainWindow window = new ChainWindow();
+        BlockChain chain = chainWithHead(blocks.get(400));
+        assertTrue(window.moveTo(blocks.get(400), store, chain));
+        StoredBlock side = next(blocks.get(390), 1);
+        assertFalse(window.moveTo(side, store, chain));
+        assertEquals(blocks.get(400), window.getTip());
+        assertEquals(ChainWindow.UNKNOWN, window.getMedianTimePast(side));
+    }
+}
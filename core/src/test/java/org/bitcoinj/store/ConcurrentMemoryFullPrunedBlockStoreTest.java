@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Address;
+import org.bitcoinj.core.Coin;
+import org.bitcoinj.core.ECKey;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.params.UnitTestParams;
+import org.bitcoinj.script.Script;
+import org.bitcoinj.script.ScriptBuilder;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentMemoryFullPrunedBlockStoreTest {
+    private static final NetworkParameters PARAMS = UnitTestParams.get();
+
+    private ConcurrentMemoryFullPrunedBlockStore store;
+    private Address address;
+    private Script script;
+
+    @Before
+    public void setUp() throws Exception {
+        store = new ConcurrentMemoryFullPrunedBlockStore(PARAMS, 10);
+        address = new ECKey().toAddress(PARAMS);
+        script = ScriptBuilder.createOutputScript(address);
+    }
+
+    private UTXO output(int tx, long index) {
+        return new UTXO(Sha256Hash.of(new byte[] { (byte) tx }), index, Coin.CENT, 1, false, script, address.toString());
+    }
+
+    private boolean visibleFromOtherThread(final UTXO out) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            return executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return store.getTransactionOutput(out.getHash(), out.getIndex()) != null;
+                }
+            }).get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void batchIsPrivateUntilCommit() throws Exception {
+        UTXO spent = output(1, 0);
+        store.addUnspentTransactionOutput(spent);
+        UTXO created = output(2, 0);
+
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(spent);
+        store.addUnspentTransactionOutput(created);
+        // The writer sees its own changes, other threads do not.
+        assertNull(store.getTransactionOutput(spent.getHash(), 0));
+        assertEquals(created, store.getTransactionOutput(created.getHash(), 0));
+        assertTrue(visibleFromOtherThread(spent));
+        assertFalse(visibleFromOtherThread(created));
+        assertEquals(Collections.singletonList(spent),
+                store.getOpenTransactionOutputs(Collections.singletonList(address)));
+
+        store.commitDatabaseBatchWrite();
+        assertFalse(visibleFromOtherThread(spent));
+        assertTrue(visibleFromOtherThread(created));
+        assertEquals(Collections.singletonList(created),
+                store.getOpenTransactionOutputs(Collections.singletonList(address)));
+    }
+
+    @Test
+    public void abortDiscardsBatch() throws Exception {
+        UTXO spent = output(1, 0);
+        store.addUnspentTransactionOutput(spent);
+        store.beginDatabaseBatchWrite();
+        store.removeUnspentTransactionOutput(spent);
+        store.addUnspentTransactionOutput(output(2, 0));
+        store.abortDatabaseBatchWrite();
+        assertEquals(spent, store.getTransactionOutput(spent.getHash(), 0));
+        assertNull(store.getTransactionOutput(output(2, 0).getHash(), 0));
+    }
+
+    @Test(expected = BlockStoreException.class)
+    public void removeMissingOutput() throws Exception {
+        store.removeUnspentTransactionOutput(output(1, 0));
+    }
+
+    @Test
+    public void readersRunDuringWrites() throws Exception {
+        // Outputs of transaction 0 are never touched, so readers must always find them while the writer churns
+        // through other outputs and resizes the table underneath them.
+        for (int i = 0; i < 100; i++)
+            store.addUnspentTransactionOutput(output(0, i));
+        final AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<?>[] readers = new Future<?>[4];
+            for (int r = 0; r < readers.length; r++) {
+                readers[r] = executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        while (!done.get())
+                            for (int i = 0; i < 100; i++)
+                                assertNotNull(store.getTransactionOutput(output(0, i).getHash(), i));
+                        return null;
+                    }
+                });
+            }
+            for (int round = 0; round < 20; round++) {
+                store.beginDatabaseBatchWrite();
+                for (int i = 0; i < 500; i++)
+                    store.addUnspentTransactionOutput(output(1 + round, i));
+                store.commitDatabaseBatchWrite();
+                for (int i = 0; i < 500; i++)
+                    store.removeUnspentTransactionOutput(output(1 + round, i));
+            }
+            done.set(true);
+            for (Future<?> reader : readers)
+                reader.get();
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
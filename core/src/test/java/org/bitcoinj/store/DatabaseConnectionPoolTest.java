@@ -0,0 +1,177 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.params.UnitTestParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DatabaseConnectionPoolTest {
+    private DatabaseConnectionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        Class.forName("org.h2.Driver");
+        pool = new DatabaseConnectionPool(new DatabaseConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection newConnection() throws SQLException {
+                return DriverManager.getConnection("jdbc:h2:mem:poolTest");
+            }
+        }, 2, false, 2);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void reusesReleasedConnection() throws Exception {
+        Connection first = pool.borrow(1000);
+        pool.release(first);
+        assertSame(first, pool.borrow(1000));
+        assertEquals(1, pool.getOpenConnections());
+    }
+
+    @Test
+    public void boundedAndTimesOut() throws Exception {
+        Connection a = pool.borrow(1000);
+        Connection b = pool.borrow(1000);
+        assertNotSame(a, b);
+        assertEquals(2, pool.getOpenConnections());
+        try {
+            pool.borrow(10);
+            fail();
+        } catch (BlockStoreException e) {
+            // Expected.
+        }
+        pool.release(b);
+        assertSame(b, pool.borrow(10));
+    }
+
+    @Test
+    public void cachesStatements() throws Exception {
+        Connection connection = pool.borrow(1000);
+        PreparedStatement one = pool.prepareStatement(connection, "SELECT 1");
+        assertSame(one, pool.prepareStatement(connection, "SELECT 1"));
+        pool.prepareStatement(connection, "SELECT 2");
+        pool.prepareStatement(connection, "SELECT 3");
+        // The cache holds two statements, so the least recently used one was evicted and closed.
+        assertTrue(one.isClosed());
+        assertNotSame(one, pool.prepareStatement(connection, "SELECT 1"));
+    }
+
+    @Test
+    public void shrinkClosesIdleConnections() throws Exception {
+        Connection a = pool.borrow(1000);
+        Connection b = pool.borrow(1000);
+        pool.release(a);
+        pool.setMaxConnections(1);
+        assertTrue(a.isClosed());
+        assertEquals(1, pool.getOpenConnections());
+        pool.release(b);
+        assertFalse(b.isClosed());
+    }
+
+    @Test(expected = BlockStoreException.class)
+    public void closedPoolRefusesConnections() throws Exception {
+        pool.close();
+        pool.borrow(1000);
+    }
+
+    @Test
+    public void slowConnectDoesNotBlockPool() throws Exception {
+        final CountDownLatch connecting = new CountDownLatch(1);
+        final CountDownLatch connect = new CountDownLatch(1);
+        final AtomicInteger opened = new AtomicInteger();
+        final DatabaseConnectionPool slowPool = new DatabaseConnectionPool(new DatabaseConnectionPool.ConnectionFactory() {
+            @Override
+            public Connection newConnection() throws SQLException {
+                if (opened.getAndIncrement() == 0) {
+                    // The first connect hangs until the test lets it go.
+                    connecting.countDown();
+                    try {
+                        connect.await();
+                    } catch (InterruptedException e) {
+                        throw new SQLException(e);
+                    }
+                }
+                return DriverManager.getConnection("jdbc:h2:mem:poolTest");
+            }
+        }, 2, false, 2);
+        Thread slow = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    slowPool.release(slowPool.borrow(1000));
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        slow.start();
+        assertTrue(connecting.await(10, TimeUnit.SECONDS));
+        // The other slot can still be used while the first connection is being opened.
+        Connection connection = slowPool.borrow(1000);
+        slowPool.release(connection);
+        assertEquals(1, slowPool.getOpenConnections());
+        connect.countDown();
+        slow.join();
+        assertEquals(2, slowPool.getOpenConnections());
+        slowPool.close();
+    }
+
+    @Test
+    public void readConnectionRefusesWrites() throws Exception {
+        ReadThenWriteStore store = new ReadThenWriteStore();
+        try {
+            store.readThenWrite();
+            fail();
+        } catch (BlockStoreException e) {
+            assertTrue(e.getMessage().contains("read-only"));
+        } finally {
+            store.close();
+        }
+    }
+
+    private static class ReadThenWriteStore extends H2FullPrunedBlockStore {
+        ReadThenWriteStore() throws BlockStoreException {
+            super(UnitTestParams.get(), "mem:readThenWrite", 10);
+        }
+
+        void readThenWrite() throws BlockStoreException {
+            maybeConnectForRead();
+            try {
+                maybeConnect();
+                releaseConnection();
+            } finally {
+                releaseConnection();
+            }
+        }
+    }
+}
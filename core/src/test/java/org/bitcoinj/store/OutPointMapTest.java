@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.store;
+
+import org.bitcoinj.core.Sha256Hash;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OutPointMapTest {
+
+    @Test
+    public void basics() {
+        OutPointMap<String> map = new OutPointMap<String>();
+        byte[] hash = Sha256Hash.of(new byte[] { 1 }).getBytes();
+        assertNull(map.get(hash, 0));
+        assertNull(map.put(hash, 0, "a"));
+        assertNull(map.put(hash, 1, "b"));
+        assertEquals("a", map.put(hash, 0, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(hash, 0));
+        assertEquals("b", map.get(hash, 1));
+        // The same index of another transaction is a different key.
+        assertNull(map.get(Sha256Hash.of(new byte[] { 2 }).getBytes(), 0));
+        assertEquals("b", map.remove(hash, 1));
+        assertNull(map.remove(hash, 1));
+        assertEquals(1, map.size());
+        assertNull(map.get(hash, 1));
+    }
+
+    @Test
+    public void matchesHashMap() {
+        // Many outputs of few transactions, so that probe sequences overlap and removal has to shift entries back.
+        Random random = new Random(42);
+        List<byte[]> hashes = new ArrayList<byte[]>();
+        for (int i = 0; i < 20; i++)
+            hashes.add(Sha256Hash.of(new byte[] { (byte) i }).getBytes());
+        OutPointMap<Integer> map = new OutPointMap<Integer>();
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        for (int i = 0; i < 20000; i++) {
+            int tx = random.nextInt(hashes.size());
+            long index = random.nextInt(200);
+            String key = tx + ":" + index;
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(hashes.get(tx), index));
+            } else {
+                assertEquals(expected.put(key, i), map.put(hashes.get(tx), index, i));
+            }
+            assertEquals(expected.size(), map.size());
+        }
+        for (int tx = 0; tx < hashes.size(); tx++)
+            for (long index = 0; index < 200; index++)
+                assertEquals(expected.get(tx + ":" + index), map.get(hashes.get(tx), index));
+        List<Integer> values = new ArrayList<Integer>();
+        map.addValuesTo(values);
+        assertEquals(expected.size(), values.size());
+        assertTrue(values.containsAll(expected.values()));
+    }
+
+    @Test
+    public void largeIndex() {
+        OutPointMap<String> map = new OutPointMap<String>();
+        byte[] hash = Sha256Hash.of(new byte[] { 1 }).getBytes();
+        map.put(hash, 0xFFFFFFFFL, "max");
+        assertEquals("max", map.get(hash, 0xFFFFFFFFL));
+        assertNull(map.get(hash, 0x7FFFFFFFL));
+    }
+}
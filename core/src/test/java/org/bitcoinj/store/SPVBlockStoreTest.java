@@ -20,12 +20,18 @@ import org.bitcoinj.core.Address;
 import org.bitcoinj.core.ECKey;
 import org.bitcoinj.core.NetworkParameters;
 import org.bitcoinj.core.StoredBlock;
+import org.bitcoinj.core.Utils;
 import org.bitcoinj.params.UnitTestParams;
 import org.junit.Test;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class SPVBlockStoreTest {
 
@@ -58,4 +64,106 @@ public class SPVBlockStoreTest {
         StoredBlock chainHead = store.getChainHead();
         assertEquals(b1, chainHead);
     }
+
+    private static SPVBlockStore newStore(NetworkParameters params) throws Exception {
+        File f = File.createTempFile("spvblockstore", null);
+        f.delete();
+        f.deleteOnExit();
+        return new SPVBlockStore(params, f);
+    }
+
+    private static List<StoredBlock> extend(StoredBlock from, int count) throws Exception {
+        Address to = new ECKey().toAddress(from.getHeader().getParams());
+        List<StoredBlock> blocks = new ArrayList<StoredBlock>();
+        StoredBlock prev = from;
+        for (int i = 0; i < count; i++) {
+            prev = prev.build(prev.getHeader().createNextBlock(to).cloneAsHeader());
+            blocks.add(prev);
+        }
+        return blocks;
+    }
+
+    @Test
+    public void forcePolicy() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        SPVBlockStore store = newStore(params);
+        List<StoredBlock> blocks = extend(store.getChainHead(), 8);
+
+        // Every two headers, on the writing thread. Changing the chain head doesn't count as a header.
+        store.setForcePolicy(2, 0, null);
+        for (int i = 0; i < 4; i++) {
+            store.put(blocks.get(i));
+            store.setChainHead(blocks.get(i));
+        }
+        assertEquals(2, store.getForceCount());
+
+        // On an executor, where forces that are queued already cover later writes.
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        store.setForcePolicy(1, 0, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                queued.add(command);
+            }
+        });
+        store.put(blocks.get(4));
+        store.put(blocks.get(5));
+        assertEquals(1, queued.size());
+        queued.get(0).run();
+        assertEquals(3, store.getForceCount());
+        store.put(blocks.get(6));
+        assertEquals(2, queued.size());
+
+        // After a given time.
+        Utils.setMockClock();
+        store.setForcePolicy(0, 1000, null);
+        store.setChainHead(blocks.get(6));
+        Utils.rollMockClock(1);
+        store.setChainHead(blocks.get(6));
+        assertEquals(4, store.getForceCount());
+        store.flush();
+        assertEquals(5, store.getForceCount());
+        store.close();
+        // A force that was queued before the store was closed does nothing.
+        queued.get(1).run();
+        assertEquals(5, store.getForceCount());
+    }
+
+    @Test
+    public void readersWhileWriting() throws Exception {
+        NetworkParameters params = UnitTestParams.get();
+        final SPVBlockStore store = newStore(params);
+        final List<StoredBlock> blocks = extend(store.getChainHead(), 200);
+        final CountDownLatch done = new CountDownLatch(4);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        for (int i = 0; i < 4; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // Each block is either not there yet or the same as the one that was put.
+                        for (int j = 0; j < 2000; j++) {
+                            StoredBlock block = blocks.get(j % blocks.size());
+                            StoredBlock found = store.get(block.getHeader().getHash());
+                            if (found != null)
+                                assertEquals(block, found);
+                        }
+                    } catch (Throwable t) {
+                        failure.set(t);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        for (StoredBlock block : blocks) {
+            store.put(block);
+            store.setChainHead(block);
+        }
+        done.await();
+        assertNull(failure.get());
+        for (StoredBlock block : blocks)
+            assertEquals(block, store.get(block.getHeader().getHash()));
+        assertEquals(blocks.get(199), store.getChainHead());
+        store.close();
+    }
 }
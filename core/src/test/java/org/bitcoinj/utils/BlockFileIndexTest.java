@@ -0,0 +1,183 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.params.TestNet3Params;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockFileIndexTest {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The blocks of the test file in chain order, starting with genesis.
+    private List<byte[]> blocks;
+    private List<Sha256Hash> hashes;
+
+    @Before
+    public void setUp() throws Exception {
+        Context.propagate(new Context(PARAMS));
+        // The test file uses the Bitcoin Core framing, but with the magic of the original chain.
+        byte[] file = ByteStreams.toByteArray(getClass().getResourceAsStream("/org/bitcoinj/core/first-100k-blocks.dat"));
+        ByteBuffer buffer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        blocks = new ArrayList<byte[]>();
+        hashes = new ArrayList<Sha256Hash>();
+        while (buffer.remaining() >= 8) {
+            buffer.getInt();
+            byte[] block = new byte[buffer.getInt()];
+            buffer.get(block);
+            blocks.add(block);
+            hashes.add(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(block, 0, 80)));
+        }
+        assertTrue(blocks.size() > 100);
+    }
+
+    private void writeBlocks(File file, List<byte[]> blocks, boolean append) throws IOException {
+        FileOutputStream out = new FileOutputStream(file, append);
+        try {
+            for (byte[] block : blocks) {
+                // Some junk between records, which the scan has to skip.
+                out.write(new byte[] { 0, 0, 0 });
+                ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(Integer.reverseBytes((int) PARAMS.getPacketMagic()));
+                header.putInt(block.length);
+                out.write(header.array());
+                out.write(block);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private List<File> writeShuffled(List<byte[]> blocks) throws IOException {
+        List<byte[]> shuffled = new ArrayList<byte[]>(blocks);
+        Collections.shuffle(shuffled, new Random(1));
+        File first = folder.newFile("blk00000.dat");
+        File second = folder.newFile("blk00001.dat");
+        int half = shuffled.size() / 2;
+        writeBlocks(first, shuffled.subList(0, half), false);
+        writeBlocks(second, shuffled.subList(half, shuffled.size()), false);
+        return Arrays.asList(first, second);
+    }
+
+    private void assertChainOrder(List<BlockFileIndex.Entry> chain, int expectedLength) {
+        assertEquals(expectedLength, chain.size());
+        for (int i = 0; i < chain.size(); i++)
+            assertEquals(hashes.get(i + 1), chain.get(i).getHash());
+    }
+
+    @Test
+    public void buildsChainOrderFromShuffledFiles() throws Exception {
+        List<File> files = writeShuffled(blocks);
+        BlockFileIndex index = BlockFileIndex.build(PARAMS, files);
+        assertEquals(blocks.size(), index.size());
+        List<BlockFileIndex.Entry> chain = index.getBestChainAfter(PARAMS.getGenesisBlock().getHash());
+        assertChainOrder(chain, blocks.size() - 1);
+        assertArrayEquals(blocks.get(5), index.read(chain.get(4)));
+        // Starting further up skips what is already there.
+        assertChainOrder(index.getBestChainAfter(hashes.get(blocks.size() - 1)), 0);
+
+        BlockFileLoader loader = new BlockFileLoader(PARAMS, index, PARAMS.getGenesisBlock().getHash());
+        int height = 1;
+        for (Block block : loader)
+            assertEquals(hashes.get(height++), block.getHash());
+        assertEquals(blocks.size(), height);
+        index.close();
+    }
+
+    @Test
+    public void saveAndLoadIndexesAppendedBlocks() throws Exception {
+        int firstPart = blocks.size() / 2;
+        List<File> files = writeShuffled(blocks.subList(0, firstPart));
+        BlockFileIndex index = BlockFileIndex.build(PARAMS, files);
+        assertChainOrder(index.getBestChainAfter(PARAMS.getGenesisBlock().getHash()), firstPart - 1);
+        File indexFile = new File(folder.getRoot(), "index");
+        index.save(indexFile);
+        index.close();
+
+        writeBlocks(files.get(1), blocks.subList(firstPart, blocks.size()), true);
+        BlockFileIndex loaded = BlockFileIndex.load(PARAMS, files, indexFile);
+        assertEquals(blocks.size(), loaded.size());
+        assertChainOrder(loaded.getBestChainAfter(PARAMS.getGenesisBlock().getHash()), blocks.size() - 1);
+        loaded.close();
+    }
+
+    @Test
+    public void indexesBlocksWrittenIntoPreallocatedSpace() throws Exception {
+        // Like Bitcoin Core, preallocate the file with zeros and write the blocks into them.
+        File file = folder.newFile("blk00000.dat");
+        writeBlocks(file, blocks.subList(0, 10), false);
+        long end = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(end + 1024 * 1024);
+        raf.close();
+        List<File> files = Arrays.asList(file);
+        BlockFileIndex index = BlockFileIndex.build(PARAMS, files);
+        assertEquals(10, index.size());
+        File indexFile = new File(folder.getRoot(), "index");
+        index.save(indexFile);
+        index.close();
+
+        // More blocks go into the zeros, so the file doesn't get longer.
+        File more = folder.newFile("more");
+        writeBlocks(more, blocks.subList(10, 20), false);
+        byte[] bytes = Files.toByteArray(more);
+        raf = new RandomAccessFile(file, "rw");
+        raf.seek(end);
+        raf.write(bytes);
+        raf.close();
+        assertEquals(end + 1024 * 1024, file.length());
+
+        BlockFileIndex loaded = BlockFileIndex.load(PARAMS, files, indexFile);
+        assertEquals(20, loaded.size());
+        assertChainOrder(loaded.getBestChainAfter(PARAMS.getGenesisBlock().getHash()), 19);
+        loaded.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesIndexOfOtherNetwork() throws Exception {
+        List<File> files = writeShuffled(blocks.subList(0, 10));
+        File indexFile = new File(folder.getRoot(), "index");
+        BlockFileIndex.build(PARAMS, files).save(indexFile);
+        BlockFileIndex.load(TestNet3Params.get(), files, indexFile);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.utils;
+
+import com.google.common.io.ByteStreams;
+import org.bitcoinj.core.Block;
+import org.bitcoinj.core.Context;
+import org.bitcoinj.core.FullPrunedBlockChain;
+import org.bitcoinj.core.NetworkParameters;
+import org.bitcoinj.core.Sha256Hash;
+import org.bitcoinj.core.UTXO;
+import org.bitcoinj.params.MainNetParams;
+import org.bitcoinj.store.FullPrunedBlockStore;
+import org.bitcoinj.store.MemoryFullPrunedBlockStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class BlockImportPipelineTest {
+    private static final NetworkParameters PARAMS = MainNetParams.get();
+    private static final int BLOCKS = 100;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // The first blocks of the test file in chain order, starting after genesis.
+    private List<byte[]> blocks;
+    private List<Sha256Hash> hashes;
+    private File blockFile;
+    private BlockFileIndex index;
+    private FullPrunedBlockStore store;
+    private FullPrunedBlockChain chain;
+    // The blocks the chain connected without running their scripts.
+    private Set<Sha256Hash> skippedScripts;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = new Context(PARAMS);
+        Context.propagate(context);
+        byte[] file = ByteStreams.toByteArray(getClass().getResourceAsStream("/org/bitcoinj/core/first-100k-blocks.dat"));
+        ByteBuffer buffer = ByteBuffer.wrap(file).order(ByteOrder.LITTLE_ENDIAN);
+        blocks = new ArrayList<byte[]>();
+        hashes = new ArrayList<Sha256Hash>();
+        while (blocks.size() <= BLOCKS) {
+            buffer.getInt();
+            byte[] block = new byte[buffer.getInt()];
+            buffer.get(block);
+            blocks.add(block);
+            hashes.add(Sha256Hash.wrapReversed(Sha256Hash.hashTwice(block, 0, 80)));
+        }
+        blocks.remove(0);
+        hashes.remove(0);
+        blockFile = folder.newFile("blk00000.dat");
+        writeBlocks(blockFile, blocks);
+        index = BlockFileIndex.build(PARAMS, Arrays.asList(blockFile));
+        store = new MemoryFullPrunedBlockStore(PARAMS, 10);
+        skippedScripts = new HashSet<Sha256Hash>();
+        chain = new FullPrunedBlockChain(context, store) {
+            @Override
+            protected boolean shouldRunScripts(Block block) {
+                boolean result = super.shouldRunScripts(block);
+                if (!result)
+                    skippedScripts.add(block.getHash());
+                return result;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+    }
+
+    private static void writeBlocks(File file, List<byte[]> blocks) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (byte[] block : blocks) {
+                ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(Integer.reverseBytes((int) PARAMS.getPacketMagic()));
+                header.putInt(block.length);
+                out.write(header.array());
+                out.write(block);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private BlockImportPipeline newPipeline(BlockFileLoader loader) {
+        BlockImportPipeline pipeline = new BlockImportPipeline(PARAMS, chain, loader);
+        pipeline.setParserThreads(2);
+        pipeline.setBlocksPerCommit(10);
+        return pipeline;
+    }
+
+    @Test
+    public void skipsScriptsUpToAssumeValid() throws Exception {
+        BlockImportPipeline pipeline = newPipeline(new BlockFileLoader(PARAMS, index, PARAMS.getGenesisBlock().getHash()));
+        pipeline.setAssumeValid(hashes.get(49), index);
+        BlockImportPipeline.Progress progress = pipeline.run();
+        assertEquals(BlockImportPipeline.AssumeValidStatus.REACHED, progress.getAssumeValidStatus());
+        assertEquals(50, progress.getUncheckedBlocks());
+        assertEquals(new HashSet<Sha256Hash>(hashes.subList(0, 50)), skippedScripts);
+        assertEquals(BLOCKS, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void checksScriptsOfDescendantThatArrivesBeforeAssumeValid() throws Exception {
+        // The child of the assumed valid block comes first, so the chain connects it as an orphan once its parent is
+        // added.
+        List<byte[]> reordered = new ArrayList<byte[]>(blocks);
+        Collections.swap(reordered, 49, 50);
+        File reorderedFile = folder.newFile("reordered.dat");
+        writeBlocks(reorderedFile, reordered);
+        BlockImportPipeline pipeline = newPipeline(new BlockFileLoader(PARAMS, Arrays.asList(reorderedFile)));
+        pipeline.setAssumeValid(hashes.get(49), index);
+        BlockImportPipeline.Progress progress = pipeline.run();
+        assertEquals(BlockImportPipeline.AssumeValidStatus.REACHED, progress.getAssumeValidStatus());
+        assertEquals(1, progress.getOrphanBlocks());
+        assertEquals(50, progress.getUncheckedBlocks());
+        assertEquals(new HashSet<Sha256Hash>(hashes.subList(0, 50)), skippedScripts);
+        assertEquals(BLOCKS, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void checksAllScriptsIfAssumeValidNotInFiles() throws Exception {
+        BlockImportPipeline pipeline = newPipeline(new BlockFileLoader(PARAMS, Arrays.asList(blockFile)));
+        pipeline.setAssumeValid(Sha256Hash.of(new byte[] { 1 }), index);
+        BlockImportPipeline.Progress progress = pipeline.run();
+        assertEquals(BlockImportPipeline.AssumeValidStatus.NOT_FOUND, progress.getAssumeValidStatus());
+        assertEquals(0, progress.getUncheckedBlocks());
+        assertTrue(skippedScripts.isEmpty());
+        assertEquals(BLOCKS, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void reportsAssumeValidNeverReached() throws Exception {
+        // The index knows the block, but the files being imported stop short of it.
+        File shortFile = folder.newFile("short.dat");
+        writeBlocks(shortFile, blocks.subList(0, 30));
+        BlockImportPipeline pipeline = newPipeline(new BlockFileLoader(PARAMS, Arrays.asList(shortFile)));
+        pipeline.setAssumeValid(hashes.get(49), index);
+        BlockImportPipeline.Progress progress = pipeline.run();
+        assertEquals(BlockImportPipeline.AssumeValidStatus.MISSED, progress.getAssumeValidStatus());
+        assertEquals(30, progress.getUncheckedBlocks());
+        assertEquals(new HashSet<Sha256Hash>(hashes.subList(0, 30)), skippedScripts);
+        assertEquals(30, chain.getBestChainHeight());
+    }
+
+    @Test
+    public void commitsAddedBlocksWhenImportFails() throws Exception {
+        BlockFileLoader loader = new BlockFileLoader(PARAMS, Arrays.asList(blockFile)) {
+            private int read;
+
+            @Override
+            public byte[] nextBlockBytes() {
+                if (++read > 25)
+                    throw new RuntimeException("Read failed");
+                return super.nextBlockBytes();
+            }
+        };
+        try {
+            newPipeline(loader).run();
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Read failed", e.getMessage());
+        }
+        assertEquals(25, chain.getBestChainHeight());
+
+        // The batch writes of the memory store are per thread, so another thread only sees committed outputs.
+        final Sha256Hash coinbase = PARAMS.getDefaultSerializer().makeBlock(blocks.get(24)).getTransactions().get(0)
+                .getHash();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            UTXO output = executor.submit(new Callable<UTXO>() {
+                @Override
+                public UTXO call() throws Exception {
+                    return store.getTransactionOutput(coinbase, 0);
+                }
+            }).get();
+            assertNotNull(output);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
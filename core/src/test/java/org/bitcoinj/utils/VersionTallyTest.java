@@ -26,6 +26,9 @@ import org.bitcoinj.store.BlockStoreException;
 import org.bitcoinj.store.MemoryBlockStore;
 import org.bitcoinj.testing.FakeTxBuilder;
 import org.junit.Test;
+
+import java.util.Random;
+
 import static org.junit.Assert.*;
 import org.junit.Before;
 
@@ -92,6 +95,34 @@ public class VersionTallyTest {
         assertEquals(PARAMS.getMajorityWindow() - 1, instance.getCountAtOrAbove(2).intValue());
     }
 
+    /**
+     * Verify that the counts follow the window as versions are replaced.
+     */
+    @Test
+    public void testCountsFollowWindow() {
+        VersionTally instance = new VersionTally(PARAMS);
+        final int window = PARAMS.getMajorityWindow();
+        final long[] added = new long[window * 3];
+        final Random random = new Random(1);
+        for (int i = 0; i < added.length; i++) {
+            added[i] = 1 + random.nextInt(5);
+            instance.add(added[i]);
+            if (i + 1 < window)
+                continue;
+            for (long version = 0; version <= 6; version++) {
+                int expected = 0;
+                for (int j = i + 1 - window; j <= i; j++) {
+                    if (added[j] >= version)
+                        expected++;
+                }
+                assertEquals(expected, instance.getCountAtOrAbove(version).intValue());
+            }
+        }
+
+        instance.clear();
+        assertNull(instance.getCountAtOrAbove(1));
+    }
+
     @Test
     public void testInitialize() throws BlockStoreException {
         final BlockStore blockStore = new MemoryBlockStore(PARAMS);
@@ -109,5 +140,10 @@ public class VersionTallyTest {
         VersionTally instance = new VersionTally(PARAMS);
         instance.initialize(blockStore, chainHead);
         assertEquals(PARAMS.getMajorityWindow(), instance.getCountAtOrAbove(2).intValue());
+
+        // Initializing again replaces what was there.
+        instance.add(1);
+        instance.initialize(blockStore, chainHead);
+        assertEquals(PARAMS.getMajorityWindow(), instance.getCountAtOrAbove(2).intValue());
     }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 the bitcoinj-cash developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.bitcoinj.wallet;
+
+import com.google.protobuf.ByteString;
+import org.bitcoinj.core.ECKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class KeyIndexTest {
+    @Test
+    public void agreesWithMap() {
+        Random random = new Random(1);
+        KeyIndex index = new KeyIndex();
+        Map<ByteString, ECKey> map = new HashMap<ByteString, ECKey>();
+        List<byte[]> added = new ArrayList<byte[]>();
+        ECKey key = new ECKey();
+        for (int i = 0; i < 5000; i++) {
+            if (added.isEmpty() || random.nextInt(3) != 0) {
+                // Few distinct last bytes, so that the probe runs get long.
+                byte[] bytes = new byte[20];
+                random.nextBytes(bytes);
+                bytes[19] = (byte) random.nextInt(4);
+                added.add(bytes);
+                assertEquals(map.put(ByteString.copyFrom(bytes), key), index.put(bytes, key));
+            } else {
+                byte[] bytes = added.remove(random.nextInt(added.size()));
+                assertEquals(map.remove(ByteString.copyFrom(bytes)), index.remove(bytes));
+                assertNull(index.remove(bytes));
+            }
+            assertEquals(map.size(), index.size());
+        }
+        for (byte[] bytes : added)
+            assertSame(key, index.get(bytes));
+        assertNull(index.get(new byte[20]));
+        assertNull(index.get(new byte[0]));
+    }
+}
@@ -1959,6 +1959,75 @@ public class WalletTest extends TestWithWallet {
         }
     }
 
+    @Test
+    public void signManyInputs() throws Exception {
+        for (int i = 0; i < 20; i++)
+            sendMoneyToWallet(AbstractBlockChain.NewBlockType.BEST_CHAIN, CENT, wallet.freshReceiveAddress());
+        SendRequest req = SendRequest.emptyWallet(OTHER_ADDRESS);
+        req.shuffleOutputs = false;
+        wallet.completeTx(req);
+        assertEquals(20, req.tx.getInputs().size());
+        for (TransactionInput input : req.tx.getInputs())
+            input.verify();
+
+        // Signing again gives the same transaction, whichever order the signatures were calculated in.
+        Transaction copy = PARAMS.getDefaultSerializer().makeTransaction(req.tx.bitcoinSerialize());
+        for (TransactionInput input : req.tx.getInputs())
+            input.setScriptSig(new Script(new byte[0]));
+        wallet.signTransaction(req);
+        assertArrayEquals(copy.bitcoinSerialize(), req.tx.bitcoinSerialize());
+    }
+
+    @Test
+    public void signingSession() throws Exception {
+        Utils.setMockClock();
+        Wallet encryptedWallet = new Wallet(PARAMS);
+        encryptedWallet.encrypt(PASSWORD1);
+        Address address = encryptedWallet.freshReceiveAddress();
+        sendMoneyToWallet(encryptedWallet, AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN, address);
+        sendMoneyToWallet(encryptedWallet, AbstractBlockChain.NewBlockType.BEST_CHAIN, COIN, address);
+        try {
+            encryptedWallet.unlock(WRONG_PASSWORD, 1, TimeUnit.HOURS);
+            fail();
+        } catch (KeyCrypterException e) {
+            // Expected.
+        }
+
+        // One session signs several transactions.
+        SigningSession session = encryptedWallet.unlock(PASSWORD1, 1, TimeUnit.HOURS);
+        assertTrue(session.isActive());
+        for (int i = 0; i < 2; i++) {
+            SendRequest req = SendRequest.to(OTHER_ADDRESS, CENT);
+            req.signingSession = session;
+            encryptedWallet.completeTx(req);
+            req.tx.getInput(0).verify();
+        }
+
+        // Once the session has expired it can't sign anymore.
+        Utils.rollMockClock(60 * 60);
+        assertFalse(session.isActive());
+        SendRequest req = SendRequest.to(OTHER_ADDRESS, CENT);
+        req.signingSession = session;
+        try {
+            encryptedWallet.completeTx(req);
+            fail();
+        } catch (ECKey.KeyIsEncryptedException e) {
+            // Expected.
+        }
+
+        session = encryptedWallet.unlock(encryptedWallet.getKeyCrypter().deriveKey(PASSWORD1), 1, TimeUnit.HOURS);
+        session.close();
+        assertFalse(session.isActive());
+
+        // A session is closed when it expires even if nobody uses it. The mock clock doesn't move, so only that
+        // can end it here.
+        session = encryptedWallet.unlock(PASSWORD1, 100, TimeUnit.MILLISECONDS);
+        long deadline = System.currentTimeMillis() + 10000;
+        while (session.isActive() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertFalse(session.isActive());
+    }
+
     @Test
     public void encryptionDecryptionPasswordBasic() throws Exception {
         Wallet encryptedWallet = new Wallet(PARAMS);
@@ -18,19 +18,28 @@ import org.bitcoinj.core.*;
 import org.bitcoinj.params.MainNetParams;
 import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.store.*;
+import org.bitcoinj.utils.BlockFileIndex;
 import org.bitcoinj.utils.BlockFileLoader;
+import org.bitcoinj.utils.BlockImportPipeline;
 import com.google.common.base.Preconditions;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.List;
 
-/** Very thin wrapper around {@link org.bitcoinj.utils.BlockFileLoader} */
+/** Very thin wrapper around {@link org.bitcoinj.utils.BlockImportPipeline} */
 public class BlockImporter {
-    public static void main(String[] args) throws BlockStoreException, VerificationException, PrunedException {
-        System.out.println("USAGE: BlockImporter (prod|test) (H2|Disk|MemFull|Mem|SPV) [blockStore]");
+    // Store commits are this many blocks apart when doing full verification.
+    private static final int BLOCKS_PER_COMMIT = 1000;
+
+    public static void main(String[] args) throws BlockStoreException, VerificationException, PrunedException,
+            InterruptedException, IOException {
+        System.out.println("USAGE: BlockImporter (prod|test) (H2|Disk|MemFull|Mem|SPV) [blockStore] [assumeValidHash]");
         System.out.println("       blockStore is required unless type is Mem or MemFull");
         System.out.println("       eg BlockImporter prod H2 /home/user/bitcoinj.h2store");
-        System.out.println("       Does full verification if the store supports it");
-        Preconditions.checkArgument(args.length == 2 || args.length == 3);
+        System.out.println("       Does full verification if the store supports it, except for the scripts of");
+        System.out.println("       assumeValidHash and the blocks before it");
+        Preconditions.checkArgument(args.length >= 2 && args.length <= 4);
         
         NetworkParameters params;
         if (args[0].equals("test"))
@@ -40,10 +49,10 @@ public class BlockImporter {
         
         BlockStore store;
         if (args[1].equals("H2")) {
-            Preconditions.checkArgument(args.length == 3);
+            Preconditions.checkArgument(args.length >= 3);
             store = new H2FullPrunedBlockStore(params, args[2], 100);
         } else if (args[1].equals("MemFull")) {
-            Preconditions.checkArgument(args.length == 2);
+            Preconditions.checkArgument(args.length <= 3);
             store = new MemoryFullPrunedBlockStore(params, 100);
         } else if (args[1].equals("Mem")) {
             Preconditions.checkArgument(args.length == 2);
@@ -62,9 +71,32 @@ public class BlockImporter {
         else
             chain = new BlockChain(params, store);
         
-        BlockFileLoader loader = new BlockFileLoader(params, BlockFileLoader.getReferenceClientBlockFileList());
-        
-        for (Block block : loader)
-            chain.add(block);
+        // Read the blocks in chain order, so the chain doesn't have to hold on to orphans. The index is kept next to
+        // the store, if there is one, so that the next import only has to index the newly written blocks.
+        List<File> files = BlockFileLoader.getReferenceClientBlockFileList();
+        File indexFile = args.length >= 3 && !args[1].equals("MemFull") ? new File(args[2] + ".blockindex") : null;
+        BlockFileIndex index = null;
+        if (indexFile != null && indexFile.exists()) {
+            try {
+                index = BlockFileIndex.load(params, files, indexFile);
+            } catch (IOException e) {
+                System.err.println("Rebuilding block file index: " + e.getMessage());
+            }
+        }
+        if (index == null)
+            index = BlockFileIndex.build(params, files);
+        if (indexFile != null)
+            index.save(indexFile);
+        BlockFileLoader loader = new BlockFileLoader(params, index, chain.getChainHead().getHeader().getHash());
+        BlockImportPipeline pipeline = new BlockImportPipeline(params, chain, loader);
+        if (store instanceof FullPrunedBlockStore) {
+            pipeline.setBlocksPerCommit(BLOCKS_PER_COMMIT);
+            // The hash comes last, after the store path for H2 and straight after the store type for MemFull.
+            int hashArg = args[1].equals("MemFull") ? 2 : 3;
+            if (args.length > hashArg)
+                pipeline.setAssumeValid(Sha256Hash.wrap(args[hashArg]), index);
+        }
+        System.out.println(pipeline.run());
+        index.close();
     }
 }
@@ -24,6 +24,7 @@ import org.bitcoinj.params.RegTestParams;
 import org.bitcoinj.params.TestNet3Params;
 import org.bitcoinj.store.BlockStore;
 import org.bitcoinj.store.MemoryBlockStore;
+import org.bitcoinj.store.SPVBlockStore;
 import org.bitcoinj.utils.BriefLogFormatter;
 import org.bitcoinj.utils.Threading;
 import com.google.common.base.Charsets;
@@ -51,7 +52,8 @@ import static com.google.common.base.Preconditions.checkState;
 
 /**
  * Downloads and verifies a full chain from your local peer, emitting checkpoints at each difficulty transition period
- * to a file which is then signed with your key.
+ * to a file which is then signed with your key. It can also write a {@link HeaderSnapshot} of the last headers, either
+ * of the downloaded chain or of a local SPV block store.
  */
 public class BuildCheckpoints {
     private static NetworkParameters params;
@@ -64,6 +66,8 @@ public class BuildCheckpoints {
         OptionSpec<NetworkEnum> netFlag = parser.accepts("net").withRequiredArg().ofType(NetworkEnum.class).defaultsTo(NetworkEnum.MAIN);
         parser.accepts("peer").withRequiredArg();
         OptionSpec<Integer> daysFlag = parser.accepts("days").withRequiredArg().ofType(Integer.class).defaultsTo(30);
+        OptionSpec<Integer> headersFlag = parser.accepts("headers").withRequiredArg().ofType(Integer.class).defaultsTo(2016);
+        OptionSpec<File> storeFlag = parser.accepts("store").withRequiredArg().ofType(File.class);
         OptionSet options = parser.parse(args);
 
         if (options.has("help")) {
@@ -90,6 +94,26 @@ public class BuildCheckpoints {
                 throw new RuntimeException("Unreachable.");
         }
 
+        final File snapshotFile = new File("headers" + suffix);
+
+        if (options.has(storeFlag)) {
+            // Only write a snapshot of the headers in the given store, without going to the network.
+            File storeFile = storeFlag.value(options);
+            if (!storeFile.exists()) {
+                System.err.println("No such block store: " + storeFile);
+                System.exit(1);
+                return;
+            }
+            long timeAgo = new Date().getTime() / 1000 - (86400 * options.valueOf(daysFlag));
+            BlockStore store = new SPVBlockStore(params, storeFile);
+            try {
+                writeSnapshot(store, timeAgo, headersFlag.value(options), snapshotFile);
+            } finally {
+                store.close();
+            }
+            return;
+        }
+
         final InetAddress ipAddress;
         if (options.has("peer")) {
             String peerFlag = (String) options.valueOf("peer");
@@ -144,6 +168,8 @@ public class BuildCheckpoints {
         // Write checkpoint data out.
         writeBinaryCheckpoints(checkpoints, plainFile);
         writeTextualCheckpoints(checkpoints, textFile);
+        if (options.has(headersFlag))
+            writeSnapshot(store, timeAgo, headersFlag.value(options), snapshotFile);
 
         peerGroup.stop();
         store.close();
@@ -192,6 +218,30 @@ public class BuildCheckpoints {
         System.out.println("Checkpoints written to '" + file.getCanonicalPath() + "'.");
     }
 
+    private static void writeSnapshot(BlockStore store, long timeAgo, int numHeaders, File file) throws Exception {
+        // The snapshot ends at the last block of the chain that is old enough, like the checkpoints.
+        StoredBlock last = store.getChainHead();
+        while (last != null && last.getHeader().getTimeSeconds() > timeAgo)
+            last = last.getPrev(store);
+        checkState(last != null, "No block in the store is old enough");
+        HeaderSnapshot snapshot = HeaderSnapshot.fromStore(store, last, numHeaders);
+        FileOutputStream fileOutputStream = new FileOutputStream(file, false);
+        try {
+            snapshot.write(fileOutputStream);
+        } finally {
+            fileOutputStream.close();
+        }
+        System.out.println(String.format("Snapshot of %d headers from height %d to %d, hash is %s",
+                snapshot.size(), snapshot.getFirst().getHeight(), snapshot.getLast().getHeight(),
+                snapshot.getDataHash()));
+        System.out.println("Snapshot written to '" + file.getCanonicalPath() + "'.");
+
+        // Sanity check the created file.
+        FileInputStream fis = new FileInputStream(file);
+        HeaderSnapshot read = HeaderSnapshot.read(params, fis, snapshot.getDataHash());
+        checkState(read.size() == snapshot.size());
+    }
+
     private static void sanityCheck(File file, int expectedSize) throws IOException {
         FileInputStream fis = new FileInputStream(file);
         CheckpointManager manager;